@@ -11,4 +11,12 @@ repositories {
 
 dependencies {
     implementation("org.ejml:ejml-simple:0.44.0")
-}
\ No newline at end of file
+
+    testImplementation(platform("org.junit:junit-bom:5.10.2"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+tasks.test {
+    useJUnitPlatform()
+}
@@ -0,0 +1,82 @@
+package br.com.usp.ach2016;
+
+import org.ejml.data.DMatrixRMaj;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Bloco de linhas de um lote processado por um worker do ForkJoinPool no treino paralelo da MLP.
+ * Cada bloco escreve as ativações e deltas apenas na sua faixa de linhas dos buffers compartilhados da rede
+ * (faixas disjuntas, sem concorrência) e acumula os gradientes parciais nos seus próprios buffers,
+ * que depois são somados pela MLP em ordem fixa de bloco.
+ * A tarefa é reaproveitada entre lotes via reinitialize(), sem alocações por época.
+ * <p>
+ * Todas as redes usam um único ForkJoinPool, criado no primeiro treino paralelo e mantido até o fim da JVM
+ * (threads daemon): treinos repetidos (busca de hiperparâmetros, k-fold) não criam nem encerram threads.
+ * O resultado depende só do número de blocos, não de quantos workers o pool tem.
+ */
+final class BlocoTreino extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L; // Não é serializado (RecursiveAction é Serializable)
+
+    enum Fase { FORWARD, BACKWARD }
+
+    private final MLP mlp;
+
+    // Faixa de posições do lote atribuída a este bloco: [inicio, fim)
+    int inicio, fim;
+    Fase fase;
+
+    // --- Gradientes parciais do bloco (somas, sem a divisão pelo tamanho do lote) ---
+    final DMatrixRMaj gradW1, gradB1, gradW2, gradB2;
+
+    BlocoTreino(MLP mlp) {
+        this.mlp = mlp;
+        this.gradW1 = new DMatrixRMaj(mlp.parametrosRede.tamanhoEntrada(), mlp.parametrosRede.tamanhoCamadaEscondida());
+        this.gradB1 = new DMatrixRMaj(1, mlp.parametrosRede.tamanhoCamadaEscondida());
+        this.gradW2 = new DMatrixRMaj(mlp.parametrosRede.tamanhoCamadaEscondida(), mlp.parametrosRede.tamanhoSaida());
+        this.gradB2 = new DMatrixRMaj(1, mlp.parametrosRede.tamanhoSaida());
+    }
+
+    /**
+     * @return O pool compartilhado do treino paralelo, com um worker por processador.
+     */
+    static ForkJoinPool pool() {
+        return PoolCompartilhado.POOL;
+    }
+
+    @Override
+    protected void compute() {
+        if (fase == Fase.FORWARD) {
+            mlp.forwardLinhas(inicio, fim);
+        } else {
+            mlp.backwardLinhas(inicio, fim, gradW1, gradB1, gradW2, gradB2);
+        }
+    }
+
+    /**
+     * Tarefa raiz que dispara todos os blocos no pool e espera o término de todos.
+     */
+    static final class Coordenador extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BlocoTreino[] blocos;
+
+        Coordenador(BlocoTreino[] blocos) {
+            this.blocos = blocos;
+        }
+
+        @Override
+        protected void compute() {
+            invokeAll(blocos);
+        }
+    }
+
+    /**
+     * Criação preguiçosa do pool (só quando alguma rede treina em paralelo).
+     */
+    private static final class PoolCompartilhado {
+        static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+}
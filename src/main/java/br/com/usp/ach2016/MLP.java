@@ -1,23 +1,41 @@
 package br.com.usp.ach2016;
 
 import static br.com.usp.ach2016.utils.IOUtils.*;
+import static br.com.usp.ach2016.utils.MetricsUtils.bytesAlocadosThreadAtual;
 
+import br.com.usp.ach2016.model.CheckpointTreino;
+import br.com.usp.ach2016.model.DatasetCompacto;
+import br.com.usp.ach2016.model.DatasetEmFluxo;
+import br.com.usp.ach2016.model.EntradaBinaria;
 import br.com.usp.ach2016.model.ParametrosRede;
 import br.com.usp.ach2016.model.ParametrosTreinamento;
+import br.com.usp.ach2016.model.Precisao;
+import br.com.usp.ach2016.model.VisaoDataset;
+import br.com.usp.ach2016.utils.CheckpointUtils;
 import org.ejml.simple.SimpleMatrix;
 import org.ejml.data.DMatrixRMaj;
 import org.ejml.dense.row.CommonOps_DDRM;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
 
 /**
  * Implementa uma Rede Neural Artificial Multilayer Perceptron (MLP)
  * com uma camada escondida.
- * Treinada com o algoritmo Backpropagation usando Gradiente Descendente em Lote (Batch Gradient Descent).
+ * Treinada com o algoritmo Backpropagation usando Gradiente Descendente em Lote (Batch Gradient Descent)
+ * ou, opcionalmente, Gradiente Descendente Estocástico em mini-lotes.
  * Utiliza a biblioteca EJML para operações de matrizes.
  */
 public class MLP {
 
+    // Versão do motor de treino: incrementar a cada mudança que altere os resultados numéricos do treino
+    // (invalida as entradas do cache de resultados calculadas pela versão anterior)
+    public static final int VERSAO_MOTOR = 2;
+
     public final ParametrosRede parametrosRede;
 
     // --- Atributos de Inicialização e Treinamento ---
@@ -30,7 +48,8 @@ public class MLP {
     public SimpleMatrix W1, b1, W2, b2;
 
     // Melhores pesos encontrados durante o treino com validação
-    private SimpleMatrix melhorW1, melhorB1, melhorW2, melhorB2;
+    // Buffers de pesos da validação assíncrona (melhores pesos + instantâneos), criados no primeiro treino com validação
+    private ValidadorAssincrono.InstantaneoPesos[] buffersValidacao;
     public double melhorErroValidacao = Double.MAX_VALUE;
     public int epocaMelhorErro = 0;
 
@@ -38,13 +57,64 @@ public class MLP {
     public SimpleMatrix pesosIniciaisW1, biasInicialB1, pesosIniciaisW2, biasInicialB2;
 
     // --- Gradientes (calculados durante o backpropagation) ---
-    private SimpleMatrix gradW1, gradB1, gradW2, gradB2; // Derivadas parciais do Erro em relação aos pesos/biases
+    // Derivadas parciais do Erro em relação aos pesos/biases. Mesmas shapes de W1, b1, W2, b2; alocados uma única vez.
+    private final DMatrixRMaj gradW1, gradB1, gradW2, gradB2;
+    private boolean gradientesCalculados = false; // Indica se backward() já preencheu os gradientes
 
     // --- Atributos para Armazenar Valores Intermediários (passo forward/backward) ---
-    // Guardam os resultados da última execução do passo forward para serem usados no backward
-    private SimpleMatrix ultimaEntradaX; // Entrada X do último passo forward
-    private SimpleMatrix z1, a1;         // z1: Soma ponderada + bias da camada escondida; a1: Ativação da camada escondida (pós-sigmoid)
-    private SimpleMatrix z2, saidaRede;  // z2: Soma ponderada + bias da camada de saída; saidaRede: Ativação final (pós-sigmoid)
+    // Guardam os resultados da última execução do passo forward para serem usados no backward.
+    // Os buffers são alocados uma única vez e redimensionados com reshape(), que só realoca quando o lote cresce.
+    // z1 e z2 não são guardados separadamente: a soma do bias e a sigmoid são aplicadas in-place sobre o produto.
+    private SimpleMatrix ultimaEntradaX; // Entrada X do último passo forward (null se o lote veio só como entrada binária)
+    // Lote do último passo forward: linhas de ultimaEntradaX usadas, na ordem do lote.
+    // indicesLote == null -> linhas contíguas a partir de inicioLote; caso contrário -> indicesLote[inicioLote .. inicioLote + numAmostrasLote)
+    private int[] indicesLote;
+    private int inicioLote, numAmostrasLote;
+    private final DMatrixRMaj a1;        // a1: Ativação da camada escondida (pós-sigmoid)
+    private final DMatrixRMaj saidaRede; // saidaRede: Ativação final (pós-sigmoid)
+    private final SimpleMatrix saidaRedeVisao; // Visão SimpleMatrix de saidaRede (evita criar um wrapper por época)
+
+    // --- Buffers reutilizáveis do passo backward ---
+    private final DMatrixRMaj deltaSaida;     // dE/dz2. Shape: [numAmostras, tamanhoSaida]
+    private final DMatrixRMaj deltaEscondido; // dE/dz1. Shape: [numAmostras, tamanhoCamadaEscondida]
+    // Cache de X^T: no treino em lote completo a entrada é sempre a mesma matriz, então a transposta é calculada uma vez
+    private final DMatrixRMaj entradaXTransposta;
+    private SimpleMatrix origemEntradaXTransposta; // Matriz de onde entradaXTransposta foi calculada (null = cache inválido)
+
+    // --- Entrada Binária (pixels 0/1) ---
+    // Representações esparsas das entradas de treino/validação, criadas em treinar() quando X é binária.
+    // Com elas, X @ W1 é a soma das linhas de W1 dos pixels ativos e gradW1 só é acumulado nessas linhas.
+    private final SimpleMatrix[] origensEntradaBinaria = new SimpleMatrix[2];
+    private final EntradaBinaria[] entradasBinarias = new EntradaBinaria[2];
+    private EntradaBinaria entradaBinariaAtual; // Representação binária de ultimaEntradaX (null -> caminho denso)
+
+    // --- Dataset Compacto ---
+    // Buffers densos do lote expandido a partir de um DatasetCompacto (criados no primeiro treino compacto)
+    private EntradaBinaria loteCompactoEntrada;
+    private int[] loteCompactoRotulos;
+    private DatasetCompacto origemLoteCompacto; // Conjunto já montado por inteiro em loteCompactoEntrada (lote completo)
+
+    // --- Precisão Simples (float32) ---
+    // Quando parametrosRede.precisao() == FLOAT, forward/backward/atualização são delegados a este motor,
+    // que mantém os pesos em float; os pesos double (W1, b1, W2, b2) são sincronizados ao fim do treino.
+    private final MotorPrecisaoSimples motorPrecisaoSimples;
+
+    // --- Treino Paralelo (dados divididos em blocos de linhas, um por worker) ---
+    private ForkJoinPool poolParalelo;             // null -> execução sequencial; senão o pool compartilhado (BlocoTreino.pool())
+    private BlocoTreino[] blocosParalelos;         // Um bloco por thread, com gradientes parciais próprios (mantidos entre treinos)
+    private BlocoTreino.Coordenador coordenadorBlocos;
+    private int[] ultimosRotulos;                  // Rótulos do lote usados pelos blocos no backward paralelo
+
+    // Destino das mensagens de progresso do treino (permite bufferizar o log de redes treinadas em paralelo)
+    private PrintStream saidaLog = System.out;
+
+    // --- Marcos de épocas: o observador é chamado ao fim de cada época marco (base 1), na thread de treino ---
+    private int[] marcosEpocas;
+    private IntConsumer observadorMarcos;
+
+    // --- Checkpoint: estado do treino gravado a cada intervaloCheckpoint épocas e retomado no próximo treino ---
+    private Path arquivoCheckpoint; // null -> sem checkpoint
+    private int intervaloCheckpoint;
 
     public List<Double> historicoMediaDeltaW1; // Para a magnitude média das atualizações de W1
     public List<Double> historicoMediaDeltaW2; // Para a magnitude média das atualizações de W2
@@ -56,6 +126,14 @@ public class MLP {
      * @param parametrosRede Objeto contendo os parâmetros da arquitetura da rede.
      */
     public MLP(ParametrosRede parametrosRede) {
+        this(parametrosRede, null);
+    }
+
+    /**
+     * Construtor comum: com origem == null sorteia os pesos iniciais; senão copia os pesos iniciais e atuais
+     * da rede de origem, sem sortear nada (usado por {@link #copiarEstado()}).
+     */
+    private MLP(ParametrosRede parametrosRede, MLP origem) {
         // 1. Define os tamanhos das camadas
         this.parametrosRede = parametrosRede;
 
@@ -68,8 +146,32 @@ public class MLP {
         this.historicoMediaDeltaW1 = new ArrayList<>();
         this.historicoMediaDeltaW2 = new ArrayList<>();
 
-        // 4. Inicializa os pesos e biases
-        inicializarPesosEBias();
+        // 4. Inicializa os pesos e biases (ou copia os da rede de origem)
+        if (origem == null) {
+            inicializarPesosEBias();
+        } else {
+            copiarPesosDe(origem);
+        }
+
+        // 5. Aloca os buffers do passo forward (redimensionados no primeiro lote)
+        this.a1 = new DMatrixRMaj(1, parametrosRede.tamanhoCamadaEscondida());
+        this.saidaRede = new DMatrixRMaj(1, parametrosRede.tamanhoSaida());
+        this.saidaRedeVisao = SimpleMatrix.wrap(this.saidaRede);
+
+        // 6. Aloca os gradientes e os buffers do passo backward
+        this.gradW1 = new DMatrixRMaj(parametrosRede.tamanhoEntrada(), parametrosRede.tamanhoCamadaEscondida());
+        this.gradB1 = new DMatrixRMaj(1, parametrosRede.tamanhoCamadaEscondida());
+        this.gradW2 = new DMatrixRMaj(parametrosRede.tamanhoCamadaEscondida(), parametrosRede.tamanhoSaida());
+        this.gradB2 = new DMatrixRMaj(1, parametrosRede.tamanhoSaida());
+        this.deltaSaida = new DMatrixRMaj(1, parametrosRede.tamanhoSaida());
+        this.deltaEscondido = new DMatrixRMaj(1, parametrosRede.tamanhoCamadaEscondida());
+        this.entradaXTransposta = new DMatrixRMaj(parametrosRede.tamanhoEntrada(), 1);
+
+        // 7. Motor float32, se a rede for configurada em precisão simples
+        this.motorPrecisaoSimples = parametrosRede.precisao() == Precisao.FLOAT ? new MotorPrecisaoSimples(parametrosRede) : null;
+        if (this.motorPrecisaoSimples != null) {
+            this.motorPrecisaoSimples.carregarPesos(this.W1, this.b1, this.W2, this.b2);
+        }
     }
 
     /**
@@ -115,228 +217,687 @@ public class MLP {
     }
 
     /**
-     * Calcula a função de ativação Sigmoid para cada elemento da matriz de entrada.
+     * Copia os pesos/biases atuais e os iniciais da rede de origem (mesma arquitetura).
+     */
+    private void copiarPesosDe(MLP origem) {
+        this.W1 = origem.W1.copy();
+        this.b1 = origem.b1.copy();
+        this.W2 = origem.W2.copy();
+        this.b2 = origem.b2.copy();
+        this.pesosIniciaisW1 = origem.pesosIniciaisW1.copy();
+        this.biasInicialB1 = origem.biasInicialB1.copy();
+        this.pesosIniciaisW2 = origem.pesosIniciaisW2.copy();
+        this.biasInicialB2 = origem.biasInicialB2.copy();
+    }
+
+    /**
+     * Calcula a função de ativação Sigmoid para um único valor.
      * sigmoid(x) = 1 / (1 + exp(-x))
      * Inclui clipping para evitar problemas numéricos com exp().
      *
-     * @param x Matriz de entrada (geralmente a soma ponderada + bias, 'z').
-     * @return Uma nova matriz com a função Sigmoid aplicada a cada elemento.
+     * @param x Valor de entrada (geralmente a soma ponderada + bias, 'z').
+     * @return O valor da Sigmoid em x.
      */
-    private SimpleMatrix sigmoid(SimpleMatrix x) {
-        SimpleMatrix resultado = new SimpleMatrix(x.getNumRows(), x.getNumCols());
-        for (int r = 0; r < x.getNumRows(); r++) {
-            for (int c = 0; c < x.getNumCols(); c++) {
-                double valor = x.get(r, c);
-                // Clipping: limita o valor de entrada para exp() para evitar Infinity ou 0.0
-                valor = Math.max(-500.0, Math.min(500.0, valor));
-                resultado.set(r, c, 1.0 / (1.0 + Math.exp(-valor)));
-            }
-        }
-        return resultado;
+    private static double sigmoid(double x) {
+        // Clipping: limita o valor de entrada para exp() para evitar Infinity ou 0.0
+        double valor = Math.max(-500.0, Math.min(500.0, x));
+        return 1.0 / (1.0 + Math.exp(-valor));
     }
 
     /**
-     * Calcula a derivada da função Sigmoid.
-     * A derivada de sigmoid(z) é sigmoid(z) * (1 - sigmoid(z)).
-     * Este método recebe a *saída* da sigmoid (a = sigmoid(z)) e calcula a * (1 - a).
+     * Soma o vetor de bias a cada linha da matriz e aplica a Sigmoid, tudo in-place e em um único laço.
+     * Equivale a 'z = z + bias' seguido de 'a = sigmoid(z)', sem extrair linhas nem criar matrizes temporárias.
      *
-     * @param ativacao A matriz de ativação (o resultado da aplicação da sigmoid).
-     * @return Uma nova matriz contendo a derivada da sigmoid calculada para cada elemento.
+     * @param z    Matriz com as somas ponderadas (X @ W). É sobrescrita com as ativações. Shape: [numAmostras, numNeuronios].
+     * @param bias Vetor linha de bias. Shape: [1, numNeuronios].
      */
-    private SimpleMatrix derivadaSigmoid(SimpleMatrix ativacao) {
-        // Cria uma matriz de 'uns' com as mesmas dimensões da ativação
-        SimpleMatrix uns = new SimpleMatrix(ativacao.getNumRows(), ativacao.getNumCols());
-        uns.fill(1.0);
-        // Calcula 'ativacao * (1 - ativacao)' elemento a elemento
-        // uns.minus(ativacao) -> (1 - ativacao)
-        // ativacao.elementMult(...) -> multiplica elemento a elemento
-        return ativacao.elementMult(uns.minus(ativacao));
+    static void somarBiasEAplicarSigmoid(DMatrixRMaj z, DMatrixRMaj bias) {
+        final double[] dados = z.data;
+        final double[] dadosBias = bias.data;
+        final int numCols = z.numCols;
+        int indice = 0;
+        for (int r = 0; r < z.numRows; r++) {
+            for (int c = 0; c < numCols; c++, indice++) {
+                dados[indice] = sigmoid(dados[indice] + dadosBias[c]);
+            }
+        }
     }
 
     /**
      * Executa o passo de propagação direta (forward pass) da rede neural.
      * Calcula as ativações das camadas escondida e de saída para um lote de entradas.
-     * Armazena os resultados intermediários (z1, a1, z2, saidaRede) para uso no backpropagation.
+     * Armazena os resultados intermediários (a1, saidaRede) para uso no backpropagation.
+     * Não aloca memória depois que os buffers já comportam o tamanho do lote.
      *
      * @param loteEntradaX Matriz contendo as amostras de entrada (uma amostra por linha). Shape: [numAmostras, tamanhoEntrada].
      * @return A matriz de saída da rede (ativação da última camada). Shape: [numAmostras, tamanhoSaida].
+     *         É uma visão do buffer interno: será sobrescrita pela próxima chamada de forward (use copy() para guardar).
      */
     public SimpleMatrix forward(SimpleMatrix loteEntradaX) {
         // Armazena a entrada atual para ser usada no cálculo dos gradientes no backpropagation
         this.ultimaEntradaX = loteEntradaX;
+        this.indicesLote = null;
+        this.inicioLote = 0;
+        this.numAmostrasLote = loteEntradaX.getNumRows();
+        this.entradaBinariaAtual = obterEntradaBinaria(loteEntradaX);
+        return forwardLoteAtual(loteEntradaX);
+    }
+
+    /**
+     * Executa o passo forward para um lote dado só pelos pixels ativos (ex.: lote de um DatasetCompacto),
+     * sem matriz densa de entrada: X @ W1 e o gradiente de W1 seguem o caminho esparso.
+     *
+     * @param loteEntrada Entrada binária do lote (uma linha por amostra).
+     * @return A matriz de saída da rede, com as mesmas regras de forward(SimpleMatrix).
+     */
+    private SimpleMatrix forward(EntradaBinaria loteEntrada) {
+        this.ultimaEntradaX = null;
+        this.indicesLote = null;
+        this.inicioLote = 0;
+        this.numAmostrasLote = loteEntrada.numLinhas();
+        this.entradaBinariaAtual = loteEntrada;
+        return forwardLoteAtual(null);
+    }
+
+    /**
+     * Forward das linhas contíguas 0 .. numAmostrasLote - 1 da entrada atual (entradaBinariaAtual, ou a matriz densa
+     * loteEntradaX quando ela é null).
+     */
+    private SimpleMatrix forwardLoteAtual(SimpleMatrix loteEntradaX) {
+        prepararBuffersForward();
+
+        if (this.motorPrecisaoSimples != null) {
+            this.motorPrecisaoSimples.forward(loteEntradaX, null, 0, this.numAmostrasLote, this.entradaBinariaAtual, this.saidaRede);
+            return this.saidaRedeVisao;
+        }
+
+        if (this.poolParalelo != null) {
+            executarBlocos(BlocoTreino.Fase.FORWARD);
+            return this.saidaRedeVisao;
+        }
 
         // --- Camada Escondida ---
-        // 1. Calcular a soma ponderada + bias: z1 = (X @ W1) + b1
-        //    X @ W1 -> multiplicação de matrizes
-        this.z1 = this.ultimaEntradaX.mult(this.W1); // z1 tem shape [numAmostras, tamanhoCamadaEscondida]
+        // 1. Calcular a soma ponderada: X @ W1 (escrita direto no buffer de a1)
+        if (this.entradaBinariaAtual != null) {
+            // Entrada binária: soma das linhas de W1 dos pixels ativos de cada amostra
+            for (int r = 0; r < this.numAmostrasLote; r++) {
+                calcularSomaPonderadaEscondida(r, this.a1.data, r * this.a1.numCols);
+            }
+        } else {
+            CommonOps_DDRM.mult(loteEntradaX.getDDRM(), this.W1.getDDRM(), this.a1);
+        }
+
+        // 2. a 4. Bias + Sigmoid da camada escondida e camada de saída
+        concluirForward();
+        return this.saidaRedeVisao;
+    }
+
+    /**
+     * Executa o passo forward para um mini-lote definido por uma faixa de uma permutação de índices,
+     * lendo as linhas diretamente da matriz de entrada (sem copiá-las para uma matriz do lote).
+     * O lote é lembrado para que `backward` use as mesmas linhas de X e de Y.
+     *
+     * @param entradaX Matriz com todas as amostras de entrada. Shape: [numAmostrasTotal, tamanhoEntrada].
+     * @param indices  Permutação de índices de linhas de entradaX.
+     * @param inicio   Posição inicial (inclusiva) do lote em `indices`.
+     * @param fim      Posição final (exclusiva) do lote em `indices`.
+     * @return A matriz de saída da rede para o lote (visão do buffer interno). Shape: [fim - inicio, tamanhoSaida].
+     */
+    public SimpleMatrix forward(SimpleMatrix entradaX, int[] indices, int inicio, int fim) {
+        this.ultimaEntradaX = entradaX;
+        this.indicesLote = indices;
+        this.inicioLote = inicio;
+        this.numAmostrasLote = fim - inicio;
+        this.entradaBinariaAtual = obterEntradaBinaria(entradaX);
+        prepararBuffersForward();
+
+        if (this.motorPrecisaoSimples != null) {
+            this.motorPrecisaoSimples.forward(entradaX, indices, inicio, fim, this.entradaBinariaAtual, this.saidaRede);
+            return this.saidaRedeVisao;
+        }
 
-        // Adicionar o bias b1 (vetor linha) a cada linha de z1.
-        for (int i = 0; i < this.z1.getNumRows(); i++) {
-            DMatrixRMaj linha_i = CommonOps_DDRM.extractRow(this.z1.getDDRM(), i, null); // Extrai linha i
-            CommonOps_DDRM.add(linha_i, this.b1.getDDRM(), linha_i); // Soma a linha com b1 (elemento a elemento)
-            CommonOps_DDRM.insert(linha_i, this.z1.getDDRM(), i, 0); // Insere a linha modificada de volta em z1
+        if (this.poolParalelo != null) {
+            executarBlocos(BlocoTreino.Fase.FORWARD);
+            return this.saidaRedeVisao;
         }
 
-        // 2. Aplicar a função de ativação: a1 = sigmoid(z1)
-        this.a1 = sigmoid(this.z1); // a1 tem a mesma shape de z1
+        // --- Camada Escondida ---
+        // 1. Calcular a soma ponderada X[lote] @ W1, linha a linha a partir dos índices
+        for (int r = 0; r < this.numAmostrasLote; r++) {
+            calcularSomaPonderadaEscondida(r, this.a1.data, r * this.a1.numCols);
+        }
+
+        // 2. a 4. Bias + Sigmoid da camada escondida e camada de saída
+        concluirForward();
+        return this.saidaRedeVisao;
+    }
+
+    /**
+     * Ajusta os buffers do forward ao tamanho do lote atual (reshape não realoca se a capacidade já é suficiente).
+     */
+    private void prepararBuffersForward() {
+        this.a1.reshape(this.numAmostrasLote, this.parametrosRede.tamanhoCamadaEscondida());
+        this.saidaRede.reshape(this.numAmostrasLote, this.parametrosRede.tamanhoSaida());
+    }
+
+    /**
+     * Finaliza o passo forward a partir de a1 já contendo X @ W1:
+     * aplica bias + Sigmoid na camada escondida e calcula a camada de saída.
+     */
+    private void concluirForward() {
+        // 2. Somar o bias b1 a cada linha e aplicar a ativação: a1 = sigmoid(X @ W1 + b1)
+        somarBiasEAplicarSigmoid(this.a1, this.b1.getDDRM());
 
         // --- Camada de Saída ---
-        // 3. Calcular a soma ponderada + bias: z2 = (a1 @ W2) + b2
-        this.z2 = this.a1.mult(this.W2); // z2 tem shape [numAmostras, tamanhoSaida]
+        // 3. Calcular a soma ponderada: a1 @ W2 (escrita direto no buffer de saída)
+        CommonOps_DDRM.mult(this.a1, this.W2.getDDRM(), this.saidaRede);
+
+        // 4. Somar o bias b2 e aplicar a ativação: saidaRede = sigmoid(a1 @ W2 + b2)
+        somarBiasEAplicarSigmoid(this.saidaRede, this.b2.getDDRM());
+    }
+
+    /**
+     * Converte a posição de uma amostra dentro do lote atual no índice da linha correspondente em X e Y.
+     */
+    private int linhaDoLote(int posicaoNoLote) {
+        return this.indicesLote == null ? this.inicioLote + posicaoNoLote : this.indicesLote[this.inicioLote + posicaoNoLote];
+    }
 
-        // Adicionar o bias b2
-        for (int i = 0; i < this.z2.getNumRows(); i++) {
-            DMatrixRMaj linha_i = CommonOps_DDRM.extractRow(this.z2.getDDRM(), i, null);
-            CommonOps_DDRM.add(linha_i, this.b2.getDDRM(), linha_i);
-            CommonOps_DDRM.insert(linha_i, this.z2.getDDRM(), i, 0);
+    /**
+     * Calcula a soma ponderada da camada escondida (X[linha] @ W1, sem bias) para a amostra na posição
+     * `posicaoNoLote` do lote atual, escrevendo em z1[inicioLinhaZ .. inicioLinhaZ + tamanhoCamadaEscondida).
+     * Com entrada binária, soma apenas as linhas de W1 dos pixels ativos (nenhuma multiplicação).
+     */
+    private void calcularSomaPonderadaEscondida(int posicaoNoLote, double[] z1, int inicioLinhaZ) {
+        final int linha = linhaDoLote(posicaoNoLote);
+        final double[] w1 = this.W1.getDDRM().data;
+        final int tamanhoEntrada = this.parametrosRede.tamanhoEntrada();
+        final int tamanhoEscondida = this.parametrosRede.tamanhoCamadaEscondida();
+        Arrays.fill(z1, inicioLinhaZ, inicioLinhaZ + tamanhoEscondida, 0.0);
+
+        if (this.entradaBinariaAtual != null) {
+            final int[] colunasAtivas = this.entradaBinariaAtual.colunasAtivas();
+            final int fimAtivos = this.entradaBinariaAtual.inicioLinhas()[linha + 1];
+            for (int p = this.entradaBinariaAtual.inicioLinhas()[linha]; p < fimAtivos; p++) {
+                int inicioLinhaW = colunasAtivas[p] * tamanhoEscondida;
+                for (int j = 0; j < tamanhoEscondida; j++) {
+                    z1[inicioLinhaZ + j] += w1[inicioLinhaW + j];
+                }
+            }
+            return;
         }
 
-        // 4. Aplicar a função de ativação: saidaRede = sigmoid(z2)
-        this.saidaRede = sigmoid(this.z2); // saidaRede tem a mesma shape de z2
+        final double[] x = this.ultimaEntradaX.getDDRM().data;
+        final int inicioLinhaX = linha * tamanhoEntrada;
+        for (int k = 0; k < tamanhoEntrada; k++) {
+            double valorEntrada = x[inicioLinhaX + k];
+            int inicioLinhaW = k * tamanhoEscondida;
+            for (int j = 0; j < tamanhoEscondida; j++) {
+                z1[inicioLinhaZ + j] += valorEntrada * w1[inicioLinhaW + j];
+            }
+        }
+    }
 
-        return this.saidaRede;
+    /**
+     * Acumula em grad (shape de W1) o produto externo X[linha]^T @ delta[inicioLinhaDelta ..] da amostra na posição
+     * `posicaoNoLote` do lote atual. Com entrada binária, só as linhas de grad dos pixels ativos recebem delta.
+     */
+    private void acumularGradienteW1Linha(int posicaoNoLote, double[] delta, int inicioLinhaDelta, double[] grad) {
+        final int linha = linhaDoLote(posicaoNoLote);
+        final int tamanhoEntrada = this.parametrosRede.tamanhoEntrada();
+        final int tamanhoEscondida = this.parametrosRede.tamanhoCamadaEscondida();
+
+        if (this.entradaBinariaAtual != null) {
+            final int[] colunasAtivas = this.entradaBinariaAtual.colunasAtivas();
+            final int fimAtivos = this.entradaBinariaAtual.inicioLinhas()[linha + 1];
+            for (int p = this.entradaBinariaAtual.inicioLinhas()[linha]; p < fimAtivos; p++) {
+                int inicioLinhaGrad = colunasAtivas[p] * tamanhoEscondida;
+                for (int j = 0; j < tamanhoEscondida; j++) {
+                    grad[inicioLinhaGrad + j] += delta[inicioLinhaDelta + j];
+                }
+            }
+            return;
+        }
+
+        final double[] x = this.ultimaEntradaX.getDDRM().data;
+        final int inicioLinhaX = linha * tamanhoEntrada;
+        for (int k = 0; k < tamanhoEntrada; k++) {
+            double valorEntrada = x[inicioLinhaX + k];
+            int inicioLinhaGrad = k * tamanhoEscondida;
+            for (int j = 0; j < tamanhoEscondida; j++) {
+                grad[inicioLinhaGrad + j] += valorEntrada * delta[inicioLinhaDelta + j];
+            }
+        }
     }
 
     /**
-     * Calcula o Erro Quadrático Médio (Mean Squared Error - MSE) entre os rótulos verdadeiros e as previsões da rede.
-     * MSE = (1 / numAmostras) * 0.5 * sum( (yVerdadeiro_ij - yPrevisto_ij)^2 )
-     *
-     * @param yVerdadeiro Matriz com os rótulos verdadeiros (geralmente one-hot).
-     * @param yPrevisto   Matriz com as previsões (saídas) da rede.
-     * @return O valor do erro quadrático médio para o lote.
-     * @throws IllegalArgumentException Se as dimensões de yVerdadeiro e yPrevisto não forem iguais.
+     * Retorna a representação binária já construída para a matriz informada, ou null se ela não for binária
+     * (ou não tiver sido preparada em treinar()).
      */
-    private double erroQuadraticoMedio(SimpleMatrix yVerdadeiro, SimpleMatrix yPrevisto) {
-        if (yVerdadeiro.getNumRows() != yPrevisto.getNumRows() || yVerdadeiro.getNumCols() != yPrevisto.getNumCols()) {
-            throw new IllegalArgumentException("Matrizes yVerdadeiro e yPrevisto devem ter as mesmas dimensões para calcular o MSE.");
+    private EntradaBinaria obterEntradaBinaria(SimpleMatrix x) {
+        for (int i = 0; i < this.origensEntradaBinaria.length; i++) {
+            if (this.origensEntradaBinaria[i] == x) {
+                return this.entradasBinarias[i];
+            }
         }
+        return null;
+    }
 
-        // Calcula a diferença (erro) elemento a elemento: erro = yVerdadeiro - yPrevisto
-        SimpleMatrix matrizErro = yVerdadeiro.minus(yPrevisto);
+    /**
+     * Prepara as representações binárias das entradas de treino e validação (quando os valores são todos 0/1).
+     */
+    private void prepararEntradasBinarias(SimpleMatrix xTreino, SimpleMatrix xValidacao) {
+        Arrays.fill(this.origensEntradaBinaria, null);
+        Arrays.fill(this.entradasBinarias, null);
+        SimpleMatrix[] entradas = {xTreino, xValidacao};
+        for (int i = 0; i < entradas.length; i++) {
+            if (entradas[i] != null) {
+                this.origensEntradaBinaria[i] = entradas[i];
+                this.entradasBinarias[i] = EntradaBinaria.deMatriz(entradas[i]);
+            }
+        }
+        if (this.entradasBinarias[0] != null) {
+            this.saidaLog.println("Entrada binaria detectada: usando caminho esparso (pixels ativos) em X @ W1 e no gradiente de W1.");
+        }
+    }
 
-        // Eleva cada elemento do erro ao quadrado
-        SimpleMatrix matrizErroQuadrado = matrizErro.elementPower(2.0);
+    /**
+     * Verifica se o vetor de rótulos é compatível com o lote processado pelo último forward.
+     *
+     * @throws IllegalArgumentException Se os tamanhos não forem compatíveis.
+     */
+    private void validarRotulosDoLote(int[] rotulos, String mensagemErro) {
+        boolean linhasCompativeis = this.indicesLote == null
+                ? rotulos.length >= this.inicioLote + this.numAmostrasLote
+                : rotulos.length == this.ultimaEntradaX.getNumRows();
+        if (!linhasCompativeis) {
+            throw new IllegalArgumentException(mensagemErro);
+        }
+    }
 
-        // Soma todos os elementos da matriz de erros quadrados
-        double somaErrosQuadrados = matrizErroQuadrado.elementSum();
+    /**
+     * Verifica, uma vez por treino, se os rótulos cobrem as amostras e são índices de classe válidos
+     * (os passos de erro e backward leem o índice sem checá-lo).
+     *
+     * @throws IllegalArgumentException Se o tamanho ou algum índice for inválido.
+     */
+    private void validarRotulos(int[] rotulos, int numAmostras, String nomeConjunto) {
+        if (rotulos.length != numAmostras) {
+            throw new IllegalArgumentException("Rótulos de " + nomeConjunto + " (" + rotulos.length +
+                    ") não correspondem ao número de amostras (" + numAmostras + ").");
+        }
+        for (int i = 0; i < rotulos.length; i++) {
+            if (rotulos[i] < 0 || rotulos[i] >= this.parametrosRede.tamanhoSaida()) {
+                throw new IllegalArgumentException("Rótulo inválido " + rotulos[i] + " na amostra " + i + " de " + nomeConjunto +
+                        " (esperado 0 .. " + (this.parametrosRede.tamanhoSaida() - 1) + ").");
+            }
+        }
+    }
+
+    /**
+     * Calcula o Erro Quadrático Médio (Mean Squared Error - MSE) entre os rótulos verdadeiros e as previsões
+     * da rede para o lote processado pelo último forward.
+     * MSE = (1 / numAmostras) * 0.5 * sum( (yVerdadeiro_ij - yPrevisto_ij)^2 ), com yVerdadeiro one-hot implícito:
+     * o alvo é 1.0 na coluna da classe verdadeira e 0.0 nas demais.
+     *
+     * @param rotulos Índices das classes verdadeiras, indexados da mesma forma que a entrada do forward.
+     * @return O valor do erro quadrático médio para o lote.
+     * @throws IllegalArgumentException Se o tamanho de rotulos não for compatível com o lote.
+     */
+    private double erroQuadraticoMedio(int[] rotulos) {
+        validarRotulosDoLote(rotulos, "Número de rótulos incompatível com o lote para calcular o MSE.");
+
+        // Soma os quadrados das diferenças elemento a elemento, sem criar matrizes intermediárias
+        final double[] dadosPrevisto = this.saidaRede.data;
+        final int numCols = this.saidaRede.numCols;
+        double somaErrosQuadrados = 0;
+        for (int r = 0; r < this.numAmostrasLote; r++) {
+            somaErrosQuadrados = somaErrosQuadradosLinha(somaErrosQuadrados, dadosPrevisto, r * numCols, numCols, rotulos[linhaDoLote(r)]);
+        }
 
         // Calcula a média: (0.5 * soma_total) / numero_de_amostras
         // A divisão pelo número de amostras faz a média do erro por amostra no lote.
-        return (0.5 * somaErrosQuadrados) / yVerdadeiro.getNumRows();
+        return (0.5 * somaErrosQuadrados) / this.numAmostrasLote;
+    }
+
+    /**
+     * Acumula em `soma` os termos (yVerdadeiro_c - yPrevisto_c)^2 de uma linha de saída, com alvo 1.0 na coluna
+     * `classe` e 0.0 nas demais (a soma é continuada termo a termo, na mesma ordem de um único laço sobre o lote).
+     */
+    static double somaErrosQuadradosLinha(double soma, double[] saida, int inicioLinha, int numCols, int classe) {
+        for (int c = 0; c < numCols; c++) {
+            double erro = (c == classe ? 1.0 : 0.0) - saida[inicioLinha + c];
+            soma += erro * erro;
+        }
+        return soma;
     }
 
     /**
      * Executa o passo de backpropagation para calcular os gradientes
      * do erro em relação a todos os pesos e biases da rede.
      * Utiliza os valores intermediários armazenados pelo último passo `forward`.
-     * Os gradientes calculados são armazenados nos atributos `gradW1`, `gradB1`, `gradW2`, `gradB2`.
+     * Os gradientes calculados são armazenados nos atributos `gradW1`, `gradB1`, `gradW2`, `gradB2`,
+     * reaproveitando os mesmos buffers a cada chamada (sem alocações após o primeiro lote).
      *
-     * @param yVerdadeiro Matriz com os rótulos verdadeiros correspondentes à última entrada processada por `forward`.
-     * @throws IllegalArgumentException Se as dimensões de yVerdadeiro não baterem com a saída da rede.
+     * @param rotulos Índices das classes verdadeiras correspondentes à última entrada processada por `forward`.
+     * @throws IllegalArgumentException Se o tamanho de rotulos não bater com o lote da rede.
      */
-    public void backward(SimpleMatrix yVerdadeiro) {
-        // Validação das dimensões
-        if (yVerdadeiro.getNumRows() != this.saidaRede.getNumRows() || yVerdadeiro.getNumCols() != this.saidaRede.getNumCols()) {
-            throw new IllegalArgumentException("Dimensões de yVerdadeiro incompatíveis com a saída da rede no passo backward.");
+    public void backward(int[] rotulos) {
+        // Validação do tamanho
+        validarRotulosDoLote(rotulos, "Número de rótulos incompatível com o lote no passo backward.");
+
+        int numAmostras = this.numAmostrasLote; // Número de amostras no lote processado
+        this.deltaSaida.reshape(numAmostras, this.parametrosRede.tamanhoSaida());
+        this.deltaEscondido.reshape(numAmostras, this.parametrosRede.tamanhoCamadaEscondida());
+
+        if (this.motorPrecisaoSimples != null) {
+            this.motorPrecisaoSimples.backward(rotulos);
+            this.gradientesCalculados = true;
+            return;
+        }
+        if (this.poolParalelo != null) {
+            backwardParalelo(rotulos);
+            return;
         }
-
-        int numAmostras = this.ultimaEntradaX.getNumRows(); // Número de amostras no lote processado
 
         // --- Etapa 1: Calcular Gradientes para a Camada de Saída (W2, b2) ---
 
-        // Erro na saída (diferença entre previsão e valor real)
-        // Para a derivada da função de custo MSE (0.5 * (y_true - y_pred)^2), a derivada em relação a y_pred é -(y_true - y_pred) = y_pred - y_true
-        // dE/da2 (derivada parcial do Erro Total E em relação à ativação da saída a2)
-        SimpleMatrix erroSaida = this.saidaRede.minus(yVerdadeiro);
+        // Delta da camada de saída: delta_output = dE/da2 * da2/dz2 = (a2 - y) * a2 * (1 - a2)
+        // Para a derivada da função de custo MSE (0.5 * (y_true - y_pred)^2), a derivada em relação a y_pred é y_pred - y_true.
+        // A derivada da Sigmoid é calculada a partir da própria saída (a2 = saidaRede), no mesmo laço.
+        // Como y é one-hot, (a2 - y) é a própria saída, subtraindo 1 apenas na coluna da classe verdadeira.
+        final double[] saida = this.saidaRede.data;
+        final double[] dadosDeltaSaida = this.deltaSaida.data;
+        final int tamanhoSaida = this.deltaSaida.numCols;
+        for (int r = 0; r < numAmostras; r++) {
+            int inicioLinha = r * tamanhoSaida;
+            for (int c = 0; c < tamanhoSaida; c++) {
+                double a = saida[inicioLinha + c];
+                dadosDeltaSaida[inicioLinha + c] = a * (a * (1.0 - a));
+            }
+            int indiceClasse = inicioLinha + rotulos[linhaDoLote(r)];
+            double a = saida[indiceClasse];
+            dadosDeltaSaida[indiceClasse] = (a - 1.0) * (a * (1.0 - a));
+        }
 
-        // Derivada da função de ativação Sigmoid na saída (calculada em z2, mas usando a2 = saidaRede)
-        // da2/dz2 = a2 * (1 - a2)
-        SimpleMatrix derivadaSigmoidSaida = derivadaSigmoid(this.saidaRede);
+        // Gradiente para os pesos W2: dE/dW2 = (a1^T @ delta_output) / numAmostras
+        // multTransA calcula a1^T @ delta sem montar a transposta de a1.
+        CommonOps_DDRM.multTransA(this.a1, this.deltaSaida, this.gradW2);
+        CommonOps_DDRM.divide(this.gradW2, numAmostras);
 
-        // Delta da camada de saída (delta_k ou delta_output)
-        // delta_output = (erro na saída) * (derivada da ativação na saída) --- multiplicação elemento a elemento
-        // delta_output = dE/da2 * da2/dz2 = dE/dz2
-        SimpleMatrix deltaSaida = erroSaida.elementMult(derivadaSigmoidSaida); // Shape: [numAmostras, tamanhoSaida]
+        // Gradiente para o bias b2: dE/db2 = sum(delta_output, axis=0) / numAmostras
+        somarColunas(this.deltaSaida, this.gradB2);
+        CommonOps_DDRM.divide(this.gradB2, numAmostras);
 
-        // Gradiente para os pesos W2 (dE/dW2)
-        // dE/dW2 = (a1^T @ delta_output) / numAmostras (média sobre o lote)
-        // Onde a1 é a ativação da camada escondida (armazenada em this.a1)
-        // a1^T tem shape [tamanhoCamadaEscondida, numAmostras]
-        // delta_output tem shape [numAmostras, tamanhoSaida]
-        // O resultado dW2 tem shape [tamanhoCamadaEscondida, tamanhoSaida], igual a W2.
-        this.gradW2 = this.a1.transpose().mult(deltaSaida).divide(numAmostras);
+        // --- Etapa 2: Calcular Gradientes para a Camada Escondida (W1, b1) ---
 
-        // Gradiente para o bias b2 (dE/db2)
-        // dE/db2 = sum(delta_output, axis=0) / numAmostras (soma os deltas ao longo das amostras para cada neurônio de saída)
-        // O resultado db2 é um vetor linha [1, tamanhoSaida], igual a b2.
-        this.gradB2 = new SimpleMatrix(1, this.parametrosRede.tamanhoSaida());
-        for (int j = 0; j < deltaSaida.getNumCols(); j++) { // Itera sobre neurônios de saída
-            double somaColuna = 0;
-            for (int i = 0; i < deltaSaida.getNumRows(); i++) { // Itera sobre amostras
-                somaColuna += deltaSaida.get(i, j);
+        // Propagar o delta da saída para a camada escondida: dE/da1 = delta_output @ W2^T
+        // multTransB calcula o produto sem montar a transposta de W2.
+        CommonOps_DDRM.multTransB(this.deltaSaida, this.W2.getDDRM(), this.deltaEscondido);
+
+        // Delta da camada escondida: delta_hidden = dE/da1 * a1 * (1 - a1) (in-place)
+        final double[] ativacaoEscondida = this.a1.data;
+        final double[] dadosDeltaEscondido = this.deltaEscondido.data;
+        final int numElementosEscondida = this.deltaEscondido.getNumElements();
+        for (int i = 0; i < numElementosEscondida; i++) {
+            double a = ativacaoEscondida[i];
+            dadosDeltaEscondido[i] = dadosDeltaEscondido[i] * (a * (1.0 - a));
+        }
+
+        // Gradiente para os pesos W1: dE/dW1 = (X^T @ delta_hidden) / numAmostras
+        if (this.entradaBinariaAtual == null && this.indicesLote == null && this.inicioLote == 0
+                && numAmostras == this.ultimaEntradaX.getNumRows()) {
+            // Lote completo: X^T vem do cache, recalculado apenas quando a entrada muda.
+            CommonOps_DDRM.mult(obterEntradaXTransposta(), this.deltaEscondido, this.gradW1);
+        } else {
+            // Mini-lote ou entrada binária: acumula X[lote]^T @ delta_hidden linha a linha
+            acumularGradienteW1DoLote();
+        }
+        CommonOps_DDRM.divide(this.gradW1, numAmostras);
+
+        // Gradiente para o bias b1: dE/db1 = sum(delta_hidden, axis=0) / numAmostras
+        somarColunas(this.deltaEscondido, this.gradB1);
+        CommonOps_DDRM.divide(this.gradB1, numAmostras);
+
+        this.gradientesCalculados = true;
+    }
+
+    /**
+     * Habilita (numThreads > 1) ou desabilita o processamento paralelo de forward/backward.
+     * Com o paralelismo ativo, cada lote é dividido em numThreads blocos contíguos de linhas, processados
+     * em um ForkJoinPool; os gradientes parciais são somados sempre na mesma ordem de bloco,
+     * de modo que o resultado é idêntico bit a bit entre execuções com o mesmo número de threads.
+     * Os blocos rodam no pool compartilhado por todas as redes ({@link BlocoTreino#pool()}) e são mantidos
+     * entre treinos com o mesmo número de threads (sem criar threads nem buffers a cada treinar()).
+     *
+     * @param numThreads Número de blocos por lote (0 ou 1 = sequencial).
+     */
+    public void configurarParalelismo(int numThreads) {
+        this.poolParalelo = null;
+        if (numThreads <= 1) {
+            return;
+        }
+        if (this.motorPrecisaoSimples != null) {
+            this.saidaLog.println("Aviso: treino paralelo nao disponivel em precisao FLOAT. Executando sequencialmente.");
+            return;
+        }
+        if (this.blocosParalelos == null || this.blocosParalelos.length != numThreads) {
+            this.blocosParalelos = new BlocoTreino[numThreads];
+            for (int b = 0; b < numThreads; b++) {
+                this.blocosParalelos[b] = new BlocoTreino(this);
             }
-            this.gradB2.set(0, j, somaColuna / numAmostras); // Média do gradiente do bias
+            this.coordenadorBlocos = new BlocoTreino.Coordenador(this.blocosParalelos);
         }
+        this.poolParalelo = BlocoTreino.pool();
+    }
 
+    /**
+     * Volta à execução sequencial. O pool compartilhado continua ativo para as demais redes.
+     */
+    public void encerrarParalelismo() {
+        this.poolParalelo = null;
+    }
 
-        // --- Etapa 2: Calcular Gradientes para a Camada Escondida (W1, b1) ---
+    /**
+     * Divide o lote atual em blocos contíguos de linhas (um por worker) e executa a fase pedida em paralelo.
+     * A divisão depende apenas do tamanho do lote e do número de blocos, portanto é determinística.
+     */
+    private void executarBlocos(BlocoTreino.Fase fase) {
+        int numBlocos = this.blocosParalelos.length;
+        for (int b = 0; b < numBlocos; b++) {
+            BlocoTreino bloco = this.blocosParalelos[b];
+            bloco.reinitialize();
+            bloco.fase = fase;
+            bloco.inicio = (int) ((long) this.numAmostrasLote * b / numBlocos);
+            bloco.fim = (int) ((long) this.numAmostrasLote * (b + 1) / numBlocos);
+        }
+        this.coordenadorBlocos.reinitialize();
+        this.poolParalelo.invoke(this.coordenadorBlocos);
+    }
 
-        // Propagar o delta da saída para a camada escondida
-        // erro_escondido = delta_output @ W2^T
-        // dE/da1 = dE/dz2 * dz2/da1
-        // dz2/da1 é W2, então dE/da1 = delta_output @ W2.T
-        // hiddenError tem shape [numAmostras, tamanhoCamadaEscondida]
-        SimpleMatrix erroCamadaEscondida = deltaSaida.mult(this.W2.transpose());
+    /**
+     * Passo forward para as posições [inicio, fim) do lote atual, escrevendo apenas as linhas correspondentes
+     * de a1 e saidaRede. Usado pelos blocos do treino paralelo (faixas disjuntas podem rodar ao mesmo tempo).
+     */
+    void forwardLinhas(int inicio, int fim) {
+        final double[] bias1 = this.b1.getDDRM().data;
+        final double[] w2 = this.W2.getDDRM().data;
+        final double[] bias2 = this.b2.getDDRM().data;
+        final double[] ativacaoEscondida = this.a1.data;
+        final double[] saida = this.saidaRede.data;
+        final int tamanhoEscondida = this.parametrosRede.tamanhoCamadaEscondida();
+        final int tamanhoSaida = this.parametrosRede.tamanhoSaida();
+
+        for (int r = inicio; r < fim; r++) {
+            // Camada escondida: a1[r] = sigmoid(X[linha] @ W1 + b1)
+            int inicioLinhaA1 = r * tamanhoEscondida;
+            calcularSomaPonderadaEscondida(r, ativacaoEscondida, inicioLinhaA1);
+            for (int j = 0; j < tamanhoEscondida; j++) {
+                ativacaoEscondida[inicioLinhaA1 + j] = sigmoid(ativacaoEscondida[inicioLinhaA1 + j] + bias1[j]);
+            }
 
-        // Derivada da função de ativação Sigmoid na camada escondida (calculada em z1, usando a1)
-        // da1/dz1 = a1 * (1 - a1)
-        SimpleMatrix derivadaSigmoidEscondida = derivadaSigmoid(this.a1);
+            // Camada de saída: saida[r] = sigmoid(a1[r] @ W2 + b2)
+            int inicioLinhaSaida = r * tamanhoSaida;
+            Arrays.fill(saida, inicioLinhaSaida, inicioLinhaSaida + tamanhoSaida, 0.0);
+            for (int j = 0; j < tamanhoEscondida; j++) {
+                double ativacao = ativacaoEscondida[inicioLinhaA1 + j];
+                int inicioLinhaW = j * tamanhoSaida;
+                for (int c = 0; c < tamanhoSaida; c++) {
+                    saida[inicioLinhaSaida + c] += ativacao * w2[inicioLinhaW + c];
+                }
+            }
+            for (int c = 0; c < tamanhoSaida; c++) {
+                saida[inicioLinhaSaida + c] = sigmoid(saida[inicioLinhaSaida + c] + bias2[c]);
+            }
+        }
+    }
+
+    /**
+     * Passo backward para as posições [inicio, fim) do lote atual: escreve as linhas correspondentes de
+     * deltaSaida/deltaEscondido e acumula os gradientes (somas, sem dividir pelo tamanho do lote)
+     * nos buffers recebidos, que pertencem ao bloco que chama o método.
+     */
+    void backwardLinhas(int inicio, int fim,
+                        DMatrixRMaj gradW1Bloco, DMatrixRMaj gradB1Bloco,
+                        DMatrixRMaj gradW2Bloco, DMatrixRMaj gradB2Bloco) {
+        final int[] rotulos = this.ultimosRotulos;
+        final double[] w2 = this.W2.getDDRM().data;
+        final double[] ativacaoEscondida = this.a1.data;
+        final double[] saida = this.saidaRede.data;
+        final double[] dadosDeltaSaida = this.deltaSaida.data;
+        final double[] dadosDeltaEscondido = this.deltaEscondido.data;
+        final double[] gW1 = gradW1Bloco.data, gB1 = gradB1Bloco.data, gW2 = gradW2Bloco.data, gB2 = gradB2Bloco.data;
+        final int tamanhoEscondida = this.parametrosRede.tamanhoCamadaEscondida();
+        final int tamanhoSaida = this.parametrosRede.tamanhoSaida();
+
+        gradW1Bloco.zero();
+        gradB1Bloco.zero();
+        gradW2Bloco.zero();
+        gradB2Bloco.zero();
+
+        for (int r = inicio; r < fim; r++) {
+            int linha = linhaDoLote(r);
+
+            // Delta da saída: (a2 - y) * a2 * (1 - a2); acumula gradB2 e gradW2 += a1[r]^T @ delta[r]
+            int inicioLinhaSaida = r * tamanhoSaida;
+            int classe = rotulos[linha];
+            for (int c = 0; c < tamanhoSaida; c++) {
+                double a = saida[inicioLinhaSaida + c];
+                double delta = (c == classe ? a - 1.0 : a) * (a * (1.0 - a));
+                dadosDeltaSaida[inicioLinhaSaida + c] = delta;
+                gB2[c] += delta;
+            }
+            int inicioLinhaA1 = r * tamanhoEscondida;
+            for (int j = 0; j < tamanhoEscondida; j++) {
+                double ativacao = ativacaoEscondida[inicioLinhaA1 + j];
+                int inicioLinhaW = j * tamanhoSaida;
+                double erroPropagado = 0;
+                for (int c = 0; c < tamanhoSaida; c++) {
+                    double delta = dadosDeltaSaida[inicioLinhaSaida + c];
+                    gW2[inicioLinhaW + c] += ativacao * delta;
+                    erroPropagado += delta * w2[inicioLinhaW + c]; // (delta @ W2^T)[r, j]
+                }
+                // Delta da camada escondida: (delta @ W2^T) * a1 * (1 - a1)
+                double deltaEsc = erroPropagado * (ativacao * (1.0 - ativacao));
+                dadosDeltaEscondido[inicioLinhaA1 + j] = deltaEsc;
+                gB1[j] += deltaEsc;
+            }
 
-        // Delta da camada escondida (delta_j ou delta_hidden)
-        // delta_hidden = (erro propagado para a camada escondida) * (derivada da ativação escondida) --- multiplicação elemento a elemento
-        // delta_hidden = dE/da1 * da1/dz1 = dE/dz1
-        SimpleMatrix deltaEscondido = erroCamadaEscondida.elementMult(derivadaSigmoidEscondida); // Shape: [numAmostras, tamanhoCamadaEscondida]
+            // gradW1 += X[linha]^T @ deltaEscondido[r]
+            acumularGradienteW1Linha(r, dadosDeltaEscondido, inicioLinhaA1, gW1);
+        }
+    }
+
+    /**
+     * Backward paralelo: cada bloco calcula os gradientes parciais da sua faixa de linhas e, em seguida,
+     * os parciais são reduzidos em gradW1/gradB1/gradW2/gradB2 sempre na ordem dos blocos (determinístico).
+     */
+    private void backwardParalelo(int[] rotulos) {
+        this.ultimosRotulos = rotulos;
+        executarBlocos(BlocoTreino.Fase.BACKWARD);
+        this.ultimosRotulos = null;
+
+        this.gradW1.zero();
+        this.gradB1.zero();
+        this.gradW2.zero();
+        this.gradB2.zero();
+        for (BlocoTreino bloco : this.blocosParalelos) {
+            CommonOps_DDRM.addEquals(this.gradW1, bloco.gradW1);
+            CommonOps_DDRM.addEquals(this.gradB1, bloco.gradB1);
+            CommonOps_DDRM.addEquals(this.gradW2, bloco.gradW2);
+            CommonOps_DDRM.addEquals(this.gradB2, bloco.gradB2);
+        }
+        CommonOps_DDRM.divide(this.gradW1, this.numAmostrasLote);
+        CommonOps_DDRM.divide(this.gradB1, this.numAmostrasLote);
+        CommonOps_DDRM.divide(this.gradW2, this.numAmostrasLote);
+        CommonOps_DDRM.divide(this.gradB2, this.numAmostrasLote);
+        this.gradientesCalculados = true;
+    }
+
+    /**
+     * Retorna a transposta da última entrada do forward, recalculando-a apenas quando a entrada mudou.
+     * No treino em lote completo a mesma matriz de treino é usada em todas as épocas, então a transposição
+     * acontece uma única vez. Assume que a matriz de entrada não é modificada in-place durante o treino.
+     *
+     * @return Matriz X^T. Shape: [tamanhoEntrada, numAmostras].
+     */
+    private DMatrixRMaj obterEntradaXTransposta() {
+        if (this.origemEntradaXTransposta != this.ultimaEntradaX) {
+            CommonOps_DDRM.transpose(this.ultimaEntradaX.getDDRM(), this.entradaXTransposta);
+            this.origemEntradaXTransposta = this.ultimaEntradaX;
+        }
+        return this.entradaXTransposta;
+    }
 
-        // Gradiente para os pesos W1 (dE/dW1)
-        // dE/dW1 = (X^T @ delta_hidden) / numAmostras
-        // Onde X é a entrada da rede (armazenada em this.ultimaEntradaX)
-        // X^T tem shape [tamanhoEntrada, numAmostras]
-        // delta_hidden tem shape [numAmostras, tamanhoCamadaEscondida]
-        // O resultado dW1 tem shape [tamanhoEntrada, tamanhoCamadaEscondida], igual a W1.
-        this.gradW1 = this.ultimaEntradaX.transpose().mult(deltaEscondido).divide(numAmostras);
+    /**
+     * Calcula gradW1 = X[lote]^T @ deltaEscondido (sem a divisão pelo tamanho do lote),
+     * somando o produto externo de cada linha de entrada do lote com o delta correspondente.
+     */
+    private void acumularGradienteW1DoLote() {
+        this.gradW1.zero();
+        for (int r = 0; r < this.numAmostrasLote; r++) {
+            acumularGradienteW1Linha(r, this.deltaEscondido.data, r * this.deltaEscondido.numCols, this.gradW1.data);
+        }
+    }
 
-        // Gradiente para o bias b1 (dE/db1)
-        // dE/db1 = sum(delta_hidden, axis=0) / numAmostras
-        // O resultado db1 é um vetor linha [1, tamanhoCamadaEscondida], igual a b1.
-        this.gradB1 = new SimpleMatrix(1, this.parametrosRede.tamanhoCamadaEscondida());
-        for (int j = 0; j < deltaEscondido.getNumCols(); j++) { // Itera sobre neurônios escondidos
-            double somaColuna = 0;
-            for (int i = 0; i < deltaEscondido.getNumRows(); i++) { // Itera sobre amostras
-                somaColuna += deltaEscondido.get(i, j);
+    /**
+     * Soma as linhas de uma matriz, escrevendo o total de cada coluna no vetor linha de destino.
+     *
+     * @param matriz  Matriz de origem. Shape: [numLinhas, numCols].
+     * @param destino Vetor linha que recebe as somas. Shape: [1, numCols].
+     */
+    private static void somarColunas(DMatrixRMaj matriz, DMatrixRMaj destino) {
+        final double[] dados = matriz.data;
+        final double[] soma = destino.data;
+        final int numCols = matriz.numCols;
+        Arrays.fill(soma, 0, numCols, 0.0);
+        int indice = 0;
+        for (int r = 0; r < matriz.numRows; r++) {
+            for (int c = 0; c < numCols; c++, indice++) {
+                soma[c] += dados[indice];
             }
-            this.gradB1.set(0, j, somaColuna / numAmostras); // Média do gradiente do bias
         }
     }
 
     /**
      * Atualiza os pesos e biases da rede usando os gradientes calculados
      * pelo método `backward` e a taxa de aprendizado fornecida.
-     * Implementa a regra de atualização do Gradiente Descendente:
-     * novo_peso = peso_antigo - taxa_aprendizado * gradiente_peso
-     * novo_bias = bias_antigo - taxa_aprendizado * gradiente_bias
+     * Implementa a regra de atualização do Gradiente Descendente, in-place:
+     * peso = peso - taxa_aprendizado * gradiente_peso
+     * bias = bias - taxa_aprendizado * gradiente_bias
      *
      * @param taxaAprendizado O fator que controla o tamanho do passo de atualização.
      * @throws IllegalStateException Se os gradientes ainda não foram calculados (backward() não foi chamado).
      */
     public void atualizarPesos(double taxaAprendizado) {
         // Verifica se os gradientes foram calculados antes de tentar usá-los
-        if (this.gradW1 == null || this.gradB1 == null || this.gradW2 == null || this.gradB2 == null) {
+        if (!this.gradientesCalculados) {
             throw new IllegalStateException("Execute backward() antes de atualizarPesos() para calcular os gradientes.");
         }
 
         /* todo: TIRAR ESSE TRECHO COMENTADO QUANDO FOR MOSTRAR NO VIDEO!!!!
-        SimpleMatrix deltaW1_atual = this.gradW1.scale(taxaAprendizado);
-        SimpleMatrix deltaW2_atual = this.gradW2.scale(taxaAprendizado);
+        SimpleMatrix deltaW1_atual = SimpleMatrix.wrap(this.gradW1).scale(taxaAprendizado);
+        SimpleMatrix deltaW2_atual = SimpleMatrix.wrap(this.gradW2).scale(taxaAprendizado);
 
         // Calcula a MÉDIA DA MAGNITUDE ABSOLUTA dos deltas
         double somaMagAbsDeltaW1 = 0;
@@ -363,138 +924,778 @@ public class MLP {
         this.historicoMediaDeltaW2.add(mediaMagDeltaW2);
          */
 
+        if (this.motorPrecisaoSimples != null) {
+            this.motorPrecisaoSimples.atualizarPesos(taxaAprendizado);
+            return;
+        }
+
         // Atualização W1 = W1 - learningRate * dW1
-        // .scale() multiplica a matriz pelo escalar
-        // .minus() subtrai matrizes elemento a elemento
-        this.W1 = this.W1.minus(this.gradW1.scale(taxaAprendizado));
+        // addEquals(a, beta, b) faz a = a + beta * b diretamente sobre os dados de a
+        CommonOps_DDRM.addEquals(this.W1.getDDRM(), -taxaAprendizado, this.gradW1);
 
         // Atualização b1 = b1 - learningRate * db1
-        this.b1 = this.b1.minus(this.gradB1.scale(taxaAprendizado));
+        CommonOps_DDRM.addEquals(this.b1.getDDRM(), -taxaAprendizado, this.gradB1);
 
         // Atualização W2 = W2 - learningRate * dW2
-        this.W2 = this.W2.minus(this.gradW2.scale(taxaAprendizado));
+        CommonOps_DDRM.addEquals(this.W2.getDDRM(), -taxaAprendizado, this.gradW2);
 
         // Atualização b2 = b2 - learningRate * db2
-        this.b2 = this.b2.minus(this.gradB2.scale(taxaAprendizado));
+        CommonOps_DDRM.addEquals(this.b2.getDDRM(), -taxaAprendizado, this.gradB2);
+    }
+
+    /**
+     * Define épocas marco do treino: ao fim de cada uma, o observador recebe a época (base 1), com os pesos e o
+     * histórico de erro da rede refletindo exatamente aquela época. O observador roda na thread de treino
+     * e deve ser rápido (ex.: copiar o estado com {@link #copiarEstado()} e avaliar a cópia em outra thread).
+     * Com parada antecipada, a validação pendente é concluída antes de cada marco: marcos posteriores à época
+     * de parada não são notificados.
+     *
+     * @param marcos     Épocas marco (base 1), em qualquer ordem; null desativa os marcos.
+     * @param observador Chamado em cada marco.
+     */
+    public void definirMarcosEpocas(int[] marcos, IntConsumer observador) {
+        if (marcos == null) {
+            this.marcosEpocas = null;
+            this.observadorMarcos = null;
+            return;
+        }
+        this.marcosEpocas = marcos.clone();
+        Arrays.sort(this.marcosEpocas);
+        this.observadorMarcos = observador;
+    }
+
+    /**
+     * Ativa checkpoints do treino: a cada intervaloEpocas épocas (e ao fim da época corrente quando a JVM está
+     * encerrando, ex.: Ctrl+C) o estado completo do treino é gravado no arquivo; o próximo treino com os mesmos
+     * parâmetros (exceto o número de épocas, que pode ser maior) continua a partir dele, com o mesmo resultado de um
+     * treino sem interrupção. Não se aplica ao treino em fluxo.
+     *
+     * @param arquivo        Arquivo do checkpoint; null desativa os checkpoints.
+     * @param intervaloEpocas Épocas entre dois checkpoints.
+     */
+    public void definirCheckpoint(Path arquivo, int intervaloEpocas) {
+        if (arquivo != null && intervaloEpocas <= 0) {
+            throw new IllegalArgumentException("Intervalo de checkpoint deve ser positivo: " + intervaloEpocas);
+        }
+        this.arquivoCheckpoint = arquivo;
+        this.intervaloCheckpoint = intervaloEpocas;
+    }
+
+    /**
+     * Cria uma nova rede com a mesma arquitetura, os mesmos pesos iniciais e os pesos e histórico de erro atuais.
+     * A cópia é independente: pode ser usada para previsões em outra thread enquanto esta rede continua treinando.
+     */
+    public MLP copiarEstado() {
+        sincronizarPesosDouble();
+        MLP copia = new MLP(this.parametrosRede, this); // Copia os pesos sem sortear novos pesos iniciais
+        copia.historicoErro.addAll(this.historicoErro);
+        copia.historicoErroValidacao.addAll(this.historicoErroValidacao);
+        copia.melhorErroValidacao = this.melhorErroValidacao;
+        copia.epocaMelhorErro = this.epocaMelhorErro;
+        return copia;
+    }
+
+    /**
+     * Extrai um modelo de inferência imutável com uma cópia dos pesos atuais. Ao contrário de {@link #prever},
+     * que usa os buffers do forward de treino, o modelo pode ser usado por várias threads ao mesmo tempo
+     * e não é afetado se esta rede continuar treinando.
+     */
+    public ModeloInferencia extrairModeloInferencia() {
+        sincronizarPesosDouble();
+        return new ModeloInferencia(this.parametrosRede, this.W1.getDDRM(), this.b1.getDDRM(), this.W2.getDDRM(), this.b2.getDDRM());
+    }
+
+    /**
+     * Redireciona as mensagens de progresso do treino (padrão: System.out).
+     */
+    public void definirSaidaLog(PrintStream saidaLog) {
+        this.saidaLog = saidaLog;
     }
 
     /**
      * Executa o ciclo completo de treinamento, opcionalmente usando parada antecipada
      * baseada em um conjunto de validação.
+     * <p>
+     * A validação roda em outra thread, então o treino só percebe a parada alguns envios depois. O atraso é limitado
+     * pelos instantâneos em trânsito: no máximo {@value ValidadorAssincrono#NUM_INSTANTANEOS} × intervaloValidacao
+     * épocas são treinadas além da época de parada e descartadas (pesos e histórico voltam à época de parada).
+     * Marcos de épocas e checkpoints esperam a validação pendente e nunca ocorrem depois da parada.
      *
      * @param xTreino               Matriz de dados de entrada para treinamento.
-     * @param yTreino               Matriz de rótulos verdadeiros (one-hot) para treinamento.
+     * @param yTreino               Índices das classes verdadeiras das amostras de treinamento.
      * @param xValidacao            Matriz de dados de entrada para validação (pode ser null se não usar parada antecipada).
-     * @param yValidacao            Matriz de rótulos verdadeiros (one-hot) para validação (pode ser null).
+     * @param yValidacao            Índices das classes verdadeiras das amostras de validação (pode ser null).
      * @param parametrosTreinamento Definicao dos hiperparametros para o treinamento.
      * @return A época em que o treinamento parou (seja pelo maxEpocas ou parada antecipada).
      */
-    public int treinar(SimpleMatrix xTreino, SimpleMatrix yTreino,
-                       SimpleMatrix xValidacao, SimpleMatrix yValidacao,
+    public int treinar(SimpleMatrix xTreino, int[] yTreino,
+                       SimpleMatrix xValidacao, int[] yValidacao,
                        ParametrosTreinamento parametrosTreinamento) {
+        validarRotulos(yTreino, xTreino.getNumRows(), "treino");
+        if (xValidacao != null && yValidacao != null) {
+            validarRotulos(yValidacao, xValidacao.getNumRows(), "validação");
+        }
+        configurarParalelismo(parametrosTreinamento.numThreads());
+        if (this.motorPrecisaoSimples != null) {
+            this.motorPrecisaoSimples.carregarPesos(this.W1, this.b1, this.W2, this.b2);
+            this.motorPrecisaoSimples.invalidarCacheEntrada();
+        }
+        try {
+            return executarCicloTreinamento(xTreino, yTreino, null, null, xValidacao, yValidacao, parametrosTreinamento);
+        } finally {
+            encerrarParalelismo();
+            sincronizarPesosDouble();
+        }
+    }
+
+    /**
+     * Executa o ciclo completo de treinamento sobre visões de um bloco de dados compartilhado.
+     * As linhas de treino são lidas do bloco pelos índices da visão (sem materializar uma matriz de treino);
+     * a validação, pequena e percorrida inteira a cada validação, é materializada uma única vez.
+     *
+     * @param treino                Visão das amostras de treinamento.
+     * @param validacao             Visão das amostras de validação (pode ser null se não usar parada antecipada).
+     * @param parametrosTreinamento Definicao dos hiperparametros para o treinamento.
+     * @return A época em que o treinamento parou (seja pelo maxEpocas ou parada antecipada).
+     */
+    public int treinar(VisaoDataset treino, VisaoDataset validacao,
+                       ParametrosTreinamento parametrosTreinamento) {
+        if (treino.numAtributos() != this.parametrosRede.tamanhoEntrada()) {
+            throw new IllegalArgumentException("Visão de treino com " + treino.numAtributos() +
+                    " atributos incompatível com a rede (" + this.parametrosRede.tamanhoEntrada() + " entradas).");
+        }
+        validarRotulos(treino.y(), treino.x().getNumRows(), "treino");
+        SimpleMatrix xValidacao = null;
+        int[] yValidacao = null;
+        if (validacao != null && parametrosTreinamento.pacienciaParadaAntecipada() > 0) {
+            xValidacao = validacao.materializarX();
+            yValidacao = validacao.rotulos();
+            validarRotulos(yValidacao, xValidacao.getNumRows(), "validação");
+        }
+        configurarParalelismo(parametrosTreinamento.numThreads());
+        if (this.motorPrecisaoSimples != null) {
+            this.motorPrecisaoSimples.carregarPesos(this.W1, this.b1, this.W2, this.b2);
+            this.motorPrecisaoSimples.invalidarCacheEntrada();
+        }
+        try {
+            return executarCicloTreinamento(treino.x(), treino.y(), treino.indices(), null,
+                    xValidacao, yValidacao, parametrosTreinamento);
+        } finally {
+            encerrarParalelismo();
+            sincronizarPesosDouble();
+        }
+    }
+
+    /**
+     * Executa o ciclo completo de treinamento a partir de um conjunto de treino compacto (bits + rótulos em byte).
+     * A cada passo, os bits do lote corrente viram direto a lista de pixels ativos (caminho esparso de X @ W1 e do
+     * gradiente de W1), em buffers reaproveitados, sem montar a matriz densa de entrada;
+     * sem tamanhoLote definido, o conjunto inteiro é processado como um único lote por época.
+     *
+     * @param treino                Conjunto de treino compacto.
+     * @param xValidacao            Matriz de dados de entrada para validação (pode ser null se não usar parada antecipada).
+     * @param yValidacao            Índices das classes verdadeiras das amostras de validação (pode ser null).
+     * @param parametrosTreinamento Definicao dos hiperparametros para o treinamento.
+     * @return A época em que o treinamento parou (seja pelo maxEpocas ou parada antecipada).
+     */
+    public int treinar(DatasetCompacto treino,
+                       SimpleMatrix xValidacao, int[] yValidacao,
+                       ParametrosTreinamento parametrosTreinamento) {
+        if (treino.numAtributos() != this.parametrosRede.tamanhoEntrada() || treino.numClasses() != this.parametrosRede.tamanhoSaida()) {
+            throw new IllegalArgumentException("Dataset compacto (" + treino.numAtributos() + " atributos, " + treino.numClasses() +
+                    " classes) incompatível com a rede (" + this.parametrosRede.tamanhoEntrada() + " entradas, " +
+                    this.parametrosRede.tamanhoSaida() + " saídas).");
+        }
+        int tamanhoLoteCompacto = parametrosTreinamento.usaMiniLote(treino.numAmostras())
+                ? parametrosTreinamento.tamanhoLote() : treino.numAmostras();
+        this.origemLoteCompacto = null;
+        if (this.loteCompactoEntrada == null) {
+            this.loteCompactoEntrada = new EntradaBinaria(tamanhoLoteCompacto, this.parametrosRede.tamanhoEntrada());
+        }
+        if (this.loteCompactoRotulos == null || this.loteCompactoRotulos.length < tamanhoLoteCompacto) {
+            this.loteCompactoRotulos = new int[tamanhoLoteCompacto];
+        }
+        if (xValidacao != null && yValidacao != null) {
+            validarRotulos(yValidacao, xValidacao.getNumRows(), "validação");
+        }
+        configurarParalelismo(parametrosTreinamento.numThreads());
+        if (this.motorPrecisaoSimples != null) {
+            this.motorPrecisaoSimples.carregarPesos(this.W1, this.b1, this.W2, this.b2);
+            this.motorPrecisaoSimples.invalidarCacheEntrada();
+        }
+        try {
+            return executarCicloTreinamento(null, null, null, treino, xValidacao, yValidacao, parametrosTreinamento);
+        } finally {
+            encerrarParalelismo();
+            sincronizarPesosDouble();
+        }
+    }
+
+    /**
+     * Executa o treinamento a partir de um conjunto lido em fluxo dos arquivos, um bloco de amostras por vez
+     * (memória limitada ao bloco, independente do tamanho do conjunto). Cada bloco é embaralhado e percorrido em
+     * mini-lotes; sem tamanhoLote definido, cada bloco é um lote. Como o conjunto não cabe em memória,
+     * o embaralhamento é só dentro de cada bloco e não há parada antecipada.
+     *
+     * @param treino                Conjunto de treino em fluxo (reiniciado a cada época). Continua aberto ao final:
+     *                              fechá-lo é responsabilidade de quem o abriu.
+     * @param parametrosTreinamento Definicao dos hiperparametros para o treinamento (paciência deve ser 0).
+     * @return O número de épocas treinadas.
+     */
+    public int treinar(DatasetEmFluxo treino, ParametrosTreinamento parametrosTreinamento) {
+        if (treino.numAtributos() != this.parametrosRede.tamanhoEntrada() || treino.numClasses() > this.parametrosRede.tamanhoSaida()) {
+            throw new IllegalArgumentException("Dataset em fluxo (" + treino.numAtributos() + " atributos, " + treino.numClasses() +
+                    " classes) incompatível com a rede (" + this.parametrosRede.tamanhoEntrada() + " entradas, " +
+                    this.parametrosRede.tamanhoSaida() + " saídas).");
+        }
+        if (parametrosTreinamento.pacienciaParadaAntecipada() > 0) {
+            throw new IllegalArgumentException("O treino em fluxo não suporta parada antecipada (paciência = " +
+                    parametrosTreinamento.pacienciaParadaAntecipada() + ").");
+        }
+        configurarParalelismo(parametrosTreinamento.numThreads());
+        if (this.motorPrecisaoSimples != null) {
+            this.motorPrecisaoSimples.carregarPesos(this.W1, this.b1, this.W2, this.b2);
+        }
+        try {
+            return executarCicloTreinamentoEmFluxo(treino, parametrosTreinamento);
+        } catch (IOException e) {
+            throw new IllegalStateException("Erro de leitura do dataset em fluxo: " + e.getMessage(), e);
+        } finally {
+            encerrarParalelismo();
+            sincronizarPesosDouble();
+        }
+    }
+
+    /**
+     * Laço de épocas do treinamento em fluxo (ver {@link #treinar(DatasetEmFluxo, ParametrosTreinamento)}).
+     * Cada bloco é treinado pelo caminho indexado, com a permutação do bloco como índices de linha.
+     */
+    private int executarCicloTreinamentoEmFluxo(DatasetEmFluxo treino, ParametrosTreinamento parametrosTreinamento) throws IOException {
         this.historicoErro.clear();
         this.historicoErroValidacao.clear();
         this.melhorErroValidacao = Double.MAX_VALUE;
         this.epocaMelhorErro = 0;
-        int contadorPaciencia = 0;
-        boolean usarParadaAntecipada = (xValidacao != null && yValidacao != null && parametrosTreinamento.pacienciaParadaAntecipada() > 0);
 
-        System.out.println("Iniciando treinamento com parametros: Epocas = " + parametrosTreinamento.epocas() +
+        this.saidaLog.println("Iniciando treinamento com parametros: Epocas = " + parametrosTreinamento.epocas() +
                 ", Taxa de aprendizado =" + parametrosTreinamento.taxaAprendizado() + ", Camada escondida = " + parametrosRede.tamanhoCamadaEscondida());
-        if (usarParadaAntecipada) {
-            System.out.println("Parada Antecipada ativada com paciencia de " + parametrosTreinamento.pacienciaParadaAntecipada() + " epocas.");
+        this.saidaLog.printf("Treino em fluxo: %d amostras, blocos de %d amostras (%d bytes em memoria).\n",
+                treino.numAmostras(), treino.blocoRotulos().length, treino.bytesOcupados());
+        if (this.poolParalelo != null) {
+            this.saidaLog.println("Treino paralelo ativado com " + parametrosTreinamento.numThreads() + " threads.");
+        }
+        if (this.arquivoCheckpoint != null) {
+            this.saidaLog.println("Aviso: checkpoints não são suportados no treino em fluxo; treinando sem checkpoint.");
         }
 
-        for (int epoca = 0; epoca < parametrosTreinamento.epocas(); epoca++) {
-            // 1. Passo Forward (Treino)
-            SimpleMatrix yPrevistoTreino = this.forward(xTreino);
+        final SimpleMatrix xBloco = treino.blocoX();
+        final int[] rotulosBloco = treino.blocoRotulos();
+        // Permutação dos blocos completos, reembaralhada a cada bloco (com um único bloco, a mesma sequência de lotes
+        // do treino em memória); o último bloco, menor, tem a sua
+        int[] permutacaoBlocoCompleto = new int[rotulosBloco.length];
+        for (int i = 0; i < permutacaoBlocoCompleto.length; i++) {
+            permutacaoBlocoCompleto[i] = i;
+        }
+        int[] permutacaoUltimoBloco = null;
+        Random embaralhador = new Random(parametrosTreinamento.sementeEmbaralhamento());
+        // Representação esparsa reaproveitada por todos os blocos e épocas (os arrays só crescem no primeiro bloco)
+        final EntradaBinaria entradaBinariaBloco = new EntradaBinaria(rotulosBloco.length, treino.numAtributos());
 
-            // 2. Cálculo do Erro de Treino
-            double erroTreinoAtual = this.erroQuadraticoMedio(yTreino, yPrevistoTreino);
+        for (int epoca = 0; epoca < parametrosTreinamento.epocas(); epoca++) {
+            treino.reiniciar();
+            double somaErrosLotes = 0;
+            long amostrasEpoca = 0;
+            int numAmostrasBloco;
+            while ((numAmostrasBloco = treino.lerProximoBloco()) > 0) {
+                // O buffer do bloco mantém a identidade entre blocos: invalida os caches de entrada indexados pela matriz
+                this.origemEntradaXTransposta = null;
+                if (this.motorPrecisaoSimples != null) {
+                    this.motorPrecisaoSimples.invalidarCacheEntrada();
+                }
+                // Representação esparsa do bloco (sem repetir no log a detecção de entrada binária a cada bloco)
+                this.origensEntradaBinaria[0] = xBloco;
+                this.entradasBinarias[0] = entradaBinariaBloco.preencher(xBloco.getDDRM().data, numAmostrasBloco) ? entradaBinariaBloco : null;
+                this.origensEntradaBinaria[1] = null;
+                this.entradasBinarias[1] = null;
+
+                int[] permutacaoBloco = permutacaoBlocoCompleto;
+                if (numAmostrasBloco < permutacaoBlocoCompleto.length) {
+                    if (permutacaoUltimoBloco == null || permutacaoUltimoBloco.length != numAmostrasBloco) {
+                        permutacaoUltimoBloco = new int[numAmostrasBloco];
+                        for (int i = 0; i < numAmostrasBloco; i++) {
+                            permutacaoUltimoBloco[i] = i;
+                        }
+                    }
+                    permutacaoBloco = permutacaoUltimoBloco;
+                }
+                embaralhar(permutacaoBloco, embaralhador);
+                int tamanhoLote = parametrosTreinamento.usaMiniLote(numAmostrasBloco) ? parametrosTreinamento.tamanhoLote() : numAmostrasBloco;
+                for (int inicio = 0; inicio < numAmostrasBloco; inicio += tamanhoLote) {
+                    int fim = Math.min(inicio + tamanhoLote, numAmostrasBloco);
+                    this.forward(xBloco, permutacaoBloco, inicio, fim);
+                    somaErrosLotes += this.erroQuadraticoMedio(rotulosBloco) * (fim - inicio);
+                    this.backward(rotulosBloco);
+                    this.atualizarPesos(parametrosTreinamento.taxaAprendizado());
+                }
+                amostrasEpoca += numAmostrasBloco;
+            }
+            double erroTreinoAtual = somaErrosLotes / amostrasEpoca;
             this.historicoErro.add(erroTreinoAtual);
 
-            // 3. Passo Backward
-            this.backward(yTreino);
+            // Marco de épocas: o observador recebe a rede no estado exato desta época
+            if (this.observadorMarcos != null && Arrays.binarySearch(this.marcosEpocas, epoca + 1) >= 0) {
+                sincronizarPesosDouble();
+                this.observadorMarcos.accept(epoca + 1);
+            }
 
-            // 4. Atualização de Pesos
-            this.atualizarPesos(parametrosTreinamento.taxaAprendizado());
+            if ((epoca + 1) % 1000 == 0 || epoca == 0) {
+                this.saidaLog.printf("Epoca %d/%d, Erro Treino: %.8f\n", epoca + 1, parametrosTreinamento.epocas(), erroTreinoAtual);
+            }
+        }
 
-            // 5. Avaliação no Conjunto de Validação e Parada Antecipada (se ativada)
-            double erroValidacaoAtual = Double.NaN; // Valor padrão se não houver validação
-            if (usarParadaAntecipada) {
-                // Calcula a saída para o conjunto de validação (SEM armazenar estados intermediários do forward)
-                SimpleMatrix yPrevistoValidacao = this.forward(xValidacao);
-                erroValidacaoAtual = this.erroQuadraticoMedio(yValidacao, yPrevistoValidacao);
-                this.historicoErroValidacao.add(erroValidacaoAtual);
-
-                // Lógica da Parada Antecipada
-                if (erroValidacaoAtual < this.melhorErroValidacao) {
-                    this.melhorErroValidacao = erroValidacaoAtual;
-                    this.epocaMelhorErro = epoca + 1; // Armazena a época atual (base 1)
-                    contadorPaciencia = 0; // Reseta a paciência
-                    // Salva os pesos atuais como os melhores
-                    this.melhorW1 = this.W1.copy();
-                    this.melhorB1 = this.b1.copy();
-                    this.melhorW2 = this.W2.copy();
-                    this.melhorB2 = this.b2.copy();
-                } else {
-                    contadorPaciencia++; // Incrementa a paciência
-                }
+        this.saidaLog.println("Treinamento concluido (atingiu maximo de Epocas).");
+        return parametrosTreinamento.epocas();
+    }
+
+    /**
+     * Laço de épocas do treinamento (ver {@link #treinar}). O treino vem de xTreino/yTreino (apenas as linhas
+     * indicesTreino, se não for null) ou, quando treinoCompacto não é null, do conjunto compacto expandido lote a lote.
+     */
+    private int executarCicloTreinamento(SimpleMatrix xTreino, int[] yTreino, int[] indicesTreino,
+                                         DatasetCompacto treinoCompacto,
+                                         SimpleMatrix xValidacao, int[] yValidacao,
+                                         ParametrosTreinamento parametrosTreinamento) {
+        this.historicoErro.clear();
+        this.historicoErroValidacao.clear();
+        this.melhorErroValidacao = Double.MAX_VALUE;
+        this.epocaMelhorErro = 0;
+        boolean usarParadaAntecipada = (xValidacao != null && yValidacao != null && parametrosTreinamento.pacienciaParadaAntecipada() > 0);
+
+        this.saidaLog.println("Iniciando treinamento com parametros: Epocas = " + parametrosTreinamento.epocas() +
+                ", Taxa de aprendizado =" + parametrosTreinamento.taxaAprendizado() + ", Camada escondida = " + parametrosRede.tamanhoCamadaEscondida());
+        ValidadorAssincrono validador = null;
+        int intervaloValidacao = parametrosTreinamento.intervaloValidacaoEfetivo();
+        if (usarParadaAntecipada) {
+            this.saidaLog.println("Parada Antecipada ativada com paciencia de " + parametrosTreinamento.pacienciaParadaAntecipada() +
+                    " epocas (validacao assincrona a cada " + intervaloValidacao + " epoca(s)).");
+            if (this.buffersValidacao == null) {
+                this.buffersValidacao = ValidadorAssincrono.criarBuffers(parametrosRede.tamanhoEntrada(),
+                        parametrosRede.tamanhoCamadaEscondida(), parametrosRede.tamanhoSaida());
+            }
+            validador = new ValidadorAssincrono(xValidacao, yValidacao, parametrosTreinamento.pacienciaParadaAntecipada(),
+                    this.buffersValidacao);
+        }
+        if (this.poolParalelo != null) {
+            this.saidaLog.println("Treino paralelo ativado com " + parametrosTreinamento.numThreads() + " threads.");
+        }
+
+        this.origemEntradaXTransposta = null; // Invalida o cache de X^T (a matriz pode ter sido alterada entre treinos)
+        prepararEntradasBinarias(xTreino, null);
+
+        // Mini-lote: as amostras são percorridas por uma permutação de índices, reembaralhada a cada época
+        // (o treino compacto sempre percorre lotes; sem tamanhoLote, um único lote com todas as amostras)
+        int numAmostrasTreino = treinoCompacto != null ? treinoCompacto.numAmostras()
+                : indicesTreino != null ? indicesTreino.length : xTreino.getNumRows();
+        boolean usarMiniLote = parametrosTreinamento.usaMiniLote(numAmostrasTreino);
+        int[] permutacaoTreino = null;
+        Random embaralhador = null;
+        if (usarMiniLote || treinoCompacto != null) {
+            permutacaoTreino = new int[numAmostrasTreino];
+            for (int i = 0; i < numAmostrasTreino; i++) {
+                permutacaoTreino[i] = indicesTreino != null ? indicesTreino[i] : i;
+            }
+            embaralhador = new Random(parametrosTreinamento.sementeEmbaralhamento());
+        }
+        if (usarMiniLote) {
+            this.saidaLog.println("Mini-lote ativado com " + parametrosTreinamento.tamanhoLote() + " amostras por lote.");
+        }
+        if (treinoCompacto != null) {
+            this.saidaLog.printf("Treino a partir do dataset compacto: %d amostras em %d bytes.\n",
+                    numAmostrasTreino, treinoCompacto.bytesOcupados());
+        }
 
-                // Verifica se a paciência estourou
-                if (contadorPaciencia >= parametrosTreinamento.pacienciaParadaAntecipada()) {
-                    System.out.printf("Parada Antecipada: melhor erro de validacao %.8f obtido na época %d. Treinamento parou na epoca %d.\n",
-                            melhorErroValidacao, epocaMelhorErro, epoca + 1);
-                    // Restaura os melhores pesos encontrados
-                    restaurarMelhoresPesos();
-                    return epoca + 1; // Retorna a época em que parou
+        // Checkpoint: retoma o treino do último checkpoint compatível (mesma trajetória de um treino sem interrupção)
+        String identificacaoCheckpoint = null;
+        int epocaInicial = 0;
+        if (this.arquivoCheckpoint != null) {
+            identificacaoCheckpoint = identificacaoCheckpoint(parametrosTreinamento, numAmostrasTreino, usarParadaAntecipada);
+            CheckpointTreino checkpoint = CheckpointUtils.carregarCheckpoint(this.arquivoCheckpoint);
+            if (checkpointRetomavel(checkpoint, identificacaoCheckpoint, parametrosTreinamento)) {
+                epocaInicial = retomarCheckpoint(checkpoint, permutacaoTreino, validador);
+                if (checkpoint.estadoEmbaralhador() != null) {
+                    embaralhador = CheckpointUtils.restaurarGerador(checkpoint.estadoEmbaralhador());
                 }
+                this.saidaLog.printf("Treino retomado do checkpoint %s na epoca %d.\n", this.arquivoCheckpoint, epocaInicial);
             }
+            CheckpointUtils.registrarTreino();
+        }
 
-            // Imprimir progresso
-            if ((epoca + 1) % 1000 == 0 || epoca == 0) {
-                if (usarParadaAntecipada) {
-                    System.out.printf("Epoca %d/%d, Erro Treino: %.8f, Erro Validacao: %.8f (Melhor: %.8f na epoca %d)\n",
-                            epoca + 1, parametrosTreinamento.epocas(), erroTreinoAtual, erroValidacaoAtual, melhorErroValidacao, epocaMelhorErro);
+        long bytesAlocadosPasso = 0; // Memória alocada por forward/backward/atualização após a primeira época (aquecimento)
+        try {
+            for (int epoca = epocaInicial; epoca < parametrosTreinamento.epocas(); epoca++) {
+                long bytesAntesPasso = bytesAlocadosThreadAtual();
+
+                double erroTreinoAtual;
+                if (treinoCompacto != null) {
+                    // 1. a 4. Idem, expandindo cada lote do dataset compacto
+                    int tamanhoLote = usarMiniLote ? parametrosTreinamento.tamanhoLote() : numAmostrasTreino;
+                    erroTreinoAtual = executarEpocaCompacta(treinoCompacto, permutacaoTreino, embaralhador, tamanhoLote,
+                            parametrosTreinamento.taxaAprendizado());
+                } else if (usarMiniLote) {
+                    // 1. a 4. Forward, erro, backward e atualização para cada mini-lote da época
+                    erroTreinoAtual = executarEpocaMiniLote(xTreino, yTreino, permutacaoTreino, embaralhador, parametrosTreinamento);
                 } else {
-                    System.out.printf("Epoca %d/%d, Erro Treino: %.8f\n", epoca + 1, parametrosTreinamento.epocas(), erroTreinoAtual);
+                    // 1. Passo Forward (Treino)
+                    if (indicesTreino != null) {
+                        this.forward(xTreino, indicesTreino, 0, numAmostrasTreino);
+                    } else {
+                        this.forward(xTreino);
+                    }
+
+                    // 2. Cálculo do Erro de Treino
+                    erroTreinoAtual = this.erroQuadraticoMedio(yTreino);
+
+                    // 3. Passo Backward
+                    this.backward(yTreino);
+
+                    // 4. Atualização de Pesos
+                    this.atualizarPesos(parametrosTreinamento.taxaAprendizado());
+                }
+                if (epoca > epocaInicial) {
+                    bytesAlocadosPasso += bytesAlocadosThreadAtual() - bytesAntesPasso;
+                }
+                this.historicoErro.add(erroTreinoAtual);
+
+                // Marco de épocas: o observador recebe a rede no estado exato desta época. Com parada antecipada,
+                // conclui antes as validações pendentes: uma parada já decidida descarta esta época e o marco.
+                if (this.observadorMarcos != null && Arrays.binarySearch(this.marcosEpocas, epoca + 1) >= 0) {
+                    if (validador != null) {
+                        validador.sincronizar();
+                        if (validador.epocaParada() > 0) {
+                            break;
+                        }
+                    }
+                    sincronizarPesosDouble();
+                    this.observadorMarcos.accept(epoca + 1);
+                }
+
+                // 5. Validação assíncrona e Parada Antecipada (se ativada): os pesos da época são copiados para um
+                // instantâneo validado em outra thread; o treino só consulta se a paciência já estourou.
+                if (validador != null) {
+                    if ((epoca + 1) % intervaloValidacao == 0) {
+                        sincronizarPesosDouble();
+                        validador.enviar(epoca + 1, this.W1, this.b1, this.W2, this.b2);
+                    }
+                    if (validador.epocaParada() > 0) {
+                        break;
+                    }
+                }
+
+                // Imprimir progresso
+                if ((epoca + 1) % 1000 == 0 || epoca == 0) {
+                    if (validador != null) {
+                        this.saidaLog.printf("Epoca %d/%d, Erro Treino: %.8f, Ultimo Erro Validacao: %.8f\n",
+                                epoca + 1, parametrosTreinamento.epocas(), erroTreinoAtual, validador.ultimoErro());
+                    } else {
+                        this.saidaLog.printf("Epoca %d/%d, Erro Treino: %.8f\n", epoca + 1, parametrosTreinamento.epocas(), erroTreinoAtual);
+                    }
+                }
+
+                // 6. Checkpoint periódico, ou imediato quando a JVM está encerrando (o treino para logo depois)
+                if (identificacaoCheckpoint != null) {
+                    boolean encerrando = CheckpointUtils.encerramentoSolicitado();
+                    boolean periodico = (epoca + 1) % this.intervaloCheckpoint == 0 && epoca + 1 < parametrosTreinamento.epocas();
+                    if (periodico || encerrando) {
+                        if (validador != null) {
+                            validador.sincronizar(); // O checkpoint guarda a validação de todas as épocas já enviadas
+                            if (validador.epocaParada() > 0) {
+                                break;
+                            }
+                        }
+                        salvarCheckpoint(identificacaoCheckpoint, epoca + 1, permutacaoTreino, embaralhador, validador);
+                        if (encerrando) {
+                            throw new IllegalStateException("Treino interrompido pelo encerramento na epoca " + (epoca + 1) +
+                                    "; checkpoint salvo em " + this.arquivoCheckpoint + ".");
+                        }
+                    }
+                }
+            }
+        } finally {
+            try {
+                if (validador != null) {
+                    validador.encerrar(); // Espera os instantâneos ainda na fila
+                }
+            } finally {
+                if (identificacaoCheckpoint != null) {
+                    CheckpointUtils.concluirTreino();
                 }
             }
         }
 
-        System.out.println("Treinamento concluido (atingiu maximo de Epocas).");
+        if (validador != null) {
+            this.historicoErroValidacao.addAll(validador.historicoErro());
+            this.melhorErroValidacao = validador.melhorErro();
+            this.epocaMelhorErro = validador.epocaMelhor();
+
+            int epocaParada = validador.epocaParada();
+            if (epocaParada > 0) {
+                this.saidaLog.printf("Parada Antecipada: melhor erro de validacao %.8f obtido na época %d. Treinamento parou na epoca %d.\n",
+                        melhorErroValidacao, epocaMelhorErro, epocaParada);
+                // Épocas treinadas enquanto a validação da época de parada ainda estava na fila são descartadas
+                this.historicoErro.subList(epocaParada, this.historicoErro.size()).clear();
+                // Restaura os melhores pesos encontrados
+                restaurarMelhoresPesos(validador);
+                return epocaParada; // Retorna a época em que parou
+            }
+        }
+
+        this.saidaLog.println("Treinamento concluido (atingiu maximo de Epocas).");
+        if (parametrosTreinamento.epocas() - epocaInicial > 1) {
+            this.saidaLog.printf("Memoria alocada pelo passo de treino por epoca (apos aquecimento): %d bytes\n",
+                    bytesAlocadosPasso / (parametrosTreinamento.epocas() - epocaInicial - 1));
+        }
         // Se a parada antecipada estava ativa e nunca foi acionada,
         // restaura os melhores pesos (que podem ser os da última época ou anteriores).
-        if (usarParadaAntecipada && this.melhorW1 != null) {
-            restaurarMelhoresPesos();
+        if (validador != null) {
+            restaurarMelhoresPesos(validador);
         }
 
         return parametrosTreinamento.epocas();
     }
 
+    /**
+     * Parâmetros que determinam a trajetória do treino, exceto o número de épocas
+     * (um checkpoint pode ser retomado por um treino mais longo).
+     */
+    private String identificacaoCheckpoint(ParametrosTreinamento parametrosTreinamento, int numAmostrasTreino,
+                                           boolean usarParadaAntecipada) {
+        return "rede=" + parametrosRede.tamanhoEntrada() + "-" + parametrosRede.tamanhoCamadaEscondida() + "-" + parametrosRede.tamanhoSaida() +
+                ";semente=" + parametrosRede.sementeAleatoria() +
+                ";precisao=" + parametrosRede.precisao() +
+                ";taxa=" + parametrosTreinamento.taxaAprendizado() +
+                ";lote=" + parametrosTreinamento.tamanhoLote() +
+                ";embaralhamento=" + parametrosTreinamento.sementeEmbaralhamento() +
+                ";threads=" + parametrosTreinamento.numThreads() +
+                ";paciencia=" + (usarParadaAntecipada ? parametrosTreinamento.pacienciaParadaAntecipada() : 0) +
+                ";intervaloValidacao=" + parametrosTreinamento.intervaloValidacaoEfetivo() +
+                ";amostras=" + numAmostrasTreino;
+    }
+
+    /**
+     * Um checkpoint só é retomado se é do mesmo treino, não passou do número de épocas pedido
+     * e nenhum marco de épocas ficaria para trás (o observador não seria chamado para ele).
+     */
+    private boolean checkpointRetomavel(CheckpointTreino checkpoint, String identificacao, ParametrosTreinamento parametrosTreinamento) {
+        if (checkpoint == null) {
+            return false;
+        }
+        if (!checkpoint.identificacao().equals(identificacao) || checkpoint.epoca() > parametrosTreinamento.epocas()
+                || checkpoint.historicoErro().length != checkpoint.epoca()) {
+            this.saidaLog.println("Checkpoint " + this.arquivoCheckpoint + " de outro treino, ignorado.");
+            return false;
+        }
+        if (this.observadorMarcos != null && this.marcosEpocas[0] <= checkpoint.epoca()) {
+            this.saidaLog.println("Checkpoint " + this.arquivoCheckpoint + " posterior a um marco ainda pendente, ignorado.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Restaura pesos, permutação, histórico e estado da validação do checkpoint.
+     *
+     * @return A época a partir da qual o treino continua.
+     */
+    private int retomarCheckpoint(CheckpointTreino checkpoint, int[] permutacaoTreino, ValidadorAssincrono validador) {
+        copiarDados(checkpoint.pesos()[0], this.W1);
+        copiarDados(checkpoint.pesos()[1], this.b1);
+        copiarDados(checkpoint.pesos()[2], this.W2);
+        copiarDados(checkpoint.pesos()[3], this.b2);
+        if (this.motorPrecisaoSimples != null) {
+            this.motorPrecisaoSimples.carregarPesos(this.W1, this.b1, this.W2, this.b2);
+        }
+        if (permutacaoTreino != null) {
+            System.arraycopy(checkpoint.permutacao(), 0, permutacaoTreino, 0, permutacaoTreino.length);
+        }
+        for (double erro : checkpoint.historicoErro()) {
+            this.historicoErro.add(erro);
+        }
+        if (validador != null) {
+            validador.restaurar(checkpoint.historicoErroValidacao(), checkpoint.melhorErroValidacao(),
+                    checkpoint.epocaMelhorErro(), checkpoint.melhoresPesos());
+        }
+        return checkpoint.epoca();
+    }
+
+    private static void copiarDados(double[] origem, SimpleMatrix destino) {
+        double[] dados = destino.getDDRM().data;
+        if (origem.length != destino.getNumElements()) {
+            throw new IllegalStateException("Checkpoint com " + origem.length + " valores para uma matriz de " +
+                    destino.getNumElements() + " elementos.");
+        }
+        System.arraycopy(origem, 0, dados, 0, origem.length);
+    }
+
+    /**
+     * Grava o estado do treino ao fim da época. Com validação, deve ser chamado após {@link ValidadorAssincrono#sincronizar()}.
+     * Uma falha de gravação não interrompe o treino (só deixa o checkpoint anterior em vigor).
+     */
+    private void salvarCheckpoint(String identificacao, int epoca, int[] permutacaoTreino, Random embaralhador,
+                                  ValidadorAssincrono validador) {
+        sincronizarPesosDouble();
+        double[][] melhoresPesos = null;
+        double[] historicoValidacao = new double[0];
+        double melhorErro = Double.MAX_VALUE;
+        int epocaMelhor = 0;
+        if (validador != null) {
+            ValidadorAssincrono.InstantaneoPesos melhores = validador.melhores();
+            melhoresPesos = CheckpointUtils.copiarDados(melhores.W1.data, melhores.b1.data, melhores.W2.data, melhores.b2.data);
+            historicoValidacao = validador.historicoErro().stream().mapToDouble(Double::doubleValue).toArray();
+            melhorErro = validador.melhorErro();
+            epocaMelhor = validador.epocaMelhor();
+        }
+        CheckpointTreino checkpoint = new CheckpointTreino(
+                identificacao,
+                epoca,
+                CheckpointUtils.copiarDados(this.W1.getDDRM().data, this.b1.getDDRM().data, this.W2.getDDRM().data, this.b2.getDDRM().data),
+                permutacaoTreino,
+                embaralhador != null ? CheckpointUtils.serializarGerador(embaralhador) : null,
+                this.historicoErro.stream().mapToDouble(Double::doubleValue).toArray(),
+                historicoValidacao,
+                melhorErro,
+                epocaMelhor,
+                melhoresPesos);
+        try {
+            CheckpointUtils.salvarCheckpoint(this.arquivoCheckpoint, checkpoint);
+        } catch (IOException e) {
+            System.err.println("Erro ao gravar o checkpoint " + this.arquivoCheckpoint + " na epoca " + epoca + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Executa uma época de Gradiente Descendente Estocástico em mini-lotes:
+     * reembaralha a permutação de índices e, para cada faixa de `tamanhoLote` índices,
+     * executa forward, backward e atualização de pesos. As linhas de X e Y são lidas pelos índices, sem cópia.
+     *
+     * @param xTreino               Matriz de dados de entrada para treinamento.
+     * @param yTreino               Índices das classes verdadeiras das amostras de treinamento.
+     * @param permutacao            Permutação de índices das amostras de treino (reembaralhada in-place).
+     * @param embaralhador          Gerador usado no embaralhamento (mantém a sequência reproduzível entre épocas).
+     * @param parametrosTreinamento Definicao dos hiperparametros para o treinamento.
+     * @return O erro quadrático médio da época (média dos erros dos lotes, ponderada pelo tamanho de cada lote).
+     */
+    private double executarEpocaMiniLote(SimpleMatrix xTreino, int[] yTreino,
+                                         int[] permutacao, Random embaralhador,
+                                         ParametrosTreinamento parametrosTreinamento) {
+        embaralhar(permutacao, embaralhador);
+
+        double somaErrosLotes = 0;
+        for (int inicio = 0; inicio < permutacao.length; inicio += parametrosTreinamento.tamanhoLote()) {
+            int fim = Math.min(inicio + parametrosTreinamento.tamanhoLote(), permutacao.length);
+            this.forward(xTreino, permutacao, inicio, fim);
+            somaErrosLotes += this.erroQuadraticoMedio(yTreino) * (fim - inicio);
+            this.backward(yTreino);
+            this.atualizarPesos(parametrosTreinamento.taxaAprendizado());
+        }
+        return somaErrosLotes / permutacao.length;
+    }
+
+    /**
+     * Executa uma época sobre um dataset compacto: reembaralha a permutação e, para cada faixa de `tamanhoLote`
+     * índices, preenche a entrada binária reaproveitada com os pixels ativos do lote e executa forward, backward e
+     * atualização de pesos. Com um único lote, as amostras seguem na ordem do conjunto, como no treino denso.
+     *
+     * @return O erro quadrático médio da época (média dos erros dos lotes, ponderada pelo tamanho de cada lote).
+     */
+    private double executarEpocaCompacta(DatasetCompacto treino, int[] permutacao, Random embaralhador,
+                                         int tamanhoLote, double taxaAprendizado) {
+        if (tamanhoLote >= permutacao.length) {
+            // Lote completo: a ordem das amostras não muda o gradiente, então a entrada é montada uma vez por treino
+            if (this.origemLoteCompacto != treino) {
+                treino.expandirLote(null, 0, permutacao.length, this.loteCompactoEntrada, this.loteCompactoRotulos);
+                this.origemLoteCompacto = treino;
+            }
+            this.forward(this.loteCompactoEntrada);
+            double erroEpoca = this.erroQuadraticoMedio(this.loteCompactoRotulos);
+            this.backward(this.loteCompactoRotulos);
+            this.atualizarPesos(taxaAprendizado);
+            return erroEpoca;
+        }
+        embaralhar(permutacao, embaralhador);
+
+        this.origemLoteCompacto = null;
+        double somaErrosLotes = 0;
+        for (int inicio = 0; inicio < permutacao.length; inicio += tamanhoLote) {
+            int fim = Math.min(inicio + tamanhoLote, permutacao.length);
+            treino.expandirLote(permutacao, inicio, fim, this.loteCompactoEntrada, this.loteCompactoRotulos);
+            this.forward(this.loteCompactoEntrada);
+            somaErrosLotes += this.erroQuadraticoMedio(this.loteCompactoRotulos) * (fim - inicio);
+            this.backward(this.loteCompactoRotulos);
+            this.atualizarPesos(taxaAprendizado);
+        }
+        return somaErrosLotes / permutacao.length;
+    }
+
+    /**
+     * Embaralhamento de Fisher-Yates sobre os índices (sem boxing e sem mover as linhas de X/Y).
+     */
+    private static void embaralhar(int[] permutacao, Random embaralhador) {
+        for (int i = permutacao.length - 1; i > 0; i--) {
+            int j = embaralhador.nextInt(i + 1);
+            int temp = permutacao[i];
+            permutacao[i] = permutacao[j];
+            permutacao[j] = temp;
+        }
+    }
+
     /**
      * Realiza previsões para um novo conjunto de dados de entrada usando a rede treinada.
-     * Essencialmente, executa apenas o passo forward.
+     * Essencialmente, executa apenas o passo forward (sobre os buffers de treino: não deve ser chamado durante o treino
+     * nem por várias threads; para isso, ver {@link #extrairModeloInferencia()}).
      *
      * @param xTeste Matriz com as amostras de entrada para as quais fazer a previsão.
      * @return A matriz de saída da rede (probabilidades ou ativações) para as entradas de teste.
      */
     public SimpleMatrix prever(SimpleMatrix xTeste) {
-        return this.forward(xTeste);
+        // Copia a saída, pois forward devolve uma visão do buffer interno que é reutilizado a cada chamada
+        return this.forward(xTeste).copy();
+    }
+
+    /**
+     * Realiza previsões para as amostras de uma visão, lendo as linhas do bloco pelos índices (sem cópia de X).
+     *
+     * @param teste Visão das amostras para as quais fazer a previsão.
+     * @return A matriz de saída da rede, uma linha por amostra na ordem da visão.
+     */
+    public SimpleMatrix prever(VisaoDataset teste) {
+        return this.forward(teste.x(), teste.indices(), 0, teste.numAmostras()).copy();
+    }
+
+    /**
+     * Em precisão FLOAT, copia os pesos float do motor para W1, b1, W2, b2 (double). Sem efeito em DOUBLE.
+     */
+    private void sincronizarPesosDouble() {
+        if (this.motorPrecisaoSimples != null) {
+            this.motorPrecisaoSimples.copiarPesosPara(this.W1, this.b1, this.W2, this.b2);
+        }
     }
 
     /**
      * Restaura os pesos e biases da rede para os melhores valores salvos
      * durante o treinamento com parada antecipada.
      */
-    private void restaurarMelhoresPesos() {
-        if (this.melhorW1 != null) { // Verifica se houve pelo menos uma melhoria
-            this.W1 = this.melhorW1.copy();
-            this.b1 = this.melhorB1.copy();
-            this.W2 = this.melhorW2.copy();
-            this.b2 = this.melhorB2.copy();
+    private void restaurarMelhoresPesos(ValidadorAssincrono validador) {
+        if (validador.epocaMelhor() > 0) { // Verifica se houve pelo menos uma melhoria
+            // Cópia in-place para as matrizes da rede (sem alocação)
+            ValidadorAssincrono.InstantaneoPesos melhores = validador.melhores();
+            this.W1.getDDRM().setTo(melhores.W1);
+            this.b1.getDDRM().setTo(melhores.b1);
+            this.W2.getDDRM().setTo(melhores.W2);
+            this.b2.getDDRM().setTo(melhores.b2);
+            if (this.motorPrecisaoSimples != null) {
+                this.motorPrecisaoSimples.carregarPesos(this.W1, this.b1, this.W2, this.b2);
+            }
         } else {
-            System.out.println("Aviso: Nenhum peso melhor foi salvo durante a validacao (erro de validacao nunca melhorou?). Usando pesos da última época.");
+            this.saidaLog.println("Aviso: Nenhum peso melhor foi salvo durante a validacao (erro de validacao nunca melhorou?). Usando pesos da última época.");
         }
     }
 }
\ No newline at end of file
@@ -1,19 +1,25 @@
 package br.com.usp.ach2016;
 
 import static br.com.usp.ach2016.Constants.*;
+import static br.com.usp.ach2016.utils.CacheUtils.removerEntradasObsoletas;
 import static br.com.usp.ach2016.utils.DataUtils.*;
 import static br.com.usp.ach2016.utils.IOUtils.*;
 
+import br.com.usp.ach2016.executions.AgendadorExecucoes;
 import br.com.usp.ach2016.executions.Execucao;
+import br.com.usp.ach2016.executions.ExecucaoBuscaHiperparametros;
+import br.com.usp.ach2016.executions.ExecucaoComMarcosEpocas;
 import br.com.usp.ach2016.executions.ExecucaoComParadaAntecipada;
+import br.com.usp.ach2016.executions.ExecucaoComparacaoPrecisao;
+import br.com.usp.ach2016.executions.ExecucaoCompacta;
 import br.com.usp.ach2016.executions.ExecucaoSimples;
 import br.com.usp.ach2016.executions.ExecucaoValidacaoCruzada;
 import br.com.usp.ach2016.model.Dataset;
+import br.com.usp.ach2016.model.DatasetCompacto;
+import br.com.usp.ach2016.model.ParametrosBusca;
 import br.com.usp.ach2016.model.ParametrosRede;
 import br.com.usp.ach2016.model.ParametrosTreinamento;
 
-import java.util.Random;
-
 /**
  * Classe que orquestra a execução do EP1 - MLP.
  */
@@ -21,6 +27,22 @@ public class Main {
 
     public static void main(String[] args) {
         criarPastaResultados();
+        removerEntradasObsoletas(); // Cache de resultados de versões anteriores do motor
+
+        // --- Execução 6 (argumento "compacta"): Treino sobre o dataset compacto, sem carregar a matriz densa ---
+        if (args.length > 0 && args[0].equals("compacta")) {
+            System.out.println("\n--- Carregando Dataset Compacto para " + NOME_PROBLEMA + " ---");
+            DatasetCompacto datasetCompacto = carregarDatasetCompacto(CAMINHO_X, CAMINHO_Y);
+            if (datasetCompacto == null) {
+                System.err.println("Falha ao carregar dados. Encerrando.");
+                return;
+            }
+            Execucao execucaoCompacta = getExecucaoCompacta(datasetCompacto);
+            execucaoCompacta.executar();
+            execucaoCompacta.gravacoesConcluidas().join(); // Arquivos de resultados gravados em segundo plano
+            System.out.println("\n\nTodas as execucoes foram concluidas.");
+            return;
+        }
 
         // --- Carregamento dos Dados ---
         System.out.println("\n--- Carregando Dados para " + NOME_PROBLEMA + " ---");
@@ -30,10 +52,20 @@ public class Main {
             return;
         }
 
+        // --- Execução 4 (argumento "comparacao-precisao"): Validação do motor float32 contra o double ---
+        if (args.length > 0 && args[0].equals("comparacao-precisao")) {
+            Execucao execucaoComparacaoPrecisao = getExecucaoComparacaoPrecisao(dataset);
+            execucaoComparacaoPrecisao.executar();
+            execucaoComparacaoPrecisao.gravacoesConcluidas().join(); // Arquivos de resultados gravados em segundo plano
+            System.out.println("\n\nTodas as execucoes foram concluidas.");
+            return;
+        }
+
         // --- Execução 1: Treino Simples (Sem Validação Cruzada, Sem Parada Antecipada) ---
         Execucao execucaoSimples = getExecucaoSimples(dataset);
         //System.out.println("\n\n===== EXECUCAO 1: TREINO SIMPLES (SEM VALIDACAO/PARADA ANTECIPADA) =====");
         execucaoSimples.executar();
+        execucaoSimples.gravacoesConcluidas().join(); // Arquivos de resultados gravados em segundo plano
 
         //batchExecutar(dataset);
 
@@ -48,41 +80,11 @@ public class Main {
         //System.out.println("\n\n===== EXECUCAO 3: TREINO COM VALIDACAO CRUZADA =====");
         //execucaoComValidacaoCruzada.executar();
 
-        System.out.println("\n\nTodas as execucoes foram concluidas.");
-    }
+        // --- Execução 5: Busca de hiperparâmetros por divisões sucessivas ---
+        //Execucao execucaoBuscaHiperparametros = getExecucaoBuscaHiperparametros(dataset);
+        //execucaoBuscaHiperparametros.executar();
 
-    public static void executarBatchExploracaoAleatoria(Dataset dataset) {
-        System.out.println("\n\n===== INICIANDO BATCH DE EXPLORAÇÃO ALEATÓRIA DE HIPERPARÂMETROS =====");
-        System.out.println("Pressione Ctrl+C para interromper o batch a qualquer momento.");
-
-        Random seletorHiperparametros = new Random(); // Semente não fixa para variar a cada execução do Main
-
-        // Defina os intervalos e opções para os hiperparâmetros
-        int[] opcoesHiddenSize = {25, 50, 75, 100, 125, 150, 200};
-        double[] opcoesTaxaAprendizado = {0.75, 1.0, 1.25, 1.50, 1.75};
-        int minEpocas = 100;
-        int maxEpocas = 70000; // Limite superior para épocas
-
-        while (true) {
-            // Selecionar hiperparâmetros aleatoriamente
-            int hiddenSizeAtual = opcoesHiddenSize[seletorHiperparametros.nextInt(opcoesHiddenSize.length)];
-            double taxaAprendizadoAtual = opcoesTaxaAprendizado[seletorHiperparametros.nextInt(opcoesTaxaAprendizado.length)];
-            // Gera épocas aleatórias entre minEpocas e maxEpocas, em múltiplos de (ex) 1000
-            int epocasAtuais = seletorHiperparametros.nextInt((maxEpocas - minEpocas) / 1000 + 1) * 1000;
-
-
-            ParametrosRede configRede = new ParametrosRede(
-                    dataset.xTreino().getNumCols(), hiddenSizeAtual, dataset.yTreino().getNumCols(),
-                    SEMENTE_ALEATORIA, // Semente fixa para a MLP, para reprodutibilidade DA MLP
-                    NOME_PROBLEMA + "_Simples"
-            );
-            ParametrosTreinamento configTreino = new ParametrosTreinamento(
-                    taxaAprendizadoAtual, epocasAtuais, 0
-            );
-
-            Execucao execucaoSimples = new ExecucaoSimples(dataset, configRede, configTreino);
-            execucaoSimples.executar();
-        }
+        System.out.println("\n\nTodas as execucoes foram concluidas.");
     }
 
         private static void batchExecutar(Dataset dataset) {
@@ -94,34 +96,36 @@ public class Main {
             int[] hiddenSizes = {5, 25, 50, 75, 100};
             int[] epocasParaTesteLR = {1000, 5000, 10000, 30000}; // Testar cada LR com poucas e muitas épocas
 
+            // Uma única trajetória por hiddenSize, avaliada em cada marco de épocas (sem retreinar as épocas iniciais);
+            // as trajetórias rodam ao mesmo tempo, limitadas ao número de processadores
+            AgendadorExecucoes agendador = new AgendadorExecucoes(NOME_PROBLEMA + "_Batch", Runtime.getRuntime().availableProcessors());
             for (int hiddenSize : hiddenSizes) {
-                for (int epocasAtuais : epocasParaTesteLR) {
 
                 ParametrosRede parametrosRedeSimples = new ParametrosRede(
-                        dataset.xTreino().getNumCols(),
+                        dataset.numAtributos(),
                         hiddenSize, // hiddenSize
-                        dataset.yTreino().getNumCols(),
+                        dataset.numClasses(),
                         SEMENTE_ALEATORIA,
-                        NOME_PROBLEMA + "_Simples"
+                        NOME_PROBLEMA + "_Simples_Marcos"
                 );
 
                 ParametrosTreinamento parametrosTreinamentoSimples = new ParametrosTreinamento(
                         5.00,
-                        epocasAtuais,
+                        epocasParaTesteLR[epocasParaTesteLR.length - 1],
                         0
                 );
 
-                Execucao execucaoSimples = new ExecucaoSimples(dataset, parametrosRedeSimples, parametrosTreinamentoSimples);
-                execucaoSimples.executar();
+                Execucao execucaoComMarcos = new ExecucaoComMarcosEpocas(dataset, parametrosRedeSimples, parametrosTreinamentoSimples, epocasParaTesteLR);
+                agendador.agendar(execucaoComMarcos);
             }
-        }
+            agendador.aguardarConclusao();
     }
 
     private static ExecucaoSimples getExecucaoSimples(Dataset dataset) {
         ParametrosRede parametrosRedeSimples = new ParametrosRede(
-                dataset.xTreino().getNumCols(),
+                dataset.numAtributos(),
                 50, // hiddenSize
-                dataset.yTreino().getNumCols(),
+                dataset.numClasses(),
                 SEMENTE_ALEATORIA,
                 NOME_PROBLEMA + "_Simples"
         );
@@ -136,9 +140,9 @@ public class Main {
 
     private static ExecucaoComParadaAntecipada getExecucaoComParadaAntecipada(Dataset dataset) {
         ParametrosRede parametrosRedeParadaAntecipada = new ParametrosRede(
-                dataset.xTreino().getNumCols(),
+                dataset.numAtributos(),
                 50,
-                dataset.yTreino().getNumCols(),
+                dataset.numClasses(),
                 SEMENTE_ALEATORIA,
                 NOME_PROBLEMA + "_ParadaAntecipada"
         );
@@ -150,11 +154,70 @@ public class Main {
         return new ExecucaoComParadaAntecipada(dataset, parametrosRedeParadaAntecipada, parametrosTreinamentoParadaAntecipada);
     }
 
+    private static ExecucaoComparacaoPrecisao getExecucaoComparacaoPrecisao(Dataset dataset) {
+        ParametrosRede parametrosRedeComparacao = new ParametrosRede(
+                dataset.numAtributos(),
+                50,
+                dataset.numClasses(),
+                SEMENTE_ALEATORIA,
+                NOME_PROBLEMA + "_ComparacaoPrecisao"
+        );
+        ParametrosTreinamento parametrosTreinamentoComparacao = new ParametrosTreinamento(
+                1.25,
+                5000,
+                0
+        );
+        return new ExecucaoComparacaoPrecisao(dataset, parametrosRedeComparacao, parametrosTreinamentoComparacao);
+    }
+
+    private static ExecucaoCompacta getExecucaoCompacta(DatasetCompacto datasetCompacto) {
+        ParametrosRede parametrosRedeCompacta = new ParametrosRede(
+                datasetCompacto.numAtributos(),
+                50,
+                datasetCompacto.numClasses(),
+                SEMENTE_ALEATORIA,
+                NOME_PROBLEMA + "_Compacta"
+        );
+        ParametrosTreinamento parametrosTreinamentoCompacta = new ParametrosTreinamento(
+                1.25,
+                5000,
+                0
+        );
+        return new ExecucaoCompacta(datasetCompacto, NUM_AMOSTRAS_TESTE, parametrosRedeCompacta, parametrosTreinamentoCompacta);
+    }
+
+    private static ExecucaoBuscaHiperparametros getExecucaoBuscaHiperparametros(Dataset dataset) {
+        ParametrosRede parametrosRedeBusca = new ParametrosRede(
+                dataset.numAtributos(),
+                50, // sorteado pela busca
+                dataset.numClasses(),
+                SEMENTE_ALEATORIA,
+                NOME_PROBLEMA + "_BuscaHiperparametros"
+        );
+        ParametrosTreinamento parametrosTreinamentoBusca = new ParametrosTreinamento(
+                1.25,  // sorteada pela busca
+                0,     // definidas pelos marcos da busca
+                0
+        );
+        ParametrosBusca parametrosBusca = new ParametrosBusca(
+                27,                                         // configurações na primeira rodada
+                new int[]{25, 50, 75, 100, 125, 150, 200},  // opções de camada escondida
+                new double[]{0.75, 1.0, 1.25, 1.50, 1.75},  // opções de taxa de aprendizado
+                300,     // épocas da primeira rodada (27 x 300, 9 x 900, 3 x 2700, 1 x 8100)
+                3,       // fator de redução
+                70000,   // épocas máximas por configuração
+                200000,  // orçamento total de épocas
+                Runtime.getRuntime().availableProcessors(),
+                System.currentTimeMillis() // Semente não fixa para variar a cada execução do Main
+        );
+        return new ExecucaoBuscaHiperparametros(dataset, parametrosRedeBusca, parametrosTreinamentoBusca, parametrosBusca);
+    }
+
     private static ExecucaoValidacaoCruzada getExecucaoComValidacaoCruzada(Dataset dataset) {
         ParametrosRede parametrosRedeValidacaoCruzada = new ParametrosRede(
-                dataset.xTreino().getNumCols(),
+                dataset.numAtributos(),
                 50,
-                dataset.yTreino().getNumCols(),
+                dataset.numClasses(),
                 SEMENTE_ALEATORIA,
                 NOME_PROBLEMA + "_ValidacaoCruzada"
         );
@@ -0,0 +1,122 @@
+package br.com.usp.ach2016;
+
+import br.com.usp.ach2016.model.CheckpointTreino;
+import br.com.usp.ach2016.model.ParametrosRede;
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.CommonOps_DDRM;
+import org.ejml.ops.MatrixIO;
+import org.ejml.simple.SimpleMatrix;
+
+import java.io.IOException;
+
+/**
+ * Modelo de inferência imutável extraído de uma MLP treinada (ver {@link MLP#extrairModeloInferencia()}).
+ * Guarda uma cópia própria dos pesos, que nunca é alterada: o treino da MLP de origem pode continuar sem afetar
+ * o modelo, e uma única instância atende previsões de várias threads ao mesmo tempo, sem locks.
+ * O único estado mutável é o buffer da camada escondida, um por thread (ThreadLocal), redimensionado só quando
+ * o lote da thread cresce.
+ * <p>
+ * O forward é sempre em double: sigmoid(sigmoid(X @ W1 + b1) @ W2 + b2). Em uma rede treinada em FLOAT, os pesos
+ * são os float do motor convertidos para double.
+ */
+public final class ModeloInferencia {
+
+    public final ParametrosRede parametrosRede;
+    private final DMatrixRMaj W1, b1, W2, b2;
+    private final ThreadLocal<DMatrixRMaj> camadaEscondida;
+
+    /**
+     * Copia os pesos (as matrizes de origem podem ser alteradas depois).
+     */
+    ModeloInferencia(ParametrosRede parametrosRede, DMatrixRMaj W1, DMatrixRMaj b1, DMatrixRMaj W2, DMatrixRMaj b2) {
+        if (W1.numRows != parametrosRede.tamanhoEntrada() || W1.numCols != parametrosRede.tamanhoCamadaEscondida()
+                || b1.getNumElements() != parametrosRede.tamanhoCamadaEscondida()
+                || W2.numRows != parametrosRede.tamanhoCamadaEscondida() || W2.numCols != parametrosRede.tamanhoSaida()
+                || b2.getNumElements() != parametrosRede.tamanhoSaida()) {
+            throw new IllegalArgumentException("Pesos incompatíveis com a arquitetura " + parametrosRede.tamanhoEntrada() + "-" +
+                    parametrosRede.tamanhoCamadaEscondida() + "-" + parametrosRede.tamanhoSaida() + ".");
+        }
+        this.parametrosRede = parametrosRede;
+        this.W1 = W1.copy();
+        this.b1 = b1.copy();
+        this.W2 = W2.copy();
+        this.b2 = b2.copy();
+        this.camadaEscondida = ThreadLocal.withInitial(() -> new DMatrixRMaj(1, parametrosRede.tamanhoCamadaEscondida()));
+    }
+
+    /**
+     * Carrega os pesos finais salvos por {@link br.com.usp.ach2016.utils.IOUtils#salvarPesosFinais} (CSV do EJML,
+     * sem perda de precisão). A arquitetura vem das dimensões das matrizes.
+     *
+     * @param caminhoPastaDaExecucao Pasta de resultados da execução.
+     */
+    public static ModeloInferencia carregarPesosFinais(String caminhoPastaDaExecucao) throws IOException {
+        DMatrixRMaj W1 = MatrixIO.loadCSV(caminhoPastaDaExecucao + "/pesos_finais_W1.csv", true);
+        DMatrixRMaj b1 = MatrixIO.loadCSV(caminhoPastaDaExecucao + "/bias_final_b1.csv", true);
+        DMatrixRMaj W2 = MatrixIO.loadCSV(caminhoPastaDaExecucao + "/pesos_finais_W2.csv", true);
+        DMatrixRMaj b2 = MatrixIO.loadCSV(caminhoPastaDaExecucao + "/bias_final_b2.csv", true);
+        // A semente não é usada na inferência
+        ParametrosRede parametrosRede = new ParametrosRede(W1.numRows, W1.numCols, W2.numCols, 0L, caminhoPastaDaExecucao);
+        return new ModeloInferencia(parametrosRede, W1, b1, W2, b2);
+    }
+
+    /**
+     * Cria o modelo com os pesos de um checkpoint de treino (ver {@link br.com.usp.ach2016.utils.CheckpointUtils}).
+     *
+     * @param parametrosRede Arquitetura da rede que gravou o checkpoint.
+     */
+    public static ModeloInferencia deCheckpoint(CheckpointTreino checkpoint, ParametrosRede parametrosRede) {
+        final int entrada = parametrosRede.tamanhoEntrada();
+        final int escondida = parametrosRede.tamanhoCamadaEscondida();
+        final int saida = parametrosRede.tamanhoSaida();
+        double[][] pesos = checkpoint.pesos();
+        if (pesos.length != 4 || pesos[0].length != entrada * escondida || pesos[1].length != escondida
+                || pesos[2].length != escondida * saida || pesos[3].length != saida) {
+            throw new IllegalArgumentException("Checkpoint com pesos incompatíveis com a arquitetura " + entrada + "-" +
+                    escondida + "-" + saida + ".");
+        }
+        return new ModeloInferencia(parametrosRede,
+                DMatrixRMaj.wrap(entrada, escondida, pesos[0]), DMatrixRMaj.wrap(1, escondida, pesos[1]),
+                DMatrixRMaj.wrap(escondida, saida, pesos[2]), DMatrixRMaj.wrap(1, saida, pesos[3]));
+    }
+
+    /**
+     * Calcula a saída da rede para as amostras.
+     *
+     * @param entradaX Amostras de entrada. Shape: [numAmostras, tamanhoEntrada].
+     * @return Uma nova matriz com a saída da rede. Shape: [numAmostras, tamanhoSaida].
+     */
+    public SimpleMatrix prever(SimpleMatrix entradaX) {
+        DMatrixRMaj saida = new DMatrixRMaj(entradaX.getNumRows(), this.parametrosRede.tamanhoSaida());
+        prever(entradaX.getDDRM(), saida);
+        return SimpleMatrix.wrap(saida);
+    }
+
+    /**
+     * Calcula a saída da rede em um buffer do chamador (sem alocar, depois do primeiro lote de cada tamanho na thread).
+     *
+     * @param entradaX Amostras de entrada. Shape: [numAmostras, tamanhoEntrada].
+     * @param saida    Destino, redimensionado para [numAmostras, tamanhoSaida].
+     */
+    public void prever(DMatrixRMaj entradaX, DMatrixRMaj saida) {
+        if (entradaX.numCols != this.parametrosRede.tamanhoEntrada()) {
+            throw new IllegalArgumentException("Entrada com " + entradaX.numCols + " atributos para um modelo de " +
+                    this.parametrosRede.tamanhoEntrada() + " entradas.");
+        }
+        DMatrixRMaj a1 = this.camadaEscondida.get();
+        a1.reshape(entradaX.numRows, this.parametrosRede.tamanhoCamadaEscondida());
+        saida.reshape(entradaX.numRows, this.parametrosRede.tamanhoSaida());
+        CommonOps_DDRM.mult(entradaX, this.W1, a1);
+        MLP.somarBiasEAplicarSigmoid(a1, this.b1);
+        CommonOps_DDRM.mult(a1, this.W2, saida);
+        MLP.somarBiasEAplicarSigmoid(saida, this.b2);
+    }
+
+    public int tamanhoEntrada() {
+        return this.parametrosRede.tamanhoEntrada();
+    }
+
+    public int tamanhoSaida() {
+        return this.parametrosRede.tamanhoSaida();
+    }
+}
@@ -0,0 +1,328 @@
+package br.com.usp.ach2016;
+
+import br.com.usp.ach2016.model.EntradaBinaria;
+import br.com.usp.ach2016.model.ParametrosRede;
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.data.FMatrixRMaj;
+import org.ejml.dense.row.CommonOps_FDRM;
+import org.ejml.simple.SimpleMatrix;
+
+import java.util.Arrays;
+
+/**
+ * Motor de cálculo em precisão simples (float32) da MLP, usado quando ParametrosRede.precisao() == FLOAT.
+ * Mantém cópias float dos pesos, das entradas e de todos os buffers de forward/backward (EJML FMatrixRMaj),
+ * reduzindo pela metade a memória trafegada por época. Os pesos double da MLP só são atualizados
+ * quando sincronizados explicitamente (fim do treino, checkpoints de parada antecipada).
+ * <p>
+ * Os mesmos caminhos rápidos do motor double, em float: entrada binária pela lista de pixels ativos
+ * ({@link EntradaBinaria}, sem converter X), mini-lotes densos copiados para um bloco contíguo e multiplicados
+ * pelo EJML, e a sigmoid com uma exponencial calculada em float ({@link #expFloat}).
+ * O ganho esperado é de memória; nas medições o tempo por época ficou no mesmo patamar do motor double.
+ */
+final class MotorPrecisaoSimples {
+
+    private final int tamanhoEntrada, tamanhoEscondida, tamanhoSaida;
+
+    // --- Pesos e Biases em float ---
+    private final FMatrixRMaj W1, b1, W2, b2;
+
+    // --- Buffers do forward/backward ---
+    private final FMatrixRMaj a1, saida, deltaSaida, deltaEscondido;
+    private final FMatrixRMaj gradW1, gradB1, gradW2, gradB2;
+
+    // --- Cache das entradas convertidas para float (e da transposta, usada no lote completo) ---
+    // Duas posições: com parada antecipada, treino e validação se alternam a cada época sem reconversão.
+    private final FMatrixRMaj[] entradasConvertidas = new FMatrixRMaj[2];
+    private final SimpleMatrix[] origensConvertidas = new SimpleMatrix[2];
+    private int posicaoSubstituir = 0;
+    private FMatrixRMaj entradaX; // Entrada float do último forward
+    private SimpleMatrix origemEntradaX;
+    private final FMatrixRMaj entradaXTransposta;
+    private SimpleMatrix origemEntradaXTransposta;
+
+    // Lote do último forward (mesma convenção da MLP: indicesLote == null -> linhas contíguas)
+    private int[] indicesLote;
+    private int inicioLote, numAmostrasLote;
+    private EntradaBinaria entradaBinaria; // Pixels ativos da entrada do último forward (null -> caminho denso)
+    private final FMatrixRMaj loteX;       // Linhas densas do mini-lote, contíguas. Shape: [numAmostrasLote, tamanhoEntrada]
+
+    MotorPrecisaoSimples(ParametrosRede parametrosRede) {
+        this.tamanhoEntrada = parametrosRede.tamanhoEntrada();
+        this.tamanhoEscondida = parametrosRede.tamanhoCamadaEscondida();
+        this.tamanhoSaida = parametrosRede.tamanhoSaida();
+        this.W1 = new FMatrixRMaj(tamanhoEntrada, tamanhoEscondida);
+        this.b1 = new FMatrixRMaj(1, tamanhoEscondida);
+        this.W2 = new FMatrixRMaj(tamanhoEscondida, tamanhoSaida);
+        this.b2 = new FMatrixRMaj(1, tamanhoSaida);
+        this.a1 = new FMatrixRMaj(1, tamanhoEscondida);
+        this.saida = new FMatrixRMaj(1, tamanhoSaida);
+        this.deltaSaida = new FMatrixRMaj(1, tamanhoSaida);
+        this.deltaEscondido = new FMatrixRMaj(1, tamanhoEscondida);
+        this.gradW1 = new FMatrixRMaj(tamanhoEntrada, tamanhoEscondida);
+        this.gradB1 = new FMatrixRMaj(1, tamanhoEscondida);
+        this.gradW2 = new FMatrixRMaj(tamanhoEscondida, tamanhoSaida);
+        this.gradB2 = new FMatrixRMaj(1, tamanhoSaida);
+        this.entradasConvertidas[0] = new FMatrixRMaj(1, tamanhoEntrada);
+        this.entradasConvertidas[1] = new FMatrixRMaj(1, tamanhoEntrada);
+        this.entradaXTransposta = new FMatrixRMaj(tamanhoEntrada, 1);
+        this.loteX = new FMatrixRMaj(1, tamanhoEntrada);
+    }
+
+    /**
+     * Copia os pesos double da MLP para os pesos float do motor.
+     */
+    void carregarPesos(SimpleMatrix W1, SimpleMatrix b1, SimpleMatrix W2, SimpleMatrix b2) {
+        converter(W1.getDDRM(), this.W1);
+        converter(b1.getDDRM(), this.b1);
+        converter(W2.getDDRM(), this.W2);
+        converter(b2.getDDRM(), this.b2);
+    }
+
+    /**
+     * Copia os pesos float do motor para as matrizes double da MLP (in-place).
+     */
+    void copiarPesosPara(SimpleMatrix W1, SimpleMatrix b1, SimpleMatrix W2, SimpleMatrix b2) {
+        converter(this.W1, W1.getDDRM());
+        converter(this.b1, b1.getDDRM());
+        converter(this.W2, W2.getDDRM());
+        converter(this.b2, b2.getDDRM());
+    }
+
+    /**
+     * Invalida os caches da entrada convertida (a matriz de origem pode ter sido alterada entre treinos).
+     */
+    void invalidarCacheEntrada() {
+        Arrays.fill(this.origensConvertidas, null);
+        this.origemEntradaX = null;
+        this.origemEntradaXTransposta = null;
+    }
+
+    /**
+     * Passo forward em float para o lote [inicio, fim) (de `indices`, ou linhas contíguas se indices == null).
+     * O resultado é copiado para o buffer double de saída da MLP, para reaproveitar o cálculo de erro e as métricas.
+     *
+     * @param x              Entrada densa (ignorada quando entradaBinaria não é null).
+     * @param entradaBinaria Pixels ativos das linhas de x, ou null para o caminho denso.
+     * @param saidaRede      Buffer double já dimensionado para [fim - inicio, tamanhoSaida].
+     */
+    void forward(SimpleMatrix x, int[] indices, int inicio, int fim, EntradaBinaria entradaBinaria, DMatrixRMaj saidaRede) {
+        this.indicesLote = indices;
+        this.inicioLote = inicio;
+        this.numAmostrasLote = fim - inicio;
+        this.entradaBinaria = entradaBinaria;
+        this.a1.reshape(numAmostrasLote, tamanhoEscondida);
+        this.saida.reshape(numAmostrasLote, tamanhoSaida);
+
+        if (entradaBinaria != null) {
+            // Entrada binária: z1 = soma das linhas de W1 dos pixels ativos (sem multiplicações nem conversão de X)
+            final int[] inicioLinhas = entradaBinaria.inicioLinhas(), colunasAtivas = entradaBinaria.colunasAtivas();
+            final float[] w1 = this.W1.data, z1 = this.a1.data;
+            for (int r = 0; r < numAmostrasLote; r++) {
+                int linha = linhaDoLote(r);
+                int inicioLinhaZ = r * tamanhoEscondida;
+                Arrays.fill(z1, inicioLinhaZ, inicioLinhaZ + tamanhoEscondida, 0f);
+                for (int p = inicioLinhas[linha]; p < inicioLinhas[linha + 1]; p++) {
+                    int inicioLinhaW = colunasAtivas[p] * tamanhoEscondida;
+                    for (int j = 0; j < tamanhoEscondida; j++) {
+                        z1[inicioLinhaZ + j] += w1[inicioLinhaW + j];
+                    }
+                }
+            }
+        } else {
+            FMatrixRMaj xFloat = obterEntradaFloat(x);
+            if (ehEntradaCompleta()) {
+                CommonOps_FDRM.mult(xFloat, this.W1, this.a1);
+            } else {
+                // Mini-lote: copia as linhas do lote para um bloco contíguo e multiplica pelo EJML
+                this.loteX.reshape(numAmostrasLote, tamanhoEntrada);
+                for (int r = 0; r < numAmostrasLote; r++) {
+                    System.arraycopy(xFloat.data, linhaDoLote(r) * tamanhoEntrada, this.loteX.data, r * tamanhoEntrada, tamanhoEntrada);
+                }
+                CommonOps_FDRM.mult(this.loteX, this.W1, this.a1);
+            }
+        }
+        somarBiasEAplicarSigmoid(this.a1, this.b1);
+        CommonOps_FDRM.mult(this.a1, this.W2, this.saida);
+        somarBiasEAplicarSigmoid(this.saida, this.b2);
+
+        converter(this.saida, saidaRede);
+    }
+
+    /**
+     * Passo backward em float para o lote do último forward, preenchendo os gradientes somados do lote
+     * (a divisão pelo tamanho do lote é feita uma única vez no passo de {@link #atualizarPesos}).
+     *
+     * @param rotulos Índices das classes verdadeiras, indexados da mesma forma que a entrada do forward.
+     */
+    void backward(int[] rotulos) {
+        final int numAmostras = this.numAmostrasLote;
+        this.deltaSaida.reshape(numAmostras, tamanhoSaida);
+        this.deltaEscondido.reshape(numAmostras, tamanhoEscondida);
+
+        // Delta da saída: (a2 - y) * a2 * (1 - a2), com y one-hot implícito (subtrai 1 só na classe verdadeira)
+        final float[] dadosSaida = this.saida.data, dadosDeltaSaida = this.deltaSaida.data;
+        for (int r = 0; r < numAmostras; r++) {
+            int inicioLinha = r * tamanhoSaida;
+            for (int c = 0; c < tamanhoSaida; c++) {
+                float a = dadosSaida[inicioLinha + c];
+                dadosDeltaSaida[inicioLinha + c] = a * (a * (1f - a));
+            }
+            int indiceClasse = inicioLinha + rotulos[linhaDoLote(r)];
+            float a = dadosSaida[indiceClasse];
+            dadosDeltaSaida[indiceClasse] = (a - 1f) * (a * (1f - a));
+        }
+        CommonOps_FDRM.multTransA(this.a1, this.deltaSaida, this.gradW2);
+        somarColunas(this.deltaSaida, this.gradB2);
+
+        // Delta da camada escondida: (delta @ W2^T) * a1 * (1 - a1)
+        CommonOps_FDRM.multTransB(this.deltaSaida, this.W2, this.deltaEscondido);
+        final float[] dadosA1 = this.a1.data, dadosDeltaEscondido = this.deltaEscondido.data;
+        final int numElementosEscondida = this.deltaEscondido.getNumElements();
+        for (int i = 0; i < numElementosEscondida; i++) {
+            float a = dadosA1[i];
+            dadosDeltaEscondido[i] = dadosDeltaEscondido[i] * (a * (1f - a));
+        }
+        somarColunas(this.deltaEscondido, this.gradB1);
+
+        // gradW1 = X^T @ delta_hidden
+        if (this.entradaBinaria != null) {
+            // Entrada binária: delta_hidden de cada amostra somado só nas linhas de gradW1 dos pixels ativos
+            final int[] inicioLinhas = this.entradaBinaria.inicioLinhas(), colunasAtivas = this.entradaBinaria.colunasAtivas();
+            final float[] grad = this.gradW1.data;
+            Arrays.fill(grad, 0, tamanhoEntrada * tamanhoEscondida, 0f);
+            for (int r = 0; r < numAmostras; r++) {
+                int linha = linhaDoLote(r);
+                int inicioLinhaDelta = r * tamanhoEscondida;
+                for (int p = inicioLinhas[linha]; p < inicioLinhas[linha + 1]; p++) {
+                    int inicioLinhaGrad = colunasAtivas[p] * tamanhoEscondida;
+                    for (int j = 0; j < tamanhoEscondida; j++) {
+                        grad[inicioLinhaGrad + j] += dadosDeltaEscondido[inicioLinhaDelta + j];
+                    }
+                }
+            }
+        } else if (ehEntradaCompleta()) {
+            CommonOps_FDRM.mult(obterEntradaFloatTransposta(), this.deltaEscondido, this.gradW1);
+        } else {
+            CommonOps_FDRM.multTransA(this.loteX, this.deltaEscondido, this.gradW1);
+        }
+
+    }
+
+    /**
+     * Atualização in-place dos pesos float: W = W - (taxaAprendizado / tamanhoLote) * somaGradientes.
+     */
+    void atualizarPesos(double taxaAprendizado) {
+        float passo = (float) (-taxaAprendizado / this.numAmostrasLote);
+        CommonOps_FDRM.addEquals(this.W1, passo, this.gradW1);
+        CommonOps_FDRM.addEquals(this.b1, passo, this.gradB1);
+        CommonOps_FDRM.addEquals(this.W2, passo, this.gradW2);
+        CommonOps_FDRM.addEquals(this.b2, passo, this.gradB2);
+    }
+
+    private boolean ehEntradaCompleta() {
+        return this.indicesLote == null && this.inicioLote == 0 && this.numAmostrasLote == this.entradaX.numRows;
+    }
+
+    private int linhaDoLote(int posicaoNoLote) {
+        return this.indicesLote == null ? this.inicioLote + posicaoNoLote : this.indicesLote[this.inicioLote + posicaoNoLote];
+    }
+
+    /**
+     * Retorna a entrada convertida para float, convertendo apenas quando a matriz de origem não está no cache.
+     */
+    private FMatrixRMaj obterEntradaFloat(SimpleMatrix x) {
+        this.origemEntradaX = x;
+        for (int i = 0; i < this.origensConvertidas.length; i++) {
+            if (this.origensConvertidas[i] == x) {
+                this.entradaX = this.entradasConvertidas[i];
+                return this.entradaX;
+            }
+        }
+        int posicao = this.posicaoSubstituir;
+        this.posicaoSubstituir = (posicao + 1) % this.origensConvertidas.length;
+        converter(x.getDDRM(), this.entradasConvertidas[posicao]);
+        this.origensConvertidas[posicao] = x;
+        this.entradaX = this.entradasConvertidas[posicao];
+        return this.entradaX;
+    }
+
+    /**
+     * Retorna a transposta da entrada float atual, recalculando apenas quando a entrada muda.
+     */
+    private FMatrixRMaj obterEntradaFloatTransposta() {
+        if (this.origemEntradaXTransposta != this.origemEntradaX) {
+            CommonOps_FDRM.transpose(this.entradaX, this.entradaXTransposta);
+            this.origemEntradaXTransposta = this.origemEntradaX;
+        }
+        return this.entradaXTransposta;
+    }
+
+    private static void somarBiasEAplicarSigmoid(FMatrixRMaj z, FMatrixRMaj bias) {
+        final float[] dados = z.data, dadosBias = bias.data;
+        final int numCols = z.numCols;
+        int indice = 0;
+        for (int r = 0; r < z.numRows; r++) {
+            for (int c = 0; c < numCols; c++, indice++) {
+                // Clipping no intervalo em que exp() não estoura em float (a sigmoid já é 0 ou 1 fora dele)
+                float valor = Math.max(-LIMITE_EXP_FLOAT, Math.min(LIMITE_EXP_FLOAT, dados[indice] + dadosBias[c]));
+                dados[indice] = 1f / (1f + expFloat(-valor));
+            }
+        }
+    }
+
+    private static final float LIMITE_EXP_FLOAT = 87f;
+    private static final float LOG2_E = 1.44269504f;
+    private static final float LN2_ALTO = 0.693359375f;     // ln(2) = LN2_ALTO + LN2_BAIXO (LN2_ALTO exato em float)
+    private static final float LN2_BAIXO = -2.12194440e-4f;
+
+    /**
+     * exp(x) em float para |x| <= {@value #LIMITE_EXP_FLOAT}: x = n * ln(2) + r com |r| <= ln(2) / 2,
+     * exp(r) por um polinômio de grau 7 (coeficientes da expf do Cephes, erro relativo ~1e-7) e 2^n montado
+     * direto no expoente do float. Evita a exp() em double da biblioteca, que domina a sigmoid.
+     */
+    static float expFloat(float x) {
+        int n = (int) Math.floor(x * LOG2_E + 0.5f);
+        float r = x - n * LN2_ALTO - n * LN2_BAIXO;
+        float p = 1.9875691500e-4f;
+        p = p * r + 1.3981999507e-3f;
+        p = p * r + 8.3334519073e-3f;
+        p = p * r + 4.1665795894e-2f;
+        p = p * r + 1.6666665459e-1f;
+        p = p * r + 5.0000001201e-1f;
+        p = p * r * r + r + 1f;
+        return p * Float.intBitsToFloat((n + 127) << 23);
+    }
+
+    private static void somarColunas(FMatrixRMaj matriz, FMatrixRMaj destino) {
+        final float[] dados = matriz.data, soma = destino.data;
+        final int numCols = matriz.numCols;
+        Arrays.fill(soma, 0, numCols, 0f);
+        int indice = 0;
+        for (int r = 0; r < matriz.numRows; r++) {
+            for (int c = 0; c < numCols; c++, indice++) {
+                soma[c] += dados[indice];
+            }
+        }
+    }
+
+    private static void converter(DMatrixRMaj origem, FMatrixRMaj destino) {
+        destino.reshape(origem.numRows, origem.numCols);
+        final double[] dadosOrigem = origem.data;
+        final float[] dadosDestino = destino.data;
+        final int numElementos = origem.getNumElements();
+        for (int i = 0; i < numElementos; i++) {
+            dadosDestino[i] = (float) dadosOrigem[i];
+        }
+    }
+
+    private static void converter(FMatrixRMaj origem, DMatrixRMaj destino) {
+        destino.reshape(origem.numRows, origem.numCols);
+        final float[] dadosOrigem = origem.data;
+        final double[] dadosDestino = destino.data;
+        final int numElementos = origem.getNumElements();
+        for (int i = 0; i < numElementos; i++) {
+            dadosDestino[i] = dadosOrigem[i];
+        }
+    }
+}
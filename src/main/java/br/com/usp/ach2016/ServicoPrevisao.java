@@ -0,0 +1,410 @@
+package br.com.usp.ach2016;
+
+import br.com.usp.ach2016.utils.ParserUtils;
+import org.ejml.data.DMatrixRMaj;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Serviço de previsão embutível que agrupa pedidos de um glifo em micro-lotes.
+ * Os pedidos entram em uma fila sem locks (ConcurrentLinkedQueue) e uma thread de previsão os junta em um lote:
+ * o lote fecha quando atinge tamanhoMaximoLote ou quando o primeiro pedido do lote já esperou esperaMaximaMicros.
+ * O lote passa por um único forward matricial do {@link ModeloInferencia} e o future de cada pedido é concluído
+ * com a saída da sua amostra. A thread de previsão dorme (LockSupport.park) sem pedidos e é acordada por quem enfileira.
+ * <p>
+ * O modelo fica em uma AtomicReference e pode ser trocado com o serviço atendendo ({@link #publicarModelo}): o novo
+ * modelo é carregado e aquecido fora do caminho de previsão e publicado de uma vez. Cada lote lê a referência uma única
+ * vez, então um lote em andamento termina com o modelo antigo e nenhum pedido vê um modelo pela metade
+ * (o modelo é imutável e só fica visível depois de pronto).
+ * <p>
+ * Opcionalmente, o serviço atende outros processos locais por um socket TCP na interface de loopback, uma linha
+ * por pedido: a linha tem os pixels no formato do arquivo X (valores separados por vírgula, -1/1) e a resposta é
+ * "rótulo,índice da classe" (ou "ERRO mensagem"). Os pedidos de todas as conexões entram no mesmo micro-lote, e uma
+ * mesma conexão pode ter vários pedidos em andamento: as linhas são enfileiradas sem esperar as respostas anteriores,
+ * que são escritas na ordem dos pedidos.
+ */
+public final class ServicoPrevisao implements Closeable {
+
+    /**
+     * Pedido de previsão de uma amostra.
+     */
+    private record Pedido(double[] entrada, CompletableFuture<double[]> resultado) {
+    }
+
+    private final AtomicReference<ModeloInferencia> modelo;
+    private final List<Character> rotulosClasses;
+    private final int tamanhoMaximoLote;
+    private final long esperaMaximaNanos;
+
+    private final ConcurrentLinkedQueue<Pedido> fila = new ConcurrentLinkedQueue<>();
+    private final Thread threadPrevisao;
+    private volatile boolean ativo = true;
+
+    // Estatísticas dos lotes (tamanho médio do lote = pedidos / lotes)
+    private final AtomicLong numLotes = new AtomicLong();
+    private final AtomicLong numPedidos = new AtomicLong();
+
+    // Pedidos em andamento por conexão (acima disso a leitura da conexão espera as respostas mais antigas)
+    private static final int FATOR_PEDIDOS_POR_CONEXAO = 4;
+    private static final CompletableFuture<String> FIM_CONEXAO = CompletableFuture.completedFuture(null);
+
+    // --- Socket de loopback (null até iniciarSocket) ---
+    private ServerSocket servidor;
+    private ExecutorService conexoes;
+
+    /**
+     * @param modelo             Modelo inicial.
+     * @param rotulosClasses     Rótulo de cada classe (usado nas respostas do socket).
+     * @param tamanhoMaximoLote  Máximo de pedidos por forward.
+     * @param esperaMaximaMicros Tempo máximo que o primeiro pedido de um lote espera outros pedidos.
+     */
+    public ServicoPrevisao(ModeloInferencia modelo, List<Character> rotulosClasses, int tamanhoMaximoLote, long esperaMaximaMicros) {
+        if (tamanhoMaximoLote <= 0 || esperaMaximaMicros < 0) {
+            throw new IllegalArgumentException("Tamanho máximo do lote (" + tamanhoMaximoLote + ") deve ser positivo e a espera máxima (" +
+                    esperaMaximaMicros + " us) não negativa.");
+        }
+        if (rotulosClasses.size() != modelo.tamanhoSaida()) {
+            throw new IllegalArgumentException(rotulosClasses.size() + " rótulos para um modelo de " + modelo.tamanhoSaida() + " saídas.");
+        }
+        this.modelo = new AtomicReference<>(modelo);
+        this.rotulosClasses = List.copyOf(rotulosClasses);
+        this.tamanhoMaximoLote = tamanhoMaximoLote;
+        this.esperaMaximaNanos = esperaMaximaMicros * 1000;
+        this.threadPrevisao = new Thread(this::executar, "previsao-micro-lotes");
+        this.threadPrevisao.setDaemon(true);
+        this.threadPrevisao.start();
+    }
+
+    /**
+     * Enfileira a previsão de uma amostra.
+     *
+     * @param entrada Pixels da amostra (já convertidos para 0.0/1.0), com tamanhoEntrada valores. Não deve ser alterado
+     *                até o future concluir.
+     * @return Future com a saída da rede para a amostra (tamanhoSaida valores).
+     */
+    public CompletableFuture<double[]> prever(double[] entrada) {
+        if (entrada.length != this.modelo.get().tamanhoEntrada()) {
+            throw new IllegalArgumentException("Amostra com " + entrada.length + " valores para um modelo de " +
+                    this.modelo.get().tamanhoEntrada() + " entradas.");
+        }
+        CompletableFuture<double[]> resultado = new CompletableFuture<>();
+        if (!this.ativo) {
+            resultado.completeExceptionally(new IllegalStateException("Serviço de previsão encerrado."));
+            return resultado;
+        }
+        Pedido pedido = new Pedido(entrada, resultado);
+        this.fila.offer(pedido);
+        LockSupport.unpark(this.threadPrevisao);
+        // Encerramento concorrente: se a thread de previsão já saiu, o pedido não seria atendido
+        if (!this.ativo && this.fila.remove(pedido)) {
+            resultado.completeExceptionally(new IllegalStateException("Serviço de previsão encerrado."));
+        }
+        return resultado;
+    }
+
+    /**
+     * Enfileira a classificação de uma amostra.
+     *
+     * @return Future com o índice da classe de maior saída.
+     */
+    public CompletableFuture<Integer> classificar(double[] entrada) {
+        return prever(entrada).thenApply(ServicoPrevisao::indiceMaximo);
+    }
+
+    /**
+     * Troca o modelo sem pausar o serviço. Antes da publicação, o novo modelo é aquecido na thread chamadora com um
+     * lote cheio (JIT do forward e verificação de que as saídas são finitas); os lotes já em andamento terminam com
+     * o modelo anterior e os seguintes usam o novo.
+     *
+     * @param novoModelo Modelo com as mesmas dimensões de entrada e saída (a camada escondida pode mudar).
+     * @return O modelo anterior.
+     * @throws IllegalArgumentException Se as dimensões não conferem ou o aquecimento gera saídas não finitas
+     *                                  (nesse caso o modelo atual continua publicado).
+     */
+    public ModeloInferencia publicarModelo(ModeloInferencia novoModelo) {
+        ModeloInferencia atual = this.modelo.get();
+        if (novoModelo.tamanhoEntrada() != atual.tamanhoEntrada() || novoModelo.tamanhoSaida() != atual.tamanhoSaida()) {
+            throw new IllegalArgumentException("Novo modelo (" + novoModelo.tamanhoEntrada() + " entradas, " + novoModelo.tamanhoSaida() +
+                    " saídas) incompatível com o serviço (" + atual.tamanhoEntrada() + " entradas, " + atual.tamanhoSaida() + " saídas).");
+        }
+        DMatrixRMaj entradasAquecimento = new DMatrixRMaj(this.tamanhoMaximoLote, novoModelo.tamanhoEntrada());
+        for (int i = 0; i < entradasAquecimento.data.length; i += 2) {
+            entradasAquecimento.data[i] = 1.0;
+        }
+        DMatrixRMaj saidasAquecimento = new DMatrixRMaj(this.tamanhoMaximoLote, novoModelo.tamanhoSaida());
+        novoModelo.prever(entradasAquecimento, saidasAquecimento);
+        for (double valor : saidasAquecimento.data) {
+            if (!Double.isFinite(valor)) {
+                throw new IllegalArgumentException("Novo modelo gera saídas não finitas; modelo atual mantido.");
+            }
+        }
+        return this.modelo.getAndSet(novoModelo);
+    }
+
+    /**
+     * Carrega os pesos finais de uma pasta de resultados e os publica (ver {@link #publicarModelo}).
+     *
+     * @return O modelo anterior.
+     */
+    public ModeloInferencia recarregarPesosFinais(String caminhoPastaDaExecucao) throws IOException {
+        return publicarModelo(ModeloInferencia.carregarPesosFinais(caminhoPastaDaExecucao));
+    }
+
+    /**
+     * Passa a atender pedidos por um socket TCP na interface de loopback.
+     *
+     * @param porta Porta; 0 escolhe uma porta livre.
+     * @return A porta em uso.
+     */
+    public synchronized int iniciarSocket(int porta) throws IOException {
+        if (this.servidor != null) {
+            throw new IllegalStateException("O socket do serviço de previsão já foi iniciado na porta " + this.servidor.getLocalPort() + ".");
+        }
+        this.servidor = new ServerSocket(porta, 50, InetAddress.getLoopbackAddress());
+        this.conexoes = Executors.newCachedThreadPool(tarefa -> {
+            Thread thread = new Thread(tarefa, "previsao-conexao");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.conexoes.execute(this::aceitarConexoes);
+        return this.servidor.getLocalPort();
+    }
+
+    /**
+     * @return Tamanho médio dos lotes executados até agora (0 se nenhum).
+     */
+    public double tamanhoMedioLote() {
+        long lotes = this.numLotes.get();
+        return lotes == 0 ? 0 : (double) this.numPedidos.get() / lotes;
+    }
+
+    /**
+     * Para de aceitar pedidos, conclui os que já estão na fila e fecha o socket.
+     */
+    @Override
+    public void close() {
+        this.ativo = false;
+        LockSupport.unpark(this.threadPrevisao);
+        synchronized (this) {
+            if (this.servidor != null) {
+                try {
+                    this.servidor.close();
+                } catch (IOException e) {
+                    System.err.println("Erro ao fechar o socket do serviço de previsão: " + e.getMessage());
+                }
+                this.conexoes.shutdownNow();
+            }
+        }
+        try {
+            this.threadPrevisao.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Pedido pendente;
+        while ((pendente = this.fila.poll()) != null) {
+            pendente.resultado().completeExceptionally(new IllegalStateException("Serviço de previsão encerrado."));
+        }
+    }
+
+    /**
+     * Laço da thread de previsão: monta cada lote e executa o forward.
+     */
+    private void executar() {
+        final Pedido[] lote = new Pedido[this.tamanhoMaximoLote];
+        // As dimensões de entrada e saída não mudam entre modelos (ver publicarModelo)
+        final DMatrixRMaj entradas = new DMatrixRMaj(this.tamanhoMaximoLote, this.modelo.get().tamanhoEntrada());
+        final DMatrixRMaj saidas = new DMatrixRMaj(this.tamanhoMaximoLote, this.modelo.get().tamanhoSaida());
+        while (true) {
+            Pedido primeiro = this.fila.poll();
+            if (primeiro == null) {
+                if (!this.ativo) {
+                    // Pedidos enfileirados durante o encerramento ainda são atendidos
+                    if (this.fila.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+                LockSupport.park(this);
+                continue;
+            }
+
+            // O lote fecha quando enche ou quando o primeiro pedido atinge a espera máxima
+            int numPedidosLote = 0;
+            lote[numPedidosLote++] = primeiro;
+            final long limite = System.nanoTime() + this.esperaMaximaNanos;
+            while (numPedidosLote < this.tamanhoMaximoLote) {
+                Pedido pedido = this.fila.poll();
+                if (pedido != null) {
+                    lote[numPedidosLote++] = pedido;
+                    continue;
+                }
+                long restante = limite - System.nanoTime();
+                if (restante <= 0 || !this.ativo) {
+                    break;
+                }
+                LockSupport.parkNanos(this, restante);
+            }
+
+            executarLote(lote, numPedidosLote, entradas, saidas);
+            for (int i = 0; i < numPedidosLote; i++) {
+                lote[i] = null;
+            }
+        }
+    }
+
+    private void executarLote(Pedido[] lote, int numPedidosLote, DMatrixRMaj entradas, DMatrixRMaj saidas) {
+        try {
+            // Um único modelo por lote: uma troca concorrente só vale a partir do próximo lote
+            final ModeloInferencia modeloLote = this.modelo.get();
+            final int numEntradas = modeloLote.tamanhoEntrada();
+            final int numSaidas = modeloLote.tamanhoSaida();
+            entradas.reshape(numPedidosLote, numEntradas, false);
+            for (int i = 0; i < numPedidosLote; i++) {
+                System.arraycopy(lote[i].entrada(), 0, entradas.data, i * numEntradas, numEntradas);
+            }
+            modeloLote.prever(entradas, saidas);
+            this.numLotes.incrementAndGet();
+            this.numPedidos.addAndGet(numPedidosLote);
+            for (int i = 0; i < numPedidosLote; i++) {
+                double[] saida = new double[numSaidas];
+                System.arraycopy(saidas.data, i * numSaidas, saida, 0, numSaidas);
+                lote[i].resultado().complete(saida);
+            }
+        } catch (RuntimeException e) {
+            for (int i = 0; i < numPedidosLote; i++) {
+                lote[i].resultado().completeExceptionally(e);
+            }
+        }
+    }
+
+    private void aceitarConexoes() {
+        while (!this.servidor.isClosed()) {
+            try {
+                Socket conexao = this.servidor.accept();
+                this.conexoes.execute(() -> atenderConexao(conexao));
+            } catch (SocketException e) {
+                return; // Socket fechado por close()
+            } catch (IOException e) {
+                System.err.println("Erro ao aceitar conexão no serviço de previsão: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Atende os pedidos de uma conexão, um por linha. Esta thread lê as linhas e enfileira os pedidos sem esperar as
+     * respostas (vários pedidos da mesma conexão podem entrar no mesmo micro-lote); uma segunda thread escreve as
+     * respostas na ordem dos pedidos, esvaziando o buffer do socket quando não há resposta pronta na fila.
+     */
+    private void atenderConexao(Socket conexao) {
+        BlockingQueue<CompletableFuture<String>> respostas = new ArrayBlockingQueue<>(FATOR_PEDIDOS_POR_CONEXAO * this.tamanhoMaximoLote);
+        try (conexao;
+             BufferedReader leitor = new BufferedReader(new InputStreamReader(conexao.getInputStream(), StandardCharsets.US_ASCII));
+             OutputStream saidaSocket = conexao.getOutputStream();
+             PrintWriter escritor = new PrintWriter(saidaSocket, false, StandardCharsets.UTF_8)) {
+            Future<?> escrita = this.conexoes.submit(() -> escreverRespostas(respostas, escritor, conexao));
+            try {
+                String linha;
+                while ((linha = leitor.readLine()) != null) {
+                    if (!linha.isBlank()) {
+                        respostas.put(responder(linha));
+                    }
+                }
+            } catch (IOException e) {
+                if (!conexao.isClosed()) {
+                    System.err.println("Erro na conexão do serviço de previsão: " + e.getMessage());
+                }
+            } finally {
+                respostas.put(FIM_CONEXAO);
+                escrita.get(); // As respostas pendentes são escritas antes de fechar a conexão
+            }
+        } catch (IOException | ExecutionException e) {
+            System.err.println("Erro na conexão do serviço de previsão: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // Serviço encerrado (close)
+        }
+    }
+
+    /**
+     * Escreve as respostas da conexão na ordem dos pedidos, até FIM_CONEXAO. Se o cliente deixar de ler, a conexão é
+     * fechada (o que também encerra a leitura dos pedidos).
+     */
+    private void escreverRespostas(BlockingQueue<CompletableFuture<String>> respostas, PrintWriter escritor, Socket conexao) {
+        try {
+            CompletableFuture<String> resposta;
+            while ((resposta = respostas.take()) != FIM_CONEXAO) {
+                escritor.print(resposta.join());
+                escritor.print('\n');
+                // Só esvazia o buffer quando a próxima resposta ainda não está pronta (checkError também esvazia)
+                CompletableFuture<String> proxima = respostas.peek();
+                if ((proxima == null || !proxima.isDone()) && escritor.checkError()) {
+                    conexao.close();
+                    while (respostas.take() != FIM_CONEXAO) {
+                        // Descarta as respostas restantes até a thread de leitura terminar
+                    }
+                    return;
+                }
+            }
+            escritor.flush();
+        } catch (IOException e) {
+            System.err.println("Erro ao fechar a conexão do serviço de previsão: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // Serviço encerrado (close)
+        }
+    }
+
+    /**
+     * Converte a linha e enfileira o pedido, sem esperar a previsão.
+     *
+     * @return Future com a resposta da linha ("rótulo,índice" ou "ERRO mensagem"); nunca conclui com exceção.
+     */
+    private CompletableFuture<String> responder(String linha) {
+        try {
+            ParserUtils.Linhas linhas = ParserUtils.localizarLinhas(ByteBuffer.wrap(linha.getBytes(StandardCharsets.US_ASCII)));
+            // Linha inválida: o erro vai só na resposta (não usa registrarLinhaProblematica, o cliente não escreve no log)
+            double[] entrada = ParserUtils.lerPixels(linhas, this.modelo.get().tamanhoEntrada(), 1);
+            return classificar(entrada).handle((classe, erro) -> {
+                if (erro != null) {
+                    Throwable causa = erro instanceof CompletionException && erro.getCause() != null ? erro.getCause() : erro;
+                    return "ERRO " + causa.getMessage();
+                }
+                return this.rotulosClasses.get(classe) + "," + classe;
+            });
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            return CompletableFuture.completedFuture("ERRO " + e.getMessage());
+        }
+    }
+
+    private static int indiceMaximo(double[] saida) {
+        int indice = 0;
+        for (int i = 1; i < saida.length; i++) {
+            if (saida[i] > saida[indice]) {
+                indice = i;
+            }
+        }
+        return indice;
+    }
+}
@@ -0,0 +1,274 @@
+package br.com.usp.ach2016;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.CommonOps_DDRM;
+import org.ejml.simple.SimpleMatrix;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Validação da parada antecipada em uma thread separada do treino.
+ * A thread de treino copia os pesos para um instantâneo (snapshot) imutável e segue treinando; a thread de validação
+ * calcula o erro de validação sobre o instantâneo, com buffers próprios (sem tocar no estado do forward da MLP),
+ * e aplica a lógica de paciência processando os instantâneos estritamente na ordem das épocas.
+ * Assim a melhor época, o melhor erro e os melhores pesos são os mesmos de uma validação síncrona nas mesmas épocas;
+ * resultados de épocas posteriores ao estouro da paciência são descartados.
+ * Há um número fixo de instantâneos: o treino só espera se todos ainda estiverem na fila de validação.
+ * Guardar a melhor época não copia pesos: o instantâneo validado passa a ser o "melhor" e o melhor anterior
+ * volta para a lista de livres (troca de buffers). Os buffers pertencem à MLP e são reaproveitados entre treinos.
+ */
+final class ValidadorAssincrono {
+
+    static final int NUM_INSTANTANEOS = 3; // Instantâneos em trânsito (além do buffer dos melhores pesos)
+
+    /**
+     * Cópia dos pesos da rede ao fim de uma época.
+     */
+    static final class InstantaneoPesos {
+        final DMatrixRMaj W1, b1, W2, b2;
+        int epoca; // Época (base 1) em que os pesos foram copiados
+
+        InstantaneoPesos(int tamanhoEntrada, int tamanhoEscondida, int tamanhoSaida) {
+            this.W1 = new DMatrixRMaj(tamanhoEntrada, tamanhoEscondida);
+            this.b1 = new DMatrixRMaj(1, tamanhoEscondida);
+            this.W2 = new DMatrixRMaj(tamanhoEscondida, tamanhoSaida);
+            this.b2 = new DMatrixRMaj(1, tamanhoSaida);
+        }
+
+        void copiarDe(DMatrixRMaj W1, DMatrixRMaj b1, DMatrixRMaj W2, DMatrixRMaj b2) {
+            this.W1.setTo(W1);
+            this.b1.setTo(b1);
+            this.W2.setTo(W2);
+            this.b2.setTo(b2);
+        }
+    }
+
+    private final SimpleMatrix xValidacao;
+    private final int[] yValidacao;
+    private final int paciencia;
+
+    private final BlockingQueue<InstantaneoPesos> livres = new ArrayBlockingQueue<>(NUM_INSTANTANEOS);
+    private final BlockingQueue<InstantaneoPesos> pendentes = new ArrayBlockingQueue<>(NUM_INSTANTANEOS + 1);
+    private final InstantaneoPesos sentinela = new InstantaneoPesos(0, 0, 0); // Sinaliza o fim da fila
+    private final Thread thread;
+
+    // Buffers do forward de validação (usados só pela thread de validação)
+    private final DMatrixRMaj a1, saida;
+
+    // --- Estado da parada antecipada (escrito só pela thread de validação; lido após encerrar()) ---
+    private InstantaneoPesos melhores;
+    private final List<Double> historicoErro = new ArrayList<>();
+    private double melhorErro = Double.MAX_VALUE;
+    private int epocaMelhor = 0;
+
+    // --- Estado consultado pela thread de treino durante o treino ---
+    private volatile int epocaParada = 0;              // > 0 quando a paciência estourou nessa época
+    private volatile double ultimoErro = Double.NaN;   // Último erro de validação calculado (para o log de progresso)
+    private volatile RuntimeException falha;
+
+    /**
+     * @param buffers Buffers de pesos criados por {@link #criarBuffers} (reaproveitáveis entre treinos).
+     */
+    ValidadorAssincrono(SimpleMatrix xValidacao, int[] yValidacao, int paciencia, InstantaneoPesos[] buffers) {
+        this.xValidacao = xValidacao;
+        this.yValidacao = yValidacao;
+        this.paciencia = paciencia;
+        this.a1 = new DMatrixRMaj(xValidacao.getNumRows(), buffers[0].W1.numCols);
+        this.saida = new DMatrixRMaj(xValidacao.getNumRows(), buffers[0].W2.numCols);
+        this.melhores = buffers[0];
+        for (int i = 1; i < buffers.length; i++) {
+            this.livres.add(buffers[i]);
+        }
+        this.thread = new Thread(this::executar, "validacao-mlp");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Cria os buffers de pesos usados por um validador: um para os melhores pesos e os instantâneos em trânsito.
+     */
+    static InstantaneoPesos[] criarBuffers(int tamanhoEntrada, int tamanhoEscondida, int tamanhoSaida) {
+        InstantaneoPesos[] buffers = new InstantaneoPesos[NUM_INSTANTANEOS + 1];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new InstantaneoPesos(tamanhoEntrada, tamanhoEscondida, tamanhoSaida);
+        }
+        return buffers;
+    }
+
+    /**
+     * Copia os pesos atuais para um instantâneo livre e o enfileira para validação.
+     * Não faz nada se a paciência já estourou.
+     *
+     * @param epoca Época (base 1) que acabou de ser treinada.
+     */
+    void enviar(int epoca, SimpleMatrix W1, SimpleMatrix b1, SimpleMatrix W2, SimpleMatrix b2) {
+        verificarFalha();
+        if (this.epocaParada > 0) {
+            return;
+        }
+        try {
+            InstantaneoPesos instantaneo = this.livres.take();
+            instantaneo.copiarDe(W1.getDDRM(), b1.getDDRM(), W2.getDDRM(), b2.getDDRM());
+            instantaneo.epoca = epoca;
+            this.pendentes.put(instantaneo);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Treino interrompido ao enviar pesos para validação.", e);
+        }
+    }
+
+    /**
+     * @return A época (base 1) em que a paciência estourou, ou 0 se ainda não estourou.
+     */
+    int epocaParada() {
+        return this.epocaParada;
+    }
+
+    double ultimoErro() {
+        return this.ultimoErro;
+    }
+
+    /**
+     * Espera a validação de todos os instantâneos já enviados, sem encerrar a thread (o treino continua enviando).
+     * Com todos os instantâneos de volta na lista de livres, melhorErro(), epocaMelhor(), melhores(), historicoErro()
+     * e epocaParada() refletem exatamente as épocas enviadas até aqui (ex.: para gravar um checkpoint).
+     */
+    void sincronizar() {
+        List<InstantaneoPesos> retidos = new ArrayList<>(NUM_INSTANTANEOS);
+        try {
+            while (retidos.size() < NUM_INSTANTANEOS) {
+                retidos.add(this.livres.take());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Treino interrompido aguardando a validação.", e);
+        } finally {
+            this.livres.addAll(retidos);
+        }
+        verificarFalha();
+    }
+
+    /**
+     * Restaura o estado da parada antecipada de um checkpoint. Deve ser chamado antes do primeiro envio.
+     *
+     * @param melhoresPesos Dados de W1, b1, W2 e b2 dos melhores pesos (ignorados se epocaMelhor == 0).
+     */
+    void restaurar(double[] historicoErro, double melhorErro, int epocaMelhor, double[][] melhoresPesos) {
+        this.historicoErro.clear();
+        for (double erro : historicoErro) {
+            this.historicoErro.add(erro);
+        }
+        this.ultimoErro = historicoErro.length > 0 ? historicoErro[historicoErro.length - 1] : Double.NaN;
+        this.melhorErro = melhorErro;
+        this.epocaMelhor = epocaMelhor;
+        if (epocaMelhor > 0) {
+            DMatrixRMaj[] destinos = {this.melhores.W1, this.melhores.b1, this.melhores.W2, this.melhores.b2};
+            for (int i = 0; i < destinos.length; i++) {
+                System.arraycopy(melhoresPesos[i], 0, destinos[i].data, 0, destinos[i].getNumElements());
+            }
+            this.melhores.epoca = epocaMelhor;
+        }
+    }
+
+    /**
+     * Espera a validação de todos os instantâneos enviados e encerra a thread.
+     * Depois desta chamada, melhorErro(), epocaMelhor(), melhores() e historicoErro() são definitivos.
+     */
+    void encerrar() {
+        try {
+            this.pendentes.put(this.sentinela);
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Treino interrompido aguardando a validação.", e);
+        }
+        verificarFalha();
+    }
+
+    double melhorErro() {
+        return this.melhorErro;
+    }
+
+    int epocaMelhor() {
+        return this.epocaMelhor;
+    }
+
+    InstantaneoPesos melhores() {
+        return this.melhores;
+    }
+
+    List<Double> historicoErro() {
+        return this.historicoErro;
+    }
+
+    private void verificarFalha() {
+        if (this.falha != null) {
+            throw new IllegalStateException("Falha na validação assíncrona.", this.falha);
+        }
+    }
+
+    /**
+     * Laço da thread de validação: processa os instantâneos na ordem em que foram enviados.
+     */
+    private void executar() {
+        try {
+            while (true) {
+                InstantaneoPesos instantaneo = this.pendentes.take();
+                if (instantaneo == this.sentinela) {
+                    return;
+                }
+                InstantaneoPesos liberado = instantaneo;
+                try {
+                    if (this.epocaParada == 0 && this.falha == null) {
+                        liberado = validar(instantaneo);
+                    }
+                } catch (RuntimeException e) {
+                    this.falha = e;
+                } finally {
+                    this.livres.add(liberado);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Valida o instantâneo e atualiza o estado da parada antecipada.
+     *
+     * @return O buffer que volta para a lista de livres: o próprio instantâneo ou, se ele virou o melhor, o melhor anterior.
+     */
+    private InstantaneoPesos validar(InstantaneoPesos instantaneo) {
+        // Forward sobre os pesos do instantâneo: sigmoid(sigmoid(X @ W1 + b1) @ W2 + b2)
+        CommonOps_DDRM.mult(this.xValidacao.getDDRM(), instantaneo.W1, this.a1);
+        MLP.somarBiasEAplicarSigmoid(this.a1, instantaneo.b1);
+        CommonOps_DDRM.mult(this.a1, instantaneo.W2, this.saida);
+        MLP.somarBiasEAplicarSigmoid(this.saida, instantaneo.b2);
+
+        double somaErrosQuadrados = 0;
+        for (int r = 0; r < this.saida.numRows; r++) {
+            somaErrosQuadrados = MLP.somaErrosQuadradosLinha(somaErrosQuadrados, this.saida.data, r * this.saida.numCols,
+                    this.saida.numCols, this.yValidacao[r]);
+        }
+        double erro = (0.5 * somaErrosQuadrados) / this.saida.numRows;
+        this.historicoErro.add(erro);
+        this.ultimoErro = erro;
+
+        // Lógica da Parada Antecipada (paciência contada em épocas)
+        if (erro < this.melhorErro) {
+            this.melhorErro = erro;
+            this.epocaMelhor = instantaneo.epoca;
+            // Troca de buffers: o instantâneo validado passa a guardar os melhores pesos, sem cópia
+            InstantaneoPesos melhorAnterior = this.melhores;
+            this.melhores = instantaneo;
+            return melhorAnterior;
+        }
+        if (instantaneo.epoca - this.epocaMelhor >= this.paciencia) {
+            this.epocaParada = instantaneo.epoca;
+        }
+        return instantaneo;
+    }
+}
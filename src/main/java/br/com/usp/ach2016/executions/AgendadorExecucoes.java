@@ -0,0 +1,137 @@
+package br.com.usp.ach2016.executions;
+
+import br.com.usp.ach2016.model.ResumoExecucao;
+import br.com.usp.ach2016.utils.GravadorResultados;
+import br.com.usp.ach2016.utils.GravadorResultados.GravacoesExecucao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import static br.com.usp.ach2016.utils.IOUtils.criarPastaResultadosNExecucao;
+import static br.com.usp.ach2016.utils.IOUtils.salvarResumoExecucoes;
+import static br.com.usp.ach2016.utils.MetricsUtils.formatarDuracao;
+
+/**
+ * Agendador que roda várias execuções ao mesmo tempo, limitado por um número de permissões de CPU.
+ * Cada execução ocupa {@link Execucao#numThreadsUtilizadas()} permissões (no máximo o total) enquanto roda;
+ * as execuções saem da fila na ordem de agendamento (semáforo justo), e uma execução que falha não interrompe as demais.
+ * Cada execução já reivindicou sua pasta de resultados de forma atômica ao ser criada.
+ * A permissão é liberada quando executar() retorna, com os arquivos de resultados ainda podendo estar na fila do
+ * {@link br.com.usp.ach2016.utils.GravadorResultados}; a gravação é aguardada só no fim.
+ * Quando a fila esvazia, um resumo de todas as execuções é salvo na pasta do agendador (também pelo gravador).
+ */
+public class AgendadorExecucoes {
+
+    private final String nomeAgendador;
+    private final int permissoesCpu;
+    private final Semaphore permissoes;
+    private final ExecutorService executor;
+    private final List<Future<ResumoExecucao>> execucoesAgendadas = new ArrayList<>();
+    private final List<Execucao> execucoes = new ArrayList<>();
+
+    /**
+     * @param nomeAgendador Nome da pasta de resultados do resumo.
+     * @param permissoesCpu Total de threads de CPU que as execuções simultâneas podem ocupar.
+     */
+    public AgendadorExecucoes(String nomeAgendador, int permissoesCpu) {
+        if (permissoesCpu <= 0) {
+            throw new IllegalArgumentException("O agendador precisa de ao menos uma permissão de CPU: " + permissoesCpu);
+        }
+        this.nomeAgendador = nomeAgendador;
+        this.permissoesCpu = permissoesCpu;
+        this.permissoes = new Semaphore(permissoesCpu, true);
+        // Cada execução ocupa ao menos uma permissão: nunca há mais execuções rodando do que permissões
+        this.executor = Executors.newFixedThreadPool(permissoesCpu);
+    }
+
+    /**
+     * Coloca a execução na fila. Ela começa assim que houver permissões de CPU livres para ela.
+     */
+    public void agendar(Execucao execucao) {
+        final int numThreads = Math.min(this.permissoesCpu, execucao.numThreadsUtilizadas());
+        final long instanteAgendamento = System.currentTimeMillis();
+        this.execucoes.add(execucao);
+        this.execucoesAgendadas.add(this.executor.submit(() -> {
+            this.permissoes.acquire(numThreads);
+            long inicio = System.currentTimeMillis();
+            try {
+                execucao.executar();
+                return new ResumoExecucao(execucao.parametrosRede.nomeExecucao(), execucao.caminhoPastaResultadosExecucao,
+                        numThreads, inicio - instanteAgendamento, System.currentTimeMillis() - inicio, true, null);
+            } catch (RuntimeException e) {
+                System.err.println("Erro na execução " + execucao.parametrosRede.nomeExecucao() + ": " + e.getMessage());
+                e.printStackTrace();
+                return new ResumoExecucao(execucao.parametrosRede.nomeExecucao(), execucao.caminhoPastaResultadosExecucao,
+                        numThreads, inicio - instanteAgendamento, System.currentTimeMillis() - inicio, false, String.valueOf(e));
+            } finally {
+                this.permissoes.release(numThreads);
+            }
+        }));
+    }
+
+    /**
+     * Espera todas as execuções agendadas terminarem, encerra o agendador e salva o resumo.
+     *
+     * @return O resumo de cada execução, na ordem de agendamento.
+     */
+    public List<ResumoExecucao> aguardarConclusao() {
+        this.executor.shutdown();
+        List<ResumoExecucao> resumos = new ArrayList<>();
+        try {
+            for (int i = 0; i < this.execucoesAgendadas.size(); i++) {
+                resumos.add(aguardarGravacoes(this.execucoes.get(i), this.execucoesAgendadas.get(i).get()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.executor.shutdownNow();
+            throw new IllegalStateException("Agendador interrompido aguardando as execuções.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Falha inesperada no agendador de execuções.", e.getCause());
+        }
+
+        int numSucessos = 0;
+        for (ResumoExecucao resumo : resumos) {
+            if (resumo.sucesso()) {
+                numSucessos++;
+            }
+            System.out.printf("Execucao %s (%s): %s em %s\n", resumo.nomeExecucao(), resumo.caminhoPasta(),
+                    resumo.sucesso() ? "concluida" : "FALHOU", formatarDuracao(resumo.duracaoMillis()));
+        }
+        System.out.printf("Agendador %s: %d de %d execucoes concluidas com %d permissoes de CPU.\n",
+                this.nomeAgendador, numSucessos, resumos.size(), this.permissoesCpu);
+        String caminhoPastaAgendador = criarPastaResultadosNExecucao(this.nomeAgendador);
+        GravacoesExecucao gravacoesResumo = GravadorResultados.novaExecucao(this.nomeAgendador);
+        gravacoesResumo.gravar("resumo das execuções", () -> salvarResumoExecucoes(caminhoPastaAgendador, resumos, this.permissoesCpu));
+        try {
+            gravacoesResumo.concluidas().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Agendador interrompido aguardando a gravação do resumo.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Falha ao gravar o resumo das execuções do agendador " + this.nomeAgendador + ".", e.getCause());
+        }
+        return resumos;
+    }
+
+    /**
+     * Espera os arquivos de resultados da execução serem gravados; uma falha de gravação marca a execução como falha.
+     */
+    private static ResumoExecucao aguardarGravacoes(Execucao execucao, ResumoExecucao resumo) throws InterruptedException {
+        try {
+            execucao.gravacoesConcluidas().get();
+            return resumo;
+        } catch (ExecutionException e) {
+            if (!resumo.sucesso()) {
+                return resumo;
+            }
+            System.err.println("Erro ao gravar os resultados da execução " + resumo.nomeExecucao() + ": " + e.getCause());
+            return new ResumoExecucao(resumo.nomeExecucao(), resumo.caminhoPasta(), resumo.numThreads(), resumo.esperaMillis(),
+                    resumo.duracaoMillis(), false, String.valueOf(e.getCause()));
+        }
+    }
+}
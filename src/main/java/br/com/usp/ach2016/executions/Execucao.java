@@ -4,6 +4,8 @@ import br.com.usp.ach2016.model.Dataset;
 import br.com.usp.ach2016.model.ParametrosRede;
 import br.com.usp.ach2016.model.ParametrosTreinamento;
 
+import java.util.concurrent.CompletableFuture;
+
 import static br.com.usp.ach2016.utils.IOUtils.criarPastaResultadosNExecucao;
 
 public abstract class Execucao {
@@ -13,6 +15,12 @@ public abstract class Execucao {
     final ParametrosTreinamento parametrosTreinamento;
     final String caminhoPastaResultadosExecucao;
 
+    // Épocas entre checkpoints do treino (retomados se a bateria de execuções for interrompida, ex.: Ctrl+C)
+    static final int INTERVALO_CHECKPOINT_EPOCAS = 1000;
+
+    // Arquivos de resultados enfileirados no GravadorResultados por executar() (concluído = todos gravados)
+    CompletableFuture<Void> gravacoes = CompletableFuture.completedFuture(null);
+
      Execucao(Dataset dataset,
               ParametrosRede parametrosRede,
               ParametrosTreinamento parametrosTreinamento) {
@@ -22,5 +30,27 @@ public abstract class Execucao {
         this.caminhoPastaResultadosExecucao = criarPastaResultadosNExecucao(parametrosRede.nomeExecucao());
     }
 
+    /**
+     * Para execuções que carregam os próprios dados (ex.: ExecucaoCompacta), sem o Dataset denso.
+     */
+    Execucao(ParametrosRede parametrosRede, ParametrosTreinamento parametrosTreinamento) {
+        this(null, parametrosRede, parametrosTreinamento);
+    }
+
     public abstract void executar();
+
+    /**
+     * Future concluído quando os arquivos de resultados da execução foram gravados: executar() pode retornar com
+     * arquivos ainda na fila de gravação. Conclui excepcionalmente se alguma gravação falhou.
+     */
+    public CompletableFuture<Void> gravacoesConcluidas() {
+        return this.gravacoes;
+    }
+
+    /**
+     * Número de threads de CPU que a execução ocupa enquanto roda (usado pelo agendador para limitar a concorrência).
+     */
+    public int numThreadsUtilizadas() {
+        return Math.max(1, parametrosTreinamento.numThreads());
+    }
 }
@@ -0,0 +1,236 @@
+package br.com.usp.ach2016.executions;
+
+import br.com.usp.ach2016.MLP;
+import br.com.usp.ach2016.model.Dataset;
+import br.com.usp.ach2016.model.ParametrosBusca;
+import br.com.usp.ach2016.model.ParametrosRede;
+import br.com.usp.ach2016.model.ParametrosTreinamento;
+import br.com.usp.ach2016.model.ResultadoBusca;
+import br.com.usp.ach2016.utils.GravadorResultados;
+import br.com.usp.ach2016.utils.GravadorResultados.GravacoesExecucao;
+import org.ejml.simple.SimpleMatrix;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static br.com.usp.ach2016.utils.IOUtils.salvarPlacarBusca;
+import static br.com.usp.ach2016.utils.MetricsUtils.calcularAcuracia;
+import static br.com.usp.ach2016.utils.MetricsUtils.calcularErroQuadraticoMedio;
+import static br.com.usp.ach2016.utils.MetricsUtils.formatarDuracao;
+
+/**
+ * Busca de hiperparâmetros por divisões sucessivas (successive halving), em substituição à exploração aleatória
+ * que treinava cada configuração sorteada até o fim, uma de cada vez.
+ * As configurações de uma rodada são treinadas em paralelo até o marco de épocas da rodada e avaliadas na validação;
+ * só a melhor fração segue para a rodada seguinte, continuando o treino de onde parou (as divergentes são podadas cedo).
+ * A busca termina com uma única configuração, no limite de épocas ou quando a próxima rodada excederia o orçamento.
+ */
+public class ExecucaoBuscaHiperparametros extends Execucao {
+
+    private static final int TAMANHO_PLACAR_IMPRESSO = 10;
+
+    private final ParametrosBusca parametrosBusca;
+
+    /**
+     * @param parametrosRede        Rede base (entrada, saída, semente e nome); o tamanho da camada escondida é sorteado.
+     * @param parametrosTreinamento Treino base (mini-lote e semente de embaralhamento); taxa e épocas vêm da busca.
+     */
+    public ExecucaoBuscaHiperparametros(Dataset dataset,
+                                        ParametrosRede parametrosRede,
+                                        ParametrosTreinamento parametrosTreinamento,
+                                        ParametrosBusca parametrosBusca) {
+        super(dataset, parametrosRede, parametrosTreinamento);
+        this.parametrosBusca = parametrosBusca;
+    }
+
+    @Override
+    public void executar() {
+        System.out.println("\n\n===== INICIANDO: " + parametrosRede.nomeExecucao().toUpperCase() + " =====");
+        long inicioBusca = System.currentTimeMillis();
+
+        // Sorteia as configurações da primeira rodada, sem repetir combinações enquanto houver combinações novas
+        Random seletorHiperparametros = new Random(parametrosBusca.semente());
+        int totalCombinacoes = parametrosBusca.opcoesCamadaEscondida().length * parametrosBusca.opcoesTaxaAprendizado().length;
+        Set<String> combinacoesSorteadas = new HashSet<>();
+        List<Candidato> candidatos = new ArrayList<>();
+        while (candidatos.size() < parametrosBusca.numConfiguracoes()) {
+            int tamanhoCamadaEscondida = parametrosBusca.opcoesCamadaEscondida()[seletorHiperparametros.nextInt(parametrosBusca.opcoesCamadaEscondida().length)];
+            double taxaAprendizado = parametrosBusca.opcoesTaxaAprendizado()[seletorHiperparametros.nextInt(parametrosBusca.opcoesTaxaAprendizado().length)];
+            if (combinacoesSorteadas.size() < totalCombinacoes
+                    && !combinacoesSorteadas.add(tamanhoCamadaEscondida + "/" + taxaAprendizado)) {
+                continue;
+            }
+            candidatos.add(new Candidato(candidatos.size() + 1, tamanhoCamadaEscondida, taxaAprendizado));
+        }
+
+        int numThreads = Math.max(1, Math.min(parametrosBusca.numThreads(), candidatos.size()));
+        ExecutorService executorBusca = Executors.newFixedThreadPool(numThreads);
+        List<Candidato> restantes = candidatos;
+        long epocasConsumidas = 0;
+        int epocasRodada = parametrosBusca.epocasIniciais();
+        try {
+            for (int rodada = 1; ; rodada++) {
+                long custoRodada = 0;
+                for (Candidato candidato : restantes) {
+                    custoRodada += epocasRodada - candidato.epocasTreinadas;
+                }
+                if (epocasConsumidas + custoRodada > parametrosBusca.orcamentoEpocas()) {
+                    System.out.printf("Orcamento de %d epocas esgotado: rodada %d (%d epocas) nao executada.\n",
+                            parametrosBusca.orcamentoEpocas(), rodada, custoRodada);
+                    break;
+                }
+
+                System.out.printf("\n--- Rodada %d: %d configuracao(oes) ate %d epocas (%d threads) ---\n",
+                        rodada, restantes.size(), epocasRodada, numThreads);
+                List<Future<?>> futuros = new ArrayList<>();
+                for (Candidato candidato : restantes) {
+                    final int marco = epocasRodada, numeroRodada = rodada;
+                    futuros.add(executorBusca.submit(() -> candidato.treinarAte(marco, numeroRodada)));
+                }
+                for (Future<?> futuro : futuros) {
+                    futuro.get();
+                }
+                epocasConsumidas += custoRodada;
+
+                // Ranking da rodada pelo erro de validação (NaN de configurações divergentes fica por último)
+                restantes = new ArrayList<>(restantes);
+                restantes.sort(Comparator.comparingDouble(candidato -> candidato.resultado.erroValidacao()));
+                for (Candidato candidato : restantes) {
+                    ResultadoBusca resultado = candidato.resultado;
+                    System.out.printf("Config %d (escondida = %d, taxa = %.2f): Erro Validacao = %.8f, Acuracia Validacao = %.2f%%\n",
+                            resultado.configuracao(), resultado.tamanhoCamadaEscondida(), resultado.taxaAprendizado(),
+                            resultado.erroValidacao(), resultado.acuraciaValidacao());
+                }
+
+                if (restantes.size() == 1 || epocasRodada >= parametrosBusca.epocasMaximas()) {
+                    break;
+                }
+                // Poda: só a melhor fração 1/fatorReducao continua, com o marco de épocas multiplicado pelo fator
+                int numSobreviventes = Math.max(1, restantes.size() / parametrosBusca.fatorReducao());
+                for (Candidato podado : restantes.subList(numSobreviventes, restantes.size())) {
+                    podado.liberarRede();
+                }
+                restantes = restantes.subList(0, numSobreviventes);
+                epocasRodada = (int) Math.min((long) epocasRodada * parametrosBusca.fatorReducao(), parametrosBusca.epocasMaximas());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Busca de hiperparâmetros interrompida.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Falha no treino de uma configuração da busca.", e.getCause());
+        } finally {
+            executorBusca.shutdownNow();
+        }
+
+        // Placar: última avaliação de cada configuração. Erros de rodadas diferentes não são comparáveis (menos épocas),
+        // então as configurações que chegaram mais longe vêm primeiro e, dentro da rodada, do menor para o maior erro
+        List<ResultadoBusca> placar = new ArrayList<>();
+        for (Candidato candidato : candidatos) {
+            if (candidato.resultado != null) {
+                placar.add(candidato.resultado);
+            }
+        }
+        placar.sort(Comparator.comparingInt(ResultadoBusca::rodada).reversed()
+                .thenComparingDouble(ResultadoBusca::erroValidacao));
+
+        System.out.printf("\nBusca concluida em %s: %d epocas treinadas no total.\n",
+                formatarDuracao(System.currentTimeMillis() - inicioBusca), epocasConsumidas);
+        System.out.println("Placar (melhores " + Math.min(TAMANHO_PLACAR_IMPRESSO, placar.size()) + "):");
+        for (int i = 0; i < Math.min(TAMANHO_PLACAR_IMPRESSO, placar.size()); i++) {
+            ResultadoBusca resultado = placar.get(i);
+            System.out.printf("%2d. Config %d: rodada = %d, escondida = %d, taxa = %.2f, epocas = %d, Erro Validacao = %.8f, Acuracia Validacao = %.2f%%\n",
+                    i + 1, resultado.configuracao(), resultado.rodada(), resultado.tamanhoCamadaEscondida(),
+                    resultado.taxaAprendizado(), resultado.epocas(), resultado.erroValidacao(), resultado.acuraciaValidacao());
+        }
+        GravacoesExecucao gravacoesExecucao = GravadorResultados.novaExecucao(parametrosRede.nomeExecucao());
+        gravacoesExecucao.gravar("placar da busca", () -> salvarPlacarBusca(caminhoPastaResultadosExecucao, placar));
+        this.gravacoes = gravacoesExecucao.concluidas();
+
+        // Acurácia de teste da melhor configuração: a primeira das restantes (ordenadas pela última rodada avaliada),
+        // que nunca foram podadas e mantêm a rede
+        Candidato melhor = restantes.get(0);
+        if (melhor.resultado == null) {
+            System.out.println("Nenhuma rodada executada dentro do orcamento: sem configuracao avaliada.");
+        } else {
+            double acuraciaTeste = calcularAcuracia(dataset.teste().rotulos(), melhor.rede.prever(dataset.teste()));
+            System.out.printf("Melhor configuracao (Config %d) - Acuracia Teste: %.2f%%\n", melhor.numero, acuraciaTeste);
+        }
+
+        System.out.println("===== FINALIZADA: " + parametrosRede.nomeExecucao().toUpperCase() + " =====");
+    }
+
+    @Override
+    public int numThreadsUtilizadas() {
+        return Math.max(1, Math.min(parametrosBusca.numThreads(), parametrosBusca.numConfiguracoes()));
+    }
+
+    /**
+     * Uma configuração da busca: mantém a rede entre as rodadas para continuar o treino de onde parou.
+     */
+    private final class Candidato {
+        final int numero;
+        final int tamanhoCamadaEscondida;
+        final double taxaAprendizado;
+        MLP rede;
+        int epocasTreinadas = 0;
+        ResultadoBusca resultado; // Última avaliação (null antes da primeira rodada)
+
+        Candidato(int numero, int tamanhoCamadaEscondida, double taxaAprendizado) {
+            this.numero = numero;
+            this.tamanhoCamadaEscondida = tamanhoCamadaEscondida;
+            this.taxaAprendizado = taxaAprendizado;
+        }
+
+        /**
+         * Treina a rede das épocas já treinadas até o marco e avalia no conjunto de validação.
+         */
+        void treinarAte(int marcoEpocas, int rodada) {
+            if (this.rede == null) {
+                this.rede = new MLP(new ParametrosRede(
+                        parametrosRede.tamanhoEntrada(),
+                        this.tamanhoCamadaEscondida,
+                        parametrosRede.tamanhoSaida(),
+                        parametrosRede.sementeAleatoria(),
+                        parametrosRede.nomeExecucao() + "_Config" + this.numero,
+                        parametrosRede.precisao()));
+                this.rede.definirSaidaLog(new PrintStream(OutputStream.nullOutputStream()));
+            }
+            // Continuação do treino: os pesos são mantidos entre chamadas; com mini-lote, cada rodada
+            // usa uma semente de embaralhamento própria (a sequência de lotes não se repete entre rodadas)
+            this.rede.treinar(dataset.treino(), null, new ParametrosTreinamento(
+                    this.taxaAprendizado,
+                    marcoEpocas - this.epocasTreinadas,
+                    0,
+                    parametrosTreinamento.tamanhoLote(),
+                    parametrosTreinamento.sementeEmbaralhamento() + rodada,
+                    1));
+            this.epocasTreinadas = marcoEpocas;
+
+            SimpleMatrix previsoesValidacao = this.rede.prever(dataset.validacao());
+            int[] rotulosValidacao = dataset.validacao().rotulos();
+            this.resultado = new ResultadoBusca(
+                    this.numero,
+                    this.tamanhoCamadaEscondida,
+                    this.taxaAprendizado,
+                    this.epocasTreinadas,
+                    rodada,
+                    this.rede.historicoErro.get(this.rede.historicoErro.size() - 1),
+                    calcularErroQuadraticoMedio(rotulosValidacao, previsoesValidacao),
+                    calcularAcuracia(rotulosValidacao, previsoesValidacao));
+        }
+
+        void liberarRede() {
+            this.rede = null;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package br.com.usp.ach2016.executions;
+
+import br.com.usp.ach2016.MLP;
+import br.com.usp.ach2016.model.Dataset;
+import br.com.usp.ach2016.model.ParametrosRede;
+import br.com.usp.ach2016.model.ParametrosTreinamento;
+import br.com.usp.ach2016.model.ResultadoAnaliseConfusao;
+import br.com.usp.ach2016.model.VisaoDataset;
+import br.com.usp.ach2016.utils.GravadorResultados;
+import br.com.usp.ach2016.utils.GravadorResultados.GravacoesExecucao;
+import org.ejml.simple.SimpleMatrix;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static br.com.usp.ach2016.utils.CacheUtils.armazenarNoCache;
+import static br.com.usp.ach2016.utils.CacheUtils.calcularChave;
+import static br.com.usp.ach2016.utils.CacheUtils.servirDoCache;
+import static br.com.usp.ach2016.utils.CheckpointUtils.caminhoCheckpoint;
+import static br.com.usp.ach2016.utils.CheckpointUtils.removerCheckpoint;
+import static br.com.usp.ach2016.utils.IOUtils.*;
+import static br.com.usp.ach2016.utils.MatrixUtils.calcularMatrizConfusao;
+import static br.com.usp.ach2016.utils.MatrixUtils.gerarResultadosClassificacao;
+import static br.com.usp.ach2016.utils.MetricsUtils.formatarDuracao;
+
+/**
+ * Treino simples (treino + validação, sem parada antecipada) avaliado em vários marcos de épocas com uma única trajetória:
+ * a rede é treinada uma vez até o maior marco e, ao atingir cada marco, o estado da rede é copiado e avaliado
+ * em outra thread enquanto o treino continua. Cada marco gera a mesma pasta de resultados de uma ExecucaoSimples
+ * treinada por aquele número de épocas (subpasta "epocasN" da pasta da execução), sem retreinar as épocas iniciais.
+ * Marcos já presentes no cache de resultados são copiados do cache em vez de treinados.
+ */
+public class ExecucaoComMarcosEpocas extends Execucao {
+
+    private final int[] marcosEpocas;
+
+    /**
+     * @param parametrosTreinamento Hiperparâmetros do treino; o número de épocas é substituído pelo maior marco.
+     * @param marcosEpocas          Épocas em que a rede é avaliada (valores positivos, em qualquer ordem).
+     */
+    public ExecucaoComMarcosEpocas(Dataset dataset,
+                                   ParametrosRede parametrosRede,
+                                   ParametrosTreinamento parametrosTreinamento,
+                                   int[] marcosEpocas) {
+        super(dataset, parametrosRede, parametrosTreinamento);
+        this.marcosEpocas = Arrays.stream(marcosEpocas).distinct().sorted().toArray();
+        if (this.marcosEpocas.length == 0 || this.marcosEpocas[0] <= 0) {
+            throw new IllegalArgumentException("Os marcos de épocas devem ser positivos: " + Arrays.toString(marcosEpocas));
+        }
+    }
+
+    @Override
+    public void executar() {
+        System.out.println("\n\n===== INICIANDO: " + parametrosRede.nomeExecucao().toUpperCase() + " =====");
+        System.out.println("Marcos de epocas: " + Arrays.toString(marcosEpocas));
+
+        // Marcos já calculados (mesma chave de uma ExecucaoSimples com aquele número de épocas) são servidos do cache;
+        // a trajetória só é treinada até o maior marco pendente
+        VisaoDataset treinoCompleto = dataset.treinoEValidacao();
+        Map<Integer, String> chavesCache = new HashMap<>();
+        List<Integer> marcosPendentes = new ArrayList<>();
+        for (int marco : marcosEpocas) {
+            String chaveCache = calcularChave(parametrosRede, parametrosTreinamento.comEpocas(marco), treinoCompleto, dataset.teste());
+            chavesCache.put(marco, chaveCache);
+            if (!servirDoCache(chaveCache, criarSubpastaResultados(caminhoPastaResultadosExecucao, "epocas" + marco))) {
+                marcosPendentes.add(marco);
+            }
+        }
+        if (marcosPendentes.isEmpty()) {
+            System.out.println("===== FINALIZADA (CACHE): " + parametrosRede.nomeExecucao().toUpperCase() + " =====");
+            return;
+        }
+        int[] marcosTreino = marcosPendentes.stream().mapToInt(Integer::intValue).toArray();
+
+        MLP redeNeural = new MLP(parametrosRede);
+        // Checkpoint da trajetória, identificado pela chave do maior marco pendente
+        Path arquivoCheckpoint = caminhoCheckpoint(chavesCache.get(marcosTreino[marcosTreino.length - 1]));
+        redeNeural.definirCheckpoint(arquivoCheckpoint, INTERVALO_CHECKPOINT_EPOCAS);
+        // Os arquivos de cada marco são enfileirados na thread de gravação pela thread de avaliação
+        GravacoesExecucao gravacoesExecucao = GravadorResultados.novaExecucao(parametrosRede.nomeExecucao());
+
+        // Avaliações dos marcos em uma thread própria, na ordem dos marcos, em paralelo com o treino
+        ExecutorService avaliadorMarcos = Executors.newSingleThreadExecutor();
+        List<Future<?>> avaliacoes = new ArrayList<>();
+        long inicioTreino = System.currentTimeMillis();
+        redeNeural.definirMarcosEpocas(marcosTreino, epocaMarco -> {
+            MLP estadoMarco = redeNeural.copiarEstado();
+            long duracaoTreino = System.currentTimeMillis() - inicioTreino;
+            avaliacoes.add(avaliadorMarcos.submit(() -> avaliarMarco(epocaMarco, estadoMarco, duracaoTreino,
+                    chavesCache.get(epocaMarco), gravacoesExecucao)));
+        });
+
+        try {
+            // Juntando conjunto de treino + de validação, como na ExecucaoSimples
+            redeNeural.treinar(treinoCompleto, null, parametrosTreinamento.comEpocas(marcosTreino[marcosTreino.length - 1]));
+            System.out.println("Tempo de Treinamento (trajetoria completa): " + formatarDuracao(System.currentTimeMillis() - inicioTreino));
+            for (Future<?> avaliacao : avaliacoes) {
+                avaliacao.get();
+            }
+            this.gravacoes = gravacoesExecucao.concluidas(); // Inclui os artefatos enfileirados pelas avaliações
+            removerCheckpoint(arquivoCheckpoint);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Execução com marcos de épocas interrompida.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Falha na avaliação de um marco de épocas.", e.getCause());
+        } finally {
+            avaliadorMarcos.shutdownNow();
+        }
+
+        System.out.println("===== FINALIZADA: " + parametrosRede.nomeExecucao().toUpperCase() + " =====");
+    }
+
+    /**
+     * Enfileira os resultados de treino e de teste da cópia da rede em um marco, na subpasta do marco,
+     * e a publicação da subpasta no cache de resultados (depois dos arquivos do marco). A subpasta tem os mesmos
+     * arquivos de uma ExecucaoSimples com aquele número de épocas, pois é servida do cache sob a mesma chave.
+     */
+    private void avaliarMarco(int epocaMarco, MLP redeNoMarco, long duracaoTreinoMillis, String chaveCache,
+                              GravacoesExecucao gravacoesExecucao) {
+        String caminhoPastaMarco = criarSubpastaResultados(caminhoPastaResultadosExecucao, "epocas" + epocaMarco);
+        ParametrosTreinamento parametrosTreinamentoMarco = parametrosTreinamento.comEpocas(epocaMarco);
+        String duracaoTreinoFormatada = formatarDuracao(duracaoTreinoMillis);
+        System.out.println("Marco de " + epocaMarco + " epocas - Tempo de Treinamento: " + duracaoTreinoFormatada);
+        gravacoesExecucao.gravar("pesos iniciais (" + epocaMarco + " epocas)", () -> salvarPesosIniciais(caminhoPastaMarco,
+                            redeNoMarco.pesosIniciaisW1,
+                            redeNoMarco.biasInicialB1,
+                            redeNoMarco.pesosIniciaisW2,
+                            redeNoMarco.biasInicialB2));
+        gravacoesExecucao.gravar("resultados do treino (" + epocaMarco + " epocas)",
+                () -> salvarResultadosTreino(caminhoPastaMarco, parametrosTreinamentoMarco, redeNoMarco));
+
+        SimpleMatrix previsoesTeste = redeNoMarco.prever(dataset.teste());
+
+        int[][] matrizConfusao = calcularMatrizConfusao(dataset.teste().rotulos(), previsoesTeste);
+        gravacoesExecucao.gravar("matriz de confusão (" + epocaMarco + " epocas)",
+                () -> salvarMatrizConfusao(caminhoPastaMarco, matrizConfusao, dataset.rotulosClasses()));
+
+        Map<String, Object> paramsAdicionaisTreino = new HashMap<>();
+        paramsAdicionaisTreino.put("Tempo de Treinamento", duracaoTreinoFormatada); // Mesmos parâmetros da ExecucaoSimples
+
+        ResultadoAnaliseConfusao resultadoAnaliseConfusao = gerarResultadosClassificacao(matrizConfusao, dataset, previsoesTeste);
+        gravacoesExecucao.gravar("resultados do teste (" + epocaMarco + " epocas)", () -> salvarResultadosTeste(caminhoPastaMarco,
+                              dataset,
+                              previsoesTeste,
+                              redeNoMarco.parametrosRede,
+                              parametrosTreinamentoMarco,
+                              paramsAdicionaisTreino,
+                              resultadoAnaliseConfusao
+        ));
+        gravacoesExecucao.gravar("cache de resultados (" + epocaMarco + " epocas)",
+                () -> armazenarNoCache(chaveCache, caminhoPastaMarco, parametrosRede.nomeExecucao() + " (" + epocaMarco + " epocas)"));
+    }
+}
@@ -5,6 +5,8 @@ import br.com.usp.ach2016.model.Dataset;
 import br.com.usp.ach2016.model.ParametrosRede;
 import br.com.usp.ach2016.model.ParametrosTreinamento;
 import br.com.usp.ach2016.model.ResultadoAnaliseConfusao;
+import br.com.usp.ach2016.utils.GravadorResultados;
+import br.com.usp.ach2016.utils.GravadorResultados.GravacoesExecucao;
 import org.ejml.simple.SimpleMatrix;
 
 import java.util.HashMap;
@@ -26,22 +28,26 @@ public class ExecucaoComParadaAntecipada extends Execucao {
     public void executar() {
         System.out.println("\n\n===== INICIANDO: " + parametrosRede.nomeExecucao().toUpperCase() + " =====");
 
+        // Os arquivos são gravados na thread de gravação; a rede não é mais alterada depois do treino
+        GravacoesExecucao gravacoesExecucao = GravadorResultados.novaExecucao(parametrosRede.nomeExecucao());
         MLP redeNeural = new MLP(parametrosRede);
-        salvarPesosIniciais(caminhoPastaResultadosExecucao,
+        gravacoesExecucao.gravar("pesos iniciais", () -> salvarPesosIniciais(caminhoPastaResultadosExecucao,
                             redeNeural.pesosIniciaisW1,
                             redeNeural.biasInicialB1,
                             redeNeural.pesosIniciaisW2,
-                            redeNeural.biasInicialB2);
+                            redeNeural.biasInicialB2));
 
-        int epocasExecutadas = redeNeural.treinar(dataset.xTreino(), dataset.yTreino(),  dataset.xValidacao(), dataset.yValidacao(), parametrosTreinamento);
-        salvarResultadosTreino(caminhoPastaResultadosExecucao, parametrosTreinamento, redeNeural);
+        int epocasExecutadas = redeNeural.treinar(dataset.treino(), dataset.validacao(), parametrosTreinamento);
+        gravacoesExecucao.gravar("resultados do treino",
+                () -> salvarResultadosTreino(caminhoPastaResultadosExecucao, parametrosTreinamento, redeNeural));
 
         System.out.println("Treinamento com parada antecipada finalizado na epoca: " + epocasExecutadas);
 
-        SimpleMatrix previsoesTeste = redeNeural.prever(dataset.xTeste());
+        SimpleMatrix previsoesTeste = redeNeural.prever(dataset.teste());
 
-        int[][] matrizConfusao = calcularMatrizConfusao(dataset.yTeste(), previsoesTeste);
-        salvarMatrizConfusao(caminhoPastaResultadosExecucao, matrizConfusao, dataset.rotulosClasses());
+        int[][] matrizConfusao = calcularMatrizConfusao(dataset.teste().rotulos(), previsoesTeste);
+        gravacoesExecucao.gravar("matriz de confusão",
+                () -> salvarMatrizConfusao(caminhoPastaResultadosExecucao, matrizConfusao, dataset.rotulosClasses()));
 
         ResultadoAnaliseConfusao resultadoAnaliseConfusao = gerarResultadosClassificacao(matrizConfusao, dataset, previsoesTeste);
         Map<String, Object> paramsAdicionaisTreino = new HashMap<>();
@@ -49,10 +55,11 @@ public class ExecucaoComParadaAntecipada extends Execucao {
         paramsAdicionaisTreino.put("Melhor Época (Validação)", redeNeural.epocaMelhorErro);
         paramsAdicionaisTreino.put("Melhor Erro Validação", String.format("%.8f", redeNeural.melhorErroValidacao));
 
-        salvarMatrizConfusao(caminhoPastaResultadosExecucao, matrizConfusao, dataset.rotulosClasses());
         //salvarHistoricoDeltaPesos(caminhoPastaResultadosExecucao, redeNeural.historicoMediaDeltaW1, "W1");
         //salvarHistoricoDeltaPesos(caminhoPastaResultadosExecucao, redeNeural.historicoMediaDeltaW2, "W2");
-        salvarResultadosTeste(caminhoPastaResultadosExecucao, dataset, previsoesTeste, parametrosRede, parametrosTreinamento, paramsAdicionaisTreino, resultadoAnaliseConfusao);
+        gravacoesExecucao.gravar("resultados do teste", () -> salvarResultadosTeste(caminhoPastaResultadosExecucao, dataset,
+                previsoesTeste, parametrosRede, parametrosTreinamento, paramsAdicionaisTreino, resultadoAnaliseConfusao));
+        this.gravacoes = gravacoesExecucao.concluidas();
 
         System.out.println("===== FINALIZADA: " + parametrosRede.nomeExecucao().toUpperCase() + " =====");
     }
@@ -0,0 +1,68 @@
+package br.com.usp.ach2016.executions;
+
+import br.com.usp.ach2016.MLP;
+import br.com.usp.ach2016.model.DatasetCompacto;
+import br.com.usp.ach2016.model.ParametrosRede;
+import br.com.usp.ach2016.model.ParametrosTreinamento;
+import br.com.usp.ach2016.utils.GravadorResultados;
+import br.com.usp.ach2016.utils.GravadorResultados.GravacoesExecucao;
+
+import static br.com.usp.ach2016.utils.IOUtils.salvarPesosIniciais;
+import static br.com.usp.ach2016.utils.IOUtils.salvarResultadosTreino;
+import static br.com.usp.ach2016.utils.MetricsUtils.calcularAcuracia;
+import static br.com.usp.ach2016.utils.MetricsUtils.formatarDuracao;
+
+/**
+ * Treino sobre o dataset compacto (pixels em bits, de preferência mapeados do arquivo binário): as últimas
+ * numAmostrasTeste amostras formam o teste e as demais o treino, como visões dos mesmos buffers. Os lotes de treino
+ * seguem direto dos bits para o caminho esparso da MLP; só o conjunto de teste é expandido para a matriz densa.
+ */
+public class ExecucaoCompacta extends Execucao {
+
+    private final DatasetCompacto datasetCompacto;
+    private final int numAmostrasTeste;
+
+    public ExecucaoCompacta(DatasetCompacto datasetCompacto,
+                            int numAmostrasTeste,
+                            ParametrosRede parametrosRede,
+                            ParametrosTreinamento parametrosTreinamento) {
+        super(parametrosRede, parametrosTreinamento);
+        if (numAmostrasTeste <= 0 || numAmostrasTeste >= datasetCompacto.numAmostras()) {
+            throw new IllegalArgumentException("Número inválido de amostras de teste (" + numAmostrasTeste +
+                    ") para o total de amostras (" + datasetCompacto.numAmostras() + ").");
+        }
+        this.datasetCompacto = datasetCompacto;
+        this.numAmostrasTeste = numAmostrasTeste;
+    }
+
+    @Override
+    public void executar() {
+        System.out.println("\n\n===== INICIANDO: " + parametrosRede.nomeExecucao().toUpperCase() + " =====");
+
+        int numTotalAmostras = datasetCompacto.numAmostras();
+        int indiceFimTreino = numTotalAmostras - numAmostrasTeste;
+        DatasetCompacto treino = datasetCompacto.faixa(0, indiceFimTreino);
+        DatasetCompacto teste = datasetCompacto.faixa(indiceFimTreino, numTotalAmostras);
+
+        // Os arquivos são gravados na thread de gravação; a rede não é mais alterada depois do treino
+        GravacoesExecucao gravacoesExecucao = GravadorResultados.novaExecucao(parametrosRede.nomeExecucao());
+        MLP redeNeural = new MLP(parametrosRede);
+        gravacoesExecucao.gravar("pesos iniciais", () -> salvarPesosIniciais(caminhoPastaResultadosExecucao,
+                            redeNeural.pesosIniciaisW1,
+                            redeNeural.biasInicialB1,
+                            redeNeural.pesosIniciaisW2,
+                            redeNeural.biasInicialB2));
+        long inicioTreino = System.currentTimeMillis();
+        int epocaFinal = redeNeural.treinar(treino, null, null, parametrosTreinamento);
+        long duracaoTreino = System.currentTimeMillis() - inicioTreino;
+        gravacoesExecucao.gravar("resultados do treino",
+                () -> salvarResultadosTreino(caminhoPastaResultadosExecucao, parametrosTreinamento, redeNeural));
+        this.gravacoes = gravacoesExecucao.concluidas();
+
+        double acuraciaTeste = calcularAcuracia(teste.rotulosComoIndices(), redeNeural.prever(teste.expandirEntradas()));
+        System.out.printf("Dataset compacto (%s) - Epocas: %d, Tempo de Treinamento: %s, Acuracia Teste: %.2f%%\n",
+                datasetCompacto.mapeado() ? "mapeado" : "heap", epocaFinal, formatarDuracao(duracaoTreino), acuraciaTeste);
+
+        System.out.println("===== FINALIZADA: " + parametrosRede.nomeExecucao().toUpperCase() + " =====");
+    }
+}
@@ -0,0 +1,72 @@
+package br.com.usp.ach2016.executions;
+
+import br.com.usp.ach2016.MLP;
+import br.com.usp.ach2016.model.Dataset;
+import br.com.usp.ach2016.model.ParametrosRede;
+import br.com.usp.ach2016.model.ParametrosTreinamento;
+import br.com.usp.ach2016.model.Precisao;
+import br.com.usp.ach2016.model.VisaoDataset;
+import br.com.usp.ach2016.utils.GravadorResultados;
+import br.com.usp.ach2016.utils.GravadorResultados.GravacoesExecucao;
+
+import static br.com.usp.ach2016.utils.IOUtils.salvarComparacaoPrecisao;
+import static br.com.usp.ach2016.utils.MetricsUtils.calcularAcuracia;
+import static br.com.usp.ach2016.utils.MetricsUtils.formatarDuracao;
+
+/**
+ * Validação do motor float32: treina a mesma rede (mesma semente e hiperparâmetros) em precisão DOUBLE e FLOAT,
+ * compara a acurácia no conjunto de teste e o tempo de treinamento, e salva o resultado em comparacao_precisao.txt.
+ */
+public class ExecucaoComparacaoPrecisao extends Execucao {
+
+    // Diferença máxima de acurácia (em pontos percentuais) aceita para considerar as precisões equivalentes
+    public static final double TOLERANCIA_ACURACIA = 2.0;
+
+    public ExecucaoComparacaoPrecisao(Dataset dataset,
+                                      ParametrosRede parametrosRede,
+                                      ParametrosTreinamento parametrosTreinamento) {
+        super(dataset, parametrosRede, parametrosTreinamento);
+    }
+
+    @Override
+    public void executar() {
+        System.out.println("\n\n===== INICIANDO: " + parametrosRede.nomeExecucao().toUpperCase() + " =====");
+
+        VisaoDataset treinoCompleto = dataset.treinoEValidacao();
+        int[] yTeste = dataset.teste().rotulos();
+
+        double[] acuracias = new double[2];
+        long[] duracoes = new long[2];
+        Precisao[] precisoes = {Precisao.DOUBLE, Precisao.FLOAT};
+        for (int i = 0; i < precisoes.length; i++) {
+            System.out.println("\n--- Precisao " + precisoes[i] + " ---");
+            MLP redeNeural = new MLP(new ParametrosRede(
+                    parametrosRede.tamanhoEntrada(),
+                    parametrosRede.tamanhoCamadaEscondida(),
+                    parametrosRede.tamanhoSaida(),
+                    parametrosRede.sementeAleatoria(),
+                    parametrosRede.nomeExecucao(),
+                    precisoes[i]));
+
+            long inicioTreino = System.currentTimeMillis();
+            redeNeural.treinar(treinoCompleto, null, parametrosTreinamento);
+            duracoes[i] = System.currentTimeMillis() - inicioTreino;
+            acuracias[i] = calcularAcuracia(yTeste, redeNeural.prever(dataset.teste()));
+            System.out.printf("Precisao %s - Tempo de Treinamento: %s, Acuracia Teste: %.2f%%\n",
+                    precisoes[i], formatarDuracao(duracoes[i]), acuracias[i]);
+        }
+
+        double diferencaAcuracia = Math.abs(acuracias[0] - acuracias[1]);
+        double ganhoVazao = duracoes[1] > 0 ? (double) duracoes[0] / duracoes[1] : Double.NaN;
+        boolean paridade = diferencaAcuracia <= TOLERANCIA_ACURACIA;
+        System.out.printf("Diferenca de acuracia: %.2f p.p. (%s). Ganho de vazao FLOAT/DOUBLE: %.2fx\n",
+                diferencaAcuracia, paridade ? "paridade OK" : "FORA DA TOLERANCIA", ganhoVazao);
+
+        GravacoesExecucao gravacoesExecucao = GravadorResultados.novaExecucao(parametrosRede.nomeExecucao());
+        gravacoesExecucao.gravar("comparação de precisão", () -> salvarComparacaoPrecisao(caminhoPastaResultadosExecucao,
+                parametrosRede, parametrosTreinamento, acuracias[0], duracoes[0], acuracias[1], duracoes[1], TOLERANCIA_ACURACIA));
+        this.gravacoes = gravacoesExecucao.concluidas();
+
+        System.out.println("===== FINALIZADA: " + parametrosRede.nomeExecucao().toUpperCase() + " =====");
+    }
+}
@@ -5,11 +5,17 @@ import br.com.usp.ach2016.model.Dataset;
 import br.com.usp.ach2016.model.ParametrosRede;
 import br.com.usp.ach2016.model.ParametrosTreinamento;
 import br.com.usp.ach2016.model.ResultadoAnaliseConfusao;
+import br.com.usp.ach2016.model.VisaoDataset;
+import br.com.usp.ach2016.utils.GravadorResultados;
+import br.com.usp.ach2016.utils.GravadorResultados.GravacoesExecucao;
 import org.ejml.simple.SimpleMatrix;
 
 import java.util.HashMap;
 import java.util.Map;
 
+import static br.com.usp.ach2016.utils.CacheUtils.*;
+import static br.com.usp.ach2016.utils.CheckpointUtils.caminhoCheckpoint;
+import static br.com.usp.ach2016.utils.CheckpointUtils.removerCheckpoint;
 import static br.com.usp.ach2016.utils.IOUtils.*;
 import static br.com.usp.ach2016.utils.MatrixUtils.*;
 import static br.com.usp.ach2016.utils.MetricsUtils.formatarDuracao;
@@ -31,33 +37,46 @@ public class ExecucaoSimples extends Execucao {
                 parametrosRede.tamanhoCamadaEscondida(),
                 parametrosRede.tamanhoSaida(),
                 parametrosRede.sementeAleatoria(),
-                nomeExecucao
+                nomeExecucao,
+                parametrosRede.precisao()
         );
 
         System.out.println("\n\n===== INICIANDO: " + parametrosRede.nomeExecucao().toUpperCase() + " =====");
 
 
-        // Juntando conjunto de treino + de validação (totalizando 1196 exemplos para TREINO)
-        SimpleMatrix xTreinoCompleto = combinarMatrizesVerticalmente(dataset.xTreino(), dataset.xValidacao());
-        SimpleMatrix yTreinoCompleto = combinarMatrizesVerticalmente(dataset.yTreino(), dataset.yValidacao());
+        // Juntando conjunto de treino + de validação (totalizando 1196 exemplos para TREINO), sem copiar X
+        VisaoDataset treinoCompleto = dataset.treinoEValidacao();
 
+        // Execução já calculada (mesmos hiperparâmetros, dados e versão do motor): resultados servidos do cache
+        String chaveCache = calcularChave(parametrosRede, parametrosTreinamento, treinoCompleto, dataset.teste());
+        if (servirDoCache(chaveCache, caminhoPastaResultadosExecucao)) {
+            System.out.println("===== FINALIZADA (CACHE): " + parametrosRede.nomeExecucao().toUpperCase() + " =====");
+            return;
+        }
+
+        // Os arquivos são gravados na thread de gravação; a rede não é mais alterada depois do treino
+        GravacoesExecucao gravacoesExecucao = GravadorResultados.novaExecucao(parametrosRede.nomeExecucao());
         MLP redeNeural = new MLP(parametrosRede);
-        salvarPesosIniciais(caminhoPastaResultadosExecucao,
+        // Checkpoint identificado pela mesma chave do cache: uma execução interrompida continua de onde parou
+        redeNeural.definirCheckpoint(caminhoCheckpoint(chaveCache), INTERVALO_CHECKPOINT_EPOCAS);
+        gravacoesExecucao.gravar("pesos iniciais", () -> salvarPesosIniciais(caminhoPastaResultadosExecucao,
                            redeNeural.pesosIniciaisW1,
                            redeNeural.biasInicialB1,
                            redeNeural.pesosIniciaisW2,
-                           redeNeural.biasInicialB2);
+                           redeNeural.biasInicialB2));
 
         long inicioTreino = System.currentTimeMillis();
-        redeNeural.treinar(xTreinoCompleto, yTreinoCompleto, null, null, parametrosTreinamento);
+        redeNeural.treinar(treinoCompleto, null, parametrosTreinamento);
         String duracaoTreinoFormatada = formatarDuracao(System.currentTimeMillis() - inicioTreino);
         System.out.println("Tempo de Treinamento: " + duracaoTreinoFormatada);
-        salvarResultadosTreino(caminhoPastaResultadosExecucao, parametrosTreinamento, redeNeural);
+        gravacoesExecucao.gravar("resultados do treino",
+                () -> salvarResultadosTreino(caminhoPastaResultadosExecucao, parametrosTreinamento, redeNeural));
 
-        SimpleMatrix previsoesTeste = redeNeural.prever(dataset.xTeste());
+        SimpleMatrix previsoesTeste = redeNeural.prever(dataset.teste());
 
-        int[][] matrizConfusao = calcularMatrizConfusao(dataset.yTeste(), previsoesTeste);
-        salvarMatrizConfusao(caminhoPastaResultadosExecucao, matrizConfusao, dataset.rotulosClasses());
+        int[][] matrizConfusao = calcularMatrizConfusao(dataset.teste().rotulos(), previsoesTeste);
+        gravacoesExecucao.gravar("matriz de confusão",
+                () -> salvarMatrizConfusao(caminhoPastaResultadosExecucao, matrizConfusao, dataset.rotulosClasses()));
 
         Map<String, Object> paramsAdicionaisTreino = new HashMap<>();
         paramsAdicionaisTreino.put("Tempo de Treinamento", duracaoTreinoFormatada); // Adiciona a duração formatada
@@ -66,14 +85,21 @@ public class ExecucaoSimples extends Execucao {
         //salvarHistoricoDeltaPesos(caminhoPastaResultadosExecucao, redeNeural.historicoMediaDeltaW2, "W2");
 
         ResultadoAnaliseConfusao resultadoAnaliseConfusao = gerarResultadosClassificacao(matrizConfusao, dataset, previsoesTeste);
-        salvarResultadosTeste(caminhoPastaResultadosExecucao,
+        final ParametrosRede parametrosRedeExecucao = parametrosRede;
+        gravacoesExecucao.gravar("resultados do teste", () -> salvarResultadosTeste(caminhoPastaResultadosExecucao,
                               dataset,
                               previsoesTeste,
-                              parametrosRede,
+                              parametrosRedeExecucao,
                               parametrosTreinamento,
                               paramsAdicionaisTreino,
                               resultadoAnaliseConfusao
-        );
+        ));
+        // Depois de todos os arquivos da pasta (a fila é gravada em ordem; não roda se algum falhou)
+        gravacoesExecucao.gravar("cache de resultados", () -> {
+            armazenarNoCache(chaveCache, caminhoPastaResultadosExecucao, parametrosRedeExecucao.nomeExecucao());
+            removerCheckpoint(caminhoCheckpoint(chaveCache));
+        });
+        this.gravacoes = gravacoesExecucao.concluidas();
 
         System.out.println("===== FINALIZADA: " + parametrosRede.nomeExecucao().toUpperCase() + " =====");
     }
@@ -4,25 +4,44 @@ import br.com.usp.ach2016.MLP;
 import br.com.usp.ach2016.model.Dataset;
 import br.com.usp.ach2016.model.ParametrosRede;
 import br.com.usp.ach2016.model.ParametrosTreinamento;
+import br.com.usp.ach2016.model.VisaoDataset;
+import br.com.usp.ach2016.utils.GravadorResultados;
+import br.com.usp.ach2016.utils.GravadorResultados.GravacoesExecucao;
 import org.ejml.simple.SimpleMatrix;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import static br.com.usp.ach2016.utils.MatrixUtils.combinarMatrizesVerticalmente;
-import static br.com.usp.ach2016.utils.MatrixUtils.embaralharAleatoriamente;
+import static br.com.usp.ach2016.utils.IOUtils.criarSubpastaResultados;
+import static br.com.usp.ach2016.utils.IOUtils.salvarResultadosTreino;
 import static br.com.usp.ach2016.utils.MetricsUtils.calcularAcuracia;
 
 public class ExecucaoValidacaoCruzada extends Execucao {
 
     public final int kFolds;
+    public final int numThreadsFolds; // Máximo de folds treinados ao mesmo tempo
 
     public ExecucaoValidacaoCruzada(Dataset dataset,
                                     ParametrosRede parametrosRede,
                                     ParametrosTreinamento parametrosTreinamento,
                                     int kFolds) {
+        this(dataset, parametrosRede, parametrosTreinamento, kFolds, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ExecucaoValidacaoCruzada(Dataset dataset,
+                                    ParametrosRede parametrosRede,
+                                    ParametrosTreinamento parametrosTreinamento,
+                                    int kFolds,
+                                    int numThreadsFolds) {
         super(dataset, parametrosRede, parametrosTreinamento);
         this.kFolds = kFolds;
+        this.numThreadsFolds = numThreadsFolds;
     }
 
     @Override
@@ -30,13 +49,10 @@ public class ExecucaoValidacaoCruzada extends Execucao {
         System.out.println("\n\n===== INICIANDO: " + parametrosRede.nomeExecucao().toUpperCase() + " =====");
 
         // Combina treino e validação originais para formar o pool de dados do k-fold
-        SimpleMatrix xTreinoVal = combinarMatrizesVerticalmente(dataset.xTreino(), dataset.xValidacao());
-        SimpleMatrix yTreinoVal = combinarMatrizesVerticalmente(dataset.yTreino(), dataset.yValidacao());
-
-        // Embaralha valores aleatoriamente para evitar vies
-        embaralharAleatoriamente(xTreinoVal, yTreinoVal, parametrosRede.sementeAleatoria());
+        // e embaralha aleatoriamente para evitar viés (apenas a ordem dos índices; X não é copiado)
+        VisaoDataset treinoVal = dataset.treinoEValidacao().embaralhada(parametrosRede.sementeAleatoria());
 
-        int numTotalAmostrasTreinoVal = xTreinoVal.getNumRows();
+        int numTotalAmostrasTreinoVal = treinoVal.numAmostras();
         if (numTotalAmostrasTreinoVal < kFolds) {
             System.err.println("Erro: Número de folds (k=" + kFolds + ") é maior que o número de amostras (" + numTotalAmostrasTreinoVal + ")");
             return;
@@ -47,56 +63,48 @@ public class ExecucaoValidacaoCruzada extends Execucao {
         System.out.println("Total de amostras para k-fold: " + numTotalAmostrasTreinoVal);
         System.out.println("Tamanho aproximado de cada fold: " + tamanhoFold + " (com ajuste para resto)");
 
-        List<Double> acuraciasValidacaoFolds = new ArrayList<>();
-        List<Double> errosFinaisTreinoFolds = new ArrayList<>();
-
+        // Cada fold treina sua própria MLP sobre visões do bloco de dados compartilhado (somente leitura), em um pool limitado.
+        // O log de cada fold é bufferizado e impresso na ordem dos folds, como na execução sequencial.
+        int numThreadsFolds = Math.max(1, Math.min(kFolds, this.numThreadsFolds));
+        ExecutorService executorFolds = Executors.newFixedThreadPool(numThreadsFolds);
+        List<Future<ResultadoFold>> resultadosFuturos = new ArrayList<>();
         int indiceInicioFold = 0;
         for (int foldAtual = 0; foldAtual < kFolds; foldAtual++) {
-            System.out.println("\n--- Fold " + (foldAtual + 1) + "/" + kFolds + " ---");
-
             // Define o tamanho e os índices deste fold de validação específico
             int tamanhoFoldAtual = tamanhoFold + (foldAtual < resto ? 1 : 0); // Distribui o resto
             int indiceFimFold = indiceInicioFold + tamanhoFoldAtual;
 
-            // Separa dados de validação e treino para este fold
-            SimpleMatrix xValidacaoFold = xTreinoVal.extractMatrix(indiceInicioFold, indiceFimFold, 0, xTreinoVal.getNumCols());
-            SimpleMatrix yValidacaoFold = yTreinoVal.extractMatrix(indiceInicioFold, indiceFimFold, 0, yTreinoVal.getNumCols());
-
-            SimpleMatrix xTreinoFoldParte1 = indiceInicioFold == 0 ? null : xTreinoVal.extractMatrix(0, indiceInicioFold, 0, xTreinoVal.getNumCols());
-            SimpleMatrix yTreinoFoldParte1 = indiceInicioFold == 0 ? null : yTreinoVal.extractMatrix(0, indiceInicioFold, 0, yTreinoVal.getNumCols());
-
-            SimpleMatrix xTreinoFoldParte2 = indiceFimFold == numTotalAmostrasTreinoVal ? null : xTreinoVal.extractMatrix(indiceFimFold, numTotalAmostrasTreinoVal, 0, xTreinoVal.getNumCols());
-            SimpleMatrix yTreinoFoldParte2 = indiceFimFold == numTotalAmostrasTreinoVal ? null : yTreinoVal.extractMatrix(indiceFimFold, numTotalAmostrasTreinoVal, 0, yTreinoVal.getNumCols());
-
-            // Combina as partes de treino (se houver duas partes)
-            SimpleMatrix xTreinoFold = combinarMatrizesVerticalmente(xTreinoFoldParte1, xTreinoFoldParte2);
-            SimpleMatrix yTreinoFold = combinarMatrizesVerticalmente(yTreinoFoldParte1, yTreinoFoldParte2);
-
-            System.out.println("Tamanho Treino Fold " + (foldAtual+1) + ": " + xTreinoFold.getNumRows() + "x" + xTreinoFold.getNumCols());
-            System.out.println("Tamanho Validacao Fold " + (foldAtual+1) + ": " + xValidacaoFold.getNumRows() + "x" + xValidacaoFold.getNumCols());
-
-            // Cria e treina uma NOVA rede para este fold
-            String pastKFold = caminhoPastaResultadosExecucao.substring("resultados/".length()) + "/Fold" + (foldAtual + 1);
-            ParametrosRede parametrosRedeFold = new ParametrosRede(
-                    parametrosRede.tamanhoEntrada(),
-                    parametrosRede.tamanhoCamadaEscondida(),
-                    parametrosRede.tamanhoSaida(),
-                    parametrosRede.sementeAleatoria() + foldAtual, // Muda a semente por fold
-                    pastKFold);
-            MLP redeFold = new MLP(parametrosRedeFold);
-
-            // Treina por um número FIXO de épocas
-            redeFold.treinar(xTreinoFold, yTreinoFold, null, null, parametrosTreinamento);
-            errosFinaisTreinoFolds.add(redeFold.historicoErro.get(redeFold.historicoErro.size()-1));
-
-            // Avalia no conjunto de validação deste fold
-            SimpleMatrix previsoesValidacaoFold = redeFold.prever(xValidacaoFold);
-            double acuraciaFold = calcularAcuracia(yValidacaoFold, previsoesValidacaoFold);
-            acuraciasValidacaoFolds.add(acuraciaFold);
-            System.out.printf("Fold %d - Acuracia Validacao: %.2f%%\n", foldAtual + 1, acuraciaFold);
+            final int fold = foldAtual, inicio = indiceInicioFold, fim = indiceFimFold;
+            resultadosFuturos.add(executorFolds.submit(() -> executarFold(fold, inicio, fim, treinoVal)));
 
             indiceInicioFold = indiceFimFold; // Atualiza o índice para o próximo fold
         }
+        executorFolds.shutdown();
+
+        // Resultados do treino de cada fold (subpasta "FoldN") enfileirados na thread de gravação, na ordem dos folds
+        GravacoesExecucao gravacoesExecucao = GravadorResultados.novaExecucao(parametrosRede.nomeExecucao());
+        List<Double> acuraciasValidacaoFolds = new ArrayList<>();
+        List<Double> errosFinaisTreinoFolds = new ArrayList<>();
+        try {
+            for (int foldAtual = 0; foldAtual < kFolds; foldAtual++) {
+                ResultadoFold resultado = resultadosFuturos.get(foldAtual).get();
+                System.out.print(resultado.log());
+                acuraciasValidacaoFolds.add(resultado.acuraciaValidacao());
+                errosFinaisTreinoFolds.add(resultado.erroFinalTreino());
+                String caminhoPastaFold = criarSubpastaResultados(caminhoPastaResultadosExecucao, "Fold" + (foldAtual + 1));
+                gravacoesExecucao.gravar("resultados do treino do fold " + (foldAtual + 1),
+                        () -> salvarResultadosTreino(caminhoPastaFold, parametrosTreinamento, resultado.rede()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executorFolds.shutdownNow();
+            throw new IllegalStateException("Validação cruzada interrompida.", e);
+        } catch (ExecutionException e) {
+            executorFolds.shutdownNow();
+            throw new IllegalStateException("Falha no treino de um fold da validação cruzada.", e.getCause());
+        } finally {
+            this.gravacoes = gravacoesExecucao.concluidas();
+        }
 
         // Calcula e exibe a média das acurácias de validação
         double somaAcuracias = 0;
@@ -106,4 +114,56 @@ public class ExecucaoValidacaoCruzada extends Execucao {
 
         System.out.println("===== FINALIZADA: " + parametrosRede.nomeExecucao().toUpperCase() + " =====");
     }
+
+    @Override
+    public int numThreadsUtilizadas() {
+        return Math.max(1, Math.min(kFolds, numThreadsFolds)) * super.numThreadsUtilizadas();
+    }
+
+    /**
+     * Separa os dados, treina e avalia um fold. Todas as mensagens do fold vão para um buffer próprio.
+     */
+    private ResultadoFold executarFold(int foldAtual, int indiceInicioFold, int indiceFimFold, VisaoDataset treinoVal) {
+        ByteArrayOutputStream bufferLog = new ByteArrayOutputStream();
+        PrintStream log = new PrintStream(bufferLog, true);
+
+        log.println("\n--- Fold " + (foldAtual + 1) + "/" + kFolds + " ---");
+
+        // Separa dados de validação e treino para este fold (visões por índice, sem cópia de X)
+        VisaoDataset validacaoFold = treinoVal.fatia(indiceInicioFold, indiceFimFold);
+        VisaoDataset treinoFold = treinoVal.semFatia(indiceInicioFold, indiceFimFold);
+
+        log.println("Tamanho Treino Fold " + (foldAtual+1) + ": " + treinoFold.numAmostras() + "x" + treinoFold.numAtributos());
+        log.println("Tamanho Validacao Fold " + (foldAtual+1) + ": " + validacaoFold.numAmostras() + "x" + validacaoFold.numAtributos());
+
+        // Cria e treina uma NOVA rede para este fold
+        String pastKFold = caminhoPastaResultadosExecucao.substring("resultados/".length()) + "/Fold" + (foldAtual + 1);
+        ParametrosRede parametrosRedeFold = new ParametrosRede(
+                parametrosRede.tamanhoEntrada(),
+                parametrosRede.tamanhoCamadaEscondida(),
+                parametrosRede.tamanhoSaida(),
+                parametrosRede.sementeAleatoria() + foldAtual, // Muda a semente por fold
+                pastKFold,
+                parametrosRede.precisao());
+        MLP redeFold = new MLP(parametrosRedeFold);
+        redeFold.definirSaidaLog(log);
+
+        // Treina por um número FIXO de épocas
+        redeFold.treinar(treinoFold, null, parametrosTreinamento);
+        double erroFinalTreino = redeFold.historicoErro.get(redeFold.historicoErro.size()-1);
+
+        // Avalia no conjunto de validação deste fold
+        SimpleMatrix previsoesValidacaoFold = redeFold.prever(validacaoFold);
+        double acuraciaFold = calcularAcuracia(validacaoFold.rotulos(), previsoesValidacaoFold);
+        log.printf("Fold %d - Acuracia Validacao: %.2f%%\n", foldAtual + 1, acuraciaFold);
+
+        log.flush();
+        return new ResultadoFold(bufferLog.toString(), acuraciaFold, erroFinalTreino, redeFold);
+    }
+
+    /**
+     * Resultado de um fold: o log bufferizado, a acurácia de validação, o erro final de treino e a rede treinada
+     * (não mais alterada; seus arquivos são gravados na thread de gravação).
+     */
+    private record ResultadoFold(String log, double acuraciaValidacao, double erroFinalTreino, MLP rede) {}
 }
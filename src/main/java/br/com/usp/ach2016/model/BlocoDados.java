@@ -0,0 +1,19 @@
+package br.com.usp.ach2016.model;
+
+import org.ejml.simple.SimpleMatrix;
+
+import java.util.List;
+
+/**
+ * Todas as amostras de um conjunto de dados, antes da divisão em treino/validação/teste.
+ *
+ * @param x              Entradas de todas as amostras (pixels em 0.0/1.0). Shape: [numAmostras, numAtributos]
+ * @param y              Índice da classe de cada amostra (posição em `rotulosClasses`).
+ * @param rotulosClasses Lista ordenada dos rótulos de classe únicos (ex: ['A', 'B', ..., 'Z']).
+ */
+public record BlocoDados(SimpleMatrix x, int[] y, List<Character> rotulosClasses) {
+
+    public int numAmostras() {
+        return y.length;
+    }
+}
@@ -0,0 +1,30 @@
+package br.com.usp.ach2016.model;
+
+/**
+ * Estado completo de um treino ao fim de uma época, suficiente para continuar o treino exatamente de onde parou.
+ *
+ * @param identificacao         Parâmetros da rede e do treino que determinam a trajetória (o checkpoint só é
+ *                              retomado por um treino com a mesma identificação).
+ * @param epoca                 Número de épocas já treinadas.
+ * @param pesos                 Dados de W1, b1, W2 e b2 (row-major), nessa ordem.
+ * @param permutacao            Permutação das amostras do mini-lote após a última época (null sem mini-lote).
+ * @param estadoEmbaralhador    Estado serializado do gerador do embaralhamento (null sem mini-lote).
+ * @param historicoErro         Erro de treino de cada época já treinada.
+ * @param historicoErroValidacao Erros de validação já calculados (vazio sem parada antecipada).
+ * @param melhorErroValidacao   Melhor erro de validação até a época do checkpoint.
+ * @param epocaMelhorErro       Época do melhor erro de validação (0 se nenhum).
+ * @param melhoresPesos         Dados de W1, b1, W2 e b2 da melhor época de validação (null sem parada antecipada).
+ */
+public record CheckpointTreino(
+        String identificacao,
+        int epoca,
+        double[][] pesos,
+        int[] permutacao,
+        byte[] estadoEmbaralhador,
+        double[] historicoErro,
+        double[] historicoErroValidacao,
+        double melhorErroValidacao,
+        int epocaMelhorErro,
+        double[][] melhoresPesos
+) {
+}
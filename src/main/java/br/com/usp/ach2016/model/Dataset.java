@@ -1,25 +1,45 @@
 package br.com.usp.ach2016.model;
 
-import org.ejml.simple.SimpleMatrix;
-
 import java.util.List;
 import java.util.Map;
 
 /**
  * Estrutura de dados (record) para armazenar o conjunto de dados de caracteres dividido.
- * Inclui matrizes de treino/teste e informações sobre as classes.
+ * Os conjuntos de treino, validação e teste são visões sobre um único bloco com todas as amostras
+ * (sem cópia das linhas de X). Inclui também as informações sobre as classes.
  *
- * @param xTreino Matriz com os dados de entrada (pixels) para treinamento. Shape: [numAmostrasTreino, numAtributos].
- * @param yTreino Matriz com os rótulos (one-hot encoded) para treinamento. Shape: [numAmostrasTreino, numClasses].
- * @param xTeste Matriz com os dados de entrada (pixels) para teste. Shape: [numAmostrasTeste, numAtributos].
- * @param yTeste Matriz com os rótulos (one-hot encoded) para teste. Shape: [numAmostrasTeste, numClasses].
+ * @param treino Visão das amostras de treinamento.
+ * @param validacao Visão das amostras de validação (parada antecipada).
+ * @param teste Visão das amostras de teste.
  * @param rotulosClasses Lista ordenada dos rótulos de classe únicos (ex: ['A', 'B', ..., 'Z']).
- * @param caractereParaIndice Mapa que associa cada caractere ao seu índice correspondente na lista `rotulosClasses` e na codificação one-hot.
+ * @param caractereParaIndice Mapa que associa cada caractere ao seu índice correspondente na lista `rotulosClasses` (valor usado em y).
  */
 public record Dataset(
-        SimpleMatrix xTreino, SimpleMatrix yTreino,
-        SimpleMatrix xValidacao, SimpleMatrix yValidacao,
-        SimpleMatrix xTeste, SimpleMatrix yTeste,
+        VisaoDataset treino,
+        VisaoDataset validacao,
+        VisaoDataset teste,
         List<Character> rotulosClasses,
         Map<Character, Integer> caractereParaIndice
-) {}
\ No newline at end of file
+) {
+
+    /**
+     * @return O número de classes (tamanho da camada de saída da rede).
+     */
+    public int numClasses() {
+        return rotulosClasses.size();
+    }
+
+    /**
+     * @return O número de atributos (pixels) de cada amostra (tamanho da camada de entrada da rede).
+     */
+    public int numAtributos() {
+        return treino.numAtributos();
+    }
+
+    /**
+     * @return A visão com as amostras de treino seguidas das de validação (sem cópia de X).
+     */
+    public VisaoDataset treinoEValidacao() {
+        return treino.unir(validacao);
+    }
+}
@@ -0,0 +1,244 @@
+package br.com.usp.ach2016.model;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.simple.SimpleMatrix;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.List;
+
+/**
+ * Conjunto de dados compacto para entradas binárias: cada amostra guarda seus pixels empacotados em bits
+ * (um glifo de 10x12 = 120 pixels ocupa duas palavras `long`) e o rótulo como índice de classe em um `byte`.
+ * Isso reduz cada amostra de ~1,2 KB (120 + 26 doubles) para 17 bytes.
+ * No treino, cada lote vira direto uma {@link EntradaBinaria} (lista dos pixels ativos), sem reconstruir a matriz
+ * densa de entrada; ela só é expandida sob demanda (ex.: conjuntos de validação/teste pequenos).
+ * <p>
+ * Os bits e rótulos podem estar no heap ou em um arquivo mapeado em memória (ver DatasetBinarioUtils.lerCompacto):
+ * nesse caso nada é copiado para o heap e processos que treinam com o mesmo arquivo compartilham o cache de páginas.
+ * {@link #faixa} cria visões de um intervalo de amostras sobre os mesmos buffers (ex.: divisão treino/validação/teste).
+ */
+public final class DatasetCompacto {
+
+    private static final int BITS_POR_PALAVRA = Long.SIZE;
+    public static final int MAX_CLASSES = 256; // Rótulos são lidos como byte sem sinal
+
+    private final int numAmostras;
+    private final int numAtributos;
+    private final List<Character> rotulosClasses;
+    private final int palavrasPorAmostra;
+    private final LongBuffer pixels;  // Bit c da amostra i: pixels[i * palavrasPorAmostra + c / 64] >>> (c % 64)
+    private final ByteBuffer rotulos; // Índice da classe de cada amostra (0 .. numClasses - 1, sem sinal)
+
+    /**
+     * Cria o conjunto a partir dos arrays já empacotados (ex.: montados por um leitor em fluxo).
+     *
+     * @param numAtributos   Número de pixels por amostra.
+     * @param rotulosClasses Rótulo de cada classe (no máximo 256 classes).
+     * @param pixels         Bits dos pixels, `ceil(numAtributos / 64)` palavras por amostra.
+     * @param rotulos        Índice da classe de cada amostra.
+     */
+    public DatasetCompacto(int numAtributos, List<Character> rotulosClasses, long[] pixels, byte[] rotulos) {
+        this(numAtributos, rotulosClasses, LongBuffer.wrap(pixels), ByteBuffer.wrap(rotulos));
+    }
+
+    /**
+     * Idem, sobre buffers (ex.: regiões de um arquivo mapeado em memória). Os buffers não são copiados: as amostras
+     * vão da posição atual ao limite de cada um, e o conteúdo não deve mudar enquanto o conjunto estiver em uso.
+     */
+    public DatasetCompacto(int numAtributos, List<Character> rotulosClasses, LongBuffer pixels, ByteBuffer rotulos) {
+        if (numAtributos <= 0 || rotulosClasses.isEmpty() || rotulosClasses.size() > MAX_CLASSES) {
+            throw new IllegalArgumentException("Dimensões inválidas para o dataset compacto: numAtributos = " + numAtributos +
+                    ", numClasses = " + rotulosClasses.size() + " (máximo de " + MAX_CLASSES + " classes).");
+        }
+        this.numAtributos = numAtributos;
+        this.rotulosClasses = List.copyOf(rotulosClasses);
+        this.palavrasPorAmostra = palavrasPorAmostra(numAtributos);
+        this.numAmostras = rotulos.remaining();
+        if (pixels.remaining() != (long) numAmostras * palavrasPorAmostra) {
+            throw new IllegalArgumentException("Tamanho do buffer de pixels (" + pixels.remaining() + ") incompatível com " +
+                    numAmostras + " amostras de " + palavrasPorAmostra + " palavras.");
+        }
+        // Visões próprias, indexadas a partir de 0 (get absoluto), sem alterar a posição dos buffers do chamador
+        this.pixels = pixels.slice();
+        this.rotulos = rotulos.slice();
+    }
+
+    /**
+     * @return Número de palavras `long` usadas pelos pixels de uma amostra.
+     */
+    public static int palavrasPorAmostra(int numAtributos) {
+        return (numAtributos + BITS_POR_PALAVRA - 1) / BITS_POR_PALAVRA;
+    }
+
+    /**
+     * Visão das amostras inicio .. fim - 1, sobre os mesmos buffers (sem cópia).
+     */
+    public DatasetCompacto faixa(int inicio, int fim) {
+        if (inicio < 0 || fim > numAmostras || inicio > fim) {
+            throw new IllegalArgumentException("Faixa [" + inicio + ", " + fim + ") fora do conjunto de " + numAmostras + " amostras.");
+        }
+        return new DatasetCompacto(numAtributos, rotulosClasses,
+                pixels.slice(inicio * palavrasPorAmostra, (fim - inicio) * palavrasPorAmostra),
+                rotulos.slice(inicio, fim - inicio));
+    }
+
+    /**
+     * Empacota uma matriz densa de entrada binária e seus rótulos.
+     *
+     * @param x              Matriz de entrada com valores 0.0/1.0. Shape: [numAmostras, numAtributos].
+     * @param rotulos        Índices das classes de cada amostra.
+     * @param rotulosClasses Rótulo de cada classe.
+     * @return O conjunto compacto equivalente.
+     * @throws IllegalArgumentException se X tiver algum valor diferente de 0.0/1.0 ou as dimensões não forem compatíveis.
+     */
+    public static DatasetCompacto deMatrizes(SimpleMatrix x, int[] rotulos, List<Character> rotulosClasses) {
+        if (x.getNumRows() != rotulos.length) {
+            throw new IllegalArgumentException("X (" + x.getNumRows() + " linhas) e Y (" + rotulos.length +
+                    " rótulos) devem ter o mesmo número de amostras.");
+        }
+        final int numAmostras = x.getNumRows();
+        final int numAtributos = x.getNumCols();
+        final int numClasses = rotulosClasses.size();
+        final int palavrasPorAmostra = palavrasPorAmostra(numAtributos);
+        final double[] dadosX = x.getDDRM().data;
+
+        long[] pixels = new long[numAmostras * palavrasPorAmostra];
+        byte[] rotulosCompactos = new byte[numAmostras];
+        for (int i = 0; i < numAmostras; i++) {
+            int inicioLinhaX = i * numAtributos;
+            int inicioPalavras = i * palavrasPorAmostra;
+            for (int c = 0; c < numAtributos; c++) {
+                double valor = dadosX[inicioLinhaX + c];
+                if (valor == 1.0) {
+                    pixels[inicioPalavras + c / BITS_POR_PALAVRA] |= 1L << (c % BITS_POR_PALAVRA);
+                } else if (valor != 0.0) {
+                    throw new IllegalArgumentException("O dataset compacto exige entrada binária (0.0/1.0); valor " + valor +
+                            " encontrado na linha " + i + ", coluna " + c + ".");
+                }
+            }
+
+            if (rotulos[i] < 0 || rotulos[i] >= numClasses) {
+                throw new IllegalArgumentException("Rótulo inválido " + rotulos[i] + " na linha " + i + ".");
+            }
+            rotulosCompactos[i] = (byte) rotulos[i];
+        }
+        return new DatasetCompacto(numAtributos, rotulosClasses, pixels, rotulosCompactos);
+    }
+
+    /**
+     * Expande um lote de amostras para a matriz densa informada, redimensionada para [fim - inicio, numAtributos]
+     * (sem realocar se já tiver capacidade), e copia os rótulos do lote para as primeiras posições de destinoRotulos.
+     *
+     * @param indices        Índices das amostras (ex.: permutação embaralhada), ou null para as amostras inicio .. fim - 1.
+     * @param inicio         Posição inicial (inclusiva) do lote em `indices`.
+     * @param fim            Posição final (exclusiva) do lote em `indices`.
+     * @param destinoX       Buffer de entrada (pixels 0.0/1.0).
+     * @param destinoRotulos Buffer de rótulos (índices de classe), com pelo menos fim - inicio posições.
+     */
+    public void expandirLote(int[] indices, int inicio, int fim, DMatrixRMaj destinoX, int[] destinoRotulos) {
+        final int tamanhoLote = fim - inicio;
+        destinoX.reshape(tamanhoLote, numAtributos);
+        final double[] dadosX = destinoX.data;
+
+        for (int r = 0; r < tamanhoLote; r++) {
+            int amostra = indices == null ? inicio + r : indices[inicio + r];
+            int inicioPalavras = amostra * palavrasPorAmostra;
+            int inicioLinhaX = r * numAtributos;
+            for (int p = 0, c = 0; p < palavrasPorAmostra; p++) {
+                long palavra = pixels.get(inicioPalavras + p);
+                int fimPalavra = Math.min(numAtributos, c + BITS_POR_PALAVRA);
+                for (; c < fimPalavra; c++, palavra >>>= 1) {
+                    dadosX[inicioLinhaX + c] = palavra & 1L;
+                }
+            }
+            destinoRotulos[r] = rotulo(amostra);
+        }
+    }
+
+    /**
+     * Preenche a entrada binária com os pixels ativos de um lote de amostras, lidos direto dos bits (sem expandir
+     * a matriz densa), e copia os rótulos do lote para as primeiras posições de destinoRotulos.
+     *
+     * @param indices        Índices das amostras (ex.: permutação embaralhada), ou null para as amostras inicio .. fim - 1.
+     * @param inicio         Posição inicial (inclusiva) do lote em `indices`.
+     * @param fim            Posição final (exclusiva) do lote em `indices`.
+     * @param destinoX       Entrada binária reaproveitada entre lotes, com numAtributos colunas.
+     * @param destinoRotulos Buffer de rótulos (índices de classe), com pelo menos fim - inicio posições.
+     */
+    public void expandirLote(int[] indices, int inicio, int fim, EntradaBinaria destinoX, int[] destinoRotulos) {
+        destinoX.preencher(this, indices, inicio, fim);
+        for (int r = 0; r < fim - inicio; r++) {
+            destinoRotulos[r] = rotulo(indices == null ? inicio + r : indices[inicio + r]);
+        }
+    }
+
+    /**
+     * Expande todas as amostras para uma matriz densa nova (ex.: conjuntos de validação/teste pequenos).
+     *
+     * @return A entrada 0.0/1.0. Shape: [numAmostras, numAtributos].
+     */
+    public SimpleMatrix expandirEntradas() {
+        DMatrixRMaj x = new DMatrixRMaj(numAmostras, numAtributos);
+        expandirLote(null, 0, numAmostras, x, new int[numAmostras]);
+        return SimpleMatrix.wrap(x);
+    }
+
+    /**
+     * @return Uma cópia dos rótulos como índices de classe (int).
+     */
+    public int[] rotulosComoIndices() {
+        int[] copia = new int[numAmostras];
+        for (int i = 0; i < numAmostras; i++) {
+            copia[i] = rotulo(i);
+        }
+        return copia;
+    }
+
+    /**
+     * @return O índice da classe da amostra.
+     */
+    public int rotulo(int amostra) {
+        return rotulos.get(amostra) & 0xFF;
+    }
+
+    /**
+     * @return A palavra p (0 .. palavrasPorAmostra - 1) dos pixels da amostra.
+     */
+    public long palavraPixels(int amostra, int p) {
+        return pixels.get(amostra * palavrasPorAmostra + p);
+    }
+
+    public int numAmostras() {
+        return numAmostras;
+    }
+
+    public int numAtributos() {
+        return numAtributos;
+    }
+
+    public int numClasses() {
+        return rotulosClasses.size();
+    }
+
+    /**
+     * @return Lista ordenada dos rótulos das classes (posição = índice da classe).
+     */
+    public List<Character> rotulosClasses() {
+        return rotulosClasses;
+    }
+
+    /**
+     * @return Tamanho dos pixels e rótulos, em bytes (no heap, ou no arquivo mapeado se os buffers forem mapeados).
+     */
+    public long bytesOcupados() {
+        return (long) pixels.capacity() * Long.BYTES + rotulos.capacity();
+    }
+
+    /**
+     * @return true se os pixels estão fora do heap (ex.: arquivo mapeado em memória).
+     */
+    public boolean mapeado() {
+        return pixels.isDirect();
+    }
+}
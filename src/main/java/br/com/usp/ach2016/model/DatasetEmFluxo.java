@@ -0,0 +1,344 @@
+package br.com.usp.ach2016.model;
+
+import br.com.usp.ach2016.utils.ParserUtils;
+import org.ejml.simple.SimpleMatrix;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Conjunto de treino lido em fluxo dos arquivos X/Y (texto, opcionalmente comprimidos em gzip), em blocos de
+ * amostras de tamanho fixo: só um bloco fica em memória por vez, então o tamanho do conjunto não é limitado pelo heap.
+ * <p>
+ * Ao abrir, Y é percorrido uma vez para contar as amostras e identificar as classes, e o número de atributos é obtido
+ * da primeira linha de X. A cada época o treino chama {@link #reiniciar()} e consome os blocos com
+ * {@link #lerProximoBloco()}; as linhas de cada bloco são convertidas em paralelo por {@link ParserUtils}.
+ * Os pixels -1/1 de X são convertidos para 0.0/1.0, como no carregamento em memória.
+ */
+public final class DatasetEmFluxo implements Closeable {
+
+    private static final int TAMANHO_BUFFER_LEITURA = 1 << 16;
+
+    private final Path arquivoX;
+    private final Path arquivoY;
+    private final int numAmostras;
+    private final int numAtributos;
+    private final List<Character> rotulosClasses;
+    private final int[] indicePorCaractere; // Índice da classe de cada caractere (-1 se não é rótulo)
+
+    // Buffers do bloco atual, reaproveitados entre blocos e épocas
+    private final SimpleMatrix blocoX;      // Shape: [capacidadeBloco, numAtributos]
+    private final int[] blocoRotulos;       // Índice da classe de cada amostra do bloco
+    private byte[] bytesBlocoX;             // Linhas de X do bloco, copiadas do fluxo
+    private final int numThreadsConversao;
+
+    private LeitorLinhas leitorX;
+    private LeitorLinhas leitorY;
+    private long amostrasLidas;
+
+    private DatasetEmFluxo(Path arquivoX, Path arquivoY, int numAmostras, int numAtributos, List<Character> rotulosClasses,
+                           int[] indicePorCaractere, int amostrasPorBloco, int numThreadsConversao) {
+        this.arquivoX = arquivoX;
+        this.arquivoY = arquivoY;
+        this.numAmostras = numAmostras;
+        this.numAtributos = numAtributos;
+        this.rotulosClasses = rotulosClasses;
+        this.indicePorCaractere = indicePorCaractere;
+        int capacidadeBloco = Math.min(amostrasPorBloco, numAmostras);
+        this.blocoX = new SimpleMatrix(capacidadeBloco, numAtributos);
+        this.blocoRotulos = new int[capacidadeBloco];
+        this.bytesBlocoX = new byte[TAMANHO_BUFFER_LEITURA];
+        this.numThreadsConversao = numThreadsConversao;
+    }
+
+    /**
+     * Abre o conjunto: percorre Y uma vez (contagem de amostras e classes, em ordem) e lê a primeira linha de X
+     * (número de atributos). Arquivos que começam com a assinatura gzip são descomprimidos durante a leitura.
+     *
+     * @param amostrasPorBloco Número de amostras mantidas em memória por vez.
+     * @throws IOException Se os arquivos não podem ser lidos ou não têm amostras.
+     */
+    public static DatasetEmFluxo abrir(Path arquivoX, Path arquivoY, int amostrasPorBloco) throws IOException {
+        if (amostrasPorBloco <= 0) {
+            throw new IllegalArgumentException("O bloco de leitura precisa de ao menos uma amostra: " + amostrasPorBloco);
+        }
+
+        // Y: contagem de amostras e conjunto de classes (um caractere por linha)
+        boolean[] caracterePresente = new boolean[Character.MAX_VALUE + 1];
+        int numAmostras = 0;
+        try (LeitorLinhas leitorY = new LeitorLinhas(arquivoY)) {
+            while (leitorY.proximaLinhaNaoVazia()) {
+                caracterePresente[leitorY.primeiroCaractere()] = true;
+                numAmostras++;
+            }
+        }
+        List<Character> rotulosClasses = new ArrayList<>();
+        int[] indicePorCaractere = new int[Character.MAX_VALUE + 1];
+        Arrays.fill(indicePorCaractere, -1);
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            if (caracterePresente[c]) {
+                indicePorCaractere[c] = rotulosClasses.size();
+                rotulosClasses.add((char) c);
+            }
+        }
+        if (numAmostras == 0) {
+            throw new IOException("Nenhum rótulo encontrado no arquivo Y: " + arquivoY);
+        }
+
+        // X: número de atributos a partir da primeira linha
+        int numAtributos;
+        try (LeitorLinhas leitorX = new LeitorLinhas(arquivoX)) {
+            if (!leitorX.proximaLinhaNaoVazia()) {
+                throw new IOException("Nenhuma amostra encontrada no arquivo X: " + arquivoX);
+            }
+            numAtributos = ParserUtils.contarColunas(ByteBuffer.wrap(leitorX.buffer), leitorX.inicioLinha, leitorX.fimLinha);
+        }
+        return new DatasetEmFluxo(arquivoX, arquivoY, numAmostras, numAtributos, Collections.unmodifiableList(rotulosClasses),
+                indicePorCaractere, amostrasPorBloco, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Volta ao início dos arquivos (início de uma época).
+     */
+    public void reiniciar() throws IOException {
+        close();
+        this.leitorX = new LeitorLinhas(this.arquivoX);
+        this.leitorY = new LeitorLinhas(this.arquivoY);
+        this.amostrasLidas = 0;
+    }
+
+    /**
+     * Lê o próximo bloco de amostras para {@link #blocoX()} e {@link #blocoRotulos()} (as primeiras linhas dos buffers).
+     *
+     * @return O número de amostras lidas, ou 0 no fim do conjunto.
+     * @throws IOException Se X e Y não têm o mesmo número de amostras ou alguma linha de X é inválida.
+     */
+    public int lerProximoBloco() throws IOException {
+        if (this.leitorX == null) {
+            throw new IllegalStateException("reiniciar() deve ser chamado antes de ler o primeiro bloco.");
+        }
+        final int numLinhas = (int) Math.min(this.blocoRotulos.length, this.numAmostras - this.amostrasLidas);
+        if (numLinhas == 0) {
+            if (this.leitorX.proximaLinhaNaoVazia()) {
+                throw new IOException("O arquivo X tem mais amostras que o arquivo Y (" + this.numAmostras + "): " + this.arquivoX);
+            }
+            return 0;
+        }
+
+        // Rótulos do bloco
+        for (int r = 0; r < numLinhas; r++) {
+            if (!this.leitorY.proximaLinhaNaoVazia()) {
+                throw new IOException("O arquivo Y mudou durante a leitura: " + this.arquivoY);
+            }
+            int classe = this.indicePorCaractere[this.leitorY.primeiroCaractere()];
+            if (classe < 0) {
+                throw new IOException("Rótulo desconhecido na amostra " + (this.amostrasLidas + r + 1) + " de " + this.arquivoY);
+            }
+            this.blocoRotulos[r] = classe;
+        }
+
+        // Linhas de X do bloco, copiadas para um único array e convertidas de uma vez
+        int tamanhoBytes = 0;
+        for (int r = 0; r < numLinhas; r++) {
+            if (!this.leitorX.proximaLinhaNaoVazia()) {
+                throw new IOException("O arquivo X tem menos amostras (" + (this.amostrasLidas + r) +
+                        ") que o arquivo Y (" + this.numAmostras + "): " + this.arquivoX);
+            }
+            int tamanhoLinha = this.leitorX.fimLinha - this.leitorX.inicioLinha;
+            if (tamanhoBytes + tamanhoLinha + 1 > this.bytesBlocoX.length) {
+                this.bytesBlocoX = Arrays.copyOf(this.bytesBlocoX, Math.max(2 * this.bytesBlocoX.length, tamanhoBytes + tamanhoLinha + 1));
+            }
+            System.arraycopy(this.leitorX.buffer, this.leitorX.inicioLinha, this.bytesBlocoX, tamanhoBytes, tamanhoLinha);
+            tamanhoBytes += tamanhoLinha;
+            this.bytesBlocoX[tamanhoBytes++] = '\n';
+        }
+        ParserUtils.Linhas linhas = ParserUtils.localizarLinhas(ByteBuffer.wrap(this.bytesBlocoX, 0, tamanhoBytes));
+        try {
+            ParserUtils.lerPixels(linhas, this.numAtributos, this.numThreadsConversao, this.blocoX.getDDRM().data);
+        } catch (IOException e) {
+            ParserUtils.registrarLinhaProblematica(e);
+            throw new IOException("Bloco iniciado na amostra " + (this.amostrasLidas + 1) + " de " + this.arquivoX + ": " + e.getMessage(), e);
+        }
+        this.amostrasLidas += numLinhas;
+        return numLinhas;
+    }
+
+    /**
+     * @return O buffer de entradas do bloco atual (sobrescrito a cada bloco). Shape: [capacidadeBloco, numAtributos]
+     */
+    public SimpleMatrix blocoX() {
+        return blocoX;
+    }
+
+    /**
+     * @return O buffer de rótulos do bloco atual (sobrescrito a cada bloco).
+     */
+    public int[] blocoRotulos() {
+        return blocoRotulos;
+    }
+
+    public int numAmostras() {
+        return numAmostras;
+    }
+
+    public int numAtributos() {
+        return numAtributos;
+    }
+
+    public int numClasses() {
+        return rotulosClasses.size();
+    }
+
+    /**
+     * @return Lista ordenada dos rótulos de classe encontrados em Y (mesma ordem do carregamento em memória).
+     */
+    public List<Character> rotulosClasses() {
+        return rotulosClasses;
+    }
+
+    /**
+     * @return Memória ocupada pelos buffers do bloco, em bytes (independente do tamanho dos arquivos).
+     */
+    public long bytesOcupados() {
+        return (long) blocoX.getDDRM().data.length * Double.BYTES + (long) blocoRotulos.length * Integer.BYTES
+                + bytesBlocoX.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (this.leitorX != null) {
+                this.leitorX.close();
+            }
+        } finally {
+            this.leitorX = null;
+            if (this.leitorY != null) {
+                this.leitorY.close();
+                this.leitorY = null;
+            }
+        }
+    }
+
+    /**
+     * Leitor de linhas sobre um fluxo de bytes com buffer próprio: a linha atual fica em buffer[inicioLinha .. fimLinha),
+     * sem criar uma String por linha. O buffer cresce se uma linha não couber nele.
+     * '\n' e '\r' terminam a linha (em "\r\n", o '\n' gera uma linha vazia, ignorada por proximaLinhaNaoVazia).
+     */
+    private static final class LeitorLinhas implements Closeable {
+        private final InputStream entrada;
+        private byte[] buffer = new byte[TAMANHO_BUFFER_LEITURA];
+        private int posicao, limite;  // Bytes ainda não consumidos: buffer[posicao .. limite)
+        private boolean fimArquivo;
+        private int inicioLinha, fimLinha;
+
+        LeitorLinhas(Path arquivo) throws IOException {
+            InputStream fluxo = new BufferedInputStream(Files.newInputStream(arquivo), TAMANHO_BUFFER_LEITURA);
+            fluxo.mark(2);
+            boolean comprimido = fluxo.read() == 0x1F && fluxo.read() == 0x8B;
+            fluxo.reset();
+            this.entrada = comprimido ? new GZIPInputStream(fluxo, TAMANHO_BUFFER_LEITURA) : fluxo;
+            // BOM UTF-8 no início do arquivo
+            if (preencherAte(3) && (buffer[0] & 0xFF) == 0xEF && (buffer[1] & 0xFF) == 0xBB && (buffer[2] & 0xFF) == 0xBF) {
+                this.posicao = 3;
+            }
+        }
+
+        /**
+         * Avança para a próxima linha com algum caractere além de espaços em branco.
+         *
+         * @return false no fim do arquivo.
+         */
+        boolean proximaLinhaNaoVazia() throws IOException {
+            while (proximaLinha()) {
+                for (int p = inicioLinha; p < fimLinha; p++) {
+                    if (!ParserUtils.espaco(buffer[p])) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return O primeiro caractere não branco da linha atual (decodificado de UTF-8 se não for ASCII).
+         */
+        char primeiroCaractere() {
+            int p = inicioLinha;
+            while (ParserUtils.espaco(buffer[p])) {
+                p++;
+            }
+            if (buffer[p] >= 0) {
+                return (char) buffer[p];
+            }
+            return new String(buffer, p, fimLinha - p, StandardCharsets.UTF_8).charAt(0);
+        }
+
+        private boolean proximaLinha() throws IOException {
+            int busca = posicao;
+            while (true) {
+                for (; busca < limite; busca++) {
+                    if (buffer[busca] == '\n' || buffer[busca] == '\r') {
+                        inicioLinha = posicao;
+                        fimLinha = busca;
+                        posicao = busca + 1;
+                        return true;
+                    }
+                }
+                if (fimArquivo) {
+                    if (posicao < limite) { // Última linha sem fim de linha
+                        inicioLinha = posicao;
+                        fimLinha = limite;
+                        posicao = limite;
+                        return true;
+                    }
+                    return false;
+                }
+                busca -= posicao;
+                lerMais();
+            }
+        }
+
+        /**
+         * Move os bytes não consumidos para o início do buffer (dobrando-o se estiver cheio) e lê mais do fluxo.
+         */
+        private void lerMais() throws IOException {
+            if (posicao > 0) {
+                System.arraycopy(buffer, posicao, buffer, 0, limite - posicao);
+                limite -= posicao;
+                posicao = 0;
+            }
+            if (limite == buffer.length) {
+                buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+            }
+            int lidos = entrada.read(buffer, limite, buffer.length - limite);
+            if (lidos < 0) {
+                fimArquivo = true;
+            } else {
+                limite += lidos;
+            }
+        }
+
+        private boolean preencherAte(int numBytes) throws IOException {
+            while (limite - posicao < numBytes && !fimArquivo) {
+                lerMais();
+            }
+            return limite - posicao >= numBytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            entrada.close();
+        }
+    }
+}
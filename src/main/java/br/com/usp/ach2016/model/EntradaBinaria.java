@@ -0,0 +1,163 @@
+package br.com.usp.ach2016.model;
+
+import org.ejml.simple.SimpleMatrix;
+
+/**
+ * Representação esparsa de uma matriz de entrada binária (pixels 0.0/1.0): para cada amostra,
+ * guarda apenas a lista das colunas com valor 1.0 (formato CSR, linhas comprimidas).
+ * Com ela, X @ W1 vira a soma das linhas de W1 dos pixels ativos e X^T @ delta só toca essas linhas,
+ * eliminando as multiplicações da maior operação de matriz da MLP.
+ * <p>
+ * Uma instância pode ser reaproveitada para várias matrizes (ou lotes de um {@link DatasetCompacto}) do mesmo número
+ * de colunas ({@link #preencher}): os arrays só crescem, então blocos de leitura em fluxo ou lotes sucessivos não alocam
+ * uma nova representação.
+ */
+public final class EntradaBinaria {
+
+    private int numLinhas;
+    private final int numColunas;
+    private int[] inicioLinhas;  // Pixels ativos da linha l: colunasAtivas[inicioLinhas[l] .. inicioLinhas[l + 1])
+    private int[] colunasAtivas;
+
+    /**
+     * Cria uma representação vazia, a ser preenchida com {@link #preencher}.
+     *
+     * @param capacidadeLinhas Número de linhas esperado (os arrays crescem se for preciso).
+     * @param numColunas       Número de colunas das matrizes representadas.
+     */
+    public EntradaBinaria(int capacidadeLinhas, int numColunas) {
+        this.numColunas = numColunas;
+        this.inicioLinhas = new int[capacidadeLinhas + 1];
+        this.colunasAtivas = new int[0];
+    }
+
+    /**
+     * Cria a representação esparsa de uma matriz cujos valores são todos 0.0 ou 1.0.
+     *
+     * @param x Matriz de entrada. Shape: [numAmostras, numAtributos].
+     * @return A entrada binária, ou null se algum valor da matriz não for exatamente 0.0 ou 1.0.
+     */
+    public static EntradaBinaria deMatriz(SimpleMatrix x) {
+        EntradaBinaria entrada = new EntradaBinaria(x.getNumRows(), x.getNumCols());
+        return entrada.preencher(x.getDDRM().data, x.getNumRows()) ? entrada : null;
+    }
+
+    /**
+     * Substitui o conteúdo pelas primeiras numLinhas linhas (row-major, numColunas valores cada) de dados.
+     *
+     * @return false (e conteúdo inválido) se algum valor não for exatamente 0.0 ou 1.0.
+     */
+    public boolean preencher(double[] dados, int numLinhas) {
+        final int numColunas = this.numColunas;
+        final int numValores = numLinhas * numColunas;
+        int numAtivos = 0;
+        for (int i = 0; i < numValores; i++) {
+            if (dados[i] == 1.0) {
+                numAtivos++;
+            } else if (dados[i] != 0.0) {
+                this.numLinhas = 0;
+                return false;
+            }
+        }
+
+        if (this.inicioLinhas.length < numLinhas + 1) {
+            this.inicioLinhas = new int[numLinhas + 1];
+        }
+        if (this.colunasAtivas.length < numAtivos) {
+            this.colunasAtivas = new int[numAtivos];
+        }
+        final int[] inicioLinhas = this.inicioLinhas, colunasAtivas = this.colunasAtivas;
+        int posicao = 0;
+        for (int l = 0; l < numLinhas; l++) {
+            inicioLinhas[l] = posicao;
+            int inicioLinhaX = l * numColunas;
+            for (int c = 0; c < numColunas; c++) {
+                if (dados[inicioLinhaX + c] == 1.0) {
+                    colunasAtivas[posicao++] = c;
+                }
+            }
+        }
+        inicioLinhas[numLinhas] = posicao;
+        this.numLinhas = numLinhas;
+        return true;
+    }
+
+    /**
+     * Substitui o conteúdo pelas amostras de um lote de um conjunto compacto, percorrendo só os bits ligados
+     * de cada palavra (os pixels 0 não são visitados).
+     *
+     * @param indices Índices das amostras, ou null para as amostras inicio .. fim - 1.
+     * @param inicio  Posição inicial (inclusiva) do lote em `indices`.
+     * @param fim     Posição final (exclusiva) do lote em `indices`.
+     * @throws IllegalArgumentException Se o número de atributos do conjunto for diferente de numColunas.
+     */
+    public void preencher(DatasetCompacto conjunto, int[] indices, int inicio, int fim) {
+        if (conjunto.numAtributos() != this.numColunas) {
+            throw new IllegalArgumentException("Conjunto com " + conjunto.numAtributos() + " atributos para uma entrada de " +
+                    this.numColunas + " colunas.");
+        }
+        final int numLinhas = fim - inicio;
+        final int palavrasPorAmostra = DatasetCompacto.palavrasPorAmostra(this.numColunas);
+        // Bits após a última coluna são ignorados (o arquivo mapeado não é validado palavra a palavra)
+        final int bitsUltimaPalavra = this.numColunas - (palavrasPorAmostra - 1) * Long.SIZE;
+        final long mascaraUltimaPalavra = bitsUltimaPalavra == Long.SIZE ? -1L : (1L << bitsUltimaPalavra) - 1;
+
+        int numAtivos = 0;
+        for (int r = 0; r < numLinhas; r++) {
+            int amostra = indices == null ? inicio + r : indices[inicio + r];
+            for (int p = 0; p < palavrasPorAmostra; p++) {
+                long palavra = conjunto.palavraPixels(amostra, p);
+                numAtivos += Long.bitCount(p == palavrasPorAmostra - 1 ? palavra & mascaraUltimaPalavra : palavra);
+            }
+        }
+
+        if (this.inicioLinhas.length < numLinhas + 1) {
+            this.inicioLinhas = new int[numLinhas + 1];
+        }
+        if (this.colunasAtivas.length < numAtivos) {
+            this.colunasAtivas = new int[numAtivos];
+        }
+        final int[] inicioLinhas = this.inicioLinhas, colunasAtivas = this.colunasAtivas;
+        int posicao = 0;
+        for (int r = 0; r < numLinhas; r++) {
+            inicioLinhas[r] = posicao;
+            int amostra = indices == null ? inicio + r : indices[inicio + r];
+            for (int p = 0; p < palavrasPorAmostra; p++) {
+                long palavra = conjunto.palavraPixels(amostra, p);
+                if (p == palavrasPorAmostra - 1) {
+                    palavra &= mascaraUltimaPalavra;
+                }
+                // Colunas em ordem crescente, como no preenchimento a partir da matriz densa
+                while (palavra != 0) {
+                    colunasAtivas[posicao++] = p * Long.SIZE + Long.numberOfTrailingZeros(palavra);
+                    palavra &= palavra - 1;
+                }
+            }
+        }
+        inicioLinhas[numLinhas] = posicao;
+        this.numLinhas = numLinhas;
+    }
+
+    public int numLinhas() {
+        return numLinhas;
+    }
+
+    public int numColunas() {
+        return numColunas;
+    }
+
+    /**
+     * Índices de início de cada linha em colunasAtivas() (pelo menos numLinhas + 1 posições). Não deve ser modificado.
+     */
+    public int[] inicioLinhas() {
+        return inicioLinhas;
+    }
+
+    /**
+     * Colunas com valor 1.0 de todas as linhas, concatenadas em ordem (as posições após a última linha são lixo).
+     * Não deve ser modificado.
+     */
+    public int[] colunasAtivas() {
+        return colunasAtivas;
+    }
+}
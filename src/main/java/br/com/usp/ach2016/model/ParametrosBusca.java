@@ -0,0 +1,40 @@
+package br.com.usp.ach2016.model;
+
+/**
+ * Parâmetros da busca de hiperparâmetros por divisões sucessivas (successive halving).
+ * Cada configuração sorteada (tamanho da camada escondida, taxa de aprendizado) é treinada até o marco de épocas
+ * da rodada; ao fim da rodada, só a melhor fração 1/fatorReducao (pelo erro de validação) segue treinando,
+ * com o marco multiplicado por fatorReducao.
+ *
+ * @param numConfiguracoes      Número de configurações sorteadas para a primeira rodada.
+ * @param opcoesCamadaEscondida Tamanhos possíveis da camada escondida.
+ * @param opcoesTaxaAprendizado Taxas de aprendizado possíveis.
+ * @param epocasIniciais        Marco de épocas da primeira rodada.
+ * @param fatorReducao          Fator de redução das configurações (e de aumento do marco de épocas) por rodada (>= 2).
+ * @param epocasMaximas         Limite de épocas de uma configuração.
+ * @param orcamentoEpocas       Orçamento total de épocas somadas de todas as configurações; a busca para antes da rodada que o excederia.
+ * @param numThreads            Configurações treinadas ao mesmo tempo.
+ * @param semente               Semente do sorteio das configurações.
+ */
+public record ParametrosBusca(
+        int numConfiguracoes,
+        int[] opcoesCamadaEscondida,
+        double[] opcoesTaxaAprendizado,
+        int epocasIniciais,
+        int fatorReducao,
+        int epocasMaximas,
+        long orcamentoEpocas,
+        int numThreads,
+        long semente
+) {
+
+    public ParametrosBusca {
+        if (numConfiguracoes <= 0 || opcoesCamadaEscondida.length == 0 || opcoesTaxaAprendizado.length == 0) {
+            throw new IllegalArgumentException("A busca precisa de ao menos uma configuração e uma opção de cada hiperparâmetro.");
+        }
+        if (epocasIniciais <= 0 || epocasMaximas < epocasIniciais || fatorReducao < 2) {
+            throw new IllegalArgumentException("Marcos de épocas inválidos para a busca: epocasIniciais = " + epocasIniciais +
+                    ", epocasMaximas = " + epocasMaximas + ", fatorReducao = " + fatorReducao + ".");
+        }
+    }
+}
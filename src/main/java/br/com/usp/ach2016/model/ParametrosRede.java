@@ -5,5 +5,15 @@ public record ParametrosRede(
         int tamanhoCamadaEscondida,
         int tamanhoSaida,
         long sementeAleatoria,
-        String nomeExecucao
-) {}
+        String nomeExecucao,
+        Precisao precisao
+) {
+
+    /**
+     * Rede em precisão dupla (double), o padrão.
+     */
+    public ParametrosRede(int tamanhoEntrada, int tamanhoCamadaEscondida, int tamanhoSaida,
+                          long sementeAleatoria, String nomeExecucao) {
+        this(tamanhoEntrada, tamanhoCamadaEscondida, tamanhoSaida, sementeAleatoria, nomeExecucao, Precisao.DOUBLE);
+    }
+}
@@ -1,7 +1,60 @@
 package br.com.usp.ach2016.model;
 
+/**
+ * Hiperparâmetros do treinamento.
+ *
+ * @param taxaAprendizado           Taxa de aprendizado do gradiente descendente.
+ * @param epocas                    Número máximo de épocas.
+ * @param pacienciaParadaAntecipada Épocas sem melhora na validação antes de parar (0 = sem parada antecipada).
+ * @param tamanhoLote               Amostras por mini-lote (0 ou maior/igual ao número de amostras = lote completo).
+ * @param sementeEmbaralhamento     Semente do embaralhamento das amostras a cada época (usada apenas com mini-lote).
+ * @param numThreads                Threads para o cálculo paralelo de forward/backward por blocos de linhas (0 ou 1 = sequencial).
+ * @param intervaloValidacao        Épocas entre duas validações da parada antecipada (0 ou 1 = toda época).
+ */
 public record ParametrosTreinamento(
         double taxaAprendizado,
         int epocas,
-        int pacienciaParadaAntecipada
-) {}
\ No newline at end of file
+        int pacienciaParadaAntecipada,
+        int tamanhoLote,
+        long sementeEmbaralhamento,
+        int numThreads,
+        int intervaloValidacao
+) {
+
+    /**
+     * Treinamento em lote completo (Batch Gradient Descent), sem embaralhamento.
+     */
+    public ParametrosTreinamento(double taxaAprendizado, int epocas, int pacienciaParadaAntecipada) {
+        this(taxaAprendizado, epocas, pacienciaParadaAntecipada, 0, 0L, 0, 1);
+    }
+
+    /**
+     * Treinamento com validação a cada época.
+     */
+    public ParametrosTreinamento(double taxaAprendizado, int epocas, int pacienciaParadaAntecipada,
+                                 int tamanhoLote, long sementeEmbaralhamento, int numThreads) {
+        this(taxaAprendizado, epocas, pacienciaParadaAntecipada, tamanhoLote, sementeEmbaralhamento, numThreads, 1);
+    }
+
+    /**
+     * @return Os mesmos hiperparâmetros com outro número de épocas.
+     */
+    public ParametrosTreinamento comEpocas(int epocas) {
+        return new ParametrosTreinamento(taxaAprendizado, epocas, pacienciaParadaAntecipada, tamanhoLote,
+                sementeEmbaralhamento, numThreads, intervaloValidacao);
+    }
+
+    /**
+     * Intervalo entre validações, em épocas (no mínimo 1).
+     */
+    public int intervaloValidacaoEfetivo() {
+        return Math.max(1, intervaloValidacao);
+    }
+
+    /**
+     * Indica se o treinamento deve ser feito em mini-lotes para um conjunto com o número de amostras informado.
+     */
+    public boolean usaMiniLote(int numAmostras) {
+        return tamanhoLote > 0 && tamanhoLote < numAmostras;
+    }
+}
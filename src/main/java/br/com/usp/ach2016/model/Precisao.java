@@ -0,0 +1,15 @@
+package br.com.usp.ach2016.model;
+
+/**
+ * Precisão numérica usada nos pesos, ativações e gradientes da MLP durante o treinamento.
+ */
+public enum Precisao {
+    /** Ponto flutuante de 64 bits (double), com EJML DMatrixRMaj. Padrão. */
+    DOUBLE,
+    /**
+     * Ponto flutuante de 32 bits (float), com EJML FMatrixRMaj: metade da memória de pesos, entradas e buffers.
+     * Opção de memória, não de velocidade: os tempos por época medidos ficaram iguais aos do DOUBLE
+     * (ver ExecucaoComparacaoPrecisao).
+     */
+    FLOAT
+}
@@ -0,0 +1,24 @@
+package br.com.usp.ach2016.model;
+
+/**
+ * Última avaliação de uma configuração na busca de hiperparâmetros (uma linha do placar).
+ *
+ * @param configuracao           Número da configuração na ordem do sorteio (base 1).
+ * @param tamanhoCamadaEscondida Tamanho da camada escondida.
+ * @param taxaAprendizado        Taxa de aprendizado.
+ * @param epocas                 Épocas treinadas até a avaliação.
+ * @param rodada                 Última rodada alcançada (base 1).
+ * @param erroTreino             Erro quadrático médio de treino na última época.
+ * @param erroValidacao          Erro quadrático médio no conjunto de validação (critério do ranking).
+ * @param acuraciaValidacao      Acurácia (%) no conjunto de validação.
+ */
+public record ResultadoBusca(
+        int configuracao,
+        int tamanhoCamadaEscondida,
+        double taxaAprendizado,
+        int epocas,
+        int rodada,
+        double erroTreino,
+        double erroValidacao,
+        double acuraciaValidacao
+) {}
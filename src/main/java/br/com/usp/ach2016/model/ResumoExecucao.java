@@ -0,0 +1,22 @@
+package br.com.usp.ach2016.model;
+
+/**
+ * Resumo de uma execução rodada pelo agendador de execuções.
+ *
+ * @param nomeExecucao      Nome da execução (ParametrosRede.nomeExecucao).
+ * @param caminhoPasta      Pasta de resultados reivindicada pela execução.
+ * @param numThreads        Permissões de CPU ocupadas pela execução.
+ * @param esperaMillis      Tempo na fila até obter as permissões de CPU.
+ * @param duracaoMillis     Tempo de execução.
+ * @param sucesso           Indica se a execução terminou sem exceção.
+ * @param mensagemErro      Mensagem da exceção (null em caso de sucesso).
+ */
+public record ResumoExecucao(
+        String nomeExecucao,
+        String caminhoPasta,
+        int numThreads,
+        long esperaMillis,
+        long duracaoMillis,
+        boolean sucesso,
+        String mensagemErro
+) {}
@@ -0,0 +1,196 @@
+package br.com.usp.ach2016.model;
+
+import org.ejml.simple.SimpleMatrix;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Visão de um subconjunto de amostras sobre um bloco de dados compartilhado (X e rótulos de todas as amostras).
+ * A visão guarda apenas a lista de linhas do bloco que a compõem, na ordem em que devem ser percorridas:
+ * folds, divisões (inclusive estratificadas), embaralhamentos e uniões são operações O(n) sobre índices,
+ * sem copiar as linhas de X. O bloco é compartilhado por todas as visões derivadas e não deve ser modificado.
+ */
+public final class VisaoDataset {
+
+    private final SimpleMatrix x;  // Bloco com todas as amostras. Shape: [numAmostrasBloco, numAtributos]
+    private final int[] y;         // Índices das classes de todas as amostras do bloco
+    private final int[] indices;   // Linhas do bloco que formam a visão, em ordem
+
+    /**
+     * @param x       Bloco de entradas compartilhado.
+     * @param y       Índices das classes das amostras do bloco (mesmo número de linhas de x).
+     * @param indices Linhas do bloco que formam a visão (o array passa a pertencer à visão).
+     */
+    public VisaoDataset(SimpleMatrix x, int[] y, int[] indices) {
+        if (x.getNumRows() != y.length) {
+            throw new IllegalArgumentException("X (" + x.getNumRows() + " linhas) e Y (" + y.length +
+                    " rótulos) devem ter o mesmo número de amostras.");
+        }
+        for (int indice : indices) {
+            if (indice < 0 || indice >= y.length) {
+                throw new IllegalArgumentException("Índice de amostra " + indice + " fora do bloco de " + y.length + " amostras.");
+            }
+        }
+        this.x = x;
+        this.y = y;
+        this.indices = indices;
+    }
+
+    /**
+     * @return A visão com todas as amostras do bloco, na ordem original.
+     */
+    public static VisaoDataset completa(SimpleMatrix x, int[] y) {
+        return faixa(x, y, 0, y.length);
+    }
+
+    /**
+     * @return A visão com as linhas inicio .. fim - 1 do bloco.
+     */
+    public static VisaoDataset faixa(SimpleMatrix x, int[] y, int inicio, int fim) {
+        int[] indices = new int[fim - inicio];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = inicio + i;
+        }
+        return new VisaoDataset(x, y, indices);
+    }
+
+    /**
+     * @return A visão com as posições inicio .. fim - 1 desta visão (ex.: o fold de validação).
+     */
+    public VisaoDataset fatia(int inicio, int fim) {
+        return new VisaoDataset(this.x, this.y, Arrays.copyOfRange(this.indices, inicio, fim));
+    }
+
+    /**
+     * @return A visão com todas as posições desta visão exceto inicio .. fim - 1 (ex.: os folds de treino).
+     */
+    public VisaoDataset semFatia(int inicio, int fim) {
+        int[] restantes = new int[this.indices.length - (fim - inicio)];
+        System.arraycopy(this.indices, 0, restantes, 0, inicio);
+        System.arraycopy(this.indices, fim, restantes, inicio, this.indices.length - fim);
+        return new VisaoDataset(this.x, this.y, restantes);
+    }
+
+    /**
+     * @return A visão com as amostras desta visão seguidas das amostras da outra (mesmo bloco de dados).
+     */
+    public VisaoDataset unir(VisaoDataset outra) {
+        if (outra.x != this.x || outra.y != this.y) {
+            throw new IllegalArgumentException("Só é possível unir visões sobre o mesmo bloco de dados.");
+        }
+        int[] unidos = Arrays.copyOf(this.indices, this.indices.length + outra.indices.length);
+        System.arraycopy(outra.indices, 0, unidos, this.indices.length, outra.indices.length);
+        return new VisaoDataset(this.x, this.y, unidos);
+    }
+
+    /**
+     * Embaralhamento de Fisher-Yates da ordem das amostras (mesma sequência de Collections.shuffle com o mesmo Random).
+     *
+     * @return Uma nova visão com as mesmas amostras em ordem aleatória.
+     */
+    public VisaoDataset embaralhada(long semente) {
+        int[] permutacao = this.indices.clone();
+        Random aleatorio = new Random(semente);
+        for (int i = permutacao.length - 1; i > 0; i--) {
+            int j = aleatorio.nextInt(i + 1);
+            int temp = permutacao[i];
+            permutacao[i] = permutacao[j];
+            permutacao[j] = temp;
+        }
+        return new VisaoDataset(this.x, this.y, permutacao);
+    }
+
+    /**
+     * Divide a visão em duas mantendo a proporção de cada classe: de cada classe, as primeiras
+     * round(fracaoPrimeira * quantidade) amostras (na ordem da visão) vão para a primeira parte e o restante para a segunda.
+     * Embaralhe a visão antes para uma divisão aleatória.
+     *
+     * @param fracaoPrimeira Fração de cada classe destinada à primeira parte (0 a 1).
+     * @param numClasses     Número de classes dos rótulos.
+     * @return As duas partes, na ordem original das amostras.
+     */
+    public VisaoDataset[] dividirEstratificado(double fracaoPrimeira, int numClasses) {
+        if (fracaoPrimeira < 0 || fracaoPrimeira > 1) {
+            throw new IllegalArgumentException("Fração da divisão estratificada deve estar entre 0 e 1: " + fracaoPrimeira);
+        }
+        int[] totalPorClasse = new int[numClasses];
+        for (int indice : this.indices) {
+            totalPorClasse[this.y[indice]]++;
+        }
+        int[] cotaPorClasse = new int[numClasses];
+        int tamanhoPrimeira = 0;
+        for (int c = 0; c < numClasses; c++) {
+            cotaPorClasse[c] = (int) Math.round(fracaoPrimeira * totalPorClasse[c]);
+            tamanhoPrimeira += cotaPorClasse[c];
+        }
+
+        int[] primeira = new int[tamanhoPrimeira];
+        int[] segunda = new int[this.indices.length - tamanhoPrimeira];
+        int posicaoPrimeira = 0, posicaoSegunda = 0;
+        for (int indice : this.indices) {
+            int classe = this.y[indice];
+            if (cotaPorClasse[classe] > 0) {
+                cotaPorClasse[classe]--;
+                primeira[posicaoPrimeira++] = indice;
+            } else {
+                segunda[posicaoSegunda++] = indice;
+            }
+        }
+        return new VisaoDataset[]{new VisaoDataset(this.x, this.y, primeira), new VisaoDataset(this.x, this.y, segunda)};
+    }
+
+    /**
+     * @return Uma matriz densa nova com as linhas de X desta visão, na ordem da visão.
+     */
+    public SimpleMatrix materializarX() {
+        final int numAtributos = numAtributos();
+        final double[] origem = this.x.getDDRM().data;
+        SimpleMatrix copia = new SimpleMatrix(this.indices.length, numAtributos);
+        final double[] destino = copia.getDDRM().data;
+        for (int r = 0; r < this.indices.length; r++) {
+            System.arraycopy(origem, this.indices[r] * numAtributos, destino, r * numAtributos, numAtributos);
+        }
+        return copia;
+    }
+
+    /**
+     * @return Uma cópia dos rótulos desta visão, na ordem da visão.
+     */
+    public int[] rotulos() {
+        int[] rotulos = new int[this.indices.length];
+        for (int r = 0; r < rotulos.length; r++) {
+            rotulos[r] = this.y[this.indices[r]];
+        }
+        return rotulos;
+    }
+
+    /**
+     * @return O bloco de entradas compartilhado (todas as amostras, não só as da visão).
+     */
+    public SimpleMatrix x() {
+        return x;
+    }
+
+    /**
+     * @return Os rótulos de todas as amostras do bloco compartilhado.
+     */
+    public int[] y() {
+        return y;
+    }
+
+    /**
+     * @return As linhas do bloco que formam a visão (não modificar).
+     */
+    public int[] indices() {
+        return indices;
+    }
+
+    public int numAmostras() {
+        return indices.length;
+    }
+
+    public int numAtributos() {
+        return x.getNumCols();
+    }
+}
@@ -0,0 +1,219 @@
+package br.com.usp.ach2016.utils;
+
+import br.com.usp.ach2016.MLP;
+import br.com.usp.ach2016.model.ParametrosRede;
+import br.com.usp.ach2016.model.ParametrosTreinamento;
+import br.com.usp.ach2016.model.Precisao;
+import br.com.usp.ach2016.model.VisaoDataset;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Cache em disco de resultados de execuções concluídas, endereçado pelo conteúdo:
+ * a chave é o SHA-256 da versão do motor, dos hiperparâmetros que afetam o resultado e das amostras
+ * (pixels e rótulos) usadas. Uma entrada é a cópia dos arquivos da pasta de resultados de uma execução
+ * (pesos, historico_erro, matriz de confusão, relatórios), publicada de forma atômica em resultados/cache/chave.
+ * Entradas de outra versão do motor nunca são servidas e podem ser removidas com {@link #removerEntradasObsoletas()}.
+ */
+public class CacheUtils {
+
+    static final String DIRETORIO_CACHE = IOUtils.DIRETORIO_SAIDA + "/cache";
+    private static final String ARQUIVO_MANIFESTO = "entrada_cache.txt";
+    private static final String PREFIXO_VERSAO = "versao_motor=";
+
+    /**
+     * Calcula a chave do cache de uma execução. O nome da execução não entra na chave (não altera o resultado);
+     * a ordem das amostras de cada visão e o número efetivo de threads entram: o treino paralelo soma os gradientes
+     * por blocos de linhas, e a ordem das somas muda os últimos bits dos pesos conforme o número de blocos.
+     * O número é normalizado (0, 1 e precisão FLOAT, que sempre treina sequencialmente, valem 1), para que
+     * configurações que executam o mesmo cálculo compartilhem a entrada.
+     *
+     * @param conjuntos Visões usadas pela execução (ex.: treino e teste), na ordem de uso.
+     * @return A chave em hexadecimal (64 caracteres).
+     */
+    public static String calcularChave(ParametrosRede parametrosRede,
+                                       ParametrosTreinamento parametrosTreinamento,
+                                       VisaoDataset... conjuntos) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 indisponível na JVM.", e);
+        }
+        ByteBuffer parametros = ByteBuffer.allocate(128);
+        parametros.putInt(MLP.VERSAO_MOTOR)
+                .putInt(parametrosRede.tamanhoEntrada())
+                .putInt(parametrosRede.tamanhoCamadaEscondida())
+                .putInt(parametrosRede.tamanhoSaida())
+                .putLong(parametrosRede.sementeAleatoria())
+                .putInt(parametrosRede.precisao().ordinal())
+                .putDouble(parametrosTreinamento.taxaAprendizado())
+                .putInt(parametrosTreinamento.epocas())
+                .putInt(parametrosTreinamento.pacienciaParadaAntecipada())
+                .putInt(parametrosTreinamento.tamanhoLote())
+                .putLong(parametrosTreinamento.sementeEmbaralhamento())
+                .putInt(parametrosTreinamento.intervaloValidacaoEfetivo())
+                .putInt(threadsEfetivas(parametrosRede, parametrosTreinamento))
+                .putInt(conjuntos.length);
+        digest.update(parametros.flip());
+
+        for (VisaoDataset conjunto : conjuntos) {
+            final int numAtributos = conjunto.numAtributos();
+            final double[] dadosX = conjunto.x().getDDRM().data;
+            ByteBuffer linha = ByteBuffer.allocate(Integer.BYTES + numAtributos * Double.BYTES);
+            linha.putInt(conjunto.numAmostras()).putInt(numAtributos);
+            digest.update(linha.flip());
+            for (int indice : conjunto.indices()) {
+                linha.clear();
+                linha.putInt(conjunto.y()[indice]);
+                for (int c = 0; c < numAtributos; c++) {
+                    linha.putDouble(dadosX[indice * numAtributos + c]);
+                }
+                digest.update(linha.flip());
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static int threadsEfetivas(ParametrosRede parametrosRede, ParametrosTreinamento parametrosTreinamento) {
+        if (parametrosRede.precisao() == Precisao.FLOAT) {
+            return 1; // Ver MLP.configurarParalelismo: o motor float32 ignora o paralelismo
+        }
+        return Math.max(1, parametrosTreinamento.numThreads());
+    }
+
+    /**
+     * Copia os arquivos da entrada do cache para a pasta de destino, se houver uma entrada válida para a chave.
+     *
+     * @return true se os resultados foram servidos do cache; false se a execução precisa ser calculada.
+     */
+    public static boolean servirDoCache(String chave, String caminhoPastaDestino) {
+        Path entrada = Paths.get(DIRETORIO_CACHE, chave);
+        if (!entradaValida(entrada)) {
+            return false;
+        }
+        try {
+            copiarArquivos(entrada, Paths.get(caminhoPastaDestino));
+            Files.deleteIfExists(Paths.get(caminhoPastaDestino, ARQUIVO_MANIFESTO));
+            System.out.println("Resultados servidos do cache (" + chave.substring(0, 12) + ") em " + caminhoPastaDestino);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Erro ao ler a entrada do cache " + chave + ", a execução será recalculada: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Publica os arquivos da pasta de resultados de uma execução concluída como a entrada da chave.
+     * Os arquivos são copiados para uma pasta temporária e movidos de uma vez para o lugar da entrada;
+     * se outra execução publicar a mesma chave antes, a cópia é descartada. Falhas apenas deixam de gravar o cache.
+     *
+     * @param descricao Descrição legível da execução, gravada no manifesto da entrada.
+     */
+    public static void armazenarNoCache(String chave, String caminhoPastaOrigem, String descricao) {
+        Path diretorioCache = Paths.get(DIRETORIO_CACHE);
+        Path entrada = diretorioCache.resolve(chave);
+        Path temporaria = null;
+        try {
+            Files.createDirectories(diretorioCache);
+            temporaria = Files.createTempDirectory(diretorioCache, chave.substring(0, 12) + ".tmp");
+            copiarArquivos(Paths.get(caminhoPastaOrigem), temporaria);
+            try (PrintWriter escritor = new PrintWriter(Files.newBufferedWriter(temporaria.resolve(ARQUIVO_MANIFESTO), StandardCharsets.UTF_8))) {
+                escritor.println(PREFIXO_VERSAO + MLP.VERSAO_MOTOR);
+                escritor.println("chave=" + chave);
+                escritor.println("execucao=" + descricao);
+                escritor.println("origem=" + caminhoPastaOrigem);
+            }
+            Files.move(temporaria, entrada, StandardCopyOption.ATOMIC_MOVE);
+            temporaria = null;
+        } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+            // Outra execução já publicou a mesma chave: o conteúdo é equivalente
+        } catch (IOException e) {
+            System.err.println("Erro ao gravar a entrada do cache " + chave + ": " + e.getMessage());
+        } finally {
+            if (temporaria != null) {
+                removerRecursivamente(temporaria);
+            }
+        }
+    }
+
+    /**
+     * Remove as entradas do cache gravadas por outra versão do motor (e pastas temporárias abandonadas).
+     * Deve ser chamado antes de iniciar as execuções (uma pasta temporária em uso seria removida).
+     *
+     * @return O número de entradas removidas.
+     */
+    public static int removerEntradasObsoletas() {
+        Path diretorioCache = Paths.get(DIRETORIO_CACHE);
+        if (!Files.isDirectory(diretorioCache)) {
+            return 0;
+        }
+        int removidas = 0;
+        try (DirectoryStream<Path> entradas = Files.newDirectoryStream(diretorioCache)) {
+            for (Path entrada : entradas) {
+                if (Files.isDirectory(entrada) && !entradaValida(entrada)) {
+                    removerRecursivamente(entrada);
+                    removidas++;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Erro ao limpar o cache de resultados: " + e.getMessage());
+        }
+        if (removidas > 0) {
+            System.out.println("Cache de resultados: " + removidas + " entrada(s) obsoleta(s) removida(s).");
+        }
+        return removidas;
+    }
+
+    /**
+     * Uma entrada é válida se tem manifesto gravado pela versão atual do motor.
+     */
+    private static boolean entradaValida(Path entrada) {
+        Path manifesto = entrada.resolve(ARQUIVO_MANIFESTO);
+        if (!Files.isRegularFile(manifesto)) {
+            return false;
+        }
+        try {
+            List<String> linhas = Files.readAllLines(manifesto, StandardCharsets.UTF_8);
+            return !linhas.isEmpty() && linhas.get(0).equals(PREFIXO_VERSAO + MLP.VERSAO_MOTOR);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Copia os arquivos (não as subpastas) de uma pasta para outra, substituindo os existentes.
+     */
+    private static void copiarArquivos(Path origem, Path destino) throws IOException {
+        Files.createDirectories(destino);
+        try (DirectoryStream<Path> arquivos = Files.newDirectoryStream(origem, Files::isRegularFile)) {
+            for (Path arquivo : arquivos) {
+                Files.copy(arquivo, destino.resolve(arquivo.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    private static void removerRecursivamente(Path caminho) {
+        try (Stream<Path> caminhos = Files.walk(caminho)) {
+            caminhos.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("Erro ao remover " + caminho + ": " + e.getMessage());
+        }
+    }
+}
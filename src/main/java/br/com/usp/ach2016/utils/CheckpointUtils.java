@@ -0,0 +1,320 @@
+package br.com.usp.ach2016.utils;
+
+import br.com.usp.ach2016.model.CheckpointTreino;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+/**
+ * Checkpoints binários de treino e coordenação com o encerramento da JVM.
+ * <p>
+ * Formato (big-endian, DataOutputStream): MAGIA, VERSAO_FORMATO, identificação (UTF), época, os quatro arrays de pesos,
+ * permutação, estado do embaralhador, históricos de erro, melhor erro/época de validação e os melhores pesos,
+ * seguidos do CRC32C de todos os bytes anteriores. Cada array é gravado como tamanho + elementos (-1 para null).
+ * O arquivo é escrito em um temporário, forçado para o disco e movido de uma vez para o destino: um processo morto
+ * (ou uma queda de energia) no meio da gravação deixa o checkpoint anterior intacto.
+ * <p>
+ * No encerramento da JVM (ex.: Ctrl+C no meio de uma bateria de execuções), um gancho de shutdown sinaliza os treinos
+ * registrados, que gravam um checkpoint ao fim da época corrente; o gancho espera até {@link #ESPERA_MAXIMA_ENCERRAMENTO_MS}.
+ */
+public class CheckpointUtils {
+
+    static final String DIRETORIO_CHECKPOINTS = IOUtils.DIRETORIO_SAIDA + "/checkpoints";
+    private static final long ESPERA_MAXIMA_ENCERRAMENTO_MS = 30_000;
+
+    private static final int MAGIA = 0x4D4C5043; // "MLPC"
+    private static final int VERSAO_FORMATO = 1;
+    private static final ObjectInputFilter FILTRO_GERADOR =
+            ObjectInputFilter.Config.createFilter("java.util.Random;maxdepth=1;maxrefs=4;maxbytes=1024;!*");
+
+    private static final Object monitorTreinos = new Object();
+    private static volatile boolean encerramentoSolicitado = false;
+    private static int treinosAtivos = 0;
+    private static boolean ganchoRegistrado = false;
+
+    /**
+     * @return O arquivo de checkpoint de uma execução identificada pela chave (ex.: a chave do cache de resultados).
+     */
+    public static Path caminhoCheckpoint(String chave) {
+        return Paths.get(DIRETORIO_CHECKPOINTS, chave + ".ckpt");
+    }
+
+    /**
+     * Remove o checkpoint (ex.: depois que os resultados da execução foram salvos).
+     */
+    public static void removerCheckpoint(Path arquivo) {
+        try {
+            Files.deleteIfExists(arquivo);
+        } catch (IOException e) {
+            System.err.println("Erro ao remover o checkpoint " + arquivo + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Grava o checkpoint de forma atômica (temporário + renomeação).
+     */
+    public static void salvarCheckpoint(Path arquivo, CheckpointTreino checkpoint) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream saida = new DataOutputStream(bytes)) {
+            saida.writeInt(MAGIA);
+            saida.writeInt(VERSAO_FORMATO);
+            saida.writeUTF(checkpoint.identificacao());
+            saida.writeInt(checkpoint.epoca());
+            escreverMatrizes(saida, checkpoint.pesos());
+            escreverInts(saida, checkpoint.permutacao());
+            escreverBytes(saida, checkpoint.estadoEmbaralhador());
+            escreverDoubles(saida, checkpoint.historicoErro());
+            escreverDoubles(saida, checkpoint.historicoErroValidacao());
+            saida.writeDouble(checkpoint.melhorErroValidacao());
+            saida.writeInt(checkpoint.epocaMelhorErro());
+            escreverMatrizes(saida, checkpoint.melhoresPesos());
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(bytes.toByteArray());
+        new DataOutputStream(bytes).writeLong(crc.getValue());
+
+        Files.createDirectories(arquivo.toAbsolutePath().getParent());
+        Path temporario = Files.createTempFile(arquivo.toAbsolutePath().getParent(), arquivo.getFileName().toString(), ".tmp");
+        try {
+            // O conteúdo vai para o disco antes da renomeação: após uma queda de energia, o destino é o checkpoint
+            // anterior ou o novo completo, nunca um arquivo truncado
+            try (FileChannel canal = FileChannel.open(temporario, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer conteudo = ByteBuffer.wrap(bytes.toByteArray());
+                while (conteudo.hasRemaining()) {
+                    canal.write(conteudo);
+                }
+                canal.force(true);
+            }
+            try {
+                Files.move(temporario, arquivo, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporario, arquivo, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporario);
+        }
+    }
+
+    /**
+     * Lê um checkpoint.
+     *
+     * @return O checkpoint, ou null se o arquivo não existe, está corrompido ou é de outra versão do formato.
+     */
+    public static CheckpointTreino carregarCheckpoint(Path arquivo) {
+        if (!Files.isRegularFile(arquivo)) {
+            return null;
+        }
+        try {
+            byte[] conteudo = Files.readAllBytes(arquivo);
+            if (conteudo.length < 2 * Integer.BYTES + Long.BYTES) {
+                return null;
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(conteudo, 0, conteudo.length - Long.BYTES);
+            DataInputStream entrada = new DataInputStream(new ByteArrayInputStream(conteudo));
+            if (entrada.readInt() != MAGIA || entrada.readInt() != VERSAO_FORMATO) {
+                return null;
+            }
+            CheckpointTreino checkpoint = new CheckpointTreino(
+                    entrada.readUTF(),
+                    entrada.readInt(),
+                    lerMatrizes(entrada),
+                    lerInts(entrada),
+                    lerBytes(entrada),
+                    lerDoubles(entrada),
+                    lerDoubles(entrada),
+                    entrada.readDouble(),
+                    entrada.readInt(),
+                    lerMatrizes(entrada));
+            if (entrada.readLong() != crc.getValue() || entrada.available() != 0) {
+                System.err.println("Checkpoint corrompido (CRC não confere), ignorado: " + arquivo);
+                return null;
+            }
+            return checkpoint;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Erro ao ler o checkpoint " + arquivo + ", ignorado: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Estado exato de um gerador (java.util.Random é serializável: semente interna e gaussiana guardada).
+     */
+    public static byte[] serializarGerador(Random gerador) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream saida = new ObjectOutputStream(bytes)) {
+            saida.writeObject(gerador);
+        } catch (IOException e) {
+            throw new IllegalStateException("Falha ao serializar o gerador aleatório.", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Restaura o gerador gravado por {@link #serializarGerador}. A desserialização só aceita java.util.Random
+     * (cujos campos são primitivos): qualquer outra classe no arquivo é rejeitada antes de ser instanciada.
+     */
+    public static Random restaurarGerador(byte[] estado) {
+        try (ObjectInputStream entrada = new ObjectInputStream(new ByteArrayInputStream(estado))) {
+            entrada.setObjectInputFilter(FILTRO_GERADOR);
+            return (Random) entrada.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            throw new IllegalStateException("Estado do gerador aleatório inválido no checkpoint.", e);
+        }
+    }
+
+    /**
+     * Registra um treino com checkpoints (instala o gancho de shutdown na primeira chamada).
+     * Deve ser pareado com {@link #concluirTreino()} em um finally.
+     */
+    public static void registrarTreino() {
+        synchronized (monitorTreinos) {
+            if (!ganchoRegistrado) {
+                Runtime.getRuntime().addShutdownHook(new Thread(CheckpointUtils::aguardarCheckpointsNoEncerramento, "checkpoint-encerramento"));
+                ganchoRegistrado = true;
+            }
+            treinosAtivos++;
+        }
+    }
+
+    public static void concluirTreino() {
+        synchronized (monitorTreinos) {
+            treinosAtivos--;
+            monitorTreinos.notifyAll();
+        }
+    }
+
+    /**
+     * @return true se a JVM está encerrando: o treino deve gravar o checkpoint e parar.
+     */
+    public static boolean encerramentoSolicitado() {
+        return encerramentoSolicitado;
+    }
+
+    private static void aguardarCheckpointsNoEncerramento() {
+        encerramentoSolicitado = true;
+        long limite = System.currentTimeMillis() + ESPERA_MAXIMA_ENCERRAMENTO_MS;
+        synchronized (monitorTreinos) {
+            if (treinosAtivos > 0) {
+                System.err.println("Encerramento solicitado: aguardando " + treinosAtivos + " treino(s) gravarem checkpoint...");
+            }
+            long restante;
+            while (treinosAtivos > 0 && (restante = limite - System.currentTimeMillis()) > 0) {
+                try {
+                    monitorTreinos.wait(restante);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void escreverMatrizes(DataOutputStream saida, double[][] matrizes) throws IOException {
+        saida.writeInt(matrizes == null ? -1 : matrizes.length);
+        if (matrizes != null) {
+            for (double[] matriz : matrizes) {
+                escreverDoubles(saida, matriz);
+            }
+        }
+    }
+
+    private static double[][] lerMatrizes(DataInputStream entrada) throws IOException {
+        int quantidade = entrada.readInt();
+        if (quantidade < 0) {
+            return null;
+        }
+        double[][] matrizes = new double[quantidade][];
+        for (int i = 0; i < quantidade; i++) {
+            matrizes[i] = lerDoubles(entrada);
+        }
+        return matrizes;
+    }
+
+    private static void escreverDoubles(DataOutputStream saida, double[] valores) throws IOException {
+        saida.writeInt(valores == null ? -1 : valores.length);
+        if (valores != null) {
+            for (double valor : valores) {
+                saida.writeDouble(valor);
+            }
+        }
+    }
+
+    private static double[] lerDoubles(DataInputStream entrada) throws IOException {
+        int tamanho = entrada.readInt();
+        if (tamanho < 0) {
+            return null;
+        }
+        double[] valores = new double[tamanho];
+        for (int i = 0; i < tamanho; i++) {
+            valores[i] = entrada.readDouble();
+        }
+        return valores;
+    }
+
+    private static void escreverInts(DataOutputStream saida, int[] valores) throws IOException {
+        saida.writeInt(valores == null ? -1 : valores.length);
+        if (valores != null) {
+            for (int valor : valores) {
+                saida.writeInt(valor);
+            }
+        }
+    }
+
+    private static int[] lerInts(DataInputStream entrada) throws IOException {
+        int tamanho = entrada.readInt();
+        if (tamanho < 0) {
+            return null;
+        }
+        int[] valores = new int[tamanho];
+        for (int i = 0; i < tamanho; i++) {
+            valores[i] = entrada.readInt();
+        }
+        return valores;
+    }
+
+    private static void escreverBytes(DataOutputStream saida, byte[] valores) throws IOException {
+        saida.writeInt(valores == null ? -1 : valores.length);
+        if (valores != null) {
+            saida.write(valores);
+        }
+    }
+
+    private static byte[] lerBytes(DataInputStream entrada) throws IOException {
+        int tamanho = entrada.readInt();
+        if (tamanho < 0) {
+            return null;
+        }
+        byte[] valores = new byte[tamanho];
+        entrada.readFully(valores);
+        return valores;
+    }
+
+    /**
+     * @return Uma cópia dos dados de cada matriz (row-major).
+     */
+    public static double[][] copiarDados(double[]... dados) {
+        double[][] copia = new double[dados.length][];
+        for (int i = 0; i < dados.length; i++) {
+            copia[i] = Arrays.copyOf(dados[i], dados[i].length);
+        }
+        return copia;
+    }
+}
@@ -1,12 +1,16 @@
 package br.com.usp.ach2016.utils;
 
+import br.com.usp.ach2016.model.BlocoDados;
 import br.com.usp.ach2016.model.Dataset;
+import br.com.usp.ach2016.model.DatasetCompacto;
+import br.com.usp.ach2016.model.VisaoDataset;
+import org.ejml.data.DMatrixRMaj;
 import org.ejml.simple.SimpleMatrix;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.*;
 
 /**
@@ -19,163 +23,283 @@ public class DataUtils {
      * Carrega o conjunto de dados de caracteres a partir dos arquivos de entrada (X) e rótulos (Y).
      * Os arquivos são lidos como recursos do classpath.
      * Os pixels em X são convertidos de -1/1 para 0.0/1.0.
-     * Os rótulos de caracteres em Y são convertidos para o formato one-hot encoding.
+     * Os rótulos de caracteres em Y são convertidos para o índice da classe (posição em `rotulosClasses`).
      * Os dados são divididos em conjuntos de treinamento, validação e teste.
+     * Depois da primeira leitura dos textos, o conjunto convertido fica gravado em formato binário
+     * (ver {@link DatasetBinarioUtils}) e as cargas seguintes expandem o binário mapeado em vez de converter os textos.
      *
      * @param caminhoX Caminho para o arquivo X.txt dentro da pasta resources (ex: "datasets/caracteres/X.txt").
      * @param caminhoY Caminho para o arquivo Y_letra.txt dentro da pasta resources (ex: "datasets/caracteres/Y_letra.txt").
      * @param numAmostrasTeste Número de amostras a serem separadas para o conjunto de teste (as últimas N amostras do arquivo).
      * @param numAmostrasValidacao Número de amostras (retiradas do final do conjunto de treino original) para o conjunto de validação
-     * @return Um objeto `Dataset` contendo as matrizes de treino/teste e informações de classe, ou `null` se ocorrer um erro.
+     * @return Um objeto `Dataset` contendo as visões de treino/validação/teste e informações de classe, ou `null` se ocorrer um erro.
      */
     public static Dataset carregarDadosDataset(String caminhoX,
                                                String caminhoY,
                                                int numAmostrasTeste,
                                                int numAmostrasValidacao) {
-        List<String> linhasYBrutas = new ArrayList<>();
-        List<double[]> todasLinhasX = new ArrayList<>();
-        List<Character> rotulosClasses = new ArrayList<>();
+        ByteBuffer conteudoX, conteudoY;
+        try {
+            conteudoY = ParserUtils.lerRecurso(caminhoY);
+            if (conteudoY == null) {
+                System.err.println("Erro Crítico: Arquivo de rótulos Y não encontrado no classpath: " + caminhoY);
+                return null;
+            }
+            conteudoX = ParserUtils.lerRecurso(caminhoX);
+            if (conteudoX == null) {
+                System.err.println("Erro: Arquivo de entradas X não encontrado no classpath: " + caminhoX);
+                return null;
+            }
+        } catch (IOException e) {
+            System.err.println("Erro de IO ao abrir os arquivos de dados do classpath: " + caminhoX + ", " + caminhoY);
+            e.printStackTrace();
+            return null;
+        }
+
+        // O binário só vale para os mesmos textos (tamanho, data de modificação e checksum gravados no cabeçalho)
+        DatasetBinarioUtils.FontesTexto fontes = fontesTexto(caminhoX, conteudoX, caminhoY, conteudoY);
+        Path arquivoBinario = DatasetBinarioUtils.caminhoArquivo(caminhoX, caminhoY);
+        BlocoDados bloco = DatasetBinarioUtils.ler(arquivoBinario, fontes);
+        if (bloco != null) {
+            System.out.println("Dataset binário carregado de " + arquivoBinario);
+            System.out.println("Classes identificadas (" + bloco.rotulosClasses().size() + "): " + bloco.rotulosClasses());
+        } else {
+            bloco = lerTextos(conteudoX, conteudoY, caminhoX, caminhoY);
+            if (bloco == null) {
+                return null;
+            }
+            DatasetBinarioUtils.gravar(arquivoBinario, fontes, bloco);
+        }
+
+        int numTotalAmostras = bloco.numAmostras();
+        int numClasses = bloco.rotulosClasses().size();
+        SimpleMatrix X_completo = bloco.x();
+        int[] Y_completo = bloco.y();
         Map<Character, Integer> caractereParaIndice = new HashMap<>();
+        for (int i = 0; i < numClasses; i++) {
+            caractereParaIndice.put(bloco.rotulosClasses().get(i), i);
+        }
 
-        InputStream fluxoEntradaY = DataUtils.class.getClassLoader().getResourceAsStream(caminhoY);
-        if (fluxoEntradaY == null) {
-            System.err.println("Erro Crítico: Arquivo de rótulos Y não encontrado no classpath: " + caminhoY);
+        if (numAmostrasTeste + numAmostrasValidacao >= numTotalAmostras || numAmostrasTeste < 0 || numAmostrasValidacao < 0) {
+            System.err.println("Erro: Número inválido de amostras de teste (" + numAmostrasTeste +
+                    ") ou validacao (" + numAmostrasValidacao + ") para o total de amostras (" + numTotalAmostras + ").");
             return null;
         }
-        try (BufferedReader leitorY = new BufferedReader(new InputStreamReader(fluxoEntradaY))) {
-            String linha;
-            Set<Character> caracteresUnicos = new HashSet<>(); // Usado para encontrar todas as classes únicas
-            boolean primeiraLinha = true;
-            while ((linha = leitorY.readLine()) != null) {
-                // Trata o BOM (Byte Order Mark) que pode estar presente na primeira linha
-                if (primeiraLinha && !linha.isEmpty() && linha.charAt(0) == '\uFEFF') {
-                    linha = linha.substring(1); // Remove o BOM
-                }
-                primeiraLinha = false;
-
-                String rotuloStr = linha.trim();
-                if (!rotuloStr.isEmpty()) {
-                    linhasYBrutas.add(rotuloStr);
-                    char rotuloChar = rotuloStr.charAt(0);
-                    caracteresUnicos.add(rotuloChar);
-                }
-            }
-            rotulosClasses.addAll(caracteresUnicos);
-            Collections.sort(rotulosClasses);
-            for (int i = 0; i < rotulosClasses.size(); i++) {
-                caractereParaIndice.put(rotulosClasses.get(i), i);
-            }
-            System.out.println("Classes identificadas (" + rotulosClasses.size() + "): " + rotulosClasses);
 
+        int indiceFimTreino = numTotalAmostras - numAmostrasTeste - numAmostrasValidacao;
+        int indiceFimValidacao = numTotalAmostras - numAmostrasTeste;
+
+        // Treino, validação e teste são visões sobre o mesmo bloco X_completo/Y_completo (sem cópia das linhas)
+        VisaoDataset treino = VisaoDataset.faixa(X_completo, Y_completo, 0, indiceFimTreino);
+        VisaoDataset validacao = VisaoDataset.faixa(X_completo, Y_completo, indiceFimTreino, indiceFimValidacao);
+        VisaoDataset teste = VisaoDataset.faixa(X_completo, Y_completo, indiceFimValidacao, numTotalAmostras);
+
+        System.out.println("Dados carregados e divididos:");
+        System.out.println("xTreino:    " + treino.numAmostras() + "x" + treino.numAtributos());
+        System.out.println("yTreino:    " + treino.numAmostras() + " rotulos (" + numClasses + " classes)");
+        System.out.println("xValidacao: " + validacao.numAmostras() + "x" + validacao.numAtributos());
+        System.out.println("yValidacao: " + validacao.numAmostras() + " rotulos");
+        System.out.println("xTeste:     " + teste.numAmostras() + "x" + teste.numAtributos());
+        System.out.println("yTeste:     " + teste.numAmostras() + " rotulos");
+
+        return new Dataset(treino, validacao, teste, bloco.rotulosClasses(), caractereParaIndice);
+    }
+
+    /**
+     * Carrega todas as amostras como um conjunto compacto (pixels em bits, rótulos em byte), apoiado direto no arquivo
+     * binário mapeado em memória (ver {@link DatasetBinarioUtils#lerCompacto}): os pixels não são copiados para o heap.
+     * Se o arquivo ainda não existe ou é de outros textos, os pixels de X são empacotados em bits direto dos textos
+     * (sem montar a matriz densa), o arquivo é gravado e então mapeado; se o mapeamento falhar, o conjunto montado
+     * no heap é usado. A divisão em treino/validação/teste é feita pelo chamador com {@link DatasetCompacto#faixa}.
+     *
+     * @return O conjunto, ou null se os arquivos não existem, são inconsistentes ou a entrada não é binária.
+     */
+    public static DatasetCompacto carregarDatasetCompacto(String caminhoX, String caminhoY) {
+        ByteBuffer conteudoX, conteudoY;
+        try {
+            conteudoY = ParserUtils.lerRecurso(caminhoY);
+            conteudoX = ParserUtils.lerRecurso(caminhoX);
         } catch (IOException e) {
-            System.err.println("Erro de IO ao ler o arquivo de rótulos Y do classpath: " + caminhoY);
+            System.err.println("Erro de IO ao abrir os arquivos de dados do classpath: " + caminhoX + ", " + caminhoY);
             e.printStackTrace();
             return null;
         }
-
-        int numTotalAmostras = linhasYBrutas.size();
-        int numClasses = rotulosClasses.size();
-        int numAtributosEntrada = 120; // Definido pela especificação (10x12 pixels)
-
-        if (numTotalAmostras == 0 || numClasses == 0) {
-            System.err.println("Erro: Nenhum rótulo ou classe válida encontrada no arquivo Y.");
+        if (conteudoX == null || conteudoY == null) {
+            System.err.println("Erro: Arquivos de dados não encontrados no classpath: " + caminhoX + ", " + caminhoY);
             return null;
         }
 
-        InputStream fluxoEntradaX = DataUtils.class.getClassLoader().getResourceAsStream(caminhoX);
-        if (fluxoEntradaX == null) {
-            System.err.println("Erro: Arquivo de entradas X não encontrado no classpath: " + caminhoX);
+        DatasetBinarioUtils.FontesTexto fontes = fontesTexto(caminhoX, conteudoX, caminhoY, conteudoY);
+        Path arquivoBinario = DatasetBinarioUtils.caminhoArquivo(caminhoX, caminhoY);
+        DatasetCompacto compacto = DatasetBinarioUtils.lerCompacto(arquivoBinario, fontes);
+        if (compacto == null) {
+            DatasetCompacto compactoHeap = lerTextosCompacto(conteudoX, conteudoY, caminhoX, caminhoY);
+            if (compactoHeap == null) {
+                return null;
+            }
+            DatasetBinarioUtils.gravar(arquivoBinario, fontes, compactoHeap);
+            compacto = DatasetBinarioUtils.lerCompacto(arquivoBinario, fontes);
+            if (compacto == null) {
+                System.err.println("Aviso: Arquivo binário indisponível (" + arquivoBinario + "), usando o dataset compacto no heap.");
+                compacto = compactoHeap;
+            }
+        }
+        System.out.println("Dataset compacto " + (compacto.mapeado() ? "mapeado de " + arquivoBinario : "no heap") + ": " +
+                compacto.numAmostras() + " amostras, " + compacto.bytesOcupados() + " bytes de pixels e rotulos.");
+        return compacto;
+    }
+
+    private static DatasetBinarioUtils.FontesTexto fontesTexto(String caminhoX, ByteBuffer conteudoX,
+                                                              String caminhoY, ByteBuffer conteudoY) {
+        return new DatasetBinarioUtils.FontesTexto(conteudoX, ParserUtils.modificacaoRecurso(caminhoX),
+                conteudoY, ParserUtils.modificacaoRecurso(caminhoY));
+    }
+
+    /**
+     * Rótulos lidos do arquivo Y: índice da classe de cada amostra e a lista ordenada das classes.
+     */
+    private record RotulosTexto(int[] indices, List<Character> rotulosClasses) {
+    }
+
+    /**
+     * Converte os textos de X e Y em um bloco com todas as amostras.
+     *
+     * @return O bloco, ou `null` se os arquivos são inconsistentes.
+     */
+    private static BlocoDados lerTextos(ByteBuffer conteudoX, ByteBuffer conteudoY, String caminhoX, String caminhoY) {
+        RotulosTexto rotulos = lerRotulos(conteudoY);
+        if (rotulos == null) {
             return null;
         }
-        try (BufferedReader leitorX = new BufferedReader(new InputStreamReader(fluxoEntradaX))) {
-            String linha;
-            boolean primeiraLinhaX = true;
-            int contadorLinha = 0;
-            while ((linha = leitorX.readLine()) != null) {
-                contadorLinha++;
-                // Trata BOM
-                if (primeiraLinhaX && !linha.isEmpty() && linha.charAt(0) == '\uFEFF') {
-                    linha = linha.substring(1);
-                }
-                primeiraLinhaX = false;
-                if (linha.trim().isEmpty()) continue;
-
-                // Divide a linha por vírgula, permitindo espaços ao redor da vírgula
-                String[] valoresPixelStr = linha.trim().split("\\s*,\\s*");
-
-                // Remove o último elemento se estiver vazio (caso haja uma vírgula no final da linha)
-                if (valoresPixelStr.length > 0 && valoresPixelStr[valoresPixelStr.length - 1].isEmpty()) {
-                    valoresPixelStr = Arrays.copyOf(valoresPixelStr, valoresPixelStr.length - 1);
-                }
-
-                if (valoresPixelStr.length != numAtributosEntrada) {
-                    System.err.println("Conteúdo da linha problemática: [" + linha.trim() + "]");
-                    throw new IOException("Inconsistência no número de colunas na linha " + contadorLinha + " do arquivo X.");
-                }
-
-                // Converte a string de pixels para double[] (0.0 ou 1.0)
-                double[] linhaPixel = new double[numAtributosEntrada];
-                for (int i = 0; i < numAtributosEntrada; i++) {
-                    // Converte o valor lido ("-1" ou "1") para double e depois mapeia para 0.0 ou 1.0
-                    linhaPixel[i] = (Double.parseDouble(valoresPixelStr[i].trim()) + 1.0) / 2.0;
-                }
-                todasLinhasX.add(linhaPixel);
+        final int numTotalAmostras = rotulos.indices().length;
+
+        // X é lido direto dos bytes do arquivo (mapeado em memória quando está em disco), com as linhas convertidas em paralelo
+        double[] dadosX;
+        int numAtributosEntrada;
+        try {
+            ParserUtils.Linhas linhasX = localizarLinhasX(conteudoX, numTotalAmostras);
+            if (linhasX == null) {
+                return null;
             }
+            // Número de atributos (pixels) obtido da primeira linha; as demais devem ter o mesmo número de colunas
+            numAtributosEntrada = ParserUtils.contarColunas(conteudoX, linhasX.inicios()[0], linhasX.fins()[0]);
+            // Converte os pixels ("-1" ou "1") para 0.0 ou 1.0
+            dadosX = ParserUtils.lerPixels(linhasX, numAtributosEntrada, Runtime.getRuntime().availableProcessors());
         } catch (IOException e) {
+            ParserUtils.registrarLinhaProblematica(e);
             System.err.println("Erro de IO ao ler o arquivo de entradas X do classpath: " + caminhoX);
             e.printStackTrace();
             return null;
         }
 
-        if (todasLinhasX.size() != numTotalAmostras) {
-            System.err.println("Erro: Número final de amostras em X (" + todasLinhasX.size() +
-                    ") não coincide com Y (" + numTotalAmostras + "). Verifique os arquivos de dados.");
+        SimpleMatrix X_completo = SimpleMatrix.wrap(DMatrixRMaj.wrap(numTotalAmostras, numAtributosEntrada, dadosX));
+        return new BlocoDados(X_completo, rotulos.indices(), rotulos.rotulosClasses());
+    }
+
+    /**
+     * Converte os textos de X e Y direto em um conjunto compacto no heap: os pixels de cada linha de X são empacotados
+     * em bits durante a leitura, então a matriz densa (8 bytes por pixel) nunca é alocada.
+     *
+     * @return O conjunto, ou `null` se os arquivos são inconsistentes, a entrada não é binária ou há classes demais.
+     */
+    private static DatasetCompacto lerTextosCompacto(ByteBuffer conteudoX, ByteBuffer conteudoY, String caminhoX, String caminhoY) {
+        RotulosTexto rotulos = lerRotulos(conteudoY);
+        if (rotulos == null) {
             return null;
         }
-
-        List<double[]> todasLinhasYOneHot = new ArrayList<>();
-        for (String rotuloStr : linhasYBrutas) {
-            char rotuloChar = rotuloStr.charAt(0);
-            Integer indiceClasse = caractereParaIndice.get(rotuloChar);
-            double[] vetorOneHot = new double[numClasses]; // Cria vetor de zeros
-            vetorOneHot[indiceClasse] = 1.0; // Define 1.0 na posição correta
-            todasLinhasYOneHot.add(vetorOneHot);
+        final int numTotalAmostras = rotulos.indices().length;
+        if (rotulos.rotulosClasses().size() > DatasetCompacto.MAX_CLASSES) {
+            System.err.println("Erro: O dataset compacto aceita no máximo " + DatasetCompacto.MAX_CLASSES + " classes (" +
+                    rotulos.rotulosClasses().size() + " encontradas).");
+            return null;
         }
 
-        SimpleMatrix X_completo = new SimpleMatrix(numTotalAmostras, numAtributosEntrada);
-        SimpleMatrix Y_completo_one_hot = new SimpleMatrix(numTotalAmostras, numClasses);
+        long[] pixels;
+        int numAtributosEntrada;
+        try {
+            ParserUtils.Linhas linhasX = localizarLinhasX(conteudoX, numTotalAmostras);
+            if (linhasX == null) {
+                return null;
+            }
+            numAtributosEntrada = ParserUtils.contarColunas(conteudoX, linhasX.inicios()[0], linhasX.fins()[0]);
+            pixels = new long[numTotalAmostras * DatasetCompacto.palavrasPorAmostra(numAtributosEntrada)];
+            ParserUtils.lerPixelsBits(linhasX, numAtributosEntrada, Runtime.getRuntime().availableProcessors(), pixels);
+        } catch (IOException e) {
+            ParserUtils.registrarLinhaProblematica(e);
+            System.err.println("Erro de IO ao ler o arquivo de entradas X do classpath: " + caminhoX);
+            e.printStackTrace();
+            return null;
+        }
 
+        byte[] rotulosCompactos = new byte[numTotalAmostras];
         for (int i = 0; i < numTotalAmostras; i++) {
-            X_completo.setRow(i, 0, todasLinhasX.get(i));
-            Y_completo_one_hot.setRow(i, 0, todasLinhasYOneHot.get(i));
+            rotulosCompactos[i] = (byte) rotulos.indices()[i];
         }
+        return new DatasetCompacto(numAtributosEntrada, rotulos.rotulosClasses(), pixels, rotulosCompactos);
+    }
 
-        if (numAmostrasTeste + numAmostrasValidacao >= numTotalAmostras || numAmostrasTeste < 0 || numAmostrasValidacao < 0) {
-            System.err.println("Erro: Número inválido de amostras de teste (" + numAmostrasTeste +
-                    ") ou validacao (" + numAmostrasValidacao + ") para o total de amostras (" + numTotalAmostras + ").");
-            return null;
-        }
+    /**
+     * Lê os rótulos de Y (um caractere por linha) e os converte para o índice da classe na lista ordenada de classes.
+     *
+     * @return Os rótulos, ou `null` se o arquivo não tem nenhum rótulo.
+     */
+    private static RotulosTexto lerRotulos(ByteBuffer conteudoY) {
+        List<String> linhasYBrutas = new ArrayList<>();
+        List<Character> rotulosClasses = new ArrayList<>();
+        Map<Character, Integer> caractereParaIndice = new HashMap<>();
 
-        int indiceFimTreino = numTotalAmostras - numAmostrasTeste - numAmostrasValidacao;
-        int indiceFimValidacao = numTotalAmostras - numAmostrasTeste;
+        String textoY = StandardCharsets.UTF_8.decode(conteudoY.duplicate()).toString();
+        // Trata o BOM (Byte Order Mark) que pode estar presente na primeira linha
+        if (!textoY.isEmpty() && textoY.charAt(0) == '\uFEFF') {
+            textoY = textoY.substring(1); // Remove o BOM
+        }
+        Set<Character> caracteresUnicos = new HashSet<>(); // Usado para encontrar todas as classes únicas
+        textoY.lines().forEach(linha -> {
+            String rotuloStr = linha.trim();
+            if (!rotuloStr.isEmpty()) {
+                linhasYBrutas.add(rotuloStr);
+                caracteresUnicos.add(rotuloStr.charAt(0));
+            }
+        });
+        rotulosClasses.addAll(caracteresUnicos);
+        Collections.sort(rotulosClasses);
+        for (int i = 0; i < rotulosClasses.size(); i++) {
+            caractereParaIndice.put(rotulosClasses.get(i), i);
+        }
+        System.out.println("Classes identificadas (" + rotulosClasses.size() + "): " + rotulosClasses);
 
-        SimpleMatrix xTreino = X_completo.extractMatrix(0, indiceFimTreino, 0, X_completo.getNumCols());
-        SimpleMatrix yTreino = Y_completo_one_hot.extractMatrix(0, indiceFimTreino, 0, Y_completo_one_hot.getNumCols());
+        int numTotalAmostras = linhasYBrutas.size();
+        int numClasses = rotulosClasses.size();
 
-        SimpleMatrix xValidacao = X_completo.extractMatrix(indiceFimTreino, indiceFimValidacao, 0, X_completo.getNumCols());
-        SimpleMatrix yValidacao = Y_completo_one_hot.extractMatrix(indiceFimTreino, indiceFimValidacao, 0, Y_completo_one_hot.getNumCols());
+        if (numTotalAmostras == 0 || numClasses == 0) {
+            System.err.println("Erro: Nenhum rótulo ou classe válida encontrada no arquivo Y.");
+            return null;
+        }
 
-        SimpleMatrix xTeste = X_completo.extractMatrix(indiceFimValidacao, numTotalAmostras, 0, X_completo.getNumCols());
-        SimpleMatrix yTeste = Y_completo_one_hot.extractMatrix(indiceFimValidacao, numTotalAmostras, 0, Y_completo_one_hot.getNumCols());
+        int[] Y_completo = new int[numTotalAmostras];
+        for (int i = 0; i < numTotalAmostras; i++) {
+            Y_completo[i] = caractereParaIndice.get(linhasYBrutas.get(i).charAt(0));
+        }
+        return new RotulosTexto(Y_completo, rotulosClasses);
+    }
 
-        System.out.println("Dados carregados e divididos:");
-        System.out.println("xTreino:    " + xTreino.getNumRows() + "x" + xTreino.getNumCols());
-        System.out.println("yTreino:    " + yTreino.getNumRows() + "x" + yTreino.getNumCols());
-        System.out.println("xValidacao: " + xValidacao.getNumRows() + "x" + xValidacao.getNumCols());
-        System.out.println("yValidacao: " + yValidacao.getNumRows() + "x" + yValidacao.getNumCols());
-        System.out.println("xTeste:     " + xTeste.getNumRows() + "x" + xTeste.getNumCols());
-        System.out.println("yTeste:     " + yTeste.getNumRows() + "x" + yTeste.getNumCols());
-
-        return new Dataset(xTreino, yTreino, xValidacao, yValidacao, xTeste, yTeste, rotulosClasses, caractereParaIndice);
+    /**
+     * Localiza as linhas de X e confere que há uma por rótulo de Y.
+     *
+     * @return As linhas, ou `null` se X está vazio ou o número de amostras não coincide com Y.
+     */
+    private static ParserUtils.Linhas localizarLinhasX(ByteBuffer conteudoX, int numTotalAmostras) {
+        ParserUtils.Linhas linhasX = ParserUtils.localizarLinhas(conteudoX);
+        int numLinhasX = linhasX.quantidade();
+        if (numLinhasX == 0) {
+            System.err.println("Erro: Nenhuma amostra encontrada no arquivo X.");
+            return null;
+        }
+        if (numLinhasX != numTotalAmostras) {
+            System.err.println("Erro: Número final de amostras em X (" + numLinhasX +
+                    ") não coincide com Y (" + numTotalAmostras + "). Verifique os arquivos de dados.");
+            return null;
+        }
+        return linhasX;
     }
-}
\ No newline at end of file
+}
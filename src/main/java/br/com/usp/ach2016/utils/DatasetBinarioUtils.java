@@ -0,0 +1,368 @@
+package br.com.usp.ach2016.utils;
+
+import br.com.usp.ach2016.model.BlocoDados;
+import br.com.usp.ach2016.model.DatasetCompacto;
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.simple.SimpleMatrix;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Formato binário pré-convertido do conjunto de dados, gravado na primeira carga dos arquivos texto e
+ * mapeado em memória nas cargas seguintes.
+ * <p>
+ * Layout (little-endian; as seções começam em posições múltiplas de 8, para serem vistas como LongBuffer/DoubleBuffer):
+ * <pre>
+ * int    MAGIA ("MLPD")
+ * int    VERSAO_FORMATO
+ * long   checksum (CRC32C) dos arquivos texto de origem
+ * long   tamanho e data de modificação (ms) de X, tamanho e data de modificação de Y (-1: data desconhecida)
+ * int    numAmostras, int numAtributos, int numClasses
+ * int    formato dos pixels (PIXELS_BITS ou PIXELS_DOUBLE)
+ * char   rótulos das classes [numClasses]
+ * PIXELS_BITS (entrada binária e até 256 classes), o layout do {@link DatasetCompacto}:
+ *   byte   índice da classe de cada amostra [numAmostras]
+ *   long   pixels empacotados em bits [numAmostras * ceil(numAtributos / 64)], por amostra
+ * PIXELS_DOUBLE (demais casos):
+ *   int    índice da classe de cada amostra [numAmostras]
+ *   double pixels [numAmostras * numAtributos], por linha
+ * </pre>
+ * Com PIXELS_BITS, {@link #lerCompacto} devolve um DatasetCompacto apoiado direto nas páginas do arquivo mapeado
+ * (nenhuma cópia no heap; vários processos lendo o mesmo arquivo compartilham o cache de páginas), e o treino expande
+ * apenas o lote corrente. {@link #ler}, usado pelo carregamento denso (SimpleMatrix), copia os pixels para o heap.
+ * <p>
+ * O arquivo só é usado se os textos atuais são os mesmos de quando foi gravado: se o tamanho e a data de modificação
+ * de ambos coincidem, o arquivo é usado sem ler os textos; senão o checksum dos textos é calculado e comparado
+ * (ver {@link FontesTexto}). Se os textos mudaram, eles são lidos de novo e o arquivo é regravado.
+ */
+public class DatasetBinarioUtils {
+
+    static final String DIRETORIO_DATASETS_BINARIOS = IOUtils.DIRETORIO_SAIDA + "/datasets_binarios";
+
+    private static final int MAGIA = 0x44504C4D; // "MLPD" em little-endian
+    private static final int VERSAO_FORMATO = 3;
+    private static final int PIXELS_BITS = 1;
+    private static final int PIXELS_DOUBLE = 2;
+    private static final int MAX_CLASSES_BITS = 256; // Rótulos em um byte sem sinal
+    private static final int TAMANHO_CABECALHO = 4 + 4 + 8 + 4 * 8 + 4 + 4 + 4 + 4;
+
+    /**
+     * Cabeçalho validado de um arquivo mapeado, com as posições de cada seção.
+     */
+    private record Cabecalho(ByteBuffer conteudo, int numAmostras, int numAtributos, List<Character> rotulosClasses,
+                             int formatoPixels, int inicioRotulos, int inicioPixels) {
+    }
+
+    /**
+     * Arquivos texto de origem de um dataset binário: conteúdo e data de modificação de X e Y.
+     * O checksum, que percorre os textos inteiros, só é calculado na primeira vez que é pedido.
+     */
+    public static final class FontesTexto {
+        private final ByteBuffer conteudoX, conteudoY;
+        private final long modificacaoX, modificacaoY; // Milissegundos desde a época, ou -1 se desconhecida (ex.: jar)
+        private long checksum;
+        private boolean checksumCalculado;
+
+        public FontesTexto(ByteBuffer conteudoX, long modificacaoX, ByteBuffer conteudoY, long modificacaoY) {
+            this.conteudoX = conteudoX;
+            this.conteudoY = conteudoY;
+            this.modificacaoX = modificacaoX;
+            this.modificacaoY = modificacaoY;
+        }
+
+        public long checksum() {
+            if (!checksumCalculado) {
+                checksum = calcularChecksum(conteudoX, conteudoY);
+                checksumCalculado = true;
+            }
+            return checksum;
+        }
+
+        /**
+         * @return true se tamanho e data de modificação dos dois textos são conhecidos e iguais aos informados.
+         */
+        boolean metadadosIguais(long tamanhoX, long modificacaoX, long tamanhoY, long modificacaoY) {
+            return this.modificacaoX >= 0 && this.modificacaoY >= 0
+                    && tamanhoX == conteudoX.remaining() && modificacaoX == this.modificacaoX
+                    && tamanhoY == conteudoY.remaining() && modificacaoY == this.modificacaoY;
+        }
+    }
+
+    /**
+     * @return O arquivo binário correspondente ao par de arquivos texto (um por par de caminhos).
+     */
+    public static Path caminhoArquivo(String caminhoX, String caminhoY) {
+        String nome = (caminhoX + "+" + caminhoY).replaceAll("[^A-Za-z0-9._+-]", "_");
+        return Paths.get(DIRETORIO_DATASETS_BINARIOS, nome + ".bin");
+    }
+
+    /**
+     * Checksum dos arquivos texto de origem: CRC32C de X nos 32 bits altos e de Y nos baixos.
+     * Não altera a posição dos buffers.
+     */
+    public static long calcularChecksum(ByteBuffer conteudoX, ByteBuffer conteudoY) {
+        CRC32C crcX = new CRC32C();
+        crcX.update(conteudoX.duplicate());
+        CRC32C crcY = new CRC32C();
+        crcY.update(conteudoY.duplicate());
+        return (crcX.getValue() << 32) | crcY.getValue();
+    }
+
+    /**
+     * Mapeia o arquivo como conjunto compacto: os pixels e rótulos do DatasetCompacto são visões do arquivo mapeado
+     * (somente leitura), sem cópia para o heap.
+     *
+     * @return O conjunto, ou null se o arquivo não existe, é inválido, foi gerado a partir de outros textos
+     * ou não está no formato de bits (entrada não binária ou mais de 256 classes).
+     */
+    public static DatasetCompacto lerCompacto(Path arquivo, FontesTexto fontes) {
+        Cabecalho cabecalho = mapear(arquivo, fontes);
+        if (cabecalho == null || cabecalho.formatoPixels() != PIXELS_BITS) {
+            return null;
+        }
+        return criarCompacto(cabecalho, arquivo);
+    }
+
+    private static DatasetCompacto criarCompacto(Cabecalho cabecalho, Path arquivo) {
+        ByteBuffer conteudo = cabecalho.conteudo();
+        ByteBuffer rotulos = conteudo.slice(cabecalho.inicioRotulos(), cabecalho.numAmostras());
+        LongBuffer pixels = conteudo.slice(cabecalho.inicioPixels(), conteudo.limit() - cabecalho.inicioPixels())
+                .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        final int numClasses = cabecalho.rotulosClasses().size();
+        for (int i = 0; i < cabecalho.numAmostras(); i++) {
+            if ((rotulos.get(i) & 0xFF) >= numClasses) {
+                System.err.println("Arquivo de dataset binário com rótulo inválido, os textos serão lidos de novo: " + arquivo);
+                return null;
+            }
+        }
+        return new DatasetCompacto(cabecalho.numAtributos(), cabecalho.rotulosClasses(), pixels, rotulos);
+    }
+
+    /**
+     * Carrega o conjunto do arquivo binário para matrizes densas no heap (a SimpleMatrix precisa de um double[]:
+     * os pixels são expandidos/copiados do arquivo mapeado).
+     *
+     * @return O bloco de dados, ou null se o arquivo não existe, está corrompido, é de outra versão do formato
+     * ou foi gerado a partir de outros textos.
+     */
+    public static BlocoDados ler(Path arquivo, FontesTexto fontes) {
+        Cabecalho cabecalho = mapear(arquivo, fontes);
+        if (cabecalho == null) {
+            return null;
+        }
+        if (cabecalho.formatoPixels() == PIXELS_BITS) {
+            DatasetCompacto compacto = criarCompacto(cabecalho, arquivo);
+            if (compacto == null) {
+                return null;
+            }
+            return new BlocoDados(compacto.expandirEntradas(), compacto.rotulosComoIndices(), compacto.rotulosClasses());
+        }
+
+        final int numAmostras = cabecalho.numAmostras();
+        final int numClasses = cabecalho.rotulosClasses().size();
+        ByteBuffer conteudo = cabecalho.conteudo();
+        int[] y = new int[numAmostras];
+        conteudo.slice(cabecalho.inicioRotulos(), numAmostras * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(y);
+        for (int rotulo : y) {
+            if (rotulo < 0 || rotulo >= numClasses) {
+                System.err.println("Arquivo de dataset binário com rótulo inválido, os textos serão lidos de novo: " + arquivo);
+                return null;
+            }
+        }
+        double[] dadosX = new double[numAmostras * cabecalho.numAtributos()];
+        conteudo.slice(cabecalho.inicioPixels(), conteudo.limit() - cabecalho.inicioPixels())
+                .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(dadosX);
+        return new BlocoDados(SimpleMatrix.wrap(DMatrixRMaj.wrap(numAmostras, cabecalho.numAtributos(), dadosX)), y,
+                cabecalho.rotulosClasses());
+    }
+
+    /**
+     * Mapeia o arquivo (somente leitura) e valida o cabeçalho e o tamanho das seções.
+     *
+     * @return O cabeçalho, ou null se o arquivo não pode ser usado.
+     */
+    private static Cabecalho mapear(Path arquivo, FontesTexto fontes) {
+        if (!Files.isRegularFile(arquivo)) {
+            return null;
+        }
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            if (canal.size() < TAMANHO_CABECALHO || canal.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            // O mapeamento continua válido depois que o canal é fechado
+            ByteBuffer conteudo = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size()).order(ByteOrder.LITTLE_ENDIAN);
+            if (conteudo.getInt() != MAGIA || conteudo.getInt() != VERSAO_FORMATO) {
+                return null;
+            }
+            final long checksum = conteudo.getLong();
+            final long tamanhoX = conteudo.getLong(), modificacaoX = conteudo.getLong();
+            final long tamanhoY = conteudo.getLong(), modificacaoY = conteudo.getLong();
+            // Metadados iguais: os textos não mudaram, sem percorrê-los para o checksum
+            if (!fontes.metadadosIguais(tamanhoX, modificacaoX, tamanhoY, modificacaoY) && checksum != fontes.checksum()) {
+                return null;
+            }
+            final int numAmostras = conteudo.getInt();
+            final int numAtributos = conteudo.getInt();
+            final int numClasses = conteudo.getInt();
+            final int formatoPixels = conteudo.getInt();
+            if (numAmostras <= 0 || numAtributos <= 0 || numClasses <= 0
+                    || (formatoPixels != PIXELS_BITS && formatoPixels != PIXELS_DOUBLE)
+                    || (formatoPixels == PIXELS_BITS && numClasses > MAX_CLASSES_BITS)
+                    || tamanhoArquivo(numAmostras, numAtributos, numClasses, formatoPixels) != canal.size()) {
+                System.err.println("Arquivo de dataset binário inválido, os textos serão lidos de novo: " + arquivo);
+                return null;
+            }
+            List<Character> rotulosClasses = new ArrayList<>(numClasses);
+            for (int c = 0; c < numClasses; c++) {
+                rotulosClasses.add(conteudo.getChar());
+            }
+            int inicioRotulos = alinhar(conteudo.position());
+            int inicioPixels = alinhar(inicioRotulos + numAmostras * bytesPorRotulo(formatoPixels));
+            return new Cabecalho(conteudo, numAmostras, numAtributos, rotulosClasses, formatoPixels, inicioRotulos, inicioPixels);
+        } catch (IOException e) {
+            System.err.println("Erro ao ler o dataset binário " + arquivo + ", os textos serão lidos de novo: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static long tamanhoArquivo(int numAmostras, int numAtributos, int numClasses, int formatoPixels) {
+        long inicioRotulos = alinhar(TAMANHO_CABECALHO + (long) numClasses * Character.BYTES);
+        long inicioPixels = alinhar(inicioRotulos + (long) numAmostras * bytesPorRotulo(formatoPixels));
+        long bytesPixels = formatoPixels == PIXELS_BITS
+                ? (long) numAmostras * DatasetCompacto.palavrasPorAmostra(numAtributos) * Long.BYTES
+                : (long) numAmostras * numAtributos * Double.BYTES;
+        return inicioPixels + bytesPixels;
+    }
+
+    private static int bytesPorRotulo(int formatoPixels) {
+        return formatoPixels == PIXELS_BITS ? Byte.BYTES : Integer.BYTES;
+    }
+
+    private static int alinhar(int posicao) {
+        return (posicao + 7) & ~7;
+    }
+
+    private static long alinhar(long posicao) {
+        return (posicao + 7) & ~7L;
+    }
+
+    /**
+     * Grava o bloco no formato binário (PIXELS_BITS quando a entrada é binária e há até 256 classes).
+     * O arquivo é escrito em um temporário e movido de uma vez para o destino, então processos lendo ao mesmo tempo
+     * nunca veem um arquivo pela metade. Falhas apenas deixam de gravar o arquivo.
+     */
+    public static void gravar(Path arquivo, FontesTexto fontes, BlocoDados bloco) {
+        final int numAmostras = bloco.numAmostras();
+        final int numAtributos = bloco.x().getNumCols();
+        final int numClasses = bloco.rotulosClasses().size();
+        final double[] dadosX = bloco.x().getDDRM().data;
+        boolean pixelsBinarios = numClasses <= MAX_CLASSES_BITS;
+        for (int i = 0; i < numAmostras * numAtributos && pixelsBinarios; i++) {
+            pixelsBinarios = dadosX[i] == 0.0 || dadosX[i] == 1.0;
+        }
+        if (pixelsBinarios) {
+            gravar(arquivo, fontes, DatasetCompacto.deMatrizes(bloco.x(), bloco.y(), bloco.rotulosClasses()));
+            return;
+        }
+
+        ByteBuffer conteudo = iniciarConteudo(fontes, numAmostras, numAtributos, bloco.rotulosClasses(), PIXELS_DOUBLE);
+        if (conteudo == null) {
+            return;
+        }
+        for (int rotulo : bloco.y()) {
+            conteudo.putInt(rotulo);
+        }
+        conteudo.position(alinhar(conteudo.position()));
+        for (int i = 0; i < numAmostras * numAtributos; i++) {
+            conteudo.putDouble(dadosX[i]);
+        }
+        gravarConteudo(arquivo, conteudo);
+    }
+
+    /**
+     * Grava um conjunto compacto no formato PIXELS_BITS (mesmo layout dos buffers do DatasetCompacto).
+     */
+    public static void gravar(Path arquivo, FontesTexto fontes, DatasetCompacto compacto) {
+        final int numAmostras = compacto.numAmostras();
+        final int palavrasPorAmostra = DatasetCompacto.palavrasPorAmostra(compacto.numAtributos());
+        ByteBuffer conteudo = iniciarConteudo(fontes, numAmostras, compacto.numAtributos(), compacto.rotulosClasses(), PIXELS_BITS);
+        if (conteudo == null) {
+            return;
+        }
+        for (int i = 0; i < numAmostras; i++) {
+            conteudo.put((byte) compacto.rotulo(i));
+        }
+        conteudo.position(alinhar(conteudo.position()));
+        for (int i = 0; i < numAmostras; i++) {
+            for (int p = 0; p < palavrasPorAmostra; p++) {
+                conteudo.putLong(compacto.palavraPixels(i, p));
+            }
+        }
+        gravarConteudo(arquivo, conteudo);
+    }
+
+    /**
+     * Aloca o conteúdo do arquivo e escreve o cabeçalho e os rótulos das classes.
+     *
+     * @return O buffer posicionado após os rótulos das classes, ou null se o arquivo seria grande demais.
+     */
+    private static ByteBuffer iniciarConteudo(FontesTexto fontes, int numAmostras, int numAtributos, List<Character> rotulosClasses,
+                                              int formatoPixels) {
+        long tamanho = tamanhoArquivo(numAmostras, numAtributos, rotulosClasses.size(), formatoPixels);
+        if (tamanho > Integer.MAX_VALUE) {
+            System.err.println("Dataset grande demais para o formato binário (" + tamanho + " bytes), arquivo não gravado.");
+            return null;
+        }
+        ByteBuffer conteudo = ByteBuffer.allocate((int) tamanho).order(ByteOrder.LITTLE_ENDIAN);
+        conteudo.putInt(MAGIA).putInt(VERSAO_FORMATO).putLong(fontes.checksum())
+                .putLong(fontes.conteudoX.remaining()).putLong(fontes.modificacaoX)
+                .putLong(fontes.conteudoY.remaining()).putLong(fontes.modificacaoY)
+                .putInt(numAmostras).putInt(numAtributos).putInt(rotulosClasses.size())
+                .putInt(formatoPixels);
+        for (char rotulo : rotulosClasses) {
+            conteudo.putChar(rotulo);
+        }
+        conteudo.position(alinhar(conteudo.position()));
+        return conteudo;
+    }
+
+    private static void gravarConteudo(Path arquivo, ByteBuffer conteudo) {
+        final int tamanho = conteudo.capacity();
+        Path temporario = null;
+        try {
+            Files.createDirectories(arquivo.getParent());
+            temporario = Files.createTempFile(arquivo.getParent(), arquivo.getFileName().toString(), ".tmp");
+            Files.write(temporario, conteudo.array());
+            try {
+                Files.move(temporario, arquivo, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporario, arquivo, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temporario = null;
+            System.out.println("Dataset binário gravado em " + arquivo + " (" + tamanho + " bytes).");
+        } catch (IOException e) {
+            System.err.println("Erro ao gravar o dataset binário " + arquivo + ": " + e.getMessage());
+        } finally {
+            if (temporario != null) {
+                try {
+                    Files.deleteIfExists(temporario);
+                } catch (IOException e) {
+                    System.err.println("Erro ao remover o temporário " + temporario + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+}
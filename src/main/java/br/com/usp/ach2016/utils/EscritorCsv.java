@@ -0,0 +1,178 @@
+package br.com.usp.ach2016.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Escritor de arquivos CSV numéricos sem Formatter e sem boxing: os valores são formatados direto em um buffer
+ * de bytes grande, esvaziado no canal do arquivo quando enche.
+ * <p>
+ * A saída é idêntica, byte a byte, à de um PrintWriter sobre FileWriter com {@code String.format(Locale.US, "%.Nf", v)}
+ * e println: o Formatter arredonda (HALF_UP) os dígitos decimais de {@code Double.toString}, que só diferem do valor
+ * binário exato abaixo da metade de um ulp. Quando o valor escalado está longe o bastante de um empate (…5) para
+ * que essa diferença não mude o arredondamento, os dígitos são calculados em aritmética de long; os casos
+ * restantes (quase empates, valores grandes, NaN e infinitos) usam o próprio String.format.
+ */
+public final class EscritorCsv implements Closeable {
+
+    private static final int TAMANHO_BUFFER = 1 << 20;
+    private static final int MAXIMO_BYTES_NUMERO = 64; // Espaço garantido no buffer antes de formatar um número
+    private static final int MAXIMO_CASAS_DECIMAIS = 9;
+    // Caminho rápido só enquanto |v| * 10^casas < LIMITE_ESCALADO: o erro da multiplicação e a diferença entre
+    // o valor e os seus dígitos decimais ficam abaixo de ~1e-7 unidades da última casa, bem menos que MARGEM_EMPATE
+    private static final double LIMITE_ESCALADO = 1e9;
+    private static final double MARGEM_EMPATE = 1e-6;
+    private static final long[] POTENCIAS_10 = new long[MAXIMO_CASAS_DECIMAIS + 1];
+
+    static {
+        POTENCIAS_10[0] = 1;
+        for (int i = 1; i < POTENCIAS_10.length; i++) {
+            POTENCIAS_10[i] = POTENCIAS_10[i - 1] * 10;
+        }
+    }
+
+    private final FileChannel canal;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(TAMANHO_BUFFER);
+    // Mesma quebra de linha e mesma codificação de texto de PrintWriter/FileWriter
+    private final byte[] separadorLinha = System.lineSeparator().getBytes(Charset.defaultCharset());
+
+    /**
+     * Cria (ou trunca) o arquivo.
+     */
+    public EscritorCsv(String caminhoArquivo) throws IOException {
+        this.canal = FileChannel.open(Paths.get(caminhoArquivo),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Escreve um texto (ex.: cabeçalho). Caracteres ASCII vão direto para o buffer; os demais são codificados
+     * no charset padrão, como o FileWriter.
+     */
+    public void texto(String texto) throws IOException {
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            if (c >= 0x80) {
+                bytes(texto.substring(i).getBytes(Charset.defaultCharset()));
+                return;
+            }
+            garantirEspaco(1);
+            this.buffer.put((byte) c);
+        }
+    }
+
+    /**
+     * Escreve um caractere ASCII (ex.: o separador ',').
+     */
+    public void caractere(char c) throws IOException {
+        garantirEspaco(1);
+        this.buffer.put((byte) c);
+    }
+
+    /**
+     * Termina a linha com o separador de linha do sistema (como println).
+     */
+    public void novaLinha() throws IOException {
+        bytes(this.separadorLinha);
+    }
+
+    /**
+     * Escreve o valor com o mesmo texto de {@code String.format(Locale.US, "%.<casasDecimais>f", valor)}.
+     *
+     * @param casasDecimais De 0 a {@value #MAXIMO_CASAS_DECIMAIS}.
+     */
+    public void decimal(double valor, int casasDecimais) throws IOException {
+        if (casasDecimais < 0 || casasDecimais > MAXIMO_CASAS_DECIMAIS) {
+            throw new IllegalArgumentException("Casas decimais fora do intervalo suportado: " + casasDecimais);
+        }
+        double escalado = Math.abs(valor) * POTENCIAS_10[casasDecimais];
+        if (!(escalado < LIMITE_ESCALADO)) { // Também NaN
+            texto(String.format(Locale.US, "%." + casasDecimais + "f", valor));
+            return;
+        }
+        double parteInteira = Math.floor(escalado);
+        double fracao = escalado - parteInteira;
+        if (Math.abs(fracao - 0.5) < MARGEM_EMPATE) {
+            texto(String.format(Locale.US, "%." + casasDecimais + "f", valor));
+            return;
+        }
+        long unidades = (long) parteInteira + (fracao > 0.5 ? 1 : 0);
+
+        garantirEspaco(MAXIMO_BYTES_NUMERO);
+        if (Double.doubleToRawLongBits(valor) < 0) { // Inclusive -0.0 e negativos que arredondam para zero
+            this.buffer.put((byte) '-');
+        }
+        escreverInteiro(unidades / POTENCIAS_10[casasDecimais]);
+        if (casasDecimais > 0) {
+            this.buffer.put((byte) '.');
+            long resto = unidades % POTENCIAS_10[casasDecimais];
+            for (int casa = casasDecimais - 1; casa >= 0; casa--) {
+                this.buffer.put((byte) ('0' + (resto / POTENCIAS_10[casa]) % 10));
+            }
+        }
+    }
+
+    /**
+     * Escreve um inteiro em decimal (como {@code String.valueOf(valor)}).
+     */
+    public void inteiro(long valor) throws IOException {
+        garantirEspaco(MAXIMO_BYTES_NUMERO);
+        if (valor < 0) {
+            if (valor == Long.MIN_VALUE) {
+                texto(Long.toString(valor));
+                return;
+            }
+            this.buffer.put((byte) '-');
+            valor = -valor;
+        }
+        escreverInteiro(valor);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            esvaziar();
+        } finally {
+            this.canal.close();
+        }
+    }
+
+    private void escreverInteiro(long valor) {
+        long potencia = 1;
+        while (potencia <= valor / 10) {
+            potencia *= 10;
+        }
+        for (; potencia > 0; potencia /= 10) {
+            this.buffer.put((byte) ('0' + (valor / potencia) % 10));
+        }
+    }
+
+    private void bytes(byte[] conteudo) throws IOException {
+        int posicao = 0;
+        while (posicao < conteudo.length) {
+            garantirEspaco(1);
+            int quantidade = Math.min(this.buffer.remaining(), conteudo.length - posicao);
+            this.buffer.put(conteudo, posicao, quantidade);
+            posicao += quantidade;
+        }
+    }
+
+    private void garantirEspaco(int numBytes) throws IOException {
+        if (this.buffer.remaining() < numBytes) {
+            esvaziar();
+        }
+    }
+
+    private void esvaziar() throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining()) {
+            this.canal.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+}
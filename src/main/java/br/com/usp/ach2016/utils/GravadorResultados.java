@@ -0,0 +1,154 @@
+package br.com.usp.ach2016.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Gravação dos arquivos de resultados em uma thread dedicada, fora das threads de treino.
+ * As execuções enfileiram cada artefato (ex.: uma chamada de {@link IOUtils}) e seguem trabalhando; a thread de gravação
+ * executa os artefatos na ordem em que foram enfileirados. A fila é limitada: se a gravação não acompanha, quem
+ * enfileira espera (o disco não acumula trabalho sem limite em memória).
+ * <p>
+ * Cada execução agrupa os seus artefatos em um {@link GravacoesExecucao}, que expõe um future concluído quando todos
+ * foram gravados. Um artefato falha quando lança qualquer exceção (os métodos de {@link IOUtils} lançam
+ * UncheckedIOException); os seguintes da mesma execução não são gravados (ex.: o cache de resultados nunca recebe
+ * uma pasta incompleta). No encerramento da JVM, um gancho de shutdown espera a fila esvaziar
+ * (até {@link #ESPERA_MAXIMA_ENCERRAMENTO_MS}).
+ * <p>
+ * Os dados capturados por um artefato não podem mais ser alterados por quem o enfileirou.
+ */
+public class GravadorResultados {
+
+    private static final int CAPACIDADE_FILA = 64;
+    private static final long ESPERA_MAXIMA_ENCERRAMENTO_MS = 60_000;
+
+    private static final BlockingQueue<Runnable> fila = new ArrayBlockingQueue<>(CAPACIDADE_FILA);
+    private static final Object monitorPendentes = new Object();
+    private static int artefatosPendentes = 0; // Enfileirados e ainda não gravados (inclui o que está sendo gravado)
+    private static Thread threadGravacao;
+
+    /**
+     * Artefatos de uma execução.
+     */
+    public static final class GravacoesExecucao {
+        private final String nomeExecucao;
+        private final List<CompletableFuture<Void>> artefatos = new ArrayList<>();
+        private volatile Throwable falha; // Primeira falha de gravação da execução (escrita só pela thread de gravação)
+
+        private GravacoesExecucao(String nomeExecucao) {
+            this.nomeExecucao = nomeExecucao;
+        }
+
+        /**
+         * Enfileira um artefato. Espera se a fila estiver cheia. Não é thread-safe: os artefatos de uma execução
+         * são enfileirados por uma thread de cada vez, e concluidas() é chamado depois dos enfileiramentos.
+         *
+         * @param descricao Nome do artefato (para as mensagens de erro).
+         * @param gravacao  Código que grava o artefato, executado na thread de gravação.
+         */
+        public void gravar(String descricao, Runnable gravacao) {
+            CompletableFuture<Void> concluido = new CompletableFuture<>();
+            this.artefatos.add(concluido);
+            enfileirar(() -> {
+                if (this.falha != null) {
+                    concluido.completeExceptionally(new IllegalStateException("Artefato " + descricao + " de " + this.nomeExecucao +
+                            " não gravado: falha em um artefato anterior.", this.falha));
+                    return;
+                }
+                try {
+                    gravacao.run();
+                    concluido.complete(null);
+                } catch (Throwable e) { // Inclui Errors: o future do artefato sempre é concluído (ninguém espera para sempre)
+                    System.err.println("Erro ao gravar " + descricao + " de " + this.nomeExecucao + ": " + e);
+                    this.falha = e;
+                    concluido.completeExceptionally(e);
+                }
+            });
+        }
+
+        /**
+         * @return Future concluído quando todos os artefatos enfileirados até aqui foram gravados
+         * (excepcionalmente, se algum falhou).
+         */
+        public CompletableFuture<Void> concluidas() {
+            return CompletableFuture.allOf(this.artefatos.toArray(CompletableFuture<?>[]::new));
+        }
+    }
+
+    /**
+     * Inicia o grupo de artefatos de uma execução.
+     */
+    public static GravacoesExecucao novaExecucao(String nomeExecucao) {
+        return new GravacoesExecucao(nomeExecucao);
+    }
+
+    private static void enfileirar(Runnable artefato) {
+        synchronized (monitorPendentes) {
+            if (threadGravacao == null) {
+                threadGravacao = new Thread(GravadorResultados::executar, "gravacao-resultados");
+                threadGravacao.setDaemon(true);
+                threadGravacao.start();
+                Runtime.getRuntime().addShutdownHook(new Thread(GravadorResultados::aguardarFilaNoEncerramento, "gravacao-encerramento"));
+            }
+            artefatosPendentes++;
+        }
+        try {
+            fila.put(artefato);
+        } catch (InterruptedException e) {
+            concluirArtefato();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrompido aguardando espaço na fila de gravação.", e);
+        }
+    }
+
+    /**
+     * Laço da thread de gravação.
+     */
+    private static void executar() {
+        while (true) {
+            Runnable artefato;
+            try {
+                artefato = fila.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                artefato.run();
+            } finally {
+                concluirArtefato();
+            }
+        }
+    }
+
+    private static void concluirArtefato() {
+        synchronized (monitorPendentes) {
+            artefatosPendentes--;
+            monitorPendentes.notifyAll();
+        }
+    }
+
+    private static void aguardarFilaNoEncerramento() {
+        long limite = System.currentTimeMillis() + ESPERA_MAXIMA_ENCERRAMENTO_MS;
+        synchronized (monitorPendentes) {
+            if (artefatosPendentes > 0) {
+                System.out.println("Aguardando a gravação de " + artefatosPendentes + " artefato(s) de resultados...");
+            }
+            long restante;
+            while (artefatosPendentes > 0 && (restante = limite - System.currentTimeMillis()) > 0) {
+                try {
+                    monitorPendentes.wait(restante);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (artefatosPendentes > 0) {
+                System.err.println("Encerrando com " + artefatosPendentes + " artefato(s) de resultados não gravados.");
+            }
+        }
+    }
+}
@@ -5,12 +5,16 @@ import br.com.usp.ach2016.model.Dataset;
 import br.com.usp.ach2016.model.ParametrosRede;
 import br.com.usp.ach2016.model.ParametrosTreinamento;
 import br.com.usp.ach2016.model.ResultadoAnaliseConfusao;
+import br.com.usp.ach2016.model.ResultadoBusca;
+import br.com.usp.ach2016.model.ResumoExecucao;
 import org.ejml.simple.SimpleMatrix;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -37,14 +41,8 @@ public class IOUtils {
     }
 
     private static String criarDiretorioSeNaoExistir(String caminhoDiretorio, boolean flag) {
-        File dir = new File(caminhoDiretorio);
-        if (!dir.exists()) {
-            boolean success = dir.mkdirs();
-            if (success) {
-                return caminhoDiretorio;  // Retorna o diretório criado
-            } else {
-                return getString(caminhoDiretorio);
-            }
+        if (reivindicarDiretorio(Paths.get(caminhoDiretorio))) {
+            return caminhoDiretorio;  // Retorna o diretório criado
         }
         return getString(caminhoDiretorio);
     }
@@ -66,9 +64,8 @@ public class IOUtils {
 
             while (true) {
                 String novoCaminho = base + numero;
-                File novoDir = new File(novoCaminho);
-                if (!novoDir.exists()) {
-                    return criarDiretorioSeNaoExistir(novoCaminho, true);  // recursivo e retorna o nome criado
+                if (reivindicarDiretorio(Paths.get(novoCaminho))) {
+                    return novoCaminho;
                 }
                 numero++;
             }
@@ -77,6 +74,30 @@ public class IOUtils {
         return caminhoDiretorio;
     }
 
+    /**
+     * Cria o diretório de forma atômica (cria ou falha): entre execuções concorrentes que tentam o mesmo caminho,
+     * exatamente uma o cria e recebe true; as demais recebem false e devem tentar outro nome.
+     * Os diretórios pais são criados se necessário.
+     *
+     * @return true se este chamador criou o diretório; false se ele já existia.
+     * @throws IllegalStateException se o diretório não puder ser criado por outro motivo (ex.: permissão).
+     */
+    private static boolean reivindicarDiretorio(Path caminhoDiretorio) {
+        try {
+            Path pai = caminhoDiretorio.getParent();
+            if (pai != null) {
+                Files.createDirectories(pai);
+            }
+            Files.createDirectory(caminhoDiretorio);
+            System.out.println("Diretório criado: " + caminhoDiretorio);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } catch (IOException e) {
+            throw new IllegalStateException("Falha ao criar diretório: " + caminhoDiretorio, e);
+        }
+    }
+
     public static void criarPastaResultados() {
         criarDiretorioSeNaoExistir(DIRETORIO_SAIDA);
     }
@@ -85,6 +106,10 @@ public class IOUtils {
         return criarDiretorioSeNaoExistir(DIRETORIO_SAIDA + "/" + nomeExecucao, true);
     }
 
+    /**
+     * Reivindica a próxima pasta livre "execucaoN" de uma execução. A escolha de N é atômica:
+     * execuções iniciadas ao mesmo tempo (inclusive em threads diferentes) recebem pastas distintas.
+     */
     public static String criarPastaResultadosNExecucao(String nomeExecucao) {
         String caminhoBase = DIRETORIO_SAIDA + "/" + nomeExecucao;
 
@@ -92,16 +117,26 @@ public class IOUtils {
         Path caminhoExecucao;
         while (true) {
             caminhoExecucao = Paths.get(caminhoBase, "execucao" + contadorExecucao);
-            if (!Files.exists(caminhoExecucao)) {
+            if (reivindicarDiretorio(caminhoExecucao)) {
                 break;
             }
             contadorExecucao++;
         }
-        criarDiretorioSeNaoExistir(caminhoExecucao.toString());
 
         return caminhoExecucao.toString();
     }
 
+    /**
+     * Cria (se não existir) uma subpasta dentro da pasta de uma execução.
+     *
+     * @return O caminho da subpasta.
+     */
+    public static String criarSubpastaResultados(String caminhoPastaDaExecucao, String nomeSubpasta) {
+        String caminhoSubpasta = caminhoPastaDaExecucao + "/" + nomeSubpasta;
+        criarDiretorioSeNaoExistir(caminhoSubpasta);
+        return caminhoSubpasta;
+    }
+
     /**
      * Salva os pesos e biases iniciais em arquivos CSV no diretório de saída.
      */
@@ -117,8 +152,7 @@ public class IOUtils {
             pesosIniciaisW2.saveToFileCSV(caminhoPastaDaExecucao + "/pesos_iniciais_W2.csv");
             biasInicialB2.saveToFileCSV(caminhoPastaDaExecucao+ "/bias_inicial_b2.csv");
         } catch (IOException e) {
-            System.err.println("Erro ao salvar pesos iniciais: " + e.getMessage());
-            e.printStackTrace();
+            throw new UncheckedIOException("Erro ao salvar pesos iniciais: " + e.getMessage(), e);
         }
     }
 
@@ -136,8 +170,7 @@ public class IOUtils {
             W2.saveToFileCSV(caminhoPastaDaExecucao + "/pesos_finais_W2.csv");
             b2.saveToFileCSV(caminhoPastaDaExecucao + "/bias_final_b2.csv");
         } catch (IOException e) {
-            System.err.println("Erro ao salvar pesos finais: " + e.getMessage());
-            e.printStackTrace();
+            throw new UncheckedIOException("Erro ao salvar pesos finais: " + e.getMessage(), e);
         }
     }
 
@@ -160,7 +193,7 @@ public class IOUtils {
                                              final ResultadoAnaliseConfusao resultadoAnaliseConfusao) {
         System.out.println("--- Salvando Resultados do Teste (" + parametrosRede.nomeExecucao() + ") ---");
 
-        salvarSaidasTeste(caminhoPastaDaExecucao, dataset.xTeste(), saidasYPrevistas);
+        salvarSaidasTeste(caminhoPastaDaExecucao, dataset.teste().materializarX(), saidasYPrevistas);
 
         salvarRelatorioTesteDetalhado(
                 caminhoPastaDaExecucao,
@@ -174,19 +207,20 @@ public class IOUtils {
 
     /**
      * Salva o histórico de erros (MSE por época) em um arquivo CSV.
-     *
+     * Formatado pelo {@link EscritorCsv} (mesmo conteúdo de "%.8f" por linha, sem um Formatter por época).
      */
     public static void salvarHistoricoErro(final String caminhoPastaDaExecucao,
                                            final List<Double> historicoErro) {
         String caminhoArquivo = caminhoPastaDaExecucao + "/historico_erro.csv";
-        try (PrintWriter escritor = new PrintWriter(new FileWriter(caminhoArquivo))) {
-            escritor.println("Erro_Epoca");
-            for (Double erro : historicoErro) {
-                escritor.printf(Locale.US, "%.8f\n", erro);
+        try (EscritorCsv escritor = new EscritorCsv(caminhoArquivo)) {
+            escritor.texto("Erro_Epoca");
+            escritor.novaLinha();
+            for (int i = 0; i < historicoErro.size(); i++) {
+                escritor.decimal(historicoErro.get(i), 8);
+                escritor.caractere('\n');
             }
         } catch (IOException e) {
-            System.err.println("Erro ao salvar histórico de erros: " + e.getMessage());
-            e.printStackTrace();
+            throw new UncheckedIOException("Erro ao salvar histórico de erros: " + e.getMessage(), e);
         }
     }
 
@@ -211,45 +245,56 @@ public class IOUtils {
             escritor.println("Tamanho da Camada Escondida: " + parametrosRede.tamanhoCamadaEscondida());
             escritor.println("Tamanho da Camada de Saída: " + parametrosRede.tamanhoSaida());
             escritor.println("Função de Ativação (Escondida e Saída): Sigmoid");
+            escritor.println("Precisão Numérica: " + parametrosRede.precisao());
             escritor.println();
 
             escritor.println("--- Parâmetros de Inicialização e Treinamento ---");
             escritor.println("Semente Aleatória para Pesos (Random Seed): " + parametrosRede.sementeAleatoria());
             escritor.println("Taxa de Aprendizado (Learning Rate): " + String.format(Locale.US, "%.4f", parametrosTreinamento.taxaAprendizado()));
             escritor.println("Número de Épocas Alvo/Máximo: " + parametrosTreinamento.epocas());
-            escritor.println("Otimizador: Gradiente Descendente em Lote (Batch Gradient Descent)");
+            if (parametrosTreinamento.tamanhoLote() > 0) {
+                escritor.println("Otimizador: Gradiente Descendente Estocástico em Mini-Lotes (Mini-Batch SGD)");
+                escritor.println("Tamanho do Mini-Lote: " + parametrosTreinamento.tamanhoLote());
+                escritor.println("Semente do Embaralhamento: " + parametrosTreinamento.sementeEmbaralhamento());
+            } else {
+                escritor.println("Otimizador: Gradiente Descendente em Lote (Batch Gradient Descent)");
+            }
+            if (parametrosTreinamento.numThreads() > 1) {
+                escritor.println("Threads de Treinamento (paralelismo por blocos de linhas): " + parametrosTreinamento.numThreads());
+            }
 
             if (parametrosTreinamento.pacienciaParadaAntecipada() > 0) {
                 escritor.println("Parada Antecipada Ativada: Sim");
                 escritor.println("Paciência para Parada Antecipada: " + parametrosTreinamento.pacienciaParadaAntecipada() + " épocas");
+                escritor.println("Intervalo de Validação (assíncrona): " + parametrosTreinamento.intervaloValidacaoEfetivo() + " época(s)");
             } else {
                 escritor.println("Parada Antecipada Ativada: Não");
             }
             escritor.println();
+            verificarEscrita(escritor, caminhoArquivo);
 
             System.out.println("Hiperparâmetros salvos em " + caminhoArquivo);
 
         } catch (IOException e) {
-            System.err.println("Erro ao salvar hiperparâmetros: " + e.getMessage());
-            e.printStackTrace();
+            throw new UncheckedIOException("Erro ao salvar hiperparâmetros: " + e.getMessage(), e);
         }
     }
 
     /**
      * Realiza previsões no conjunto de teste e salva as entradas e as previsões correspondentes
      * em um arquivo CSV.
-     *
+     * Os valores são formatados pelo {@link EscritorCsv} (mesmo conteúdo de "%.8f" com Locale.US, sem String por célula).
      */
     public static void salvarSaidasTeste(final String caminhoPastaDaExecucao,
                                          final SimpleMatrix dadosXTeste,
                                          final SimpleMatrix saidasYPrevistas) {
         String caminhoArquivo = caminhoPastaDaExecucao + "/saidas_teste.csv";
         if (dadosXTeste.getNumRows() != saidasYPrevistas.getNumRows()) {
-            System.err.println("Erro: Número de linhas das entradas de teste e saídas previstas não coincidem ao salvar.");
-            return;
+            throw new IllegalArgumentException("Número de linhas das entradas de teste (" + dadosXTeste.getNumRows() +
+                    ") e das saídas previstas (" + saidasYPrevistas.getNumRows() + ") não coincidem ao salvar.");
         }
 
-        try (PrintWriter escritor = new PrintWriter(new FileWriter(caminhoArquivo))) {
+        try (EscritorCsv escritor = new EscritorCsv(caminhoArquivo)) {
             // Cria o cabeçalho do CSV
             StringBuilder cabecalho = new StringBuilder();
             for (int i = 0; i < dadosXTeste.getNumCols(); i++) {
@@ -258,24 +303,24 @@ public class IOUtils {
             for (int i = 0; i < saidasYPrevistas.getNumCols(); i++) {
                 cabecalho.append("Previsao_").append(i + 1).append(i == saidasYPrevistas.getNumCols() - 1 ? "" : ",");
             }
-            escritor.println(cabecalho.toString());
+            escritor.texto(cabecalho.toString());
+            escritor.novaLinha();
 
             for (int i = 0; i < dadosXTeste.getNumRows(); i++) { // Itera sobre as amostras
-                StringBuilder linha = new StringBuilder();
                 for (int j = 0; j < dadosXTeste.getNumCols(); j++) {
-                    linha.append(String.format(Locale.US, "%.8f", dadosXTeste.get(i, j))).append(","); // Usar Locale.US para ponto decimal
+                    escritor.decimal(dadosXTeste.get(i, j), 8);
+                    escritor.caractere(',');
                 }
                 for (int j = 0; j < saidasYPrevistas.getNumCols(); j++) {
-                    linha.append(String.format(Locale.US, "%.8f", saidasYPrevistas.get(i, j))); // Usar Locale.US para ponto decimal
+                    escritor.decimal(saidasYPrevistas.get(i, j), 8);
                     if (j < saidasYPrevistas.getNumCols() - 1) {
-                        linha.append(",");
+                        escritor.caractere(',');
                     }
                 }
-                escritor.println(linha.toString());
+                escritor.novaLinha();
             }
         } catch (IOException e) {
-            System.err.println("Erro ao salvar saídas de teste: " + e.getMessage());
-            e.printStackTrace();
+            throw new UncheckedIOException("Erro ao salvar saídas de teste: " + e.getMessage(), e);
         }
     }
 
@@ -302,9 +347,9 @@ public class IOUtils {
                 }
                 escritor.println();
             }
+            verificarEscrita(escritor, caminhoArquivo);
         } catch (IOException e) {
-            System.err.println("Erro ao salvar a matriz de confusão: " + e.getMessage());
-            e.printStackTrace();
+            throw new UncheckedIOException("Erro ao salvar a matriz de confusão: " + e.getMessage(), e);
         }
     }
 
@@ -341,8 +386,12 @@ public class IOUtils {
             escritor.println("Tamanho da Camada Escondida: " + parametrosRede.tamanhoCamadaEscondida());
             escritor.println("Tamanho da Saída: " + parametrosRede.tamanhoSaida());
             escritor.println("Semente Aleatória: " + parametrosRede.sementeAleatoria());
+            escritor.println("Precisão Numérica: " + parametrosRede.precisao());
             escritor.println("Taxa de Aprendizado: " + String.format(Locale.US, "%.4f", parametrosTreinamento.taxaAprendizado()));
             escritor.println("Número de Épocas: " + parametrosTreinamento.epocas());
+            if (parametrosTreinamento.tamanhoLote() > 0) {
+                escritor.println("Tamanho do Mini-Lote: " + parametrosTreinamento.tamanhoLote());
+            }
             if (parametrosTreinamento.pacienciaParadaAntecipada() > 0) {
                 escritor.println("Paciência Parada Antecipada: " + parametrosTreinamento.pacienciaParadaAntecipada());
             }
@@ -379,10 +428,86 @@ public class IOUtils {
                 escritor.println();
             }
             escritor.println("-----------------------------------------------------------------------"); // Linha separadora
+            verificarEscrita(escritor, caminhoArquivo);
 
         } catch (IOException e) {
-            System.err.println("Erro ao salvar o relatório detalhado: " + e.getMessage());
-            e.printStackTrace();
+            throw new UncheckedIOException("Erro ao salvar o relatório detalhado: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Salva o resultado da comparação entre os motores DOUBLE e FLOAT (acurácia no teste e tempo de treino).
+     */
+    public static void salvarComparacaoPrecisao(String caminhoPastaDaExecucao,
+                                                ParametrosRede parametrosRede,
+                                                ParametrosTreinamento parametrosTreinamento,
+                                                double acuraciaDouble, long duracaoDoubleMillis,
+                                                double acuraciaFloat, long duracaoFloatMillis,
+                                                double toleranciaAcuracia) {
+        String caminhoArquivo = caminhoPastaDaExecucao + "/comparacao_precisao.txt";
+        try (PrintWriter escritor = new PrintWriter(new FileWriter(caminhoArquivo))) {
+            double diferenca = Math.abs(acuraciaDouble - acuraciaFloat);
+            escritor.println("===========================================================");
+            escritor.println("        COMPARAÇÃO DE PRECISÃO (DOUBLE x FLOAT) - " + parametrosRede.nomeExecucao());
+            escritor.println("===========================================================");
+            escritor.println("Tamanho da Camada Escondida: " + parametrosRede.tamanhoCamadaEscondida());
+            escritor.println("Semente Aleatória: " + parametrosRede.sementeAleatoria());
+            escritor.println("Taxa de Aprendizado: " + String.format(Locale.US, "%.4f", parametrosTreinamento.taxaAprendizado()));
+            escritor.println("Número de Épocas: " + parametrosTreinamento.epocas());
+            escritor.println("Tamanho do Mini-Lote: " + (parametrosTreinamento.tamanhoLote() > 0 ? parametrosTreinamento.tamanhoLote() : "lote completo"));
+            escritor.println();
+            escritor.println(String.format(Locale.US, "DOUBLE: Acurácia Teste = %.2f%%, Tempo de Treinamento = %s",
+                    acuraciaDouble, MetricsUtils.formatarDuracao(duracaoDoubleMillis)));
+            escritor.println(String.format(Locale.US, "FLOAT:  Acurácia Teste = %.2f%%, Tempo de Treinamento = %s",
+                    acuraciaFloat, MetricsUtils.formatarDuracao(duracaoFloatMillis)));
+            escritor.println(String.format(Locale.US, "Diferença de Acurácia: %.2f p.p. (tolerância %.2f p.p.) -> %s",
+                    diferenca, toleranciaAcuracia, diferenca <= toleranciaAcuracia ? "PARIDADE OK" : "FORA DA TOLERÂNCIA"));
+            escritor.println(String.format(Locale.US, "Ganho de Vazão (tempo DOUBLE / tempo FLOAT): %.2fx",
+                    duracaoFloatMillis > 0 ? (double) duracaoDoubleMillis / duracaoFloatMillis : Double.NaN));
+            verificarEscrita(escritor, caminhoArquivo);
+            System.out.println("Comparação de precisão salva em " + caminhoArquivo);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao salvar a comparação de precisão: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Salva o placar da busca de hiperparâmetros (já ordenado: última rodada primeiro e, na rodada, menor erro primeiro) em um arquivo CSV.
+     */
+    public static void salvarPlacarBusca(String caminhoPastaDaExecucao, List<ResultadoBusca> placar) {
+        String caminhoArquivo = caminhoPastaDaExecucao + "/placar_busca.csv";
+        try (PrintWriter escritor = new PrintWriter(new FileWriter(caminhoArquivo))) {
+            escritor.println("Posicao,Configuracao,Camada_Escondida,Taxa_Aprendizado,Epocas,Rodada,Erro_Treino,Erro_Validacao,Acuracia_Validacao");
+            for (int i = 0; i < placar.size(); i++) {
+                ResultadoBusca resultado = placar.get(i);
+                escritor.printf(Locale.US, "%d,%d,%d,%.4f,%d,%d,%.8f,%.8f,%.2f\n", i + 1, resultado.configuracao(),
+                        resultado.tamanhoCamadaEscondida(), resultado.taxaAprendizado(), resultado.epocas(), resultado.rodada(),
+                        resultado.erroTreino(), resultado.erroValidacao(), resultado.acuraciaValidacao());
+            }
+            verificarEscrita(escritor, caminhoArquivo);
+            System.out.println("Placar da busca salvo em " + caminhoArquivo);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao salvar o placar da busca: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Salva o resumo das execuções rodadas pelo agendador (uma linha por execução, na ordem de agendamento).
+     */
+    public static void salvarResumoExecucoes(String caminhoPastaDoAgendador, List<ResumoExecucao> resumos, int permissoesCpu) {
+        String caminhoArquivo = caminhoPastaDoAgendador + "/resumo_execucoes.csv";
+        try (PrintWriter escritor = new PrintWriter(new FileWriter(caminhoArquivo))) {
+            escritor.println("# Permissoes de CPU: " + permissoesCpu);
+            escritor.println("Execucao,Pasta,Threads,Espera_ms,Duracao_ms,Sucesso,Erro");
+            for (ResumoExecucao resumo : resumos) {
+                escritor.printf(Locale.US, "%s,%s,%d,%d,%d,%s,%s\n", resumo.nomeExecucao(), resumo.caminhoPasta(),
+                        resumo.numThreads(), resumo.esperaMillis(), resumo.duracaoMillis(), resumo.sucesso(),
+                        resumo.mensagemErro() == null ? "" : "\"" + resumo.mensagemErro().replace("\"", "'") + "\"");
+            }
+            verificarEscrita(escritor, caminhoArquivo);
+            System.out.println("Resumo das execuções salvo em " + caminhoArquivo);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao salvar o resumo das execuções: " + e.getMessage(), e);
         }
     }
 
@@ -394,9 +519,19 @@ public class IOUtils {
             for (int i = 0; i < historicoDelta.size(); i++) {
                 escritor.printf(Locale.US, "%d,%.8e\n", i + 1, historicoDelta.get(i)); // %.8e para notação científica se os deltas ficarem mto pequenos
             }
+            verificarEscrita(escritor, caminhoArquivo);
             System.out.println("Histórico de delta de pesos salvo.");
         } catch (IOException e) {
-            System.err.println("Erro ao salvar histórico de delta de pesos para " + nomeCamada + ": " + e.getMessage());
+            throw new UncheckedIOException("Erro ao salvar histórico de delta de pesos para " + nomeCamada + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * O PrintWriter não lança exceções de escrita (só marca o erro); verifica o erro antes de considerar o arquivo salvo.
+     */
+    private static void verificarEscrita(PrintWriter escritor, String caminhoArquivo) throws IOException {
+        if (escritor.checkError()) {
+            throw new IOException("Falha de escrita em " + caminhoArquivo);
         }
     }
 }
@@ -2,15 +2,10 @@ package br.com.usp.ach2016.utils;
 
 import br.com.usp.ach2016.model.Dataset;
 import br.com.usp.ach2016.model.ResultadoAnaliseConfusao;
-import org.ejml.dense.row.CommonOps_DDRM;
 import org.ejml.simple.SimpleMatrix;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Random;
-
 import static br.com.usp.ach2016.utils.MetricsUtils.calcularAcuracia;
+import static br.com.usp.ach2016.utils.MetricsUtils.classePrevista;
 
 public class MatrixUtils {
 
@@ -24,7 +19,7 @@ public class MatrixUtils {
         int[] fns = new int[numClasses];
 
         int numTotalAmostras = previsoesTeste.getNumRows();
-        double acuraciaTeste = calcularAcuracia(dataset.yTeste(), previsoesTeste);
+        double acuraciaTeste = calcularAcuracia(dataset.teste().rotulos(), previsoesTeste);
         int numPredicoesCorretas = (int) Math.round((acuraciaTeste / 100.0) * numTotalAmostras);
 
         for (int i = 0; i < numClasses; i++) {
@@ -45,38 +40,25 @@ public class MatrixUtils {
     /**
      * Calcula a matriz de confusão para avaliar o desempenho da classificação.
      *
-     * @param yVerdadeiroOneHot Matriz dos rótulos verdadeiros no formato one-hot.
+     * @param rotulosVerdadeiros Índices das classes verdadeiras de cada amostra.
      * @param yPrevistoProbs Matriz das saídas da rede (probabilidades ou ativações).
      * @return Uma matriz 2D de inteiros representando a matriz de confusão (linhas=Real, colunas=Previsto).
      */
-    public static int[][] calcularMatrizConfusao(SimpleMatrix yVerdadeiroOneHot, SimpleMatrix yPrevistoProbs) {
-        int numClasses = yVerdadeiroOneHot.getNumCols();
-        int numAmostras = yVerdadeiroOneHot.getNumRows();
+    public static int[][] calcularMatrizConfusao(int[] rotulosVerdadeiros, SimpleMatrix yPrevistoProbs) {
+        int numClasses = yPrevistoProbs.getNumCols();
+        int numAmostras = rotulosVerdadeiros.length;
         int[][] matrizConfusao = new int[numClasses][numClasses];
 
         // Itera sobre cada amostra
         for (int i = 0; i < numAmostras; i++) {
-            // Encontra o índice da classe verdadeira (onde está o 1.0 no vetor one-hot)
-            int indiceReal = -1;
-            for (int j = 0; j < numClasses; j++) {
-                if (yVerdadeiroOneHot.get(i, j) == 1.0) {
-                    indiceReal = j;
-                    break;
-                }
-            }
+            // O índice da classe verdadeira é lido direto do rótulo
+            int indiceReal = rotulosVerdadeiros[i];
 
             // Encontra o índice da classe prevista (índice do maior valor na saída da rede)
-            int indicePrevisto = -1;
-            double valorMaximo = -Double.MAX_VALUE; // Começa com o menor valor possível
-            for (int j = 0; j < numClasses; j++) {
-                if (yPrevistoProbs.get(i, j) > valorMaximo) {
-                    valorMaximo = yPrevistoProbs.get(i, j);
-                    indicePrevisto = j;
-                }
-            }
+            int indicePrevisto = classePrevista(yPrevistoProbs, i);
 
             // Incrementa a célula correspondente na matriz de confusão se ambos os índices foram encontrados
-            if (indiceReal != -1 && indicePrevisto != -1) {
+            if (indiceReal >= 0 && indiceReal < numClasses && indicePrevisto != -1) {
                 matrizConfusao[indiceReal][indicePrevisto]++;
             } else {
                 System.err.println("Aviso: Não foi possível determinar índice real ou previsto para a amostra " + i + " na matriz de confusão.");
@@ -84,57 +66,4 @@ public class MatrixUtils {
         }
         return matrizConfusao;
     }
-
-    // --- Método Auxiliar para Combinar Matrizes Verticalmente (para k-fold) ---
-    public static SimpleMatrix combinarMatrizesVerticalmente(SimpleMatrix mat1, SimpleMatrix mat2) {
-        if (mat1 == null && mat2 == null) return null;
-        if (mat1 == null) return mat2.copy();
-        if (mat2 == null) return mat1.copy();
-
-        if (mat1.getNumCols() != mat2.getNumCols()) {
-            throw new IllegalArgumentException("Matrizes devem ter o mesmo número de colunas para combinar verticalmente.");
-        }
-
-        SimpleMatrix combinada = new SimpleMatrix(mat1.getNumRows() + mat2.getNumRows(), mat1.getNumCols());
-        CommonOps_DDRM.extract(mat1.getDDRM(), 0, mat1.getNumRows(), 0, mat1.getNumCols(), combinada.getDDRM(), 0, 0);
-        CommonOps_DDRM.extract(mat2.getDDRM(), 0, mat2.getNumRows(), 0, mat2.getNumCols(), combinada.getDDRM(), mat1.getNumRows(), 0);
-        return combinada;
-    }
-
-    public static void embaralharAleatoriamente(SimpleMatrix x, SimpleMatrix y, long semente) {
-        if (x.numRows() != y.numRows()) {
-            throw new IllegalArgumentException("Número de linhas de X e Y deve ser igual.");
-        }
-
-        int numAmostras = x.numRows();
-        List<Integer> indices = new ArrayList<>();
-        for (int i = 0; i < numAmostras; i++) {
-            indices.add(i);
-        }
-
-        Collections.shuffle(indices, new Random(semente));
-
-        SimpleMatrix xEmbaralhado = new SimpleMatrix(numAmostras, x.numCols());
-        SimpleMatrix yEmbaralhado = new SimpleMatrix(numAmostras, y.numCols());
-
-        for (int i = 0; i < numAmostras; i++) {
-            int idx = indices.get(i);
-            for (int j = 0; j < x.numCols(); j++) {
-                xEmbaralhado.set(i, j, x.get(idx, j));
-            }
-            for (int j = 0; j < y.numCols(); j++) {
-                yEmbaralhado.set(i, j, y.get(idx, j));
-            }
-        }
-
-        // Substitui os dados originais (altere se preferir retornar novos objetos)
-        for (int i = 0; i < numAmostras; i++) {
-            for (int j = 0; j < x.numCols(); j++) {
-                x.set(i, j, xEmbaralhado.get(i, j));
-            }
-            for (int j = 0; j < y.numCols(); j++) {
-                y.set(i, j, yEmbaralhado.get(i, j));
-            }
-        }
-    }
 }
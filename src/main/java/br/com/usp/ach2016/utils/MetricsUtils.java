@@ -2,25 +2,26 @@ package br.com.usp.ach2016.utils;
 
 import org.ejml.simple.SimpleMatrix;
 
+import java.lang.management.ManagementFactory;
 import java.util.concurrent.TimeUnit;
 
 public class MetricsUtils {
 
-    public static double calcularAcuracia(SimpleMatrix yVerdadeiroOneHot, SimpleMatrix yPrevistoProbs) {
-        if (yVerdadeiroOneHot.getNumRows() != yPrevistoProbs.getNumRows() || yVerdadeiroOneHot.getNumCols() != yPrevistoProbs.getNumCols()) {
-            throw new IllegalArgumentException("Dimensões das matrizes de rótulos e previsões devem ser iguais para calcular acurácia.");
+    // Obtido uma única vez: a consulta ao ManagementFactory aloca objetos e distorceria a própria medição
+    private static final java.lang.management.ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    public static double calcularAcuracia(int[] rotulosVerdadeiros, SimpleMatrix yPrevistoProbs) {
+        if (rotulosVerdadeiros.length != yPrevistoProbs.getNumRows()) {
+            throw new IllegalArgumentException("Número de rótulos e de linhas das previsões devem ser iguais para calcular acurácia.");
         }
-        int numAmostras = yVerdadeiroOneHot.getNumRows();
+        int numAmostras = rotulosVerdadeiros.length;
         if (numAmostras == 0) {
             return 0.0; // Evita divisão por zero
         }
 
         int predicoesCorretas = 0;
         for (int i = 0; i < numAmostras; i++) {
-            int indicePrevisto = encontrarIndiceMaximo(yPrevistoProbs.getRow(i));
-            int indiceReal = encontrarIndiceMaximo(yVerdadeiroOneHot.getRow(i));
-
-            if (indicePrevisto == indiceReal && indiceReal != -1) {
+            if (classePrevista(yPrevistoProbs, i) == rotulosVerdadeiros[i]) {
                 predicoesCorretas++;
             }
         }
@@ -28,13 +29,44 @@ public class MetricsUtils {
         return (double) predicoesCorretas / numAmostras * 100.0;
     }
 
-    // --- Método Auxiliar para Encontrar Índice do Máximo em um Vetor Linha (ou índice do 1.0) ---
-    private static int encontrarIndiceMaximo(SimpleMatrix vetorLinha) {
+    /**
+     * Calcula o erro quadrático médio das saídas da rede contra o one-hot dos rótulos,
+     * com a mesma definição do erro de treino da MLP: 0.5 * soma dos erros quadrados / número de amostras.
+     */
+    public static double calcularErroQuadraticoMedio(int[] rotulosVerdadeiros, SimpleMatrix yPrevistoProbs) {
+        if (rotulosVerdadeiros.length != yPrevistoProbs.getNumRows()) {
+            throw new IllegalArgumentException("Número de rótulos e de linhas das previsões devem ser iguais para calcular o erro.");
+        }
+        if (rotulosVerdadeiros.length == 0) {
+            return 0.0;
+        }
+        final double[] dados = yPrevistoProbs.getDDRM().data;
+        final int numCols = yPrevistoProbs.getNumCols();
+        double somaErrosQuadrados = 0;
+        for (int i = 0; i < rotulosVerdadeiros.length; i++) {
+            for (int j = 0; j < numCols; j++) {
+                double erro = (j == rotulosVerdadeiros[i] ? 1.0 : 0.0) - dados[i * numCols + j];
+                somaErrosQuadrados += erro * erro;
+            }
+        }
+        return (0.5 * somaErrosQuadrados) / rotulosVerdadeiros.length;
+    }
+
+    /**
+     * Retorna a classe prevista para uma amostra: o índice do maior valor da linha de saída da rede
+     * (lido direto do array da matriz, sem extrair a linha).
+     *
+     * @return O índice da classe, ou -1 se a linha não tiver valores comparáveis (ex.: todos NaN).
+     */
+    public static int classePrevista(SimpleMatrix yPrevistoProbs, int linha) {
+        final double[] dados = yPrevistoProbs.getDDRM().data;
+        final int numCols = yPrevistoProbs.getNumCols();
+        final int inicioLinha = linha * numCols;
         int indiceMax = -1;
         double valorMax = -Double.MAX_VALUE;
-        for (int j = 0; j < vetorLinha.getNumCols(); j++) {
-            if (vetorLinha.get(0, j) > valorMax) {
-                valorMax = vetorLinha.get(0, j);
+        for (int j = 0; j < numCols; j++) {
+            if (dados[inicioLinha + j] > valorMax) {
+                valorMax = dados[inicioLinha + j];
                 indiceMax = j;
             }
         }
@@ -53,4 +85,17 @@ public class MetricsUtils {
         millis -= TimeUnit.SECONDS.toMillis(segundos);
         return String.format("%02d:%02d:%02d.%03d", horas, minutos, segundos, millis);
     }
+
+    /**
+     * Retorna o total de bytes já alocados no heap pela thread atual (contador acumulado da JVM).
+     * A diferença entre duas leituras mede quanto um trecho de código alocou.
+     * Retorna 0 se a JVM não suportar a medição.
+     */
+    public static long bytesAlocadosThreadAtual() {
+        if (THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean threadMXBean
+                && threadMXBean.isThreadAllocatedMemorySupported()) {
+            return threadMXBean.getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
 }
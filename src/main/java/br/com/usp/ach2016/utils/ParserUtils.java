@@ -0,0 +1,385 @@
+package br.com.usp.ach2016.utils;
+
+import br.com.usp.ach2016.model.DatasetCompacto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Leitura de arquivos de valores separados por vírgula direto sobre os bytes, sem String por linha nem regex.
+ * O arquivo é mapeado em memória quando o recurso está em disco (ou lido de uma vez, quando está dentro de um jar);
+ * as linhas são localizadas em uma passada e os blocos de linhas são convertidos em paralelo (no ForkJoinPool comum,
+ * com a thread chamadora convertendo o primeiro bloco), cada thread escrevendo as suas linhas direto no array de destino. Os tokens "-1" e "1" são reconhecidos sem conversão;
+ * os demais passam por Double.parseDouble.
+ */
+public class ParserUtils {
+
+    // Abaixo disso a conversão roda na thread chamadora (distribuir as tarefas custa mais que converter as linhas)
+    private static final int LINHAS_POR_BLOCO_PARALELO = 4096;
+
+    /**
+     * Linhas não vazias de um arquivo: posição de início e de fim (exclusiva, sem o fim de linha) de cada uma
+     * e o número da linha no arquivo (a partir de 1), usado nas mensagens de erro.
+     */
+    public record Linhas(ByteBuffer conteudo, int[] inicios, int[] fins, int[] numerosLinha) {
+        public int quantidade() {
+            return inicios.length;
+        }
+    }
+
+    /**
+     * Lê um recurso do classpath como bytes: mapeado em memória (somente leitura) quando é um arquivo em disco,
+     * lido por completo quando não é (ex.: dentro de um jar).
+     *
+     * @return O conteúdo, ou null se o recurso não existe.
+     */
+    public static ByteBuffer lerRecurso(String caminho) throws IOException {
+        URL url = ParserUtils.class.getClassLoader().getResource(caminho);
+        if (url == null) {
+            return null;
+        }
+        if ("file".equals(url.getProtocol())) {
+            Path arquivo;
+            try {
+                arquivo = Path.of(url.toURI());
+            } catch (URISyntaxException e) {
+                throw new IOException("Caminho inválido para o recurso " + caminho + ": " + url, e);
+            }
+            try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+                if (canal.size() > Integer.MAX_VALUE) {
+                    throw new IOException("Arquivo grande demais para ser mapeado de uma vez: " + arquivo + " (" + canal.size() + " bytes).");
+                }
+                return canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            }
+        }
+        try (InputStream fluxo = url.openStream()) {
+            return ByteBuffer.wrap(fluxo.readAllBytes());
+        }
+    }
+
+    /**
+     * @return A data de modificação (milissegundos desde a época) do recurso, ou -1 se ele não é um arquivo em disco
+     * (ex.: dentro de um jar) ou a data não pode ser lida.
+     */
+    public static long modificacaoRecurso(String caminho) {
+        URL url = ParserUtils.class.getClassLoader().getResource(caminho);
+        if (url == null || !"file".equals(url.getProtocol())) {
+            return -1;
+        }
+        try {
+            return Files.getLastModifiedTime(Path.of(url.toURI())).toMillis();
+        } catch (IOException | URISyntaxException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Localiza as linhas com algum caractere além de espaços em branco, ignorando o BOM UTF-8 no início do arquivo.
+     * Os fins de linha aceitos são os mesmos de BufferedReader.readLine: '\n', '\r' sozinho e "\r\n".
+     */
+    public static Linhas localizarLinhas(ByteBuffer conteudo) {
+        final int tamanho = conteudo.limit();
+        int posicao = 0;
+        if (tamanho >= 3 && (conteudo.get(0) & 0xFF) == 0xEF && (conteudo.get(1) & 0xFF) == 0xBB && (conteudo.get(2) & 0xFF) == 0xBF) {
+            posicao = 3;
+        }
+        int capacidade = 1024;
+        int[] inicios = new int[capacidade], fins = new int[capacidade], numerosLinha = new int[capacidade];
+        int quantidade = 0, numeroLinha = 0;
+        while (posicao < tamanho) {
+            numeroLinha++;
+            int inicio = posicao;
+            boolean vazia = true;
+            while (posicao < tamanho) {
+                byte b = conteudo.get(posicao);
+                if (b == '\n' || b == '\r') {
+                    break;
+                }
+                if (vazia && !espaco(b)) {
+                    vazia = false;
+                }
+                posicao++;
+            }
+            if (!vazia) {
+                if (quantidade == capacidade) {
+                    capacidade *= 2;
+                    inicios = Arrays.copyOf(inicios, capacidade);
+                    fins = Arrays.copyOf(fins, capacidade);
+                    numerosLinha = Arrays.copyOf(numerosLinha, capacidade);
+                }
+                inicios[quantidade] = inicio;
+                fins[quantidade] = posicao;
+                numerosLinha[quantidade] = numeroLinha;
+                quantidade++;
+            }
+            // Pula o fim de linha ("\r\n" conta como um só)
+            if (posicao < tamanho && conteudo.get(posicao) == '\r' && posicao + 1 < tamanho && conteudo.get(posicao + 1) == '\n') {
+                posicao++;
+            }
+            posicao++;
+        }
+        return new Linhas(conteudo, Arrays.copyOf(inicios, quantidade), Arrays.copyOf(fins, quantidade),
+                Arrays.copyOf(numerosLinha, quantidade));
+    }
+
+    /**
+     * Converte cada linha em numColunas valores separados por vírgula (espaços ao redor das vírgulas e vírgulas
+     * no fim da linha são aceitos), mapeando -1/1 para 0.0/1.0 ((v + 1) / 2).
+     * Os blocos de linhas são convertidos em paralelo quando o arquivo é grande.
+     *
+     * @param numThreads Número máximo de blocos convertidos ao mesmo tempo (a thread chamadora e o ForkJoinPool comum).
+     * @return Os valores em ordem de linha (row-major), prontos para uma matriz [quantidade, numColunas].
+     * @throws IOException Se alguma linha não tem exatamente numColunas números.
+     */
+    public static double[] lerPixels(Linhas linhas, int numColunas, int numThreads) throws IOException {
+        final double[] destino = new double[linhas.quantidade() * numColunas];
+        lerPixels(linhas, numColunas, numThreads, destino);
+        return destino;
+    }
+
+    /**
+     * Idem, escrevendo em um array já alocado (ex.: o buffer reaproveitado de um bloco de leitura em fluxo).
+     *
+     * @param destino Array com pelo menos quantidade * numColunas posições; as posições seguintes não são alteradas.
+     */
+    public static void lerPixels(Linhas linhas, int numColunas, int numThreads, double[] destino) throws IOException {
+        if (destino.length < (long) linhas.quantidade() * numColunas) {
+            throw new IllegalArgumentException("Destino com " + destino.length + " posições para " + linhas.quantidade() +
+                    " linhas de " + numColunas + " colunas.");
+        }
+        converterEmBlocos(linhas, numColunas, numThreads, destino, null);
+    }
+
+    /**
+     * Idem, empacotando os pixels de cada linha em bits (formato de {@link DatasetCompacto}: bit c da linha l em
+     * destino[l * palavrasPorAmostra + c / 64]), sem passar por um array de doubles.
+     *
+     * @param destino Array com pelo menos quantidade * palavrasPorAmostra(numColunas) posições; as palavras de cada
+     *                linha são sobrescritas e as posições seguintes não são alteradas.
+     * @throws IOException Se alguma linha não tem exatamente numColunas números ou algum pixel não é -1/1 (0.0/1.0).
+     */
+    public static void lerPixelsBits(Linhas linhas, int numColunas, int numThreads, long[] destino) throws IOException {
+        if (destino.length < (long) linhas.quantidade() * DatasetCompacto.palavrasPorAmostra(numColunas)) {
+            throw new IllegalArgumentException("Destino com " + destino.length + " palavras para " + linhas.quantidade() +
+                    " linhas de " + numColunas + " colunas.");
+        }
+        converterEmBlocos(linhas, numColunas, numThreads, null, destino);
+    }
+
+    /**
+     * Converte as linhas em blocos (em paralelo quando o arquivo é grande) para `valores` ou, se for null, para `bits`.
+     */
+    private static void converterEmBlocos(Linhas linhas, int numColunas, int numThreads, double[] valores, long[] bits) throws IOException {
+        final int numBlocos = Math.max(1, Math.min(numThreads, linhas.quantidade() / LINHAS_POR_BLOCO_PARALELO));
+        if (numBlocos == 1) {
+            converterBloco(linhas, 0, linhas.quantidade(), numColunas, valores, bits);
+            return;
+        }
+
+        // Os blocos 1.. vão para o pool comum (sem criar threads por chamada); o bloco 0 é convertido aqui
+        List<Future<Void>> blocos = new ArrayList<>(numBlocos - 1);
+        boolean concluido = false;
+        try {
+            for (int bloco = 1; bloco < numBlocos; bloco++) {
+                final int inicio = (int) ((long) linhas.quantidade() * bloco / numBlocos);
+                final int fim = (int) ((long) linhas.quantidade() * (bloco + 1) / numBlocos);
+                blocos.add(ForkJoinPool.commonPool().submit(() -> {
+                    converterBloco(linhas, inicio, fim, numColunas, valores, bits);
+                    return null;
+                }));
+            }
+            converterBloco(linhas, 0, (int) ((long) linhas.quantidade() / numBlocos), numColunas, valores, bits);
+            for (Future<Void> bloco : blocos) {
+                bloco.get();
+            }
+            concluido = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Leitura interrompida.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException erroLeitura) {
+                throw erroLeitura;
+            }
+            throw new IllegalStateException("Falha inesperada na conversão das linhas.", e.getCause());
+        } finally {
+            if (!concluido) {
+                // Erro em um bloco: os blocos ainda não iniciados não precisam mais ser convertidos
+                for (Future<Void> bloco : blocos) {
+                    bloco.cancel(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Conta as colunas de uma linha: os valores não vazios separados por vírgula (vírgulas no fim da linha não contam).
+     * Usado para obter a largura da entrada a partir da primeira linha do arquivo.
+     *
+     * @param inicio Posição do primeiro byte da linha.
+     * @param fim    Posição final (exclusiva) da linha, sem o fim de linha.
+     */
+    public static int contarColunas(ByteBuffer conteudo, int inicio, int fim) {
+        int numColunas = 0;
+        boolean valorNaColuna = false;
+        for (int posicao = inicio; posicao < fim; posicao++) {
+            byte b = conteudo.get(posicao);
+            if (b == ',') {
+                valorNaColuna = false;
+            } else if (!valorNaColuna && !espaco(b)) {
+                valorNaColuna = true;
+                numColunas++;
+            }
+        }
+        return numColunas;
+    }
+
+    private static void converterBloco(Linhas linhas, int primeiraLinha, int fimLinhas, int numColunas,
+                                       double[] valores, long[] bits) throws IOException {
+        // Cada thread lê por uma cópia do buffer (posição/limite próprios; o conteúdo é compartilhado)
+        final ByteBuffer conteudo = linhas.conteudo().duplicate();
+        final int palavrasPorLinha = DatasetCompacto.palavrasPorAmostra(numColunas);
+        for (int l = primeiraLinha; l < fimLinhas; l++) {
+            final int fim = linhas.fins()[l];
+            final int base = l * numColunas;
+            final int basePalavras = l * palavrasPorLinha;
+            if (bits != null) {
+                Arrays.fill(bits, basePalavras, basePalavras + palavrasPorLinha, 0L);
+            }
+            int posicao = linhas.inicios()[l];
+            int coluna = 0;
+            while (true) {
+                posicao = pularEspacos(conteudo, posicao, fim);
+                int inicioToken = posicao;
+                while (posicao < fim && conteudo.get(posicao) != ',' && !espaco(conteudo.get(posicao))) {
+                    posicao++;
+                }
+                int fimToken = posicao;
+                posicao = pularEspacos(conteudo, posicao, fim);
+
+                if (fimToken == inicioToken) {
+                    // Token vazio: só é aceito como vírgula(s) sobrando no fim da linha
+                    if (coluna > 0 && somenteVirgulasEEspacos(conteudo, posicao, fim)) {
+                        break;
+                    }
+                    throw erroLinha(linhas, l, "valor vazio na coluna " + (coluna + 1));
+                }
+                if (posicao < fim && conteudo.get(posicao) != ',') {
+                    throw erroLinha(linhas, l, "valor inválido na coluna " + (coluna + 1));
+                }
+                if (coluna == numColunas) {
+                    throw erroLinha(linhas, l, "mais de " + numColunas + " colunas");
+                }
+                double pixel = converterPixel(conteudo, inicioToken, fimToken, linhas, l);
+                if (bits == null) {
+                    valores[base + coluna] = pixel;
+                } else if (pixel == 1.0) {
+                    bits[basePalavras + coluna / Long.SIZE] |= 1L << (coluna % Long.SIZE);
+                } else if (pixel != 0.0) {
+                    throw erroLinha(linhas, l, "valor não binário na coluna " + (coluna + 1));
+                }
+                coluna++;
+                if (posicao >= fim) {
+                    break;
+                }
+                posicao++; // Pula a vírgula
+            }
+            if (coluna != numColunas) {
+                throw erroLinha(linhas, l, coluna + " colunas em vez de " + numColunas);
+            }
+        }
+    }
+
+    private static double converterPixel(ByteBuffer conteudo, int inicio, int fim, Linhas linhas, int l) throws IOException {
+        final int tamanho = fim - inicio;
+        if (tamanho == 1 && conteudo.get(inicio) == '1') {
+            return 1.0;
+        }
+        if (tamanho == 2 && conteudo.get(inicio) == '-' && conteudo.get(inicio + 1) == '1') {
+            return 0.0;
+        }
+        // Caso geral (ex.: "1.0", "+1", "-1e0"): mesma conversão da leitura por String
+        byte[] token = new byte[tamanho];
+        conteudo.get(inicio, token);
+        String texto = new String(token, StandardCharsets.US_ASCII);
+        try {
+            return (Double.parseDouble(texto) + 1.0) / 2.0;
+        } catch (NumberFormatException e) {
+            throw erroLinha(linhas, l, "valor não numérico \"" + texto + "\"");
+        }
+    }
+
+    /**
+     * Imprime no stderr o conteúdo da linha que causou o erro (se o erro, ou alguma causa dele, veio da conversão).
+     * Só os leitores de arquivos chamam: entradas vindas de clientes (ServicoPrevisao) não vão para o log.
+     */
+    public static void registrarLinhaProblematica(Throwable erro) {
+        for (Throwable causa = erro; causa != null; causa = causa.getCause()) {
+            if (causa instanceof ErroLinha erroLinha) {
+                System.err.println("Conteúdo da linha problemática: [" + erroLinha.conteudoLinha() + "]");
+                return;
+            }
+        }
+    }
+
+    /**
+     * Linha com formato inválido; guarda o conteúdo da linha para {@link #registrarLinhaProblematica}.
+     */
+    public static final class ErroLinha extends IOException {
+        private static final long serialVersionUID = 1L;
+        private final String conteudoLinha;
+
+        private ErroLinha(String mensagem, String conteudoLinha) {
+            super(mensagem);
+            this.conteudoLinha = conteudoLinha;
+        }
+
+        public String conteudoLinha() {
+            return conteudoLinha;
+        }
+    }
+
+    private static IOException erroLinha(Linhas linhas, int l, String motivo) {
+        byte[] conteudoLinha = new byte[linhas.fins()[l] - linhas.inicios()[l]];
+        linhas.conteudo().get(linhas.inicios()[l], conteudoLinha);
+        return new ErroLinha("Inconsistência na linha " + linhas.numerosLinha()[l] + ": " + motivo + ".",
+                new String(conteudoLinha, StandardCharsets.UTF_8).trim());
+    }
+
+    private static int pularEspacos(ByteBuffer conteudo, int posicao, int fim) {
+        while (posicao < fim && espaco(conteudo.get(posicao))) {
+            posicao++;
+        }
+        return posicao;
+    }
+
+    private static boolean somenteVirgulasEEspacos(ByteBuffer conteudo, int posicao, int fim) {
+        for (; posicao < fim; posicao++) {
+            byte b = conteudo.get(posicao);
+            if (b != ',' && !espaco(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Mesmos caracteres de \s em regex (o '\r' de arquivos com fim de linha do Windows incluído).
+     */
+    public static boolean espaco(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == 0x0B || b == '\f';
+    }
+}
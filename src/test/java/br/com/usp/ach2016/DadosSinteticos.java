@@ -0,0 +1,43 @@
+package br.com.usp.ach2016;
+
+import br.com.usp.ach2016.model.VisaoDataset;
+import org.ejml.simple.SimpleMatrix;
+
+import java.util.Random;
+
+/**
+ * Dados pequenos e determinísticos para os testes (sem ler os arquivos do dataset nem gravar em resultados/):
+ * cada classe tem um padrão de pixels 0/1 sorteado e cada amostra é o padrão da sua classe com alguns pixels trocados.
+ */
+final class DadosSinteticos {
+
+    static final int NUM_ATRIBUTOS = 36;
+    static final int NUM_CLASSES = 4;
+    private static final double PROBABILIDADE_RUIDO = 0.1;
+
+    private DadosSinteticos() {
+    }
+
+    /**
+     * @return A visão com todas as amostras, as classes em sequência (0, 1, ..., NUM_CLASSES - 1, 0, 1, ...).
+     */
+    static VisaoDataset gerar(int numAmostras, long semente) {
+        Random aleatorio = new Random(semente);
+        boolean[][] padroes = new boolean[NUM_CLASSES][NUM_ATRIBUTOS];
+        for (boolean[] padrao : padroes) {
+            for (int j = 0; j < NUM_ATRIBUTOS; j++) {
+                padrao[j] = aleatorio.nextBoolean();
+            }
+        }
+        SimpleMatrix x = new SimpleMatrix(numAmostras, NUM_ATRIBUTOS);
+        int[] y = new int[numAmostras];
+        for (int i = 0; i < numAmostras; i++) {
+            y[i] = i % NUM_CLASSES;
+            for (int j = 0; j < NUM_ATRIBUTOS; j++) {
+                boolean pixel = padroes[y[i]][j] ^ (aleatorio.nextDouble() < PROBABILIDADE_RUIDO);
+                x.set(i, j, pixel ? 1.0 : 0.0);
+            }
+        }
+        return VisaoDataset.completa(x, y);
+    }
+}
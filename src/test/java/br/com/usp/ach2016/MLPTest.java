@@ -0,0 +1,153 @@
+package br.com.usp.ach2016;
+
+import br.com.usp.ach2016.model.ParametrosRede;
+import br.com.usp.ach2016.model.ParametrosTreinamento;
+import br.com.usp.ach2016.model.Precisao;
+import br.com.usp.ach2016.model.VisaoDataset;
+import org.ejml.simple.SimpleMatrix;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static br.com.usp.ach2016.utils.MetricsUtils.classePrevista;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MLPTest {
+
+    private static final int TAMANHO_CAMADA_ESCONDIDA = 12;
+    private static final long SEMENTE = 42L;
+    private static final double TOLERANCIA_FLOAT = 1e-4;
+
+    private final VisaoDataset dados = DadosSinteticos.gerar(240, 7L);
+    private final VisaoDataset treino = dados.fatia(0, 200);
+    private final VisaoDataset validacao = dados.fatia(200, 240);
+
+    @TempDir
+    Path pastaTemporaria;
+
+    @Test
+    void treinoRetomadoDoCheckpointIgualAoTreinoSemInterrupcao() {
+        // Mini-lotes com embaralhamento: o checkpoint precisa guardar também a permutação e o gerador
+        ParametrosTreinamento parametros = new ParametrosTreinamento(1.25, 20, 0, 16, 7L, 0);
+        assertRetomadaIdentica(parametros, null);
+    }
+
+    @Test
+    void treinoRetomadoDoCheckpointIgualComValidacaoAssincrona() {
+        // Paciência maior que o treino: a validação roda (e entra no checkpoint), mas não para o treino
+        ParametrosTreinamento parametros = new ParametrosTreinamento(1.25, 20, 1000, 16, 7L, 0);
+        MLP retomada = assertRetomadaIdentica(parametros, validacao);
+        assertEquals(20, retomada.historicoErroValidacao.size());
+    }
+
+    @Test
+    void estadoNoMarcoIgualAoTreinoAteOMarco() {
+        ParametrosTreinamento parametros = new ParametrosTreinamento(1.25, 20, 0, 16, 7L, 0);
+        int[] marcos = {7, 15};
+        Map<Integer, MLP> estadosMarcos = new HashMap<>();
+        MLP trajetoria = novaRede();
+        trajetoria.definirMarcosEpocas(marcos, epoca -> estadosMarcos.put(epoca, trajetoria.copiarEstado()));
+        trajetoria.treinar(treino, null, parametros);
+        assertEquals(Set.of(7, 15), estadosMarcos.keySet());
+
+        for (int marco : marcos) {
+            MLP treinadaAteOMarco = novaRede();
+            treinadaAteOMarco.treinar(treino, null, parametros.comEpocas(marco));
+            MLP estadoMarco = estadosMarcos.get(marco);
+            assertPesosIdenticos(treinadaAteOMarco, estadoMarco);
+            assertEquals(treinadaAteOMarco.historicoErro, estadoMarco.historicoErro);
+            // Os pesos iniciais acompanham a cópia (a pasta do marco também grava pesos_iniciais_*.csv)
+            assertArrayEquals(treinadaAteOMarco.pesosIniciaisW1.getDDRM().data, estadoMarco.pesosIniciaisW1.getDDRM().data);
+        }
+    }
+
+    @Test
+    void motorFloatAcompanhaOMotorDouble() {
+        // Lote completo e mini-lotes; as entradas 0/1 passam pelo caminho esparso nos dois motores
+        for (int tamanhoLote : new int[]{0, 16}) {
+            ParametrosTreinamento parametros = new ParametrosTreinamento(1.25, 100, 0, tamanhoLote, 7L, 0);
+            MLP redeDouble = novaRede(Precisao.DOUBLE);
+            redeDouble.treinar(treino, null, parametros);
+            MLP redeFloat = novaRede(Precisao.FLOAT);
+            redeFloat.treinar(treino, null, parametros);
+
+            SimpleMatrix entradas = dados.materializarX();
+            SimpleMatrix saidasDouble = redeDouble.extrairModeloInferencia().prever(entradas);
+            SimpleMatrix saidasFloat = redeFloat.extrairModeloInferencia().prever(entradas);
+            // Diferença observada ~1e-7 (arredondamento float32 acumulado no treino); a tolerância deixa margem
+            for (int i = 0; i < saidasDouble.getNumElements(); i++) {
+                assertEquals(saidasDouble.get(i), saidasFloat.get(i), TOLERANCIA_FLOAT, "saída " + i + " (lote " + tamanhoLote + ")");
+            }
+            assertArrayEquals(classesPrevistas(saidasDouble), classesPrevistas(saidasFloat), "lote " + tamanhoLote);
+            for (int epoca = 0; epoca < parametros.epocas(); epoca++) {
+                assertEquals(redeDouble.historicoErro.get(epoca), redeFloat.historicoErro.get(epoca), TOLERANCIA_FLOAT);
+            }
+        }
+    }
+
+    /**
+     * Interrompe um treino depois do checkpoint da época 10, retoma em outra rede e compara com um treino sem checkpoint.
+     *
+     * @return A rede retomada.
+     */
+    private MLP assertRetomadaIdentica(ParametrosTreinamento parametros, VisaoDataset validacaoTreino) {
+        Path arquivoCheckpoint = pastaTemporaria.resolve("treino.ckpt");
+
+        MLP interrompida = novaRede();
+        interrompida.definirCheckpoint(arquivoCheckpoint, 5);
+        interrompida.treinar(treino, validacaoTreino, parametros.comEpocas(12)); // Último checkpoint na época 10
+
+        MLP retomada = novaRede();
+        ByteArrayOutputStream logRetomada = new ByteArrayOutputStream();
+        retomada.definirSaidaLog(new PrintStream(logRetomada, true));
+        retomada.definirCheckpoint(arquivoCheckpoint, 5);
+        retomada.treinar(treino, validacaoTreino, parametros);
+        assertTrue(logRetomada.toString().contains("retomado do checkpoint"), "O treino não foi retomado do checkpoint.");
+
+        MLP continua = novaRede();
+        continua.treinar(treino, validacaoTreino, parametros);
+
+        assertPesosIdenticos(continua, retomada);
+        assertEquals(continua.historicoErro, retomada.historicoErro);
+        assertEquals(continua.historicoErroValidacao, retomada.historicoErroValidacao);
+        return retomada;
+    }
+
+    private MLP novaRede() {
+        return novaRede(Precisao.DOUBLE);
+    }
+
+    private MLP novaRede(Precisao precisao) {
+        MLP rede = new MLP(new ParametrosRede(DadosSinteticos.NUM_ATRIBUTOS, TAMANHO_CAMADA_ESCONDIDA,
+                DadosSinteticos.NUM_CLASSES, SEMENTE, "teste", precisao));
+        rede.definirSaidaLog(new PrintStream(OutputStream.nullOutputStream()));
+        return rede;
+    }
+
+    private static int[] classesPrevistas(SimpleMatrix saidas) {
+        int[] classes = new int[saidas.getNumRows()];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = classePrevista(saidas, i);
+        }
+        return classes;
+    }
+
+    /**
+     * Compara os pesos bit a bit (assertArrayEquals de double[] não usa tolerância).
+     */
+    private static void assertPesosIdenticos(MLP esperada, MLP obtida) {
+        assertArrayEquals(esperada.W1.getDDRM().data, obtida.W1.getDDRM().data, "W1");
+        assertArrayEquals(esperada.b1.getDDRM().data, obtida.b1.getDDRM().data, "b1");
+        assertArrayEquals(esperada.W2.getDDRM().data, obtida.W2.getDDRM().data, "W2");
+        assertArrayEquals(esperada.b2.getDDRM().data, obtida.b2.getDDRM().data, "b2");
+    }
+}
@@ -0,0 +1,78 @@
+package br.com.usp.ach2016;
+
+import br.com.usp.ach2016.model.ParametrosRede;
+import br.com.usp.ach2016.model.ParametrosTreinamento;
+import br.com.usp.ach2016.model.VisaoDataset;
+import org.ejml.simple.SimpleMatrix;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static br.com.usp.ach2016.utils.MetricsUtils.classePrevista;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ServicoPrevisaoTest {
+
+    private static final int NUM_THREADS_CLIENTES = 4;
+    private static final int TAMANHO_MAXIMO_LOTE = 16;
+    // Espera longa: os pedidos enfileirados em sequência sempre fecham lotes com mais de uma amostra
+    private static final long ESPERA_MAXIMA_MICROS = 50_000;
+
+    @Test
+    void respostasEmMicroLotesIguaisAoForwardDireto() throws Exception {
+        VisaoDataset dados = DadosSinteticos.gerar(240, 7L);
+        MLP rede = new MLP(new ParametrosRede(DadosSinteticos.NUM_ATRIBUTOS, 12, DadosSinteticos.NUM_CLASSES, 42L, "teste"));
+        rede.definirSaidaLog(new PrintStream(OutputStream.nullOutputStream()));
+        rede.treinar(dados, null, new ParametrosTreinamento(1.25, 20, 0));
+        ModeloInferencia modelo = rede.extrairModeloInferencia();
+
+        SimpleMatrix entradas = dados.materializarX();
+        SimpleMatrix saidasDiretas = modelo.prever(entradas);
+
+        ExecutorService clientes = Executors.newFixedThreadPool(NUM_THREADS_CLIENTES);
+        try (ServicoPrevisao servico = new ServicoPrevisao(modelo, List.of('A', 'B', 'C', 'D'), TAMANHO_MAXIMO_LOTE, ESPERA_MAXIMA_MICROS)) {
+            // Cada cliente pede as amostras i com i % NUM_THREADS_CLIENTES == cliente, sem esperar as respostas
+            List<Future<?>> verificacoes = new ArrayList<>();
+            for (int cliente = 0; cliente < NUM_THREADS_CLIENTES; cliente++) {
+                final int primeira = cliente;
+                verificacoes.add(clientes.submit(() -> {
+                    List<CompletableFuture<double[]>> saidas = new ArrayList<>();
+                    List<CompletableFuture<Integer>> classes = new ArrayList<>();
+                    for (int i = primeira; i < entradas.getNumRows(); i += NUM_THREADS_CLIENTES) {
+                        saidas.add(servico.prever(linha(entradas, i)));
+                        classes.add(servico.classificar(linha(entradas, i)));
+                    }
+                    for (int k = 0, i = primeira; i < entradas.getNumRows(); k++, i += NUM_THREADS_CLIENTES) {
+                        // O forward do lote calcula cada linha como o forward direto: mesmos bits
+                        assertArrayEquals(linha(saidasDiretas, i), saidas.get(k).join(), "amostra " + i);
+                        assertEquals(classePrevista(saidasDiretas, i), classes.get(k).join(), "amostra " + i);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> verificacao : verificacoes) {
+                verificacao.get();
+            }
+            assertTrue(servico.tamanhoMedioLote() > 1.0, "Pedidos não agrupados: lote médio " + servico.tamanhoMedioLote());
+        } finally {
+            clientes.shutdownNow();
+        }
+    }
+
+    private static double[] linha(SimpleMatrix matriz, int i) {
+        double[] valores = new double[matriz.getNumCols()];
+        for (int j = 0; j < valores.length; j++) {
+            valores[j] = matriz.get(i, j);
+        }
+        return valores;
+    }
+}